@@ -0,0 +1,32 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# 同步发奖 vs 异步发奖的上报延迟，每种模式跑一次，结果写到 deploy/loadtest/results/
+# 应用调大分钟级风控：
+#   --rewardflow.risk.max-reports-per-minute=100000 --rewardflow.risk.max-duration-per-minute=10000000
+# 模式由 feature center 切换（改 deploy/nacos/rewardflow-feature-switches.json 的 deferredAwardEnabled 后
+# bash deploy/nacos/publish_features.sh），用户前缀默认带上 label（REWARDFLOW_USER_PREFIX），两次不会互相把档位发完：
+#   REWARDFLOW_BENCH_LABEL=sync     bash deploy/loadtest/bench_deferred_award.sh
+#   REWARDFLOW_BENCH_LABEL=deferred bash deploy/loadtest/bench_deferred_award.sh
+# 对比 k6 summary 的 rf_cross_latency（需要发奖的上报）/ rf_plain_latency / http_req_duration，
+# 异步模式再看 rewardflow_deferred_award_lag（入队到发完）与 rewardflow_deferred_award_total{result}
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+LABEL=${REWARDFLOW_BENCH_LABEL:?set REWARDFLOW_BENCH_LABEL=sync|deferred}
+
+mkdir -p ./deploy/loadtest/results
+
+echo "Running deferred award bench: label=${LABEL} base=${BASE_URL} scene=${SCENE}"
+docker run --rm -i --network host \
+  -v "$(pwd)/deploy/loadtest:/work" -w /work \
+  -e REWARDFLOW_BASE_URL="${BASE_URL}" \
+  -e REWARDFLOW_SCENE="${SCENE}" \
+  -e REWARDFLOW_USER_PREFIX="${REWARDFLOW_USER_PREFIX:-da_${LABEL}_}" \
+  -e REWARDFLOW_RATE="${REWARDFLOW_RATE:-800}" \
+  -e REWARDFLOW_BENCH_DURATION="${REWARDFLOW_BENCH_DURATION:-2m}" \
+  grafana/k6 run --summary-export "results/deferred-award-${LABEL}.json" k6/play_report_deferred_award.js
+
+curl -fsS "${BASE_URL}/actuator/prometheus" \
+  | grep -E '^rewardflow_(deferred_award_|award_gate_total)' \
+  | tee "./deploy/loadtest/results/deferred-award-${LABEL}.metrics" || true
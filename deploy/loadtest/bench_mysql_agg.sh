@@ -0,0 +1,54 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# MySQL 聚合 range_sum vs upsert 对比，每种模式跑一次，结果写到 deploy/loadtest/results/
+# 应用需要关掉 Redis 聚合（否则竞争用户很快被判为高频），并调大分钟级风控：
+#   --rewardflow.play-daily-agg.redis-enabled=false
+#   --rewardflow.play-daily-agg.mysql-agg-mode=range_sum|upsert
+#   --rewardflow.risk.max-reports-per-minute=100000 --rewardflow.risk.max-duration-per-minute=10000000
+#   REWARDFLOW_BENCH_LABEL=range_sum bash deploy/loadtest/bench_mysql_agg.sh
+#   REWARDFLOW_BENCH_LABEL=upsert    bash deploy/loadtest/bench_mysql_agg.sh
+# 并发上报合并的对比同样用 range_sum，关闭的那次加 --rewardflow.report-coalesce.enabled=false：
+#   REWARDFLOW_BENCH_LABEL=coalesce    bash deploy/loadtest/bench_mysql_agg.sh
+#   REWARDFLOW_BENCH_LABEL=no_coalesce bash deploy/loadtest/bench_mysql_agg.sh
+# 吞吐/延迟看 k6 summary；行锁等待看 Innodb_row_lock_* 的差值；
+# 应用侧对比 rewardflow_db_tx_hold{stage="report"} 与 rewardflow_mysql_agg_latency{mode}，
+# 合并对比再看 rewardflow_mysql_agg_lock_wait{stage="select_for_update"} 与 rewardflow_report_coalesce_*
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+LABEL=${REWARDFLOW_BENCH_LABEL:?set REWARDFLOW_BENCH_LABEL=range_sum|upsert}
+MYSQL_CONTAINER=${REWARDFLOW_MYSQL_CONTAINER:-rewardflow-mysql}
+MYSQL_PWD=${REWARDFLOW_MYSQL_ROOT_PASSWORD:-root123}
+
+mkdir -p ./deploy/loadtest/results
+OUT="./deploy/loadtest/results/mysql-agg-${LABEL}"
+
+row_lock_status() {
+  docker exec -e MYSQL_PWD="${MYSQL_PWD}" "${MYSQL_CONTAINER}" \
+    mysql -uroot -N -e "SHOW GLOBAL STATUS LIKE 'Innodb_row_lock%'"
+}
+
+echo "Running mysql agg bench: label=${LABEL} base=${BASE_URL} scene=${SCENE}"
+row_lock_status > "${OUT}.before"
+
+docker run --rm -i --network host \
+  -v "$(pwd)/deploy/loadtest:/work" -w /work \
+  -e REWARDFLOW_BASE_URL="${BASE_URL}" \
+  -e REWARDFLOW_SCENE="${SCENE}" \
+  -e REWARDFLOW_VUS="${REWARDFLOW_VUS:-400}" \
+  -e REWARDFLOW_USERS="${REWARDFLOW_USERS:-200}" \
+  -e REWARDFLOW_BENCH_DURATION="${REWARDFLOW_BENCH_DURATION:-2m}" \
+  grafana/k6 run --summary-export "results/mysql-agg-${LABEL}.json" k6/play_report_mysql_agg.js
+
+row_lock_status > "${OUT}.after"
+
+# Innodb_row_lock_waits / Innodb_row_lock_time 是累计值，取差；_avg / _max / current_waits 直接看 after
+echo "Innodb row lock (${LABEL}):" | tee "${OUT}.txt"
+join "${OUT}.before" "${OUT}.after" | awk '
+  $1 ~ /lock_waits$|lock_time$/ { printf "  %-36s %12d\n", $1 " (delta)", $3 - $2; next }
+  { printf "  %-36s %12d\n", $1, $3 }' | tee -a "${OUT}.txt"
+
+curl -fsS "${BASE_URL}/actuator/prometheus" \
+  | grep -E '^rewardflow_(mysql_agg_lock_wait|report_coalesce_)' \
+  | tee "${OUT}.metrics" || true
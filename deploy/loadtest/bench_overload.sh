@@ -0,0 +1,30 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# 过载下的 goodput：开 / 关自适应并发限制各跑一次，结果写到 deploy/loadtest/results/
+# 应用调大分钟级风控，关闭限流那次加 --rewardflow.report-limiter.enabled=false：
+#   --rewardflow.risk.max-reports-per-minute=100000 --rewardflow.risk.max-duration-per-minute=10000000
+#   REWARDFLOW_BENCH_LABEL=limiter    bash deploy/loadtest/bench_overload.sh
+#   REWARDFLOW_BENCH_LABEL=no_limiter bash deploy/loadtest/bench_overload.sh
+# 对比 k6 summary 的 rf_goodput（SLO 内成功数）/ rf_ok_latency / rf_failed，
+# 以及应用侧 rewardflow_report_concurrency_limit、rewardflow_report_inflight、rewardflow_report_shed_total
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+LABEL=${REWARDFLOW_BENCH_LABEL:?set REWARDFLOW_BENCH_LABEL=limiter|no_limiter}
+
+mkdir -p ./deploy/loadtest/results
+
+echo "Running overload bench: label=${LABEL} base=${BASE_URL} scene=${SCENE}"
+docker run --rm -i --network host \
+  -v "$(pwd)/deploy/loadtest:/work" -w /work \
+  -e REWARDFLOW_BASE_URL="${BASE_URL}" \
+  -e REWARDFLOW_SCENE="${SCENE}" \
+  -e REWARDFLOW_PEAK_RATE="${REWARDFLOW_PEAK_RATE:-3000}" \
+  -e REWARDFLOW_SLO_MS="${REWARDFLOW_SLO_MS:-500}" \
+  -e REWARDFLOW_BENCH_DURATION="${REWARDFLOW_BENCH_DURATION:-2m}" \
+  grafana/k6 run --summary-export "results/overload-${LABEL}.json" k6/play_report_overload.js
+
+curl -fsS "${BASE_URL}/actuator/prometheus" \
+  | grep -E '^rewardflow_report_(concurrency_limit|inflight|shed_total)' \
+  | tee "./deploy/loadtest/results/overload-${LABEL}.metrics" || true
@@ -0,0 +1,24 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# 平台线程 vs 虚拟线程 2k 并发对比，每种模式跑一次，结果写到 deploy/loadtest/results/
+#   1) 平台线程：REWARDFLOW_VIRTUAL_THREADS=false 启动应用
+#      REWARDFLOW_BENCH_LABEL=platform bash deploy/loadtest/bench_virtual_threads.sh
+#   2) 虚拟线程：Java 21 + REWARDFLOW_VIRTUAL_THREADS=true 启动应用
+#      REWARDFLOW_BENCH_LABEL=virtual bash deploy/loadtest/bench_virtual_threads.sh
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+LABEL=${REWARDFLOW_BENCH_LABEL:?set REWARDFLOW_BENCH_LABEL=platform|virtual}
+
+mkdir -p ./deploy/loadtest/results
+echo "Running 2k concurrency bench: label=${LABEL} base=${BASE_URL} scene=${SCENE}"
+
+# 分钟级风控会拦住同一用户的高频上报，压测时需要把应用的 rewardflow.risk.max-* 调大
+docker run --rm -i --network host \
+  -v "$(pwd)/deploy/loadtest:/work" -w /work \
+  -e REWARDFLOW_BASE_URL="${BASE_URL}" \
+  -e REWARDFLOW_SCENE="${SCENE}" \
+  -e REWARDFLOW_VUS="${REWARDFLOW_VUS:-2000}" \
+  -e REWARDFLOW_BENCH_DURATION="${REWARDFLOW_BENCH_DURATION:-2m}" \
+  grafana/k6 run --summary-export "results/vt-${LABEL}.json" k6/play_report_2k.js
@@ -0,0 +1,58 @@
+import http from 'k6/http';
+import { check } from 'k6';
+
+// 2k 并发上报：对比平台线程 / 虚拟线程两种执行模式（见 docs/虚拟线程.md）
+// Run with:
+//   REWARDFLOW_BENCH_LABEL=platform bash deploy/loadtest/bench_virtual_threads.sh
+//   REWARDFLOW_BENCH_LABEL=virtual  bash deploy/loadtest/bench_virtual_threads.sh
+
+const vus = parseInt(__ENV.REWARDFLOW_VUS || '2000', 10);
+
+export const options = {
+  scenarios: {
+    warmup: {
+      executor: 'constant-vus',
+      vus: 200,
+      duration: '30s',
+      gracefulStop: '5s',
+    },
+    concurrent_reports: {
+      executor: 'constant-vus',
+      vus,
+      duration: __ENV.REWARDFLOW_BENCH_DURATION || '2m',
+      startTime: '35s',
+      gracefulStop: '10s',
+    },
+  },
+  thresholds: {
+    // 只统计正式阶段，预热不计入
+    'http_req_duration{scenario:concurrent_reports}': ['p(99)<2000'],
+    'http_req_failed{scenario:concurrent_reports}': ['rate<0.01'],
+  },
+  summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+};
+
+const base = __ENV.REWARDFLOW_BASE_URL || 'http://127.0.0.1:8080';
+const scene = __ENV.REWARDFLOW_SCENE || 'audio_play';
+
+function randInt(min, max) {
+  return Math.floor(Math.random() * (max - min + 1)) + min;
+}
+
+export default function () {
+  // 每个 VU 一个用户，不 sleep：保持 2k 个请求同时在途
+  const userId = `vt${__VU}`;
+  const soundId = `s${randInt(1, 1000)}`;
+  const duration = randInt(1, 5);
+  const syncTime = Date.now();
+
+  const res = http.post(
+    `${base}/api/v1/play/report`,
+    JSON.stringify({ userId, soundId, duration, syncTime, scene }),
+    { headers: { 'Content-Type': 'application/json' } },
+  );
+
+  check(res, {
+    'status is 200': (r) => r.status === 200,
+  });
+}
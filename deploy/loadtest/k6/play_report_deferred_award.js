@@ -0,0 +1,70 @@
+import http from 'k6/http';
+import { check } from 'k6';
+import { Rate, Trend } from 'k6/metrics';
+
+// 同步发奖 vs 异步发奖：每次上报 60~120 秒，平均两三次就跨一个档位，放大预览/发奖在上报链路里的占比
+// Run with:
+//   REWARDFLOW_BENCH_LABEL=sync     bash deploy/loadtest/bench_deferred_award.sh
+//   REWARDFLOW_BENCH_LABEL=deferred bash deploy/loadtest/bench_deferred_award.sh
+// rf_cross_latency 只统计需要发奖的上报（同步模式 awardPlans 非空 / 异步模式 awardPending=true），
+// rf_plain_latency 是其余上报
+
+const rate = parseInt(__ENV.REWARDFLOW_RATE || '800', 10);
+const users = parseInt(__ENV.REWARDFLOW_USERS || '20000', 10);
+const userPrefix = __ENV.REWARDFLOW_USER_PREFIX || 'da';
+
+const crossLatency = new Trend('rf_cross_latency', true);
+const plainLatency = new Trend('rf_plain_latency', true);
+const pendingRate = new Rate('rf_award_pending');
+
+export const options = {
+  scenarios: {
+    award_heavy: {
+      executor: 'constant-arrival-rate',
+      rate,
+      timeUnit: '1s',
+      duration: __ENV.REWARDFLOW_BENCH_DURATION || '2m',
+      preAllocatedVUs: parseInt(__ENV.REWARDFLOW_PREALLOCATED_VUS || '200', 10),
+      maxVUs: parseInt(__ENV.REWARDFLOW_MAX_VUS || '1000', 10),
+    },
+  },
+  thresholds: {
+    http_req_failed: ['rate<0.01'],
+  },
+  summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+};
+
+const base = __ENV.REWARDFLOW_BASE_URL || 'http://127.0.0.1:8080';
+const scene = __ENV.REWARDFLOW_SCENE || 'audio_play';
+
+function randInt(min, max) {
+  return Math.floor(Math.random() * (max - min + 1)) + min;
+}
+
+export default function () {
+  const userId = `${userPrefix}${randInt(1, users)}`;
+  const soundId = `s${randInt(1, 1000)}`;
+  const duration = randInt(60, 120);
+  const syncTime = Date.now();
+
+  const res = http.post(
+    `${base}/api/v1/play/report`,
+    JSON.stringify({ userId, soundId, duration, syncTime, scene }),
+    { headers: { 'Content-Type': 'application/json' } },
+  );
+
+  const ok = check(res, {
+    'status is 200': (r) => r.status === 200,
+  });
+  if (!ok) {
+    return;
+  }
+  const data = (res.json() || {}).data || {};
+  const pending = data.awardPending === true;
+  pendingRate.add(pending);
+  if (pending || (data.awardPlans && data.awardPlans.length > 0)) {
+    crossLatency.add(res.timings.duration);
+  } else {
+    plainLatency.add(res.timings.duration);
+  }
+}
@@ -0,0 +1,51 @@
+import http from 'k6/http';
+import { check } from 'k6';
+
+// MySQL 聚合 range_sum vs upsert：少量用户被大量 VU 并发上报，制造同一日汇总行上的锁竞争
+// Run with:
+//   REWARDFLOW_BENCH_LABEL=range_sum bash deploy/loadtest/bench_mysql_agg.sh
+//   REWARDFLOW_BENCH_LABEL=upsert    bash deploy/loadtest/bench_mysql_agg.sh
+
+const vus = parseInt(__ENV.REWARDFLOW_VUS || '400', 10);
+const users = parseInt(__ENV.REWARDFLOW_USERS || '200', 10);
+
+export const options = {
+  scenarios: {
+    contended_reports: {
+      executor: 'constant-vus',
+      vus,
+      duration: __ENV.REWARDFLOW_BENCH_DURATION || '2m',
+      gracefulStop: '10s',
+    },
+  },
+  thresholds: {
+    http_req_failed: ['rate<0.01'],
+  },
+  summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+};
+
+const base = __ENV.REWARDFLOW_BASE_URL || 'http://127.0.0.1:8080';
+const scene = __ENV.REWARDFLOW_SCENE || 'audio_play';
+
+function randInt(min, max) {
+  return Math.floor(Math.random() * (max - min + 1)) + min;
+}
+
+export default function () {
+  // 平均每个用户 vus / users 个请求同时在途，都落在同一行 user_play_daily 上
+  const userId = `ma${randInt(1, users)}`;
+  const soundId = `s${randInt(1, 1000)}`;
+  const duration = randInt(1, 5);
+  // 同一用户同一毫秒的上报按水位只计一条，两种模式口径相同
+  const syncTime = Date.now();
+
+  const res = http.post(
+    `${base}/api/v1/play/report`,
+    JSON.stringify({ userId, soundId, duration, syncTime, scene }),
+    { headers: { 'Content-Type': 'application/json' } },
+  );
+
+  check(res, {
+    'status is 200': (r) => r.status === 200,
+  });
+}
@@ -0,0 +1,83 @@
+import http from 'k6/http';
+import { check, sleep } from 'k6';
+import { Counter, Rate, Trend } from 'k6/metrics';
+
+// 过载下的有效吞吐（goodput）：到达率逐步升到远超容量，对比开 / 关自适应并发限制
+// Run with:
+//   REWARDFLOW_BENCH_LABEL=limiter    bash deploy/loadtest/bench_overload.sh
+//   REWARDFLOW_BENCH_LABEL=no_limiter bash deploy/loadtest/bench_overload.sh
+// goodput = 在 SLO（REWARDFLOW_SLO_MS）内成功的上报；被限流的请求（503 / 5031）按 Retry-After 退避后不重发，单独计数
+
+const peakRate = parseInt(__ENV.REWARDFLOW_PEAK_RATE || '3000', 10);
+const sloMs = parseInt(__ENV.REWARDFLOW_SLO_MS || '500', 10);
+const users = parseInt(__ENV.REWARDFLOW_USERS || '50000', 10);
+
+const goodput = new Counter('rf_goodput');
+const shed = new Counter('rf_shed');
+const slow = new Counter('rf_slow_ok');
+const failed = new Counter('rf_failed');
+const goodRate = new Rate('rf_good_rate');
+const okLatency = new Trend('rf_ok_latency', true);
+
+export const options = {
+  scenarios: {
+    overload: {
+      executor: 'ramping-arrival-rate',
+      startRate: Math.max(1, Math.floor(peakRate / 10)),
+      timeUnit: '1s',
+      preAllocatedVUs: parseInt(__ENV.REWARDFLOW_PREALLOCATED_VUS || '500', 10),
+      maxVUs: parseInt(__ENV.REWARDFLOW_MAX_VUS || '4000', 10),
+      stages: [
+        { target: Math.floor(peakRate / 3), duration: '30s' },
+        { target: peakRate, duration: '30s' },
+        { target: peakRate, duration: __ENV.REWARDFLOW_BENCH_DURATION || '2m' },
+        { target: Math.floor(peakRate / 10), duration: '30s' },
+      ],
+    },
+  },
+  summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+};
+
+const base = __ENV.REWARDFLOW_BASE_URL || 'http://127.0.0.1:8080';
+const scene = __ENV.REWARDFLOW_SCENE || 'audio_play';
+
+function randInt(min, max) {
+  return Math.floor(Math.random() * (max - min + 1)) + min;
+}
+
+export default function () {
+  const userId = `ov${randInt(1, users)}`;
+  const soundId = `s${randInt(1, 1000)}`;
+  const duration = randInt(1, 5);
+  const syncTime = Date.now();
+
+  const res = http.post(
+    `${base}/api/v1/play/report`,
+    JSON.stringify({ userId, soundId, duration, syncTime, scene }),
+    { headers: { 'Content-Type': 'application/json' }, timeout: '10s' },
+  );
+
+  if (res.status === 200) {
+    okLatency.add(res.timings.duration);
+    if (res.timings.duration <= sloMs) {
+      goodput.add(1);
+      goodRate.add(true);
+    } else {
+      slow.add(1);
+      goodRate.add(false);
+    }
+  } else if (res.status === 503) {
+    shed.add(1);
+    goodRate.add(false);
+    // 客户端按 Retry-After 退避（这个 VU 暂停，不再占并发）
+    const retryAfter = parseInt(res.headers['Retry-After'] || '1', 10);
+    sleep(Math.min(retryAfter, 5));
+  } else {
+    failed.add(1);
+    goodRate.add(false);
+  }
+
+  check(res, {
+    'ok or shed': (r) => r.status === 200 || r.status === 503,
+  });
+}
@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Redis 变慢（不是挂掉）时上报链路的表现：k6 持续压 play_report.js，期间对 Redis 间歇 DEBUG SLEEP 制造慢调用
+#   bash deploy/loadtest/redis_brownout.sh
+# 对照：应用加 --rewardflow.redis-breaker.enabled=false 再跑一次
+# 看 k6 的 p95/p99 和失败率，以及 rewardflow_redis_breaker_state{stage} / _transitions_total / _rejected_total、
+# rewardflow_agg_store_total{store="redis",result="fallback"}
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+REDIS_CONTAINER=${REWARDFLOW_REDIS_CONTAINER:-rewardflow-redis}
+# 每次卡住多久（秒）、两次之间隔多久（秒）、共注入多少轮
+SLEEP_SEC=${REWARDFLOW_REDIS_SLEEP_SEC:-0.2}
+GAP_SEC=${REWARDFLOW_REDIS_GAP_SEC:-0.05}
+ROUNDS=${REWARDFLOW_REDIS_ROUNDS:-200}
+WARMUP_SEC=${REWARDFLOW_WARMUP_SEC:-20}
+
+echo "Running redis brownout: base=${BASE_URL} scene=${SCENE} sleep=${SLEEP_SEC}s gap=${GAP_SEC}s rounds=${ROUNDS}"
+
+bash deploy/loadtest/run_k6.sh &
+K6_PID=$!
+trap 'kill ${K6_PID} 2>/dev/null || true' EXIT
+
+sleep "${WARMUP_SEC}"
+echo "inject redis slowness..."
+for _ in $(seq 1 "${ROUNDS}"); do
+  docker exec "${REDIS_CONTAINER}" redis-cli DEBUG SLEEP "${SLEEP_SEC}" > /dev/null
+  sleep "${GAP_SEC}"
+done
+echo "stop injecting, breaker should half-open and close after recovery-seconds"
+
+wait "${K6_PID}" || true
+trap - EXIT
+
+echo "breaker metrics:"
+curl -fsS "${BASE_URL}/actuator/prometheus" | grep -E '^rewardflow_(redis_breaker|agg_store_total)' || true
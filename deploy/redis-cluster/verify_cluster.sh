@@ -0,0 +1,73 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# 在本地 Redis Cluster 上验证 key 布局：上报 / 批量上报 / flush 都不出现 CROSSSLOT
+#
+# 1) docker compose -f deploy/redis-cluster/docker-compose.yml up -d
+# 2) 启动应用（MySQL 等依赖仍用根目录 docker-compose）：
+#      mvn -f rewardflow-app/pom.xml spring-boot:run -Dspring-boot.run.profiles=local,redis-cluster \
+#        2>&1 | tee /tmp/rewardflow-cluster.log
+# 3) REWARDFLOW_APP_LOG=/tmp/rewardflow-cluster.log deploy/redis-cluster/verify_cluster.sh
+
+BASE_URL=${REWARDFLOW_BASE_URL:-http://127.0.0.1:8080}
+SCENE=${REWARDFLOW_SCENE:-audio_play}
+USERS=${REWARDFLOW_VERIFY_USERS:-20}
+REPORTS=${REWARDFLOW_VERIFY_REPORTS:-15}
+FLUSH_WAIT=${REWARDFLOW_VERIFY_FLUSH_WAIT:-15}
+APP_LOG=${REWARDFLOW_APP_LOG:-}
+PORTS=(7001 7002 7003 7004 7005 7006)
+
+rcli() {
+  docker run --rm --network host redis:7.2 redis-cli "$@"
+}
+
+fail() {
+  echo "FAIL: $*" >&2
+  exit 1
+}
+
+rcli -p 7001 cluster info | grep -q 'cluster_state:ok' || fail "redis cluster is not ready"
+
+# 每个用户一分钟内上报 REPORTS 次（超过高频阈值，走 Redis 聚合 + 融合脚本），外加一次批量上报
+now=$(date +%s%3N)
+errors=0
+for u in $(seq 1 "$USERS"); do
+  for i in $(seq 1 "$REPORTS"); do
+    body=$(printf '{"userId":"cluster-u%s","soundId":"s%s","duration":10,"syncTime":%s,"scene":"%s"}' \
+      "$u" "$i" "$((now + i))" "$SCENE")
+    resp=$(curl -s -X POST "$BASE_URL/api/v1/play/report" -H 'Content-Type: application/json' -d "$body")
+    echo "$resp" | grep -q '"code":0' || { errors=$((errors + 1)); echo "report failed: $resp" >&2; }
+  done
+  batch=$(printf '{"items":[{"userId":"cluster-u%s","soundId":"b1","duration":5,"syncTime":%s,"scene":"%s"},{"userId":"cluster-u%s","soundId":"b2","duration":5,"syncTime":%s,"scene":"%s"}]}' \
+    "$u" "$((now + 100))" "$SCENE" "$u" "$((now + 101))" "$SCENE")
+  resp=$(curl -s -X POST "$BASE_URL/api/v1/play/report/batch" -H 'Content-Type: application/json' -d "$batch")
+  echo "$resp" | grep -q '"code":0' || { errors=$((errors + 1)); echo "batch report failed: $resp" >&2; }
+done
+[ "$errors" -eq 0 ] || fail "$errors report(s) failed"
+
+# 每个 (userId, scene) 的 key 都带 {rf:t}；同一个 tag 的 key 在同一个 slot（脏 tag 索引只存编号，不带 tag）
+keys=$(for p in "${PORTS[@]}"; do rcli -p "$p" --scan --pattern 'rf:*' 2>/dev/null || true; done | sort -u)
+[ -n "$keys" ] || fail "no rf:* keys found"
+untagged=$(echo "$keys" | grep -v '{rf:[0-9]*}' | grep -v '^rf:award:retry:' | grep -v '^rf:play:daily:dirty-tags:' || true)
+[ -z "$untagged" ] || fail "keys without hash tag: $untagged"
+for tag in $(echo "$keys" | grep -o '{rf:[0-9]*}' | sort -u); do
+  slots=$(echo "$keys" | grep -F "$tag" | while read -r k; do rcli -p 7001 cluster keyslot "$k"; done | sort -u | wc -l)
+  [ "$slots" -eq 1 ] || fail "tag $tag spans $slots slots"
+done
+echo "key layout ok: $(echo "$keys" | wc -l) keys, $(echo "$keys" | grep -o '{rf:[0-9]*}' | sort -u | wc -l) tags"
+
+# flush 之后所有脏集合应当排空，空的 tag 从索引移除
+sleep "$FLUSH_WAIT"
+pending=0
+for k in $(echo "$keys" | grep '^rf:play:daily:dirty'); do
+  n=$(rcli -c -p 7001 zcard "$k")
+  pending=$((pending + n))
+done
+[ "$pending" -eq 0 ] || fail "$pending dirty key(s) not flushed after ${FLUSH_WAIT}s"
+
+if [ -n "$APP_LOG" ]; then
+  if grep -q 'CROSSSLOT' "$APP_LOG"; then
+    fail "CROSSSLOT found in $APP_LOG"
+  fi
+fi
+echo "OK: no cross-slot errors, dirty sets drained"
@@ -0,0 +1,20 @@
+package com.rewardflow.api.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * 批量播放时长上报（客户端离线缓存的多个分段一次性补报）
+ *
+ * <p>允许包含多个 user/scene 的分段，每个分段的校验与幂等语义和单条上报一致
+ */
+public class PlayReportBatchRequest {
+
+  @NotEmpty
+  @Valid
+  private List<PlayReportRequest> items;
+
+  public List<PlayReportRequest> getItems() { return items; }
+  public void setItems(List<PlayReportRequest> items) { this.items = items; }
+}
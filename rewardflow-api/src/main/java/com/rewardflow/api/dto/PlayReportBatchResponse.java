@@ -0,0 +1,240 @@
+package com.rewardflow.api.dto;
+
+import java.util.List;
+
+/**
+ * 批量播放时长上报响应
+ *
+ * <p>items 与请求中的分段一一对应（按 index），groups 是按 (userId, scene, bizDate) 聚合后的累计时长与发奖结果
+ */
+public class PlayReportBatchResponse {
+  private String bizDate;
+  private String traceId;
+
+  private int acceptedCount;
+  private int duplicateCount;
+  private int rejectedCount;
+
+  private List<Item> items;
+  private List<Group> groups;
+
+  /** 单个分段的处理结果 */
+  public static class Item {
+    /** 请求中 items 的下标 */
+    private int index;
+    private boolean accepted;
+    private boolean duplicate;
+    private Long reportId;
+    /** 被拒绝时的业务错误码（与单条上报的 BizException code 一致）；明细已落库但所在分组聚合/发奖失败时为分组的错误码；成功为 0 */
+    private int code;
+    private String msg;
+
+    public int getIndex() {
+      return index;
+    }
+
+    public void setIndex(int index) {
+      this.index = index;
+    }
+
+    public boolean isAccepted() {
+      return accepted;
+    }
+
+    public void setAccepted(boolean accepted) {
+      this.accepted = accepted;
+    }
+
+    public boolean isDuplicate() {
+      return duplicate;
+    }
+
+    public void setDuplicate(boolean duplicate) {
+      this.duplicate = duplicate;
+    }
+
+    public Long getReportId() {
+      return reportId;
+    }
+
+    public void setReportId(Long reportId) {
+      this.reportId = reportId;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public void setCode(int code) {
+      this.code = code;
+    }
+
+    public String getMsg() {
+      return msg;
+    }
+
+    public void setMsg(String msg) {
+      this.msg = msg;
+    }
+  }
+
+  /** 单个 (userId, scene, bizDate) 的聚合与发奖结果 */
+  public static class Group {
+    private String userId;
+    private String scene;
+    private String bizDate;
+    private Integer totalDuration;
+    private Integer deltaDuration;
+    private String hitRuleVersion;
+    private Boolean grayHit;
+    private List<PlayReportResponse.RewardPlanItem> awardPlans;
+    private Boolean awardPending;
+    /** 分组聚合/发奖失败时的错误码（不影响其它分组），成功为 0 */
+    private int code;
+    private String msg;
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public void setUserId(String userId) {
+      this.userId = userId;
+    }
+
+    public String getScene() {
+      return scene;
+    }
+
+    public void setScene(String scene) {
+      this.scene = scene;
+    }
+
+    public String getBizDate() {
+      return bizDate;
+    }
+
+    public void setBizDate(String bizDate) {
+      this.bizDate = bizDate;
+    }
+
+    public Integer getTotalDuration() {
+      return totalDuration;
+    }
+
+    public void setTotalDuration(Integer totalDuration) {
+      this.totalDuration = totalDuration;
+    }
+
+    public Integer getDeltaDuration() {
+      return deltaDuration;
+    }
+
+    public void setDeltaDuration(Integer deltaDuration) {
+      this.deltaDuration = deltaDuration;
+    }
+
+    public String getHitRuleVersion() {
+      return hitRuleVersion;
+    }
+
+    public void setHitRuleVersion(String hitRuleVersion) {
+      this.hitRuleVersion = hitRuleVersion;
+    }
+
+    public Boolean getGrayHit() {
+      return grayHit;
+    }
+
+    public void setGrayHit(Boolean grayHit) {
+      this.grayHit = grayHit;
+    }
+
+    public List<PlayReportResponse.RewardPlanItem> getAwardPlans() {
+      return awardPlans;
+    }
+
+    public void setAwardPlans(List<PlayReportResponse.RewardPlanItem> awardPlans) {
+      this.awardPlans = awardPlans;
+    }
+
+    public Boolean getAwardPending() {
+      return awardPending;
+    }
+
+    public void setAwardPending(Boolean awardPending) {
+      this.awardPending = awardPending;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public void setCode(int code) {
+      this.code = code;
+    }
+
+    public String getMsg() {
+      return msg;
+    }
+
+    public void setMsg(String msg) {
+      this.msg = msg;
+    }
+  }
+
+  public String getBizDate() {
+    return bizDate;
+  }
+
+  public void setBizDate(String bizDate) {
+    this.bizDate = bizDate;
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public void setTraceId(String traceId) {
+    this.traceId = traceId;
+  }
+
+  public int getAcceptedCount() {
+    return acceptedCount;
+  }
+
+  public void setAcceptedCount(int acceptedCount) {
+    this.acceptedCount = acceptedCount;
+  }
+
+  public int getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  public void setDuplicateCount(int duplicateCount) {
+    this.duplicateCount = duplicateCount;
+  }
+
+  public int getRejectedCount() {
+    return rejectedCount;
+  }
+
+  public void setRejectedCount(int rejectedCount) {
+    this.rejectedCount = rejectedCount;
+  }
+
+  public List<Item> getItems() {
+    return items;
+  }
+
+  public void setItems(List<Item> items) {
+    this.items = items;
+  }
+
+  public List<Group> getGroups() {
+    return groups;
+  }
+
+  public void setGroups(List<Group> groups) {
+    this.groups = groups;
+  }
+}
@@ -26,6 +26,9 @@ public class PlayReportResponse {
   /** 奖励计划列表（仅预览，暂无下游） */
   private java.util.List<RewardPlanItem> awardPlans;  // 计划发表列表
 
+  /** 异步发奖场景：本次上报可能跨过新档位，发奖在后台处理中，awardPlans 为空 */
+  private Boolean awardPending;
+
   /** 每个阶段的奖励计划项 */
   public static class RewardPlanItem {
     private Integer stage;
@@ -199,4 +202,12 @@ public class PlayReportResponse {
   public void setAwardPlans(java.util.List<RewardPlanItem> awardPlans) {
     this.awardPlans = awardPlans;
   }
+
+  public Boolean getAwardPending() {
+    return awardPending;
+  }
+
+  public void setAwardPending(Boolean awardPending) {
+    this.awardPending = awardPending;
+  }
 }
@@ -0,0 +1,81 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.domain.rule.GrayMatcher;
+import com.rewardflow.domain.rule.model.RuleCenterConfig;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.jexl3.JexlBuilder;
+import org.apache.commons.jexl3.JexlEngine;
+import org.apache.commons.jexl3.JexlExpression;
+import org.apache.commons.jexl3.MapContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 灰度判断：原来每次请求 createExpression + 新建 vars 求值 vs 加载时预编译（分桶查表 / 编译好的脚本）
+ *
+ * <p>运行：先 mvn -DskipTests install，再 mvn -Pjmh -pl rewardflow-app test-compile exec:java
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraySelectionBenchmark {
+
+  @Param({"uid < 10", "uid < 10 || userId == 'u_white'"})
+  public String expr;
+
+  private final String[] userIds = {"u1001", "u1042", "u_abc", "u_white", "u9999", "user-x"};
+
+  private JexlEngine legacyJexl;
+  private GrayMatcher compiled;
+  private int i;
+
+  @Setup
+  public void setup() {
+    legacyJexl = new JexlBuilder().strict(true).silent(true).cache(256).create();
+    RuleCenterConfig.GrayRule gray = new RuleCenterConfig.GrayRule();
+    gray.setEnabled(true);
+    gray.setExpr(expr);
+    gray.setTargetRuleVersion("v2");
+    compiled = new JexlGrayCompiler().compile("audio_play", gray);
+  }
+
+  private String nextUser() {
+    i = (i + 1) % userIds.length;
+    return userIds[i];
+  }
+
+  @Benchmark
+  public boolean legacyPerRequestJexl() {
+    String userId = nextUser();
+    Map<String, Object> vars = new HashMap<>();
+    vars.put("uid", RuleSelectionService.bucketOf(userId));
+    vars.put("userId", userId);
+    try {
+      JexlExpression e = legacyJexl.createExpression(expr);
+      Object v = e.evaluate(new MapContext(vars));
+      return v instanceof Boolean b && b;
+    } catch (Exception ex) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  public boolean precompiledMatcher() {
+    String userId = nextUser();
+    return compiled.matches(RuleSelectionService.bucketOf(userId), userId);
+  }
+}
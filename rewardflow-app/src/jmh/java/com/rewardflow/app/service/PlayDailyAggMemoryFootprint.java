@@ -0,0 +1,92 @@
+package com.rewardflow.app.service;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import java.time.LocalDate;
+
+/**
+ * 日聚合状态每个 key 的内存：hash vs packed，用服务里真实的冷加载 / 记账脚本写入
+ *
+ * <p>不是 JMH 基准（测的是内存不是耗时），和基准放在一起只是为了不进应用 jar。会 FLUSHDB，请指向空的库：
+ * <pre>
+ * mvn -DskipTests install
+ * mvn -Pjmh -pl rewardflow-app test-compile exec:java \
+ *   -Dexec.mainClass=com.rewardflow.app.service.PlayDailyAggMemoryFootprint \
+ *   -Drf.redis=redis://127.0.0.1:6379/15 -Drf.keys=100000
+ * </pre>
+ * 输出两列：冷加载后 used_memory 增量 / key 数（含 key 本身、dict 与过期表开销），
+ * 记账一次后抽样 MEMORY USAGE 的平均值（单个 key + value）
+ */
+public final class PlayDailyAggMemoryFootprint {
+
+  private static final String SCENE = "audio_play";
+  private static final String DIRTY = "rf:bench:dirty";
+  private static final int SAMPLE = 1000;
+
+  private PlayDailyAggMemoryFootprint() {
+  }
+
+  public static void main(String[] args) {
+    String uri = System.getProperty("rf.redis", "redis://127.0.0.1:6379/15");
+    int n = Integer.getInteger("rf.keys", 100_000);
+    LocalDate bizDate = LocalDate.now();
+    long ttlMs = 172_800_000L;
+    // 与线上同等长度的位图：两种奖品各发过几档
+    String mask = "COIN:7;VIP_DAY:1";
+
+    RedisClient client = RedisClient.create(uri);
+    try (StatefulRedisConnection<String, String> conn = client.connect()) {
+      RedisCommands<String, String> cmd = conn.sync();
+      String initSha = cmd.scriptLoad(PlayDailyRedisAggService.INIT_IF_ABSENT_SCRIPT);
+      String recordSha = cmd.scriptLoad(PlayDailyRedisAggService.RECORD_SCRIPT);
+      System.out.printf("%-8s %8s %16s %20s %8s%n", "format", "keys", "used_memory/key", "MEMORY USAGE(avg)", "keyLen");
+      for (String format : new String[] {"hash", "packed"}) {
+        cmd.flushdb();
+        long before = usedMemory(cmd);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+          String key = key(format, i, bizDate);
+          cmd.evalsha(initSha, ScriptOutputType.INTEGER, new String[] {key},
+              String.valueOf(3600 + i % 7200), String.valueOf(now - 60_000L), String.valueOf(now),
+              String.valueOf(ttlMs), mask, "4");
+        }
+        long perKey = (usedMemory(cmd) - before) / Math.max(1, n);
+
+        int sample = Math.min(SAMPLE, n);
+        long usage = 0L;
+        int keyLen = 0;
+        for (int i = 0; i < sample; i++) {
+          String key = key(format, i, bizDate);
+          cmd.evalsha(recordSha, ScriptOutputType.MULTI, new String[] {key, DIRTY},
+              "30", String.valueOf(now + i), String.valueOf(now), String.valueOf(ttlMs));
+          Long u = cmd.memoryUsage(key);
+          usage += u == null ? 0L : u;
+          keyLen += key.length();
+        }
+        System.out.printf("%-8s %8d %16d %20d %8d%n", format, n, perKey, usage / Math.max(1, sample),
+            keyLen / Math.max(1, sample));
+      }
+      cmd.flushdb();
+    } finally {
+      client.shutdown();
+    }
+  }
+
+  private static String key(String format, int i, LocalDate bizDate) {
+    String userId = "u" + (10_000_000 + i);
+    String tag = RedisKeyLayout.tagOf(Math.floorMod((SCENE + ":" + userId).hashCode(), RedisKeyLayout.TAGS));
+    return "packed".equals(format) ? PlayDailyAggCodec.packedKey(tag, userId, SCENE, bizDate)
+        : PlayDailyAggCodec.hashKey(tag, userId, SCENE, bizDate);
+  }
+
+  private static long usedMemory(RedisCommands<String, String> cmd) {
+    for (String line : cmd.info("memory").split("\r?\n")) {
+      if (line.startsWith("used_memory:")) {
+        return Long.parseLong(line.substring("used_memory:".length()).trim());
+      }
+    }
+    return 0L;
+  }
+}
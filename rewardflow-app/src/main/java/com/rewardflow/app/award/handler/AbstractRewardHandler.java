@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rewardflow.api.dto.PlayReportResponse;
 import com.rewardflow.app.award.model.IssueResult;
 import com.rewardflow.app.award.model.RewardIssueContext;
+import com.rewardflow.app.service.AwardedStageMaskService;
 import com.rewardflow.infra.mysql.entity.RewardFlowDO;
 import com.rewardflow.infra.mysql.entity.RewardOutboxDO;
 import com.rewardflow.infra.mysql.mapper.RewardFlowMapper;
@@ -24,13 +25,16 @@ public abstract class AbstractRewardHandler implements RewardHandler {
   protected final RewardFlowMapper rewardFlowMapper;
   protected final RewardOutboxMapper outboxMapper;
   protected final ObjectMapper objectMapper;
+  protected final AwardedStageMaskService stageMaskService;
 
   protected AbstractRewardHandler(RewardFlowMapper rewardFlowMapper,
                                  RewardOutboxMapper outboxMapper,
-                                 ObjectMapper objectMapper) {
+                                 ObjectMapper objectMapper,
+                                 AwardedStageMaskService stageMaskService) {
     this.rewardFlowMapper = rewardFlowMapper;
     this.outboxMapper = outboxMapper;
     this.objectMapper = objectMapper;
+    this.stageMaskService = stageMaskService;
   }
 
   /** 此 handler 对应的 outbox 事件类型 */
@@ -85,7 +89,11 @@ public abstract class AbstractRewardHandler implements RewardHandler {
     } catch (Exception ex) {
       r.setIssueStatus("FAILED");
       r.setError(ex.getClass().getSimpleName());
+      return r;
     }
+
+    // 已发奖档位位图是派生数据：发奖事务提交后再单独合并，不参与 flow + outbox 的事务；flow 已存在时也补一次（上一次可能没写上）
+    stageMaskService.markAwardedAfterCommit(ctx.getUserId(), ctx.getScene(), ctx.getBizDate(), ctx.getPrizeCode(), plan.getStage());
     return r;
   }
 
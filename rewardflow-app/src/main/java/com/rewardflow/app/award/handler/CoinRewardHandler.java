@@ -1,6 +1,7 @@
 package com.rewardflow.app.award.handler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rewardflow.app.service.AwardedStageMaskService;
 import com.rewardflow.infra.mysql.mapper.RewardFlowMapper;
 import com.rewardflow.infra.mysql.mapper.RewardOutboxMapper;
 import org.springframework.stereotype.Component;
@@ -14,8 +15,9 @@ public class CoinRewardHandler extends AbstractRewardHandler {
 
   public CoinRewardHandler(RewardFlowMapper rewardFlowMapper,
                            RewardOutboxMapper outboxMapper,
-                           ObjectMapper objectMapper) {
-    super(rewardFlowMapper, outboxMapper, objectMapper);
+                           ObjectMapper objectMapper,
+                           AwardedStageMaskService stageMaskService) {
+    super(rewardFlowMapper, outboxMapper, objectMapper, stageMaskService);
   }
 
   @Override
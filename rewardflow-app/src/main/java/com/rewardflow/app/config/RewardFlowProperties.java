@@ -1,7 +1,10 @@
 package com.rewardflow.app.config;
 
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import java.util.ArrayList;
+import java.util.List;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
@@ -24,6 +27,24 @@ public class RewardFlowProperties {
   private final Risk risk = new Risk();
   // 使用 Redis 做播放时长聚合的降频写
   private final PlayDailyAgg playDailyAgg = new PlayDailyAgg();
+  // 上报入口的 Redis 交互方式
+  private final Ingest ingest = new Ingest();
+  // 虚拟线程执行模式（Java 21+），具体接线见 VirtualThreadConfig
+  private final VirtualThreads virtualThreads = new VirtualThreads();
+
+  private final AwardGate awardGate = new AwardGate();
+  // 高频阈值按 MySQL 行锁等待自动调整
+  private final HotThreshold hotThreshold = new HotThreshold();
+  // Redis 各阶段的熔断（Sentinel 慢调用比例 / 异常比例）
+  private final RedisBreaker redisBreaker = new RedisBreaker();
+  // 单条上报入口的自适应并发限制
+  private final ReportLimiter reportLimiter = new ReportLimiter();
+  // 异步发奖（feature center 的 deferredAwardEnabled 打开的场景）
+  private final DeferredAward deferredAward = new DeferredAward();
+  // 同一用户并发上报的合并（MySQL range_sum 路径）
+  private final ReportCoalesce reportCoalesce = new ReportCoalesce();
+  // 按用户分片的单机堆外聚合 + mmap WAL（aggStrategy=sharded）
+  private final ShardedAgg shardedAgg = new ShardedAgg();
 
   public String getTimezone() {
     return timezone;
@@ -41,6 +62,42 @@ public class RewardFlowProperties {
     return playDailyAgg;
   }
 
+  public Ingest getIngest() {
+    return ingest;
+  }
+
+  public VirtualThreads getVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public AwardGate getAwardGate() {
+    return awardGate;
+  }
+
+  public HotThreshold getHotThreshold() {
+    return hotThreshold;
+  }
+
+  public RedisBreaker getRedisBreaker() {
+    return redisBreaker;
+  }
+
+  public ReportLimiter getReportLimiter() {
+    return reportLimiter;
+  }
+
+  public DeferredAward getDeferredAward() {
+    return deferredAward;
+  }
+
+  public ReportCoalesce getReportCoalesce() {
+    return reportCoalesce;
+  }
+
+  public ShardedAgg getShardedAgg() {
+    return shardedAgg;
+  }
+
   public static class Risk {
     /**
      * 单次上报的播放时长最大允许60s
@@ -72,6 +129,10 @@ public class RewardFlowProperties {
     @Min(1)
     private int maxDurationPerMinute = 300;
 
+    /** 批量上报接口单次最多允许的分段数 */
+    @Min(1)
+    private int maxReportsPerBatch = 100;
+
     public int getMaxDurationPerReport() {
       return maxDurationPerReport;
     }
@@ -119,6 +180,14 @@ public class RewardFlowProperties {
     public void setMaxDurationPerMinute(int maxDurationPerMinute) {
       this.maxDurationPerMinute = maxDurationPerMinute;
     }
+
+    public int getMaxReportsPerBatch() {
+      return maxReportsPerBatch;
+    }
+
+    public void setMaxReportsPerBatch(int maxReportsPerBatch) {
+      this.maxReportsPerBatch = maxReportsPerBatch;
+    }
   }
 
   public static class PlayDailyAgg {
@@ -133,10 +202,50 @@ public class RewardFlowProperties {
     @Min(1000)
     private long inflightTimeoutMs = 15000L;
 
-    /** flush 每批处理的 key 数量 */
+    /** flush 每批处理的 key 数量（一次预留脚本 / 一条多行 upsert / 一次 pipeline 提交） */
     @Min(1)
     private int flushBatchSize = 500;
 
+    /** flush 并行 worker 数，每轮最多取 flushBatchSize * flushWorkers 个脏 key；每个 worker 占一个数据库连接 */
+    @Min(1)
+    private int flushWorkers = 4;
+
+    /**
+     * 脏 tag 索引的分片数：脏 key 按所在 tag 放在 rf:play:daily:dirty:{rf:t}（见 RedisKeyLayout），
+     * 有脏 key 的 tag 登记在索引 rf:play:daily:dirty-tags:(t % dirtyShards)。不进任何数据 key 名，可以在线调整
+     */
+    @Min(1)
+    private int dirtyShards = 16;
+
+    /**
+     * 旧布局（hash tag {rf-i}，i = hash % 当时的 dirty-shards）的分片数：flush 继续排空旧脏集合，
+     * 冷加载时先把同一用户的旧聚合 key 刷回 MySQL 再删掉。旧 key 排空后改成 0
+     */
+    @Min(0)
+    private int legacyTagShards = 16;
+
+    /**
+     * 每轮 flush 前把旧的脏集合（单 key rf:play:daily:dirty 和不带 tag 的 rf:play:daily:dirty:i）迁到分片
+     * （滚动发布期间旧实例仍会写它）。跨 slot，Redis Cluster 下必须关闭
+     */
+    private boolean legacyDirtyMigrationEnabled = true;
+
+    /** 冷加载时把不带 hash tag 的旧聚合 key 搬过来（跨 slot，Redis Cluster 下必须关闭） */
+    private boolean legacyKeyAdoptionEnabled = true;
+
+    /**
+     * 聚合状态的存储格式：hash（每个状态一个字段）| packed（一个定长二进制 STRING + 更短的 key，每个 key 更省内存）。
+     * 两种格式的 key 都能被 flush，切换后旧格式的 key 在冷加载时转换
+     */
+    private String storageFormat = "hash";
+
+    /** 冷加载时把另一种存储格式的同名 key 转成当前格式（双读迁移，同一个 slot） */
+    private boolean formatMigrationEnabled = true;
+
+    /** 调小 dirtyShards 后填旧的分片数，编号 [dirtyShards, 该值) 的索引分片继续读到排空；0 表示不处理（由巡检重新登记） */
+    @Min(0)
+    private int dirtyShardsDrainUpTo = 0;
+
     /** Redis key TTL（秒） */
     @Min(60)
     private long redisTtlSeconds = 172800L;
@@ -149,6 +258,60 @@ public class RewardFlowProperties {
     @Min(30)
     private int hotWindowSeconds = 120;
 
+    /**
+     * 本机频率预筛：本机滑动一分钟估计次数低于 localPreThresholdPerMinute 的 (userId, scene) 不查也不更新
+     * Redis 的热点计数/标记，直接走 MySQL。多实例时上报被打散，预阈值应不大于 highFreqThresholdPerMinute / 实例数，
+     * 否则分散在各实例上的高频用户会一直判不成热点
+     */
+    private boolean localSketchEnabled = true;
+
+    @Min(1)
+    private int localPreThresholdPerMinute = 3;
+
+    /** Count-Min sketch 每行列数（4 行，两个分钟窗口，共 8 x width 个 int） */
+    @Min(1024)
+    private int localSketchWidth = 65536;
+
+    /** 达到预阈值的 key 的跟踪表容量（热点标记缓存 / top-N 端点都来自这张表） */
+    @Min(16)
+    private int localTopCapacity = 1024;
+
+    /** 本机缓存 Redis 热点标记的时间（毫秒，不超过 hotWindowSeconds），0 表示不缓存 */
+    @Min(0)
+    private long localHotCacheTtlMs = 10000L;
+
+    /**
+     * 空闲驱逐：flush 提交后 pending 已清空的 key，TTL 从 redisTtlSeconds 缩短到该值，期间没有新上报就由 Redis 删除，
+     * 之后的上报走冷加载；冷加载后还没记账的 key 也用这个 TTL。0 表示关闭（一直保留 redisTtlSeconds）
+     */
+    @Min(0)
+    private long evictIdleSeconds = 1800L;
+
+    /** 常驻 key 数抽样：每隔多久抽一次（RANDOMKEY 估算 DBSIZE 里日聚合 key 的占比） */
+    @Min(1000)
+    private long residentSampleIntervalMs = 60000L;
+
+    /** 每次抽样的 RANDOMKEY 次数，0 表示不抽样 */
+    @Min(0)
+    private int residentSampleSize = 100;
+
+    /** 冷 key 加载时，同 JVM 内其他请求等待正在进行的加载的最长时间，超时后自行加载 */
+    @Min(1)
+    private long coldLoadWaitMs = 2000L;
+
+    /**
+     * 非高频上报的 MySQL 聚合方式：range_sum（锁行 + 明细 SUM + 回写）| upsert（一条带 last_sync_time 水位的
+     * INSERT ... ON DUPLICATE KEY UPDATE 加上本次时长，再回读总数，不做范围 SUM、不 FOR UPDATE）。
+     * Redis 聚合失败回退时固定用 range_sum
+     */
+    private String mysqlAggMode = "range_sum";
+
+    /**
+     * 是否允许场景把 aggStrategy 配成 memory（单机内存聚合，不落 user_play_daily、重启即丢，只用于测试 / 压测）。
+     * 关闭时配成 memory 的场景按 auto 处理
+     */
+    private boolean memoryStoreEnabled = false;
+
     public boolean isRedisEnabled() {
       return redisEnabled;
     }
@@ -181,6 +344,126 @@ public class RewardFlowProperties {
       this.flushBatchSize = flushBatchSize;
     }
 
+    public int getFlushWorkers() {
+      return flushWorkers;
+    }
+
+    public void setFlushWorkers(int flushWorkers) {
+      this.flushWorkers = flushWorkers;
+    }
+
+    public int getDirtyShards() {
+      return dirtyShards;
+    }
+
+    public void setDirtyShards(int dirtyShards) {
+      this.dirtyShards = dirtyShards;
+    }
+
+    public boolean isLegacyDirtyMigrationEnabled() {
+      return legacyDirtyMigrationEnabled;
+    }
+
+    public void setLegacyDirtyMigrationEnabled(boolean legacyDirtyMigrationEnabled) {
+      this.legacyDirtyMigrationEnabled = legacyDirtyMigrationEnabled;
+    }
+
+    public boolean isLegacyKeyAdoptionEnabled() {
+      return legacyKeyAdoptionEnabled;
+    }
+
+    public void setLegacyKeyAdoptionEnabled(boolean legacyKeyAdoptionEnabled) {
+      this.legacyKeyAdoptionEnabled = legacyKeyAdoptionEnabled;
+    }
+
+    public String getStorageFormat() {
+      return storageFormat;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+      this.storageFormat = storageFormat;
+    }
+
+    public boolean isFormatMigrationEnabled() {
+      return formatMigrationEnabled;
+    }
+
+    public void setFormatMigrationEnabled(boolean formatMigrationEnabled) {
+      this.formatMigrationEnabled = formatMigrationEnabled;
+    }
+
+    public int getLegacyTagShards() {
+      return legacyTagShards;
+    }
+
+    public void setLegacyTagShards(int legacyTagShards) {
+      this.legacyTagShards = legacyTagShards;
+    }
+
+    public int getDirtyShardsDrainUpTo() {
+      return dirtyShardsDrainUpTo;
+    }
+
+    public void setDirtyShardsDrainUpTo(int dirtyShardsDrainUpTo) {
+      this.dirtyShardsDrainUpTo = dirtyShardsDrainUpTo;
+    }
+
+    public boolean isLocalSketchEnabled() {
+      return localSketchEnabled;
+    }
+
+    public void setLocalSketchEnabled(boolean localSketchEnabled) {
+      this.localSketchEnabled = localSketchEnabled;
+    }
+
+    public int getLocalPreThresholdPerMinute() {
+      return localPreThresholdPerMinute;
+    }
+
+    public void setLocalPreThresholdPerMinute(int localPreThresholdPerMinute) {
+      this.localPreThresholdPerMinute = localPreThresholdPerMinute;
+    }
+
+    public int getLocalSketchWidth() {
+      return localSketchWidth;
+    }
+
+    public void setLocalSketchWidth(int localSketchWidth) {
+      this.localSketchWidth = localSketchWidth;
+    }
+
+    public int getLocalTopCapacity() {
+      return localTopCapacity;
+    }
+
+    public void setLocalTopCapacity(int localTopCapacity) {
+      this.localTopCapacity = localTopCapacity;
+    }
+
+    public long getLocalHotCacheTtlMs() {
+      return localHotCacheTtlMs;
+    }
+
+    public void setLocalHotCacheTtlMs(long localHotCacheTtlMs) {
+      this.localHotCacheTtlMs = localHotCacheTtlMs;
+    }
+
+    public String getMysqlAggMode() {
+      return mysqlAggMode;
+    }
+
+    public void setMysqlAggMode(String mysqlAggMode) {
+      this.mysqlAggMode = mysqlAggMode;
+    }
+
+    public boolean isMemoryStoreEnabled() {
+      return memoryStoreEnabled;
+    }
+
+    public void setMemoryStoreEnabled(boolean memoryStoreEnabled) {
+      this.memoryStoreEnabled = memoryStoreEnabled;
+    }
+
     public long getRedisTtlSeconds() {
       return redisTtlSeconds;
     }
@@ -204,5 +487,663 @@ public class RewardFlowProperties {
     public void setHotWindowSeconds(int hotWindowSeconds) {
       this.hotWindowSeconds = hotWindowSeconds;
     }
+
+    public long getEvictIdleSeconds() {
+      return evictIdleSeconds;
+    }
+
+    public void setEvictIdleSeconds(long evictIdleSeconds) {
+      this.evictIdleSeconds = evictIdleSeconds;
+    }
+
+    public long getResidentSampleIntervalMs() {
+      return residentSampleIntervalMs;
+    }
+
+    public void setResidentSampleIntervalMs(long residentSampleIntervalMs) {
+      this.residentSampleIntervalMs = residentSampleIntervalMs;
+    }
+
+    public int getResidentSampleSize() {
+      return residentSampleSize;
+    }
+
+    public void setResidentSampleSize(int residentSampleSize) {
+      this.residentSampleSize = residentSampleSize;
+    }
+
+    public long getColdLoadWaitMs() {
+      return coldLoadWaitMs;
+    }
+
+    public void setColdLoadWaitMs(long coldLoadWaitMs) {
+      this.coldLoadWaitMs = coldLoadWaitMs;
+    }
+  }
+
+  public static class Ingest {
+    /**
+     * 单条上报的去重 / 分钟级风控 / 热点路由 / pending 记账合并成一个 Lua 脚本（一次 EVALSHA）
+     * 关闭后回到逐个服务分别访问 Redis 的旧流程
+     */
+    private boolean fusedScriptEnabled = true;
+
+    public boolean isFusedScriptEnabled() {
+      return fusedScriptEnabled;
+    }
+
+    public void setFusedScriptEnabled(boolean fusedScriptEnabled) {
+      this.fusedScriptEnabled = fusedScriptEnabled;
+    }
+  }
+
+  public static class VirtualThreads {
+    /** Tomcat 请求线程与 @Scheduled 任务跑在虚拟线程上；低于 Java 21 时忽略并打印告警 */
+    private boolean enabled = false;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+  }
+
+  public static class AwardGate {
+    /**
+     * 本次上报没有跨过任何档位阈值时跳过发奖预览/发奖（不查 reward_flow）
+     */
+    private boolean enabled = true;
+    /**
+     * 规则 / 发奖开关变化后，上一次记账早于 changedAt + 宽限期的用户强制走一次预览；
+     * 宽限期用来覆盖各实例收到 Nacos 推送的时间差（MySQL 路径额外加上 max-clock-skew-ms）
+     */
+    private long ruleChangeGraceMs = 60_000L;
+    /**
+     * 发奖有 FAILED 档位时写一个补发标记，标记存在期间不跳过预览
+     */
+    private long retryMarkerTtlSeconds = 172_800L;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public long getRuleChangeGraceMs() {
+      return ruleChangeGraceMs;
+    }
+
+    public void setRuleChangeGraceMs(long ruleChangeGraceMs) {
+      this.ruleChangeGraceMs = ruleChangeGraceMs;
+    }
+
+    public long getRetryMarkerTtlSeconds() {
+      return retryMarkerTtlSeconds;
+    }
+
+    public void setRetryMarkerTtlSeconds(long retryMarkerTtlSeconds) {
+      this.retryMarkerTtlSeconds = retryMarkerTtlSeconds;
+    }
+  }
+
+  /**
+   * 按场景自动调整 play-daily-agg.high-freq-threshold-per-minute（AIMD）：
+   * 每个周期看 MySQL 聚合行锁等待（selectOneForUpdate + updateTotals / upsert）的 p99，
+   * 超过 lockWaitHighMs 按 decreasePercent 乘性调低（更多用户走 Redis），
+   * 低于 lockWaitLowMs 或样本不足 minSamples（MySQL 空闲）时加 increaseStep，结果限制在 [minThreshold, maxThreshold]
+   */
+  public static class HotThreshold {
+    private boolean enabled = true;
+
+    @Min(1000)
+    private long tickMs = 10_000L;
+
+    @Min(1)
+    private int minThreshold = 3;
+
+    @Min(1)
+    private int maxThreshold = 30;
+
+    @Min(1)
+    private long lockWaitHighMs = 50L;
+
+    @Min(0)
+    private long lockWaitLowMs = 5L;
+
+    /** 调低时乘的百分比 */
+    @Min(1)
+    @Max(99)
+    private int decreasePercent = 70;
+
+    @Min(1)
+    private int increaseStep = 1;
+
+    @Min(1)
+    private int minSamples = 20;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public long getTickMs() {
+      return tickMs;
+    }
+
+    public void setTickMs(long tickMs) {
+      this.tickMs = tickMs;
+    }
+
+    public int getMinThreshold() {
+      return minThreshold;
+    }
+
+    public void setMinThreshold(int minThreshold) {
+      this.minThreshold = minThreshold;
+    }
+
+    public int getMaxThreshold() {
+      return maxThreshold;
+    }
+
+    public void setMaxThreshold(int maxThreshold) {
+      this.maxThreshold = maxThreshold;
+    }
+
+    public long getLockWaitHighMs() {
+      return lockWaitHighMs;
+    }
+
+    public void setLockWaitHighMs(long lockWaitHighMs) {
+      this.lockWaitHighMs = lockWaitHighMs;
+    }
+
+    public long getLockWaitLowMs() {
+      return lockWaitLowMs;
+    }
+
+    public void setLockWaitLowMs(long lockWaitLowMs) {
+      this.lockWaitLowMs = lockWaitLowMs;
+    }
+
+    public int getDecreasePercent() {
+      return decreasePercent;
+    }
+
+    public void setDecreasePercent(int decreasePercent) {
+      this.decreasePercent = decreasePercent;
+    }
+
+    public int getIncreaseStep() {
+      return increaseStep;
+    }
+
+    public void setIncreaseStep(int increaseStep) {
+      this.increaseStep = increaseStep;
+    }
+
+    public int getMinSamples() {
+      return minSamples;
+    }
+
+    public void setMinSamples(int minSamples) {
+      this.minSamples = minSamples;
+    }
+  }
+
+  /**
+   * Redis 阶段熔断（ingest / agg / dedup / risk 各一个 Sentinel 资源，见 RedisStageBreaker）：
+   * statIntervalMs 统计窗口内请求数达到 minRequests，且耗时超过 slowCallMs 的比例达到 slowRatioPercent
+   * 或异常比例达到 errorRatioPercent 时打开，recoverySeconds 后放一个探测请求（half-open），成功则关闭
+   */
+  public static class RedisBreaker {
+    private boolean enabled = true;
+
+    @Min(1)
+    private int slowCallMs = 50;
+
+    @Min(1)
+    @Max(100)
+    private int slowRatioPercent = 50;
+
+    @Min(1)
+    @Max(100)
+    private int errorRatioPercent = 50;
+
+    @Min(1)
+    private int minRequests = 20;
+
+    @Min(100)
+    private int statIntervalMs = 1000;
+
+    @Min(1)
+    private int recoverySeconds = 5;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getSlowCallMs() {
+      return slowCallMs;
+    }
+
+    public void setSlowCallMs(int slowCallMs) {
+      this.slowCallMs = slowCallMs;
+    }
+
+    public int getSlowRatioPercent() {
+      return slowRatioPercent;
+    }
+
+    public void setSlowRatioPercent(int slowRatioPercent) {
+      this.slowRatioPercent = slowRatioPercent;
+    }
+
+    public int getErrorRatioPercent() {
+      return errorRatioPercent;
+    }
+
+    public void setErrorRatioPercent(int errorRatioPercent) {
+      this.errorRatioPercent = errorRatioPercent;
+    }
+
+    public int getMinRequests() {
+      return minRequests;
+    }
+
+    public void setMinRequests(int minRequests) {
+      this.minRequests = minRequests;
+    }
+
+    public int getStatIntervalMs() {
+      return statIntervalMs;
+    }
+
+    public void setStatIntervalMs(int statIntervalMs) {
+      this.statIntervalMs = statIntervalMs;
+    }
+
+    public int getRecoverySeconds() {
+      return recoverySeconds;
+    }
+
+    public void setRecoverySeconds(int recoverySeconds) {
+      this.recoverySeconds = recoverySeconds;
+    }
+  }
+
+  /**
+   * /api/v1/play/report 的自适应并发限制（gradient 算法，见 ReportConcurrencyLimiter）：
+   * 每个 windowMs 窗口（至少 minWindowSamples 个样本）用窗口平均耗时与长期耗时的比值调整 limit，
+   * 限制在 [minLimit, maxLimit]；超过 limit 的请求直接返回 5031 + Retry-After
+   */
+  public static class ReportLimiter {
+    private boolean enabled = true;
+
+    @Min(1)
+    private int initialLimit = 200;
+
+    @Min(1)
+    private int minLimit = 20;
+
+    @Min(1)
+    private int maxLimit = 2000;
+
+    @Min(100)
+    private long windowMs = 1000L;
+
+    @Min(1)
+    private int minWindowSamples = 20;
+
+    /** 长期耗时（指数平均）的窗口数 */
+    @Min(1)
+    private int longWindows = 60;
+
+    /** 窗口耗时不超过长期耗时的 rttTolerancePercent% 时不收缩 */
+    @Min(100)
+    private int rttTolerancePercent = 150;
+
+    /** 每个窗口向新 limit 靠拢的比例 */
+    @Min(1)
+    @Max(100)
+    private int smoothingPercent = 20;
+
+    /** 拒绝时建议客户端的退避时间 */
+    @Min(1)
+    private long retryAfterMs = 1000L;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getInitialLimit() {
+      return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+      return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+      this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+      return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+    }
+
+    public long getWindowMs() {
+      return windowMs;
+    }
+
+    public void setWindowMs(long windowMs) {
+      this.windowMs = windowMs;
+    }
+
+    public int getMinWindowSamples() {
+      return minWindowSamples;
+    }
+
+    public void setMinWindowSamples(int minWindowSamples) {
+      this.minWindowSamples = minWindowSamples;
+    }
+
+    public int getLongWindows() {
+      return longWindows;
+    }
+
+    public void setLongWindows(int longWindows) {
+      this.longWindows = longWindows;
+    }
+
+    public int getRttTolerancePercent() {
+      return rttTolerancePercent;
+    }
+
+    public void setRttTolerancePercent(int rttTolerancePercent) {
+      this.rttTolerancePercent = rttTolerancePercent;
+    }
+
+    public int getSmoothingPercent() {
+      return smoothingPercent;
+    }
+
+    public void setSmoothingPercent(int smoothingPercent) {
+      this.smoothingPercent = smoothingPercent;
+    }
+
+    public long getRetryAfterMs() {
+      return retryAfterMs;
+    }
+
+    public void setRetryAfterMs(long retryAfterMs) {
+      this.retryAfterMs = retryAfterMs;
+    }
+  }
+
+  /**
+   * 异步发奖队列（见 DeferredAwardQueue）：同一个 (userId, scene, bizDate) 在队列里合并成一项，
+   * 每 drainIntervalMs 由 workers 个线程按 batchSize 一批取出执行预览/发奖；
+   * 队列满（queueCapacity 个 key）时退回同步发奖，失败最多重试 maxAttempts 次
+   */
+  public static class DeferredAward {
+    @Min(1)
+    private int queueCapacity = 100_000;
+
+    @Min(1)
+    private int batchSize = 200;
+
+    @Min(1)
+    private int workers = 4;
+
+    @Min(10)
+    private long drainIntervalMs = 50L;
+
+    @Min(1)
+    private int maxAttempts = 3;
+
+    /** 失败重试的退避：第 n 次失败后等 retryBackoffMs x 2^(n-1)，不超过 retryBackoffMaxMs */
+    @Min(0)
+    private long retryBackoffMs = 1000L;
+
+    @Min(0)
+    private long retryBackoffMaxMs = 30_000L;
+
+    /** 停机时同步排空队列的最长时间 */
+    @Min(0)
+    private long shutdownDrainMs = 5000L;
+
+    public int getQueueCapacity() {
+      return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getWorkers() {
+      return workers;
+    }
+
+    public void setWorkers(int workers) {
+      this.workers = workers;
+    }
+
+    public long getDrainIntervalMs() {
+      return drainIntervalMs;
+    }
+
+    public void setDrainIntervalMs(long drainIntervalMs) {
+      this.drainIntervalMs = drainIntervalMs;
+    }
+
+    public int getMaxAttempts() {
+      return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryBackoffMs() {
+      return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs(long retryBackoffMs) {
+      this.retryBackoffMs = retryBackoffMs;
+    }
+
+    public long getRetryBackoffMaxMs() {
+      return retryBackoffMaxMs;
+    }
+
+    public void setRetryBackoffMaxMs(long retryBackoffMaxMs) {
+      this.retryBackoffMaxMs = retryBackoffMaxMs;
+    }
+
+    public long getShutdownDrainMs() {
+      return shutdownDrainMs;
+    }
+
+    public void setShutdownDrainMs(long shutdownDrainMs) {
+      this.shutdownDrainMs = shutdownDrainMs;
+    }
+  }
+
+  /**
+   * 同一个 (userId, scene, bizDate) 在本实例上的并发单条上报合并成一次聚合 + 预览（见 ReportCoalescer），
+   * 只用于 MySQL range_sum 聚合；一趟最多合并 maxMembers 个上报
+   */
+  public static class ReportCoalesce {
+    private boolean enabled = true;
+
+    @Min(2)
+    private int maxMembers = 64;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getMaxMembers() {
+      return maxMembers;
+    }
+
+    public void setMaxMembers(int maxMembers) {
+      this.maxMembers = maxMembers;
+    }
+  }
+
+  /**
+   * aggStrategy=sharded 的场景：每个实例按一致性哈希负责一段用户，日聚合状态放在本机堆外表里，
+   * 每次变更先追加到 mmap WAL，定时按批 upsert 回 user_play_daily（见 ShardedAggregationStore）
+   *
+   * <p>nodes 为空时本实例负责所有用户；nodeId 必须是 nodes 里的一项
+   */
+  public static class ShardedAgg {
+    /** 关闭时配成 sharded 的场景按 auto 处理 */
+    private boolean enabled = false;
+
+    /** 本实例在 nodes 中的名字（一般是 host:port，网关按同样的环做粘滞路由） */
+    private String nodeId = "";
+
+    private List<String> nodes = new ArrayList<>();
+
+    @Min(1)
+    private int virtualNodes = 160;
+
+    private String walDir = "./data/agg-wal";
+
+    @Min(1048576)
+    private int walSegmentBytes = 64 * 1024 * 1024;
+
+    /** WAL 定时 force 到磁盘的间隔；进程崩溃不丢（页缓存），机器掉电最多丢这么久 */
+    @Min(10)
+    private long walForceIntervalMs = 1000L;
+
+    /** 每天一张堆外表的初始槽位数（向上取整到 2 的幂，装载率超过 0.7 翻倍） */
+    @Min(1024)
+    private int tableInitialSlots = 65536;
+
+    @Min(100)
+    private long checkpointIntervalMs = 5000L;
+
+    @Min(1)
+    @Max(5000)
+    private int checkpointBatchSize = 500;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getNodeId() {
+      return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+      this.nodeId = nodeId;
+    }
+
+    public List<String> getNodes() {
+      return nodes;
+    }
+
+    public void setNodes(List<String> nodes) {
+      this.nodes = nodes;
+    }
+
+    public int getVirtualNodes() {
+      return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+      this.virtualNodes = virtualNodes;
+    }
+
+    public String getWalDir() {
+      return walDir;
+    }
+
+    public void setWalDir(String walDir) {
+      this.walDir = walDir;
+    }
+
+    public int getWalSegmentBytes() {
+      return walSegmentBytes;
+    }
+
+    public void setWalSegmentBytes(int walSegmentBytes) {
+      this.walSegmentBytes = walSegmentBytes;
+    }
+
+    public long getWalForceIntervalMs() {
+      return walForceIntervalMs;
+    }
+
+    public void setWalForceIntervalMs(long walForceIntervalMs) {
+      this.walForceIntervalMs = walForceIntervalMs;
+    }
+
+    public int getTableInitialSlots() {
+      return tableInitialSlots;
+    }
+
+    public void setTableInitialSlots(int tableInitialSlots) {
+      this.tableInitialSlots = tableInitialSlots;
+    }
+
+    public long getCheckpointIntervalMs() {
+      return checkpointIntervalMs;
+    }
+
+    public void setCheckpointIntervalMs(long checkpointIntervalMs) {
+      this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    public int getCheckpointBatchSize() {
+      return checkpointBatchSize;
+    }
+
+    public void setCheckpointBatchSize(int checkpointBatchSize) {
+      this.checkpointBatchSize = checkpointBatchSize;
+    }
   }
 }
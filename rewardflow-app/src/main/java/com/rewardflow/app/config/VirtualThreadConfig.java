@@ -0,0 +1,73 @@
+package com.rewardflow.app.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnJava;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
+
+/**
+ * 虚拟线程执行模式（opt-in）：rewardflow.virtual-threads.enabled=true 且运行在 Java 21+ 时生效
+ *
+ * <ul>
+ *   <li>Tomcat 请求线程池换成每请求一个虚拟线程</li>
+ *   <li>@Scheduled 任务（outbox 投递 / 聚合 flush / outbox 指标）每次触发在新的虚拟线程上执行</li>
+ * </ul>
+ *
+ * <p>只覆盖这两处，RabbitMQ 监听容器等其他线程池不受影响。pinning 排查见 docs/虚拟线程.md
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "rewardflow.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnJava(JavaVersion.TWENTY_ONE)
+  static class Enabled {
+
+    Enabled(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int maxPoolSize) {
+      // Connector/J 8.x 在 synchronized(connectionMutex) 里做网络 I/O，会把载体线程钉住；
+      // 同时在跑 SQL 的虚拟线程最多等于连接数，连接数超过载体线程数时其他虚拟线程可能饿死
+      int parallelism = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+          Runtime.getRuntime().availableProcessors());
+      if (maxPoolSize >= parallelism) {
+        log.warn("virtual threads: hikari maximum-pool-size={} >= carrier parallelism={}, "
+                + "jdbc calls may pin all carriers; raise -Djdk.virtualThreadScheduler.parallelism",
+            maxPoolSize, parallelism);
+      }
+      log.info("virtual threads enabled for tomcat executor and scheduled jobs: parallelism={}, hikariMaxPool={}",
+          parallelism, maxPoolSize);
+    }
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+      return protocolHandler -> protocolHandler.setExecutor(new VirtualThreadTaskExecutor("rf-http-"));
+    }
+
+    // 名字必须是 taskScheduler，@EnableScheduling 按名字取；同时让 Boot 默认的调度线程池退让
+    @Bean(name = "taskScheduler")
+    SimpleAsyncTaskScheduler taskScheduler() {
+      SimpleAsyncTaskScheduler scheduler = new SimpleAsyncTaskScheduler();
+      scheduler.setThreadNamePrefix("rf-sched-");
+      scheduler.setVirtualThreads(true);
+      return scheduler;
+    }
+  }
+
+  @Configuration(proxyBeanMethods = false)
+  @ConditionalOnJava(value = JavaVersion.TWENTY_ONE, range = ConditionalOnJava.Range.OLDER_THAN)
+  static class Unsupported {
+
+    Unsupported() {
+      log.warn("rewardflow.virtual-threads.enabled=true but running on Java {}, virtual threads need 21+; "
+          + "keeping platform thread pools", System.getProperty("java.specification.version"));
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.rewardflow.app.controller;
 import com.rewardflow.api.dto.ApiResponse;
 import com.rewardflow.app.service.FeatureCenterService;
 import com.rewardflow.app.service.SceneNormalizer;
+import com.rewardflow.domain.feature.model.EffectiveFeatures;
 import com.rewardflow.domain.feature.model.FeatureCenterConfig;
 import java.util.Map;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -29,14 +30,26 @@ public class FeatureController {
   @GetMapping("/effective")
   public ApiResponse<Map<String, Object>> effective(@RequestParam("scene") String scene) {
     scene = SceneNormalizer.normalize(scene);
-    FeatureCenterConfig.SceneFeature eff = featureCenterService.effectiveForScene(scene);
+    EffectiveFeatures eff = featureCenterService.effectiveForScene(scene);
     return ApiResponse.ok(Map.of(
         "scene", scene,
-        "awardIssueEnabled", eff.getAwardIssueEnabled(),
-        "outboxPublishEnabled", eff.getOutboxPublishEnabled(),
-        "reconcileEnabled", eff.getReconcileEnabled(),
-        "ruleSnapshotEnabled", eff.getRuleSnapshotEnabled(),
-        "ruleSimulationEnabled", eff.getRuleSimulationEnabled()
+        "awardIssueEnabled", eff.isAwardIssueEnabled(),
+        "outboxPublishEnabled", eff.isOutboxPublishEnabled(),
+        "reconcileEnabled", eff.isReconcileEnabled(),
+        "ruleSnapshotEnabled", eff.isRuleSnapshotEnabled(),
+        "ruleSimulationEnabled", eff.isRuleSimulationEnabled(),
+        "aggStrategy", eff.getAggStrategy(),
+        "deferredAwardEnabled", eff.isDeferredAwardEnabled()
+    ));
+  }
+
+  /** 上报链路使用的同一份快照：默认开关 + 单独配置过的 scene */
+  @GetMapping("/effective/all")
+  public ApiResponse<Map<String, Object>> effectiveAll() {
+    EffectiveFeatures.Snapshot snap = featureCenterService.snapshot();
+    return ApiResponse.ok(Map.of(
+        "defaults", snap.getDefaults(),
+        "scenes", snap.getScenes()
     ));
   }
 }
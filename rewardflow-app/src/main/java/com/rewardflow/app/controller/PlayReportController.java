@@ -1,12 +1,15 @@
 package com.rewardflow.app.controller;
 
 import com.rewardflow.api.dto.ApiResponse;
+import com.rewardflow.api.dto.PlayReportBatchRequest;
+import com.rewardflow.api.dto.PlayReportBatchResponse;
 import com.rewardflow.api.dto.PlayReportRequest;
 import com.rewardflow.api.dto.PlayReportResponse;
 import com.rewardflow.api.dto.UserPlayDailyResponse;
 import com.rewardflow.app.config.RewardFlowProperties;
 import com.rewardflow.app.service.SceneNormalizer;
 import com.rewardflow.app.service.PlayReportAppService;
+import com.rewardflow.app.service.ReportConcurrencyLimiter;
 import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
 import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
 import jakarta.validation.Valid;
@@ -26,13 +29,16 @@ public class PlayReportController {
   private final PlayReportAppService service;
   private final UserPlayDailyMapper dailyMapper;
   private final RewardFlowProperties props;
+  private final ReportConcurrencyLimiter limiter;
 
   public PlayReportController(PlayReportAppService service,
                               UserPlayDailyMapper dailyMapper,
-                              RewardFlowProperties props) {
+                              RewardFlowProperties props,
+                              ReportConcurrencyLimiter limiter) {
     this.service = service;
     this.dailyMapper = dailyMapper;
     this.props = props;
+    this.limiter = limiter;
   }
 
   /**
@@ -40,10 +46,27 @@ public class PlayReportController {
    *
    * 幂等性：在 play_duration_report 表上对 (userId, soundId, syncTime) 的唯一索引保证
    * 把当天的播放时长按天汇总然后存入 play_duration_daily 表
+   * 过载时超过自适应并发上限的请求直接返回 503 / 5031 + Retry-After，客户端退避后重发即可（幂等）
    */
   @PostMapping("/play/report")
   public ApiResponse<PlayReportResponse> report(@Valid @RequestBody PlayReportRequest req) {
-    return ApiResponse.ok(service.report(req));
+    ReportConcurrencyLimiter.Permit permit = limiter.acquire();
+    try {
+      return ApiResponse.ok(service.report(req));
+    } finally {
+      permit.release();
+    }
+  }
+
+  /**
+   * 批量上报：客户端离线缓存的分段一次性补报
+   *
+   * 每个分段的幂等语义与单条上报一致（同样依赖唯一索引），按 index 返回 accepted/duplicate；
+   * 聚合与发奖按 (userId, scene, bizDate) 各做一次
+   */
+  @PostMapping("/play/report/batch")
+  public ApiResponse<PlayReportBatchResponse> reportBatch(@Valid @RequestBody PlayReportBatchRequest req) {
+    return ApiResponse.ok(service.reportBatch(req));
   }
 
   /**
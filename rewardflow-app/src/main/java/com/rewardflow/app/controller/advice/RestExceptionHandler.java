@@ -2,12 +2,16 @@ package com.rewardflow.app.controller.advice;
 
 import com.rewardflow.api.dto.ApiResponse;
 import com.rewardflow.app.exception.BizException;
+import com.rewardflow.app.exception.MisroutedException;
+import com.rewardflow.app.exception.OverloadException;
 import jakarta.validation.ConstraintViolationException;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -18,6 +22,10 @@ public class RestExceptionHandler {
 
   private static final Logger log = LoggerFactory.getLogger(RestExceptionHandler.class);
 
+  static final String OWNER_HEADER = "X-RewardFlow-Owner";
+  // 421 Misdirected Request（HttpStatus 里没有这个常量）
+  static final int MISDIRECTED_REQUEST = 421;
+
   // 业务异常
   @ExceptionHandler(BizException.class)
   @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -25,6 +33,23 @@ public class RestExceptionHandler {
     return ApiResponse.error(ex.getCode(), ex.getMessage());
   }
 
+  // 过载拒绝：可重试，Retry-After 单位为秒（向上取整）
+  @ExceptionHandler(OverloadException.class)
+  public ResponseEntity<ApiResponse<Void>> handleOverload(OverloadException ex) {
+    long retryAfterSec = Math.max(1L, (ex.getRetryAfterMs() + 999L) / 1000L);
+    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSec))
+        .body(ApiResponse.error(ex.getCode(), ex.getMessage()));
+  }
+
+  // 用户不归本实例负责：421，owner 放在响应头里，网关 / 客户端据此重发
+  @ExceptionHandler(MisroutedException.class)
+  public ResponseEntity<ApiResponse<Void>> handleMisrouted(MisroutedException ex) {
+    return ResponseEntity.status(MISDIRECTED_REQUEST)
+        .header(OWNER_HEADER, ex.getOwner())
+        .body(ApiResponse.error(ex.getCode(), ex.getMessage()));
+  }
+
   // 参数校验异常
   @ExceptionHandler(MethodArgumentNotValidException.class)
   @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -0,0 +1,17 @@
+package com.rewardflow.app.exception;
+
+/**
+ * 请求打到了不负责该用户的实例（aggStrategy=sharded 的场景）：客户端 / 网关改发到 owner
+ */
+public class MisroutedException extends BizException {
+  private final String owner;
+
+  public MisroutedException(int code, String message, String owner) {
+    super(code, message);
+    this.owner = owner;
+  }
+
+  public String getOwner() {
+    return owner;
+  }
+}
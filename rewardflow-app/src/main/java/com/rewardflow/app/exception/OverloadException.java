@@ -0,0 +1,17 @@
+package com.rewardflow.app.exception;
+
+/**
+ * 服务过载、请求被提前拒绝：可重试，客户端按 retryAfterMs 退避后重发
+ */
+public class OverloadException extends BizException {
+  private final long retryAfterMs;
+
+  public OverloadException(int code, String message, long retryAfterMs) {
+    super(code, message);
+    this.retryAfterMs = retryAfterMs;
+  }
+
+  public long getRetryAfterMs() {
+    return retryAfterMs;
+  }
+}
@@ -0,0 +1,31 @@
+package com.rewardflow.app.job;
+
+import com.rewardflow.app.service.DeferredAwardQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class DeferredAwardJob {
+
+  private static final Logger log = LoggerFactory.getLogger(DeferredAwardJob.class);
+
+  private final DeferredAwardQueue queue;
+
+  public DeferredAwardJob(DeferredAwardQueue queue) {
+    this.queue = queue;
+  }
+
+  @Scheduled(fixedDelayString = "${rewardflow.deferred-award.drain-interval-ms:50}")
+  public void drain() {
+    if (queue.size() == 0) {
+      return;
+    }
+    try {
+      queue.drain();
+    } catch (Exception ex) {
+      log.warn("deferred award drain failed: err={}", ex.toString());
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.rewardflow.app.job;
+
+import com.rewardflow.app.service.HotThresholdController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class HotThresholdJob {
+
+  private static final Logger log = LoggerFactory.getLogger(HotThresholdJob.class);
+
+  private final HotThresholdController controller;
+
+  public HotThresholdJob(HotThresholdController controller) {
+    this.controller = controller;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${rewardflow.hot-threshold.tick-ms:10000}",
+      initialDelayString = "${rewardflow.hot-threshold.tick-ms:10000}"
+  )
+  public void tick() {
+    try {
+      controller.tick();
+    } catch (Exception ex) {
+      log.warn("hot threshold tick failed: err={}", ex.toString());
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.rewardflow.app.job;
+
+import com.rewardflow.app.service.ShardedAggregationStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ShardedAggCheckpointJob {
+
+  private static final Logger log = LoggerFactory.getLogger(ShardedAggCheckpointJob.class);
+
+  private final ShardedAggregationStore store;
+
+  public ShardedAggCheckpointJob(ShardedAggregationStore store) {
+    this.store = store;
+  }
+
+  @Scheduled(fixedDelayString = "${rewardflow.sharded-agg.checkpoint-interval-ms:5000}")
+  public void checkpoint() {
+    if (!store.available()) {
+      return;
+    }
+    try {
+      store.checkpoint();
+    } catch (Exception ex) {
+      log.warn("sharded agg checkpoint failed: err={}", ex.toString());
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${rewardflow.sharded-agg.wal-force-interval-ms:1000}")
+  public void force() {
+    if (!store.available()) {
+      return;
+    }
+    try {
+      store.force();
+    } catch (Exception ex) {
+      log.warn("sharded agg wal force failed: err={}", ex.toString());
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.rewardflow.app.metrics;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.service.HotThresholdController;
+import com.rewardflow.app.service.PlayDailyAggRoutingService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * GET /actuator/hotkeys?limit=20：本实例估计的高频 (scene, userId)
+ *
+ * <p>数据来自热点路由的本机频率估计，每个实例只看得到打到自己的上报
+ */
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeysEndpoint {
+
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 500;
+
+  private final PlayDailyAggRoutingService routingService;
+  private final HotThresholdController thresholdController;
+  private final RewardFlowProperties props;
+
+  public HotKeysEndpoint(PlayDailyAggRoutingService routingService, HotThresholdController thresholdController,
+                         RewardFlowProperties props) {
+    this.routingService = routingService;
+    this.thresholdController = thresholdController;
+    this.props = props;
+  }
+
+  @ReadOperation
+  public Map<String, Object> hotKeys(@Nullable Integer limit) {
+    int n = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(MAX_LIMIT, limit));
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    Map<String, Object> out = new LinkedHashMap<>();
+    out.put("enabled", cfg.isLocalSketchEnabled());
+    out.put("preThresholdPerMinute", cfg.getLocalPreThresholdPerMinute());
+    out.put("hotThresholdPerMinute", cfg.getHighFreqThresholdPerMinute());
+    // 自适应后各场景当前生效的阈值（只包含有过 MySQL 聚合的场景）
+    out.put("effectiveThresholds", thresholdController.snapshot());
+    out.put("trackedKeys", routingService.trackedKeys());
+    out.put("top", routingService.topHot(n));
+    return out;
+  }
+}
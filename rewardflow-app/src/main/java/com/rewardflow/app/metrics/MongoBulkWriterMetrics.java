@@ -0,0 +1,33 @@
+package com.rewardflow.app.metrics;
+
+import com.rewardflow.infra.mongo.writer.MongoBulkWriterListener;
+import java.util.function.IntSupplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把 infra 层异步 Mongo 写入器的回调接到 {@link RewardFlowMetrics}
+ */
+@Component
+public class MongoBulkWriterMetrics implements MongoBulkWriterListener {
+
+  private final RewardFlowMetrics metrics;
+
+  public MongoBulkWriterMetrics(RewardFlowMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void bindQueue(IntSupplier depth, int capacity) {
+    metrics.bindMongoWriterQueue(depth, capacity);
+  }
+
+  @Override
+  public void onDrop(String collection) {
+    metrics.incMongoWriterDropped(collection);
+  }
+
+  @Override
+  public void onFlush(String collection, int size, int failed, long costNanos) {
+    metrics.recordMongoWriterFlush(collection, size, failed, costNanos);
+  }
+}
@@ -1,12 +1,16 @@
 package com.rewardflow.app.metrics;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.Timer.Sample;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
 import org.springframework.stereotype.Component;
 
 /**
@@ -26,6 +30,50 @@ public class RewardFlowMetrics {
   private static final String M_PLAY_REPORT_LATENCY = "rewardflow_play_report_latency";
 
   private static final String M_AWARD_ISSUE_TOTAL = "rewardflow_award_issue_total";
+  private static final String M_AWARD_GATE_TOTAL = "rewardflow_award_gate_total";
+  private static final String M_AWARDED_MASK_LOAD_TOTAL = "rewardflow_awarded_mask_load_total";
+  private static final String M_REDIS_AGG_COLD_LOAD_TOTAL = "rewardflow_redis_agg_cold_load_total";
+  private static final String M_REDIS_AGG_FLUSH_KEYS_TOTAL = "rewardflow_redis_agg_flush_keys_total";
+  private static final String M_REDIS_AGG_FLUSH_BATCH_LATENCY = "rewardflow_redis_agg_flush_batch_latency";
+  private static final String M_REDIS_AGG_DIRTY_KEYS = "rewardflow_redis_agg_dirty_keys";
+  private static final String M_REDIS_AGG_FLUSH_LAG_MS = "rewardflow_redis_agg_flush_lag_ms";
+  private static final String M_REDIS_AGG_EVICTIONS_TOTAL = "rewardflow_redis_agg_evictions_total";
+  private static final String M_REDIS_AGG_DIRTY_TAG_REPAIRED_TOTAL = "rewardflow_redis_agg_dirty_tag_repaired_total";
+  private static final String M_REDIS_AGG_RESIDENT_KEYS = "rewardflow_redis_agg_resident_keys";
+  private static final String M_HOT_ROUTING_TOTAL = "rewardflow_hot_routing_total";
+  private static final String M_AGG_STORE_TOTAL = "rewardflow_agg_store_total";
+
+  // db transaction / connection hold
+  private static final String M_DB_TX_HOLD = "rewardflow_db_tx_hold";
+  private static final String M_PLAY_REPORT_DB_HOLD = "rewardflow_play_report_db_hold";
+  private static final String M_MYSQL_AGG_LATENCY = "rewardflow_mysql_agg_latency";
+  private static final String M_MYSQL_AGG_LOCK_WAIT = "rewardflow_mysql_agg_lock_wait";
+  private static final String M_HOT_THRESHOLD_EFFECTIVE = "rewardflow_hot_threshold_effective";
+  private static final String M_REDIS_BREAKER_STATE = "rewardflow_redis_breaker_state";
+  private static final String M_REDIS_BREAKER_TRANSITIONS = "rewardflow_redis_breaker_transitions_total";
+  private static final String M_REDIS_BREAKER_REJECTED = "rewardflow_redis_breaker_rejected_total";
+  private static final String M_REPORT_LIMIT = "rewardflow_report_concurrency_limit";
+  private static final String M_REPORT_INFLIGHT = "rewardflow_report_inflight";
+  private static final String M_REPORT_SHED_TOTAL = "rewardflow_report_shed_total";
+  private static final String M_DEFERRED_AWARD_QUEUE_DEPTH = "rewardflow_deferred_award_queue_depth";
+  private static final String M_DEFERRED_AWARD_TOTAL = "rewardflow_deferred_award_total";
+  private static final String M_DEFERRED_AWARD_LAG = "rewardflow_deferred_award_lag";
+  private static final String M_REPORT_COALESCE_TOTAL = "rewardflow_report_coalesce_total";
+  private static final String M_REPORT_COALESCE_SIZE = "rewardflow_report_coalesce_size";
+  private static final String M_SHARDED_AGG_KEYS = "rewardflow_sharded_agg_keys";
+  private static final String M_SHARDED_AGG_OFFHEAP_BYTES = "rewardflow_sharded_agg_offheap_bytes";
+  private static final String M_SHARDED_AGG_CHECKPOINT_TOTAL = "rewardflow_sharded_agg_checkpoint_total";
+  private static final String M_SHARDED_AGG_CHECKPOINT_ROWS = "rewardflow_sharded_agg_checkpoint_rows_total";
+  private static final String M_SHARDED_AGG_CHECKPOINT_LATENCY = "rewardflow_sharded_agg_checkpoint_latency";
+  private static final String M_SHARDED_AGG_MISROUTED_TOTAL = "rewardflow_sharded_agg_misrouted_total";
+
+  // async mongo writer
+  private static final String M_MONGO_WRITER_QUEUE_DEPTH = "rewardflow_mongo_writer_queue_depth";
+  private static final String M_MONGO_WRITER_QUEUE_CAPACITY = "rewardflow_mongo_writer_queue_capacity";
+  private static final String M_MONGO_WRITER_BATCH_SIZE = "rewardflow_mongo_writer_batch_size";
+  private static final String M_MONGO_WRITER_FLUSH_LATENCY = "rewardflow_mongo_writer_flush_latency";
+  private static final String M_MONGO_WRITER_DROPPED_TOTAL = "rewardflow_mongo_writer_dropped_total";
+  private static final String M_MONGO_WRITER_FAILED_TOTAL = "rewardflow_mongo_writer_failed_total";
 
   // outbox gauges
   private static final String M_OUTBOX_PENDING = "rewardflow_outbox_pending";
@@ -42,8 +90,45 @@ public class RewardFlowMetrics {
   private final ConcurrentHashMap<String, Counter> playReportCounter = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<String, Timer> playReportTimer = new ConcurrentHashMap<>();
 
+  // -------- DB hold --------
+  private final ConcurrentHashMap<String, Timer> txHoldTimer = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Timer> reportDbHoldTimer = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Timer> mysqlAggTimer = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Timer> mysqlAggLockWaitTimer = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, AtomicLong> hotThresholdGauges = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, AtomicLong> redisBreakerStateGauges = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> redisBreakerTransitionCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> redisBreakerRejectedCounter = new ConcurrentHashMap<>();
+  private final Counter reportShedCounter;
+  private final ConcurrentHashMap<String, Counter> deferredAwardCounter = new ConcurrentHashMap<>();
+  private final Timer deferredAwardLagTimer;
+  private final ConcurrentHashMap<String, Counter> reportCoalesceCounter = new ConcurrentHashMap<>();
+  private final DistributionSummary reportCoalesceSize;
+  private final ConcurrentHashMap<String, Counter> shardedAggCheckpointCounter = new ConcurrentHashMap<>();
+  private final Counter shardedAggCheckpointRows;
+  private final Timer shardedAggCheckpointTimer;
+  private final Counter shardedAggMisroutedCounter;
+
+  // -------- Async mongo writer --------
+  private final ConcurrentHashMap<String, DistributionSummary> mongoWriterBatchSize = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Timer> mongoWriterFlushTimer = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> mongoWriterDropped = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> mongoWriterFailed = new ConcurrentHashMap<>();
+
   // -------- Award issue --------
   private final ConcurrentHashMap<String, Counter> awardIssueCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> awardGateCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> awardedMaskLoadCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> redisAggColdLoadCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> hotRoutingCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> aggStoreCounter = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> redisAggFlushKeysCounter = new ConcurrentHashMap<>();
+  private final AtomicLong redisAggDirtyKeys = new AtomicLong(0);
+  private final AtomicLong redisAggFlushLagMs = new AtomicLong(0);
+  private final AtomicLong redisAggResidentKeys = new AtomicLong(0);
+  private final Counter redisAggEvictionsCounter;
+  private final Counter redisAggDirtyTagRepairedCounter;
+  private final Timer redisAggFlushBatchTimer;
 
   // -------- Outbox gauges --------
   private final AtomicLong outboxPending = new AtomicLong(0);
@@ -62,11 +147,43 @@ public class RewardFlowMetrics {
     // Gauges (instant values)
     registry.gauge(M_OUTBOX_PENDING, outboxPending);
     registry.gauge(M_OUTBOX_FAILED, outboxFailed);
+    registry.gauge(M_REDIS_AGG_DIRTY_KEYS, redisAggDirtyKeys);
+    registry.gauge(M_REDIS_AGG_FLUSH_LAG_MS, redisAggFlushLagMs);
+    registry.gauge(M_REDIS_AGG_RESIDENT_KEYS, redisAggResidentKeys);
 
     // Counters (monotonic)
     this.outboxPublishedCounter = Counter.builder(M_OUTBOX_PUBLISHED_TOTAL)
         .description("outbox published total (counter)")
         .register(registry);
+    this.redisAggEvictionsCounter = Counter.builder(M_REDIS_AGG_EVICTIONS_TOTAL)
+        .description("redis daily aggregate keys whose ttl was shrunk to the idle window after a flush")
+        .register(registry);
+    this.redisAggDirtyTagRepairedCounter = Counter.builder(M_REDIS_AGG_DIRTY_TAG_REPAIRED_TOTAL)
+        .description("non-empty redis dirty sets re-registered into the dirty tag index by the sweep")
+        .register(registry);
+    this.redisAggFlushBatchTimer = Timer.builder(M_REDIS_AGG_FLUSH_BATCH_LATENCY)
+        .description("redis daily aggregate flush latency per batch (reserve + upsert + read-back + commit)")
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .register(registry);
+    this.reportShedCounter = Counter.builder(M_REPORT_SHED_TOTAL)
+        .description("play reports rejected early by the concurrency limiter")
+        .register(registry);
+    this.deferredAwardLagTimer = Timer.builder(M_DEFERRED_AWARD_LAG)
+        .description("time from the first enqueue of a deferred award key to its evaluation")
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .register(registry);
+    this.reportCoalesceSize = DistributionSummary.builder(M_REPORT_COALESCE_SIZE)
+        .description("reports merged into one aggregation + preview")
+        .register(registry);
+    this.shardedAggCheckpointRows = Counter.builder(M_SHARDED_AGG_CHECKPOINT_ROWS)
+        .description("user_play_daily rows upserted by sharded agg checkpoints")
+        .register(registry);
+    this.shardedAggCheckpointTimer = Timer.builder(M_SHARDED_AGG_CHECKPOINT_LATENCY)
+        .description("sharded agg checkpoint latency")
+        .register(registry);
+    this.shardedAggMisroutedCounter = Counter.builder(M_SHARDED_AGG_MISROUTED_TOTAL)
+        .description("reports rejected because another node owns the user")
+        .register(registry);
   }
 
   // ---------------------------
@@ -139,6 +256,339 @@ public class RewardFlowMetrics {
     }
   }
 
+  // ---------------------------
+  // DB transaction hold
+  // ---------------------------
+
+  /**
+   * 单个短事务阶段的耗时（≈ 连接占用时长）
+   * stage: insert / mysql_agg / issue ...（代码内固定值，低基数）
+   */
+  public void recordTxHold(String stage, long costNs) {
+    try {
+      String s = safe(stage);
+      Timer t = txHoldTimer.computeIfAbsent(s, k ->
+          Timer.builder(M_DB_TX_HOLD)
+              .description("db transaction (connection hold) time per stage")
+              .tag("stage", s)
+              .publishPercentileHistogram()
+              .register(registry));
+      t.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * 单个上报请求累计的连接占用时长；api: single | batch
+   * 去重命中 / 风控拒绝的请求为 0，可以直接看出有多少请求根本没碰 MySQL 事务
+   */
+  public void recordReportDbHold(String api, long costNs) {
+    try {
+      String a = safe(api);
+      Timer t = reportDbHoldTimer.computeIfAbsent(a, k ->
+          Timer.builder(M_PLAY_REPORT_DB_HOLD)
+              .description("db connection hold time per play report request")
+              .tag("api", a)
+              .publishPercentileHistogram()
+              .register(registry));
+      t.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * MySQL 聚合方法本身的耗时（不含事务提交）；mode: range_sum | upsert
+   */
+  public void recordMysqlAgg(String mode, long costNs) {
+    try {
+      String m = safe(mode);
+      Timer t = mysqlAggTimer.computeIfAbsent(m, k ->
+          Timer.builder(M_MYSQL_AGG_LATENCY)
+              .description("mysql daily aggregate latency per mode")
+              .tag("mode", m)
+              .publishPercentileHistogram()
+              .register(registry));
+      t.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * MySQL 聚合里拿行锁的语句耗时（含等锁）；stage: select_for_update | update_totals | upsert（代码内固定值）
+   */
+  public void recordMysqlAggLockWait(String scene, String stage, long costNs) {
+    try {
+      String sc = safe(scene);
+      String st = safe(stage);
+      Timer t = mysqlAggLockWaitTimer.computeIfAbsent(sc + "|" + st, k ->
+          Timer.builder(M_MYSQL_AGG_LOCK_WAIT)
+              .description("mysql daily aggregate row-lock statement time")
+              .tag("scene", sc)
+              .tag("stage", st)
+              .publishPercentileHistogram()
+              .register(registry));
+      t.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** 当前生效的高频阈值（每分钟上报次数） */
+  public void setHotThreshold(String scene, int threshold) {
+    try {
+      String sc = safe(scene);
+      hotThresholdGauges.computeIfAbsent(sc, k -> {
+        AtomicLong v = new AtomicLong();
+        Gauge.builder(M_HOT_THRESHOLD_EFFECTIVE, v, AtomicLong::get)
+            .description("effective hot routing threshold per minute")
+            .tag("scene", sc)
+            .register(registry);
+        return v;
+      }).set(threshold);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** Redis 阶段熔断器状态：0 closed / 1 open / 2 half_open；stage = ingest | agg | dedup | risk */
+  public void setRedisBreakerState(String stage, int state) {
+    try {
+      String st = safe(stage);
+      redisBreakerStateGauges.computeIfAbsent(st, k -> {
+        AtomicLong v = new AtomicLong();
+        Gauge.builder(M_REDIS_BREAKER_STATE, v, AtomicLong::get)
+            .description("redis stage circuit breaker state (0 closed, 1 open, 2 half_open)")
+            .tag("stage", st)
+            .register(registry);
+        return v;
+      }).set(state);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** 熔断器状态切换：to = closed | open | half_open */
+  public void incRedisBreakerTransition(String stage, String to) {
+    try {
+      String st = safe(stage);
+      String t = safe(to);
+      redisBreakerTransitionCounter.computeIfAbsent(st + "|" + t, k ->
+          Counter.builder(M_REDIS_BREAKER_TRANSITIONS)
+              .description("redis stage circuit breaker state transitions")
+              .tag("stage", st)
+              .tag("to", t)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** 熔断打开期间被直接降级（没有访问 Redis）的调用 */
+  public void incRedisBreakerRejected(String stage) {
+    try {
+      String st = safe(stage);
+      redisBreakerRejectedCounter.computeIfAbsent(st, k ->
+          Counter.builder(M_REDIS_BREAKER_REJECTED)
+              .description("calls degraded while the redis stage breaker is open")
+              .tag("stage", st)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  // ---------------------------
+  // Report concurrency limiter
+  // ---------------------------
+
+  public void bindReportLimiter(IntSupplier limit, IntSupplier inflight) {
+    try {
+      Gauge.builder(M_REPORT_LIMIT, limit, IntSupplier::getAsInt)
+          .description("adaptive concurrency limit of /api/v1/play/report")
+          .register(registry);
+      Gauge.builder(M_REPORT_INFLIGHT, inflight, IntSupplier::getAsInt)
+          .description("in-flight /api/v1/play/report requests")
+          .register(registry);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void incReportShed() {
+    try {
+      reportShedCounter.increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  // ---------------------------
+  // Deferred award
+  // ---------------------------
+
+  public void bindDeferredAwardQueue(IntSupplier depth) {
+    try {
+      Gauge.builder(M_DEFERRED_AWARD_QUEUE_DEPTH, depth, IntSupplier::getAsInt)
+          .description("deferred award keys waiting for evaluation")
+          .register(registry);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * 异步发奖：result = enqueued | coalesced（合并进已有项）| rejected（队列满，退回同步）|
+   * done | failed | retried | dropped（重试次数用完）
+   */
+  public void incDeferredAward(String result) {
+    try {
+      String r = safe(result);
+      deferredAwardCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_DEFERRED_AWARD_TOTAL)
+              .description("deferred award queue events")
+              .tag("result", r)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void recordDeferredAwardLag(long lagMs) {
+    try {
+      deferredAwardLagTimer.record(Math.max(0L, lagMs), TimeUnit.MILLISECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  // ---------------------------
+  // Report coalescing
+  // ---------------------------
+
+  /**
+   * 并发上报合并：result = lead（key 空闲，照常单条）| leader（代表一趟执行）| joined（拿别人的结果）|
+   * solo（排队时前一趟刚好结束，自己执行）| bypass（一趟已满，不合并）
+   */
+  public void incReportCoalesce(String result) {
+    try {
+      String r = safe(result);
+      reportCoalesceCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_REPORT_COALESCE_TOTAL)
+              .description("play reports by coalescing role")
+              .tag("result", r)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void recordReportCoalesceSize(int size) {
+    try {
+      reportCoalesceSize.record(size);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  // ---------------------------
+  // Sharded agg
+  // ---------------------------
+
+  public void bindShardedAgg(IntSupplier keys, LongSupplier offHeapBytes) {
+    try {
+      Gauge.builder(M_SHARDED_AGG_KEYS, keys, IntSupplier::getAsInt)
+          .description("keys held in the sharded agg off-heap tables")
+          .register(registry);
+      Gauge.builder(M_SHARDED_AGG_OFFHEAP_BYTES, offHeapBytes, LongSupplier::getAsLong)
+          .description("off-heap bytes allocated by the sharded agg tables")
+          .register(registry);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** result = ok | partial（有批次失败，WAL 保留到下一次全部成功） */
+  public void recordShardedAggCheckpoint(String result, int rows, long costNs) {
+    try {
+      String r = safe(result);
+      shardedAggCheckpointCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_SHARDED_AGG_CHECKPOINT_TOTAL)
+              .description("sharded agg checkpoints")
+              .tag("result", r)
+              .register(registry)).increment();
+      shardedAggCheckpointRows.increment(rows);
+      shardedAggCheckpointTimer.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void incShardedAggMisrouted() {
+    try {
+      shardedAggMisroutedCounter.increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  // ---------------------------
+  // Async mongo writer
+  // ---------------------------
+
+  public void bindMongoWriterQueue(IntSupplier depth, int capacity) {
+    try {
+      Gauge.builder(M_MONGO_WRITER_QUEUE_DEPTH, depth, IntSupplier::getAsInt)
+          .description("async mongo writer queue depth")
+          .register(registry);
+      Gauge.builder(M_MONGO_WRITER_QUEUE_CAPACITY, () -> capacity)
+          .description("async mongo writer queue capacity")
+          .register(registry);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void incMongoWriterDropped(String collection) {
+    try {
+      String c = safe(collection);
+      mongoWriterDropped.computeIfAbsent(c, k ->
+          Counter.builder(M_MONGO_WRITER_DROPPED_TOTAL)
+              .description("documents dropped because the async mongo writer queue was full")
+              .tag("collection", c)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void recordMongoWriterFlush(String collection, int size, int failed, long costNs) {
+    try {
+      String c = safe(collection);
+      mongoWriterBatchSize.computeIfAbsent(c, k ->
+          DistributionSummary.builder(M_MONGO_WRITER_BATCH_SIZE)
+              .description("documents per insertMany")
+              .tag("collection", c)
+              .register(registry)).record(size);
+      mongoWriterFlushTimer.computeIfAbsent(c, k ->
+          Timer.builder(M_MONGO_WRITER_FLUSH_LATENCY)
+              .description("async mongo writer insertMany latency")
+              .tag("collection", c)
+              .register(registry)).record(costNs, TimeUnit.NANOSECONDS);
+      if (failed > 0) {
+        mongoWriterFailed.computeIfAbsent(c, k ->
+            Counter.builder(M_MONGO_WRITER_FAILED_TOTAL)
+                .description("documents failed in insertMany")
+                .tag("collection", c)
+                .register(registry)).increment(failed);
+      }
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
   // ---------------------------
   // Award Issue (Production)
   // ---------------------------
@@ -180,6 +630,154 @@ public class RewardFlowMetrics {
     }
   }
 
+  /**
+   * 发奖闸门判定：decision = crossed | rule_changed | retry_pending | skipped | disabled
+   * 跳过率 = sum(rate(rewardflow_award_gate_total{decision="skipped"})) / sum(rate(rewardflow_award_gate_total))
+   */
+  public void incAwardGate(String scene, String decision) {
+    try {
+      String s = safe(scene);
+      String d = safe(decision);
+      awardGateCounter.computeIfAbsent(s + "|" + d, k ->
+          Counter.builder(M_AWARD_GATE_TOTAL)
+              .description("award preview gate decisions per accepted report")
+              .tag("scene", s)
+              .tag("decision", d)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * 预览读取已发奖档位位图的来源：source = redis | mysql | rebuild（rebuild 表示回源 reward_flow）
+   */
+  public void incAwardedMaskLoad(String source) {
+    try {
+      String s = safe(source);
+      awardedMaskLoadCounter.computeIfAbsent(s, k ->
+          Counter.builder(M_AWARDED_MASK_LOAD_TOTAL)
+              .description("awarded stage bitmap loads by source")
+              .tag("source", s)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * Redis 聚合冷 key 加载：result = loaded（本次读库并初始化）| lost（读库后发现已被别的实例初始化）
+   * | joined（等到了同 JVM 内正在进行的加载）| adopted（搬过来不带 hash tag 的旧布局 key）
+   * | converted（搬过来另一种存储格式的 key）| reloaded（同 loaded，但日汇总行已存在：被驱逐 / 过期后重新加载）
+   */
+  public void incRedisAggColdLoad(String result) {
+    try {
+      String r = safe(result);
+      redisAggColdLoadCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_REDIS_AGG_COLD_LOAD_TOTAL)
+              .description("redis daily aggregate cold loads")
+              .tag("result", r)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * 热点路由判定的来源：local_cold（本机估计低于预阈值，没碰 Redis）| local_hot（本机热点缓存命中）
+   * | remote_hot / remote_cold（查了 Redis）。省下的 Redis 往返 = local_cold + local_hot
+   */
+  public void incHotRouting(String result) {
+    try {
+      String r = safe(result);
+      hotRoutingCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_HOT_ROUTING_TOTAL)
+              .description("hot user routing decisions by source")
+              .tag("result", r)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * 日聚合按存储的记账次数：store = mysql | redis | memory；result = ok | fallback（回退到 MySQL）| failed
+   */
+  public void incAggStore(String store, String result) {
+    try {
+      String s = safe(store);
+      String r = safe(result);
+      aggStoreCounter.computeIfAbsent(s + "|" + r, k ->
+          Counter.builder(M_AGG_STORE_TOTAL)
+              .description("daily aggregate records by store")
+              .tag("store", s)
+              .tag("result", r)
+              .register(registry)).increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /**
+   * Redis 聚合 flush 处理的 key 数：result = flushed | failed | skipped（预留时没有可刷的增量）
+   * 刷写吞吐 = rate(rewardflow_redis_agg_flush_keys_total{result="flushed"})
+   */
+  public void incRedisAggFlushKeys(String result, int n) {
+    if (n <= 0) {
+      return;
+    }
+    try {
+      String r = safe(result);
+      redisAggFlushKeysCounter.computeIfAbsent(r, k ->
+          Counter.builder(M_REDIS_AGG_FLUSH_KEYS_TOTAL)
+              .description("redis daily aggregate keys processed by flush")
+              .tag("result", r)
+              .register(registry)).increment(n);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  public void recordRedisAggFlushBatch(long costNs) {
+    try {
+      redisAggFlushBatchTimer.record(costNs, TimeUnit.NANOSECONDS);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** flush 后 pending 已清空、TTL 缩短到空闲窗口的 key 数（窗口内没有新上报就会被 Redis 删掉） */
+  public void incRedisAggEvictions(int n) {
+    if (n <= 0) {
+      return;
+    }
+    try {
+      redisAggEvictionsCounter.increment(n);
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** 巡检补登记到脏 tag 索引的 tag 数（记账后、登记前失败才会出现） */
+  public void incRedisAggDirtyTagRepaired() {
+    try {
+      redisAggDirtyTagRepairedCounter.increment();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+
+  /** 常驻的日聚合 key 数（抽样估算） */
+  public void setRedisAggResidentKeys(long keys) {
+    redisAggResidentKeys.set(Math.max(0L, keys));
+  }
+
+  /** 每轮 flush 开始时的积压：脏 key 数、最老脏 key 距今的毫秒数 */
+  public void setRedisAggFlushBacklog(long dirtyKeys, long lagMs) {
+    redisAggDirtyKeys.set(Math.max(0L, dirtyKeys));
+    redisAggFlushLagMs.set(Math.max(0L, lagMs));
+  }
+
   /**
    * 兼容旧调用：只传 result 的场景（不推荐生产使用）。
    */
@@ -0,0 +1,31 @@
+package com.rewardflow.app.service;
+
+import java.util.Locale;
+
+/**
+ * 场景级的日聚合存储策略（feature center 的 aggStrategy，见 {@link AggregationRouter}）
+ */
+public enum AggStrategy {
+  /** 按热点路由：高频走 Redis，其余走 MySQL */
+  AUTO,
+  /** 只走 MySQL（低流量场景） */
+  MYSQL,
+  /** 只走 Redis 缓冲，Redis 失败时回退 MySQL（爆款场景） */
+  REDIS,
+  /** 单机内存，不落库，只用于测试 / 压测（需要 rewardflow.play-daily-agg.memory-store-enabled=true） */
+  MEMORY,
+  /** 按用户分片的单机堆外聚合 + WAL，定时 checkpoint 回 MySQL（需要 rewardflow.sharded-agg.enabled=true，否则按 auto） */
+  SHARDED;
+
+  /** 不认识的值返回 null */
+  public static AggStrategy parse(String raw) {
+    if (raw == null || raw.isBlank()) {
+      return null;
+    }
+    try {
+      return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.exception.MisroutedException;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import java.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * 日聚合的路由、回退与指标：按场景的 aggStrategy（feature center，见 {@link AggStrategy}）选择 {@link AggregationStore}
+ *
+ * <ul>
+ *   <li>auto：高频用户走 Redis（{@link PlayDailyAggRoutingService}），其余走 MySQL</li>
+ *   <li>mysql：只走 MySQL；redis：只走 Redis；memory：单机内存（需要开关，否则按 auto）</li>
+ *   <li>sharded：本实例负责的用户走本机堆外表（{@link ShardedAggregationStore}），不负责的用户在入口拒绝（{@link #ensureOwned}）</li>
+ *   <li>MySQL 用 upsert 聚合时，Redis 里还有未刷写增量的 key 不管策略都继续走 Redis（upsert 不能越过未刷写的增量推进水位）</li>
+ *   <li>非事务存储记账失败时回退到 MySQL range_sum（明细 SUM 会把缓冲里没刷下去的增量一起补进来）；
+ *       sharded 除外：本机表里还有没 checkpoint 的增量，回退会把它们重复算进 MySQL，由存储自己按明细追平</li>
+ * </ul>
+ */
+@Service
+public class AggregationRouter {
+
+  private static final Logger log = LoggerFactory.getLogger(AggregationRouter.class);
+
+  // 融合脚本 ARGV[6]：Redis 聚合怎么判定
+  static final String FUSED_OFF = "0";
+  static final String FUSED_AUTO = "1";
+  static final String FUSED_FORCE = "2";
+  static final String FUSED_STICKY_ONLY = "3";
+
+  private final FeatureCenterService featureCenterService;
+  private final PlayDailyAggRoutingService routingService;
+  private final PlayDailyAggService aggService;
+  private final MysqlAggregationStore mysqlStore;
+  private final RedisAggregationStore redisStore;
+  private final MemoryAggregationStore memoryStore;
+  private final ShardedAggregationStore shardedStore;
+  private final TxStageRunner txStageRunner;
+  private final RedisStageBreaker breaker;
+  private final RewardFlowMetrics metrics;
+
+  public AggregationRouter(FeatureCenterService featureCenterService,
+                           PlayDailyAggRoutingService routingService,
+                           PlayDailyAggService aggService,
+                           MysqlAggregationStore mysqlStore,
+                           RedisAggregationStore redisStore,
+                           MemoryAggregationStore memoryStore,
+                           ShardedAggregationStore shardedStore,
+                           TxStageRunner txStageRunner,
+                           RedisStageBreaker breaker,
+                           RewardFlowMetrics metrics) {
+    this.featureCenterService = featureCenterService;
+    this.routingService = routingService;
+    this.aggService = aggService;
+    this.mysqlStore = mysqlStore;
+    this.redisStore = redisStore;
+    this.memoryStore = memoryStore;
+    this.shardedStore = shardedStore;
+    this.txStageRunner = txStageRunner;
+    this.breaker = breaker;
+    this.metrics = metrics;
+  }
+
+  /** 场景生效的策略：存储不可用时降级（memory / sharded -> auto，redis -> mysql） */
+  public AggStrategy strategyFor(String scene) {
+    AggStrategy s = AggStrategy.parse(featureCenterService.effectiveForScene(scene).getAggStrategy());
+    if (s == null || (s == AggStrategy.MEMORY && !memoryStore.available())
+        || (s == AggStrategy.SHARDED && !shardedStore.available())) {
+      s = AggStrategy.AUTO;
+    }
+    if (s == AggStrategy.REDIS && !redisStore.available()) {
+      s = AggStrategy.MYSQL;
+    }
+    return s;
+  }
+
+  /**
+   * sharded 场景下该用户不归本实例时抛 {@link MisroutedException}（带 owner），要在落明细之前调用
+   */
+  public void ensureOwned(String userId, String scene) {
+    if (strategyFor(scene) != AggStrategy.SHARDED || shardedStore.owns(userId)) {
+      return;
+    }
+    metrics.incShardedAggMisrouted();
+    String owner = shardedStore.ownerOf(userId);
+    throw new MisroutedException(4210, "user not owned by this node, owner=" + owner, owner);
+  }
+
+  /**
+   * 不走融合脚本时选择存储
+   *
+   * @param reports 本次计入的分段数（热点计数用）
+   */
+  public AggregationStore select(String userId, String scene, LocalDate bizDate, long nowMs, int reports) {
+    switch (strategyFor(scene)) {
+      case MEMORY:
+        return memoryStore;
+      case SHARDED:
+        return shardedStore;
+      case REDIS:
+        return redisStore;
+      case AUTO:
+        if (redisStore.available() && breaker.call(RedisStageBreaker.AGG,
+            () -> routingService.shouldUseRedis(userId, scene, nowMs, reports), () -> false)) {
+          return redisStore;
+        }
+        return stickyOr(userId, scene, bizDate);
+      default:
+        return stickyOr(userId, scene, bizDate);
+    }
+  }
+
+  /**
+   * 融合脚本已经做过热点 / 粘滞判定时选择存储
+   *
+   * <p>脚本只能看到当前布局的脏集合，旧布局（{rf-i}）里还没排空的 key 在这里补查
+   */
+  public AggregationStore selectFused(String userId, String scene, LocalDate bizDate, boolean hot) {
+    if (hot) {
+      return redisStore;
+    }
+    AggStrategy s = strategyFor(scene);
+    if (s == AggStrategy.MEMORY) {
+      return memoryStore;
+    }
+    if (s == AggStrategy.SHARDED) {
+      return shardedStore;
+    }
+    if (redisStore.available() && aggService.upsertMode() && redisStore.hasLegacyUnflushed(userId, scene, bizDate)) {
+      return redisStore;
+    }
+    return mysqlStore;
+  }
+
+  /** 融合脚本的 Redis 聚合判定方式，见 {@link RedisIngestGateService} */
+  public String fusedAggMode(String scene) {
+    if (!redisStore.available()) {
+      return FUSED_OFF;
+    }
+    switch (strategyFor(scene)) {
+      case AUTO:
+        return FUSED_AUTO;
+      case REDIS:
+        return FUSED_FORCE;
+      case MYSQL:
+        return aggService.upsertMode() ? FUSED_STICKY_ONLY : FUSED_OFF;
+      default:
+        return FUSED_OFF;
+    }
+  }
+
+  /**
+   * 并发上报能否合并成一次聚合（{@link ReportCoalescer}）：只有 MySQL range_sum，
+   * 它按水位补齐所有已提交的明细，某一趟失败时下一次聚合也会把漏掉的明细补上
+   */
+  public boolean coalescible(AggregationStore store) {
+    return store == mysqlStore && !aggService.upsertMode();
+  }
+
+  /**
+   * 在调用方已经开好的事务里记账，只用于 {@link AggregationStore#transactional()} 的存储
+   */
+  public AggregationStore.Result recordInTx(AggregationStore store, String userId, String scene, LocalDate bizDate,
+                                            int[] durations, long[] syncTimes) {
+    try {
+      AggregationStore.Result res = store.record(userId, scene, bizDate, durations, syncTimes);
+      metrics.incAggStore(store.name(), "ok");
+      return res;
+    } catch (RuntimeException ex) {
+      metrics.incAggStore(store.name(), "failed");
+      throw ex;
+    }
+  }
+
+  /**
+   * 记账：事务存储自己开一个短事务（mysql_agg）；非事务存储失败时回退到 MySQL range_sum
+   */
+  public AggregationStore.Result record(AggregationStore store, String userId, String scene, LocalDate bizDate,
+                                        int[] durations, long[] syncTimes) {
+    if (store.transactional()) {
+      return txStageRunner.inTx("mysql_agg", () -> recordInTx(store, userId, scene, bizDate, durations, syncTimes));
+    }
+    try {
+      AggregationStore.Result res = store.record(userId, scene, bizDate, durations, syncTimes);
+      metrics.incAggStore(store.name(), "ok");
+      return res;
+    } catch (Exception ex) {
+      if (store == shardedStore) {
+        metrics.incAggStore(store.name(), "failed");
+        throw ex;
+      }
+      // 熔断打开时每个请求都会走到这里，不逐条打 warn（看 rewardflow_redis_breaker_rejected_total）
+      if (!(ex instanceof RedisStageBreaker.OpenException)) {
+        log.warn("{} agg failed, fallback to mysql agg: userId={}, scene={}, bizDate={}, size={}, err={}",
+            store.name(), userId, scene, bizDate, durations.length, ex.toString());
+      }
+      AggregationStore.Result res = catchUp(userId, scene, bizDate, syncTimes);
+      metrics.incAggStore(store.name(), "fallback");
+      return res;
+    }
+  }
+
+  /**
+   * 明细已提交、{@link #record} 仍然失败后的兜底（批量上报按分组调用）：事务存储失败时同样按 MySQL range_sum 追平；
+   * 非事务存储在 record 里已经回退过，sharded 不回退，原样抛出
+   */
+  public AggregationStore.Result catchUpAfterFailure(AggregationStore store, String userId, String scene,
+                                                     LocalDate bizDate, long[] syncTimes, RuntimeException cause) {
+    if (!store.transactional() || store == shardedStore) {
+      throw cause;
+    }
+    log.warn("{} agg failed after details committed, fallback to mysql catch-up: userId={}, scene={}, bizDate={}, err={}",
+        store.name(), userId, scene, bizDate, cause.toString());
+    AggregationStore.Result res = catchUp(userId, scene, bizDate, syncTimes);
+    metrics.incAggStore(store.name(), "fallback");
+    return res;
+  }
+
+  private AggregationStore.Result catchUp(String userId, String scene, LocalDate bizDate, long[] syncTimes) {
+    long maxSync = 0L;
+    for (long s : syncTimes) {
+      maxSync = Math.max(maxSync, s);
+    }
+    long catchUpTo = maxSync;
+    return txStageRunner.inTx("mysql_agg", () -> mysqlStore.catchUp(userId, scene, bizDate, catchUpTo));
+  }
+
+  /**
+   * 只读当天累计（幂等命中的回填）：热点 / redis 策略读 Redis，失败时读 MySQL；没有记录时返回 null
+   */
+  public AggregationStore.Result readTotalBestEffort(String userId, String scene, LocalDate bizDate, String traceId) {
+    AggStrategy s = strategyFor(scene);
+    if (s == AggStrategy.MEMORY) {
+      return memoryStore.readTotal(userId, scene, bizDate);
+    }
+    if (s == AggStrategy.SHARDED) {
+      return shardedStore.readTotal(userId, scene, bizDate);
+    }
+    boolean viaRedis = s == AggStrategy.REDIS
+        || (s == AggStrategy.AUTO && redisStore.available()
+            && breaker.call(RedisStageBreaker.AGG, () -> routingService.isHot(userId, scene), () -> false));
+    if (viaRedis) {
+      try {
+        return redisStore.readTotal(userId, scene, bizDate);
+      } catch (RedisStageBreaker.OpenException ex) {
+        // 熔断打开：直接读 MySQL
+      } catch (Exception ex) {
+        log.warn("redis agg best-effort failed, fallback to mysql: traceId={}, userId={}, scene={}, bizDate={}, err={}",
+            traceId, userId, scene, bizDate, ex.toString());
+      }
+    }
+    return mysqlStore.readTotal(userId, scene, bizDate);
+  }
+
+  // MySQL 用 upsert 聚合时，Redis 里还有未刷写增量的 key 继续走 Redis
+  private AggregationStore stickyOr(String userId, String scene, LocalDate bizDate) {
+    if (redisStore.available() && aggService.upsertMode() && redisStore.hasUnflushed(userId, scene, bizDate)) {
+      return redisStore;
+    }
+    return mysqlStore;
+  }
+}
@@ -0,0 +1,40 @@
+package com.rewardflow.app.service;
+
+import java.time.LocalDate;
+
+/**
+ * 日聚合（user_play_daily 口径的当天累计）的存储实现，由 {@link AggregationRouter} 按场景策略选择
+ *
+ * <ul>
+ *   <li>{@link MysqlAggregationStore}：直接聚合到 user_play_daily，需要在调用方的事务里执行</li>
+ *   <li>{@link RedisAggregationStore}：写入 Redis 缓冲，由 flush 任务批量刷回 MySQL</li>
+ *   <li>{@link MemoryAggregationStore}：单机内存，只用于测试 / 压测</li>
+ *   <li>{@link ShardedAggregationStore}：按用户分片的本机堆外表 + WAL，定时 checkpoint 回 MySQL</li>
+ * </ul>
+ * 分段的去重由明细表唯一索引 / 去重 key 保证，实现只负责按水位累加
+ */
+public interface AggregationStore {
+
+  /** 指标 / 日志里的名字：mysql | redis | memory | sharded */
+  String name();
+
+  /** 当前配置下是否可用 */
+  boolean available();
+
+  /** true 表示 {@link #record} 要在调用方开的事务里执行 */
+  boolean transactional();
+
+  /** 记入同一个 (userId, scene, bizDate) 的一个或多个分段，返回记账后的累计与本次实际计入的增量 */
+  Result record(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes);
+
+  /** 只读当天累计；没有记录时返回 null */
+  Result readTotal(String userId, String scene, LocalDate bizDate);
+
+  class Result {
+    public int totalDuration;
+    public int deltaDuration;
+    /** 本次之前最近一次记账的时间，发奖闸门用；clientClock=true 时是客户端 syncTime，否则是服务端时间 */
+    public long prevSeenAt;
+    public boolean clientClock;
+  }
+}
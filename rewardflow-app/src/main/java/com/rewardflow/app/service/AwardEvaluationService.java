@@ -0,0 +1,132 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.api.dto.PlayReportResponse;
+import com.rewardflow.app.award.model.IssueResult;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * 发奖预览 + 发奖：同步上报路径与异步发奖（{@link DeferredAwardQueue}）共用
+ */
+@Service
+public class AwardEvaluationService {
+
+  private static final Logger log = LoggerFactory.getLogger(AwardEvaluationService.class);
+
+  private final AwardPreviewService awardPreviewService;
+  private final AwardIssueService awardIssueService;
+  private final FeatureCenterService featureCenterService;
+
+  public AwardEvaluationService(AwardPreviewService awardPreviewService,
+                                AwardIssueService awardIssueService,
+                                FeatureCenterService featureCenterService) {
+    this.awardPreviewService = awardPreviewService;
+    this.awardIssueService = awardIssueService;
+    this.featureCenterService = featureCenterService;
+  }
+
+  /**
+   * 预览并发奖，结果回填到 resp（hitRuleVersion / grayHit / awardPlans）
+   */
+  public void previewAndIssue(PlayReportResponse resp, String userId, String scene, LocalDate bizDate, int totalDuration) {
+    // 有哪些奖励命中
+    AwardPreviewService.PreviewResult preview =
+        awardPreviewService.preview(userId, scene, bizDate, totalDuration, resp.getTraceId());
+
+    resp.setHitRuleVersion(preview.getHitRuleVersion());
+    resp.setGrayHit(preview.isGrayHit());
+    int planCount = preview.getItems() == null ? 0 : preview.getItems().size();
+    log.debug("award preview: traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, ruleVersion={}, grayHit={}, planCount={}",
+        resp.getTraceId(), userId, scene, bizDate, totalDuration, preview.getHitRuleVersion(), preview.isGrayHit(), planCount);
+
+    // 验证feature开关
+    boolean issueEnabled = featureCenterService.effectiveForScene(scene).isAwardIssueEnabled();
+    if (!issueEnabled) {
+      applyDisabled(preview.getItems());
+      resp.setAwardPlans(preview.getItems());
+      AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
+      log.info("award issue disabled: traceId={}, userId={}, scene={}, bizDate={}, planCount={}, ruleVersion={}, grayHit={}",
+          resp.getTraceId(), userId, scene, bizDate, stats.planCount, preview.getHitRuleVersion(), preview.isGrayHit());
+      return;
+    }
+
+    // 真正发奖 结果回填
+    Map<String, IssueResult> issued = awardIssueService.issue(
+        userId, scene, bizDate, totalDuration,
+        preview.getHitRuleVersion(), preview.isGrayHit(), preview.getItems(), resp.getTraceId());
+
+    applyIssueResult(preview.getItems(), issued);
+    resp.setAwardPlans(preview.getItems());
+    AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
+    log.info("award issue completed: traceId={}, userId={}, scene={}, bizDate={}, planCount={}, issued={}, failed={}, ruleVersion={}, grayHit={}",
+        resp.getTraceId(), userId, scene, bizDate, stats.planCount, stats.issuedCount, stats.failedCount,
+        preview.getHitRuleVersion(), preview.isGrayHit());
+  }
+
+  private void applyDisabled(List<PlayReportResponse.RewardPlanItem> items) {
+    if (items == null) {
+      return;
+    }
+    for (PlayReportResponse.RewardPlanItem it : items) {
+      if (it == null) {
+        continue;
+      }
+      it.setIssued(false);
+      it.setFlowId(null);
+      it.setEventId(null);
+      it.setIssueStatus("DISABLED");
+    }
+  }
+
+  private void applyIssueResult(List<PlayReportResponse.RewardPlanItem> items, Map<String, IssueResult> issued) {
+    if (items == null || items.isEmpty() || issued == null || issued.isEmpty()) {
+      return;
+    }
+    for (PlayReportResponse.RewardPlanItem it : items) {
+      IssueResult r = issued.get(it.getOutBizNo());
+      if (r == null) {
+        continue;
+      }
+      it.setIssued(r.getIssued());
+      it.setFlowId(r.getFlowId());
+      it.setEventId(r.getEventId());
+      it.setIssueStatus(r.getIssueStatus());
+    }
+  }
+
+  static AwardPlanStats calcAwardPlanStats(List<PlayReportResponse.RewardPlanItem> items) {
+    AwardPlanStats stats = new AwardPlanStats();
+    if (items == null || items.isEmpty()) {
+      return stats;
+    }
+    for (PlayReportResponse.RewardPlanItem it : items) {
+      if (it == null) {
+        continue;
+      }
+      stats.planCount++;
+      if (Boolean.TRUE.equals(it.getIssued())) {
+        stats.issuedCount++;
+      }
+      String status = it.getIssueStatus();
+      if (status != null) {
+        if ("FAILED".equalsIgnoreCase(status)) {
+          stats.failedCount++;
+        } else if ("DISABLED".equalsIgnoreCase(status)) {
+          stats.disabledCount++;
+        }
+      }
+    }
+    return stats;
+  }
+
+  static final class AwardPlanStats {
+    int planCount;
+    int issuedCount;
+    int failedCount;
+    int disabledCount;
+  }
+}
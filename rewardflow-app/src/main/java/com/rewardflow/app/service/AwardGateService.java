@@ -0,0 +1,194 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import com.rewardflow.domain.rule.CompiledRuleSet;
+import java.time.Duration;
+import java.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * 发奖闸门：本次上报没有跨过任何档位阈值时，跳过发奖预览/发奖（不再查 reward_flow）
+ *
+ * <p>用命中规则版本的阈值比较 prev = totalDuration - deltaDuration 与 totalDuration 已达到的档位数，
+ * 档位数增加才需要预览。以下情况即使没跨档也不跳过：
+ * <ul>
+ *   <li>规则或发奖开关在用户上一次记账之后才变化（changedAt + 宽限期），且 prev 已经达到过某个档位：
+ *       上一次是在旧规则 / 旧开关下评估的，新规则下已达到的档位可能还没发</li>
+ *   <li>该用户当天有补发标记：上一次发奖存在 FAILED 档位或发奖阶段抛错</li>
+ * </ul>
+ * prev 一个档位都没达到时直接跳过，不需要访问 Redis。
+ *
+ * <p>幂等命中（duplicate）的回填路径不经过闸门，客户端重试仍然会触发一次完整的预览/发奖
+ */
+@Service
+public class AwardGateService {
+
+  private static final Logger log = LoggerFactory.getLogger(AwardGateService.class);
+
+  private static final String RETRY_PREFIX = "rf:award:retry:";
+
+  private final RuleSelectionService ruleSelectionService;
+  private final FeatureCenterService featureCenterService;
+  private final StringRedisTemplate redis;
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+
+  public AwardGateService(RuleSelectionService ruleSelectionService,
+                          FeatureCenterService featureCenterService,
+                          StringRedisTemplate redis,
+                          RewardFlowProperties props,
+                          RewardFlowMetrics metrics) {
+    this.ruleSelectionService = ruleSelectionService;
+    this.featureCenterService = featureCenterService;
+    this.redis = redis;
+    this.props = props;
+    this.metrics = metrics;
+  }
+
+  public enum Decision {
+    /** 闸门关闭，照常预览 */
+    DISABLED("disabled", true),
+    /** 跨过了新档位 */
+    CROSSED("crossed", true),
+    /** 规则 / 发奖开关变化后首次评估 */
+    RULE_CHANGED("rule_changed", true),
+    /** 有补发标记 */
+    RETRY_PENDING("retry_pending", true),
+    /** 没有新档位，跳过 */
+    SKIPPED("skipped", false);
+
+    private final String tag;
+    private final boolean preview;
+
+    Decision(String tag, boolean preview) {
+      this.tag = tag;
+      this.preview = preview;
+    }
+
+    public boolean preview() {
+      return preview;
+    }
+  }
+
+  /**
+   * @param prevSeenAtMs 该用户上一次记账的时间：Redis 聚合路径是 last_record_at（服务端时钟），
+   *                     MySQL 聚合路径是上一次的 last_sync_time（客户端时钟），没有时传 0
+   * @param clientClock  prevSeenAtMs 是否来自客户端时钟（是则宽限期再加上 max-clock-skew-ms）
+   */
+  public Verdict decide(String userId, String scene, LocalDate bizDate, int totalDuration, int deltaDuration,
+                        long prevSeenAtMs, boolean clientClock) {
+    RewardFlowProperties.AwardGate cfg = props.getAwardGate();
+    if (!cfg.isEnabled()) {
+      return verdict(scene, Decision.DISABLED, null);
+    }
+
+    RuleSelectionService.RuleSelectResult sel = ruleSelectionService.select(scene, userId);
+    CompiledRuleSet.CompiledRuleVersion rv = sel.getCompiledRuleVersion();
+    int prevTotal = totalDuration - Math.max(0, deltaDuration);
+    int reachedPrev = rv.reachedCount(prevTotal);
+    if (rv.reachedCount(totalDuration) > reachedPrev) {
+      return verdict(scene, Decision.CROSSED, sel);
+    }
+    if (reachedPrev == 0) {
+      return verdict(scene, Decision.SKIPPED, sel);
+    }
+
+    long changedAt = Math.max(sel.getRuleChangedAtMs(), featureCenterService.snapshot().getAwardIssueChangedAtMs());
+    long margin = cfg.getRuleChangeGraceMs() + (clientClock ? props.getRisk().getMaxClockSkewMs() : 0L);
+    if (prevSeenAtMs < changedAt + margin) {
+      return verdict(scene, Decision.RULE_CHANGED, sel);
+    }
+
+    if (hasRetryMarker(userId, scene, bizDate)) {
+      return verdict(scene, Decision.RETRY_PENDING, sel);
+    }
+    return verdict(scene, Decision.SKIPPED, sel);
+  }
+
+  /**
+   * 预览/发奖结束后维护补发标记
+   *
+   * @param failed 本次是否有 FAILED 档位或发奖阶段抛错
+   */
+  public void afterIssue(String userId, String scene, LocalDate bizDate, Decision decision, boolean failed) {
+    try {
+      if (failed) {
+        redis.opsForValue().set(retryKey(userId, scene, bizDate), "1",
+            Duration.ofSeconds(props.getAwardGate().getRetryMarkerTtlSeconds()));
+      } else if (decision == Decision.RETRY_PENDING) {
+        redis.delete(retryKey(userId, scene, bizDate));
+      }
+    } catch (Exception ex) {
+      log.warn("award gate retry marker update failed: userId={}, scene={}, bizDate={}, failed={}, err={}",
+          userId, scene, bizDate, failed, ex.toString());
+    }
+  }
+
+  /**
+   * 异步发奖入队前打上补发标记：实例在处理前宕机、队列丢失时，该用户下一次上报按 RETRY_PENDING 重新评估；
+   * 处理完成后由 {@link #afterIssue} 按 RETRY_PENDING 清除
+   */
+  public void markPending(String userId, String scene, LocalDate bizDate) {
+    try {
+      redis.opsForValue().set(retryKey(userId, scene, bizDate), "1",
+          Duration.ofSeconds(props.getAwardGate().getRetryMarkerTtlSeconds()));
+    } catch (Exception ex) {
+      log.warn("award gate pending marker set failed: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+    }
+  }
+
+  private boolean hasRetryMarker(String userId, String scene, LocalDate bizDate) {
+    try {
+      Boolean exists = redis.hasKey(retryKey(userId, scene, bizDate));
+      return exists != null && exists;
+    } catch (Exception ex) {
+      // 读不到标记时宁可多查一次库
+      log.warn("award gate retry marker check failed, not skipping: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+      return true;
+    }
+  }
+
+  private static String retryKey(String userId, String scene, LocalDate bizDate) {
+    return RETRY_PREFIX + scene + ":" + bizDate + ":" + userId;
+  }
+
+  private Verdict verdict(String scene, Decision decision, RuleSelectionService.RuleSelectResult sel) {
+    metrics.incAwardGate(scene, decision.tag);
+    Verdict v = new Verdict();
+    v.decision = decision;
+    if (sel != null) {
+      v.hitRuleVersion = sel.getHitRuleVersion();
+      v.grayHit = sel.isGrayHit();
+    }
+    return v;
+  }
+
+  /** 闸门结果；跳过时也带上命中的规则版本，用来回填响应 */
+  public static class Verdict {
+    private Decision decision;
+    private String hitRuleVersion;
+    private boolean grayHit;
+
+    public Decision getDecision() {
+      return decision;
+    }
+
+    public boolean preview() {
+      return decision.preview();
+    }
+
+    public String getHitRuleVersion() {
+      return hitRuleVersion;
+    }
+
+    public boolean isGrayHit() {
+      return grayHit;
+    }
+  }
+}
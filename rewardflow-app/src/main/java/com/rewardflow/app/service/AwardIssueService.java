@@ -8,7 +8,7 @@ import com.rewardflow.app.award.model.RewardIssueContext;
 import com.rewardflow.app.config.AwardProperties;
 import com.rewardflow.app.metrics.RewardFlowMetrics;
 import com.rewardflow.infra.mongo.entity.AwardAuditLog;
-import com.rewardflow.infra.mongo.repo.AwardAuditLogRepository;
+import com.rewardflow.infra.mongo.writer.AsyncMongoBulkWriter;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -26,17 +26,20 @@ public class AwardIssueService {
 
   private final AwardProperties awardProps;
   private final RewardHandlerFactory handlerFactory;
-  private final AwardAuditLogRepository auditRepo;
+  private final AsyncMongoBulkWriter mongoWriter;
   private final RewardFlowMetrics metrics;
+  private final TxStageRunner txStageRunner;
 
   public AwardIssueService(AwardProperties awardProps,
                            RewardHandlerFactory handlerFactory,
-                           AwardAuditLogRepository auditRepo,
-                           RewardFlowMetrics metrics) {
+                           AsyncMongoBulkWriter mongoWriter,
+                           RewardFlowMetrics metrics,
+                           TxStageRunner txStageRunner) {
     this.awardProps = awardProps;
     this.handlerFactory = handlerFactory;
-    this.auditRepo = auditRepo;
+    this.mongoWriter = mongoWriter;
     this.metrics = metrics;
+    this.txStageRunner = txStageRunner;
   }
 
   public Map<String, IssueResult> issue(String userId,
@@ -75,54 +78,54 @@ public class AwardIssueService {
 
     List<AwardAuditLog.AuditStage> auditStages = new ArrayList<>(plans.size());
 
-    for (PlayReportResponse.RewardPlanItem plan : plans) {
-      if (plan == null) continue;
-
-      String prizeCode = normalizePrizeCode(plan.getPrizeCode());
-      // 路由 handler
-      RewardHandler handler = handlerFactory.get(prizeCode);
-
-      RewardIssueContext ctx = copyCtx(baseCtx, prizeCode);
-
-      IssueResult r;
-      try {
-        r = handler.issue(ctx, plan);
-      } catch (Exception ex) {
-        r = new IssueResult();
-        r.setOutBizNo(plan.getOutBizNo());
-        r.setStage(plan.getStage());
-        r.setAmount(plan.getAmount());
-        r.setIssued(false);
-        r.setIssueStatus("FAILED");
-        r.setError(ex.getClass().getSimpleName());
-        log.warn("award handler crashed: prizeCode={}, outBizNo={}, ex={}",
-            prizeCode, plan.getOutBizNo(), ex.toString());
+    // 只有 flow/outbox 写入放在短事务里，审计日志（Mongo）在事务提交后 best-effort 写
+    txStageRunner.inTx("issue", () -> {
+      for (PlayReportResponse.RewardPlanItem plan : plans) {
+        if (plan == null) continue;
+
+        String prizeCode = normalizePrizeCode(plan.getPrizeCode());
+        // 路由 handler
+        RewardHandler handler = handlerFactory.get(prizeCode);
+
+        RewardIssueContext ctx = copyCtx(baseCtx, prizeCode);
+
+        IssueResult r;
+        try {
+          r = handler.issue(ctx, plan);
+        } catch (Exception ex) {
+          r = new IssueResult();
+          r.setOutBizNo(plan.getOutBizNo());
+          r.setStage(plan.getStage());
+          r.setAmount(plan.getAmount());
+          r.setIssued(false);
+          r.setIssueStatus("FAILED");
+          r.setError(ex.getClass().getSimpleName());
+          log.warn("award handler crashed: prizeCode={}, outBizNo={}, ex={}",
+              prizeCode, plan.getOutBizNo(), ex.toString());
+        }
+
+        resultMap.put(plan.getOutBizNo(), r);
+
+        // metrics
+        try {
+          metrics.incAwardIssueAttempt(scene, prizeCode, plan.getStage(), r.getIssueStatus(), r.getIssued());
+        } catch (Exception ignore) {
+          // best-effort
+        }
+
+        AwardAuditLog.AuditStage as = new AwardAuditLog.AuditStage();
+        as.setStage(plan.getStage());
+        as.setThreshold(plan.getThreshold());
+        as.setAmount(plan.getAmount());
+        as.setOutBizNo(plan.getOutBizNo());
+        as.setStatus(r.getIssueStatus());
+        auditStages.add(as);
       }
-
-      resultMap.put(plan.getOutBizNo(), r);
-
-      // metrics
-      try {
-        metrics.incAwardIssueAttempt(scene, prizeCode, plan.getStage(), r.getIssueStatus(), r.getIssued());
-      } catch (Exception ignore) {
-        // best-effort
-      }
-
-      AwardAuditLog.AuditStage as = new AwardAuditLog.AuditStage();
-      as.setStage(plan.getStage());
-      as.setThreshold(plan.getThreshold());
-      as.setAmount(plan.getAmount());
-      as.setOutBizNo(plan.getOutBizNo());
-      as.setStatus(r.getIssueStatus());
-      auditStages.add(as);
-    }
+    });
 
     audit.setStages(auditStages);
-    try {
-      auditRepo.save(audit);
-    } catch (Exception ignore) {
-      // best-effort
-    }
+    // best-effort，异步批量写入，不占上报链路耗时
+    mongoWriter.submit(audit);
     return resultMap;
   }
 
@@ -3,16 +3,11 @@ package com.rewardflow.app.service;
 import com.rewardflow.api.dto.PlayReportResponse;
 import com.rewardflow.app.config.AwardProperties;
 import com.rewardflow.domain.rule.AwardCalculator;
+import com.rewardflow.domain.rule.AwardedStages;
 import com.rewardflow.domain.rule.model.AwardPlan;
-import com.rewardflow.infra.mysql.entity.RewardFlowDO;
-import com.rewardflow.infra.mysql.mapper.RewardFlowMapper;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import org.springframework.stereotype.Service;
 
 /**
@@ -23,15 +18,15 @@ import org.springframework.stereotype.Service;
 public class AwardPreviewService {
 
   private final AwardProperties awardProps;
-  private final RewardFlowMapper rewardFlowMapper;
+  private final AwardedStageMaskService stageMaskService;
   private final RuleSelectionService ruleSelectionService;  // 按灰度选择 ruleVersion
   private final AwardCalculator calculator = new AwardCalculator();
 
   public AwardPreviewService(AwardProperties awardProps,
-                             RewardFlowMapper rewardFlowMapper,
+                             AwardedStageMaskService stageMaskService,
                              RuleSelectionService ruleSelectionService) {
     this.awardProps = awardProps;
-    this.rewardFlowMapper = rewardFlowMapper;
+    this.stageMaskService = stageMaskService;
     this.ruleSelectionService = ruleSelectionService;
   }
 
@@ -39,23 +34,11 @@ public class AwardPreviewService {
     // 选择规则版本 含灰度
     RuleSelectionService.RuleSelectResult sel = ruleSelectionService.select(scene, userId);
 
-    // 构建已发过的档位映射 prizeCode -> stages
-    Map<String, Set<Integer>> already = new HashMap<>();
-    List<RewardFlowDO> flows = rewardFlowMapper.selectAwardedFlows(userId, scene, bizDate);
-    if (flows != null) {
-      for (RewardFlowDO f : flows) {
-        if (f == null) {
-          continue;
-        }
-        // 这里如果流水没有存 prizeCode，就用全局默认的
-        String pc = f.getPrizeCode() == null || f.getPrizeCode().isBlank() ? awardProps.getPrizeCode() : f.getPrizeCode();
-        // 同一个 prizeCode 下，已发过的 stage 全部放进 Set
-        already.computeIfAbsent(pc, k -> new HashSet<>()).add(f.getPrizeStage());
-      }
-    }
+    // 已发过的档位 prizeCode -> stage 位图（Redis / 日聚合行上的位图，缺失时回源 reward_flow 重建）
+    AwardedStages already = stageMaskService.load(userId, scene, bizDate);
 
     // 调用计算器，算“新增命中的奖励计划”
-    List<AwardPlan> plans = calculator.calculate(totalDuration, sel.getRuleVersion(), already, awardProps.getPrizeCode());
+    List<AwardPlan> plans = calculator.calculate(totalDuration, sel.getCompiledRuleVersion(), already, awardProps.getPrizeCode());
 
     List<PlayReportResponse.RewardPlanItem> items = new ArrayList<>();
     for (AwardPlan p : plans) {
@@ -0,0 +1,174 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.AwardProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import com.rewardflow.domain.rule.AwardedStages;
+import com.rewardflow.infra.mysql.entity.RewardFlowDO;
+import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
+import com.rewardflow.infra.mysql.mapper.RewardFlowMapper;
+import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
+import java.time.LocalDate;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 已发奖档位位图：挂在日聚合旁边（user_play_daily.awarded_stage_mask + Redis 聚合 hash 的 awarded_mask 字段）
+ *
+ * <p>reward_flow 仍然是事实来源，位图只是派生数据：
+ * <ul>
+ *   <li>写：发奖事务提交后在独立短事务里用一条 upsert 把档位并进日聚合行的位图，再推到 Redis（只增不减，按档位个数防乱序覆盖）</li>
+ *   <li>读：Redis -> 日聚合行 -> 回源 reward_flow 重建并回填（只填 NULL，不覆盖发奖事务写的值）</li>
+ * </ul>
+ * 位图只可能比 reward_flow 少（Redis 推送失败等），最坏情况是预览多给出一个已发档位，
+ * 发奖时 outBizNo 唯一键冲突按幂等处理，并顺带把这一位补上
+ */
+@Service
+public class AwardedStageMaskService {
+
+  private static final Logger log = LoggerFactory.getLogger(AwardedStageMaskService.class);
+
+  private final UserPlayDailyMapper dailyMapper;
+  private final RewardFlowMapper rewardFlowMapper;
+  private final PlayDailyRedisAggService redisAggService;
+  private final AwardProperties awardProps;
+  private final TxStageRunner txStageRunner;
+  private final RewardFlowMetrics metrics;
+
+  public AwardedStageMaskService(UserPlayDailyMapper dailyMapper,
+                                 RewardFlowMapper rewardFlowMapper,
+                                 PlayDailyRedisAggService redisAggService,
+                                 AwardProperties awardProps,
+                                 TxStageRunner txStageRunner,
+                                 RewardFlowMetrics metrics) {
+    this.dailyMapper = dailyMapper;
+    this.rewardFlowMapper = rewardFlowMapper;
+    this.redisAggService = redisAggService;
+    this.awardProps = awardProps;
+    this.txStageRunner = txStageRunner;
+    this.metrics = metrics;
+  }
+
+  /** 预览用：当天已发过的档位 */
+  public AwardedStages load(String userId, String scene, LocalDate bizDate) {
+    if (redisAggService.enabled()) {
+      try {
+        AwardedStages cached = AwardedStages.decode(redisAggService.readAwardedMask(userId, scene, bizDate));
+        if (cached != null) {
+          metrics.incAwardedMaskLoad("redis");
+          return cached;
+        }
+      } catch (Exception ex) {
+        log.warn("awarded mask redis read failed: userId={}, scene={}, bizDate={}, err={}",
+            userId, scene, bizDate, ex.toString());
+      }
+    }
+
+    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+    AwardedStages stored = daily == null ? null : AwardedStages.decode(daily.getAwardedStageMask());
+    if (stored != null) {
+      metrics.incAwardedMaskLoad("mysql");
+      publish(userId, scene, bizDate, stored);
+      return stored;
+    }
+
+    AwardedStages rebuilt = rebuild(userId, scene, bizDate);
+    metrics.incAwardedMaskLoad("rebuild");
+    try {
+      dailyMapper.fillAwardedStageMaskIfAbsent(userId, scene, bizDate, rebuilt.encode());
+      publish(userId, scene, bizDate, rebuilt);
+    } catch (Exception ex) {
+      log.warn("awarded mask backfill failed: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+    }
+    return rebuilt;
+  }
+
+  /**
+   * 发奖事务内调用：事务提交后再把 (prizeCode, stage) 并进位图并推到 Redis，事务回滚时不写
+   *
+   * <p>位图不放进发奖事务：user_play_daily 上的死锁会把整个事务连同 flow / outbox 一起回滚。
+   * 合并在独立的 award_mask 短事务里做，失败只打 warn，缺这一位时下次预览会再给出该档位，按 outBizNo 幂等后补上
+   */
+  public void markAwardedAfterCommit(String userId, String scene, LocalDate bizDate, String prizeCode, int stage) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          markAwarded(userId, scene, bizDate, prizeCode, stage);
+        }
+      });
+    } else {
+      markAwarded(userId, scene, bizDate, prizeCode, stage);
+    }
+  }
+
+  private void markAwarded(String userId, String scene, LocalDate bizDate, String prizeCode, int stage) {
+    AwardedStages merged;
+    try {
+      merged = txStageRunner.inNewTx("award_mask", () -> merge(userId, scene, bizDate, prizeCode, stage));
+    } catch (Exception ex) {
+      log.warn("awarded mask mark failed: userId={}, scene={}, bizDate={}, prizeCode={}, stage={}, err={}",
+          userId, scene, bizDate, prizeCode, stage, ex.toString());
+      return;
+    }
+    publish(userId, scene, bizDate, merged);
+  }
+
+  /**
+   * 不锁行：先无锁读一次，再用一条 INSERT ... ON DUPLICATE KEY UPDATE 合并。行不存在或位图为 NULL 时写入
+   * reward_flow 重建结果（发奖事务已提交，包含刚插入的 flow），否则在库里追加这一档（解码时同一 prizeCode 按位或），
+   * 并发发奖各自追加，不会互相覆盖。读到的位图已包含这一档时不写
+   */
+  private AwardedStages merge(String userId, String scene, LocalDate bizDate, String prizeCode, int stage) {
+    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+    String old = daily == null ? null : daily.getAwardedStageMask();
+    AwardedStages merged = AwardedStages.decode(old);
+    String stageMask = new AwardedStages().add(prizeCode, stage).encode();
+    if (old != null && merged == null) {
+      log.warn("awarded mask unparseable, rebuilding: userId={}, scene={}, bizDate={}, mask={}",
+          userId, scene, bizDate, old);
+      merged = rebuild(userId, scene, bizDate).add(prizeCode, stage);
+      dailyMapper.upsertAwardedStageMask(userId, scene, bizDate, merged.encode());
+    } else if (merged == null) {
+      merged = rebuild(userId, scene, bizDate).add(prizeCode, stage);
+      dailyMapper.mergeAwardedStageMask(userId, scene, bizDate, merged.encode(), stageMask);
+    } else if (!merged.contains(prizeCode, stage)) {
+      merged.add(prizeCode, stage);
+      dailyMapper.mergeAwardedStageMask(userId, scene, bizDate, stageMask, stageMask);
+    }
+    return merged;
+  }
+
+  private AwardedStages rebuild(String userId, String scene, LocalDate bizDate) {
+    AwardedStages out = new AwardedStages();
+    List<RewardFlowDO> flows = rewardFlowMapper.selectAwardedFlows(userId, scene, bizDate);
+    if (flows != null) {
+      for (RewardFlowDO f : flows) {
+        if (f == null || f.getPrizeStage() == null) {
+          continue;
+        }
+        // 这里如果流水没有存 prizeCode，就用全局默认的
+        String pc = f.getPrizeCode() == null || f.getPrizeCode().isBlank() ? awardProps.getPrizeCode() : f.getPrizeCode();
+        out.add(pc, f.getPrizeStage());
+      }
+    }
+    return out;
+  }
+
+  private void publish(String userId, String scene, LocalDate bizDate, AwardedStages stages) {
+    if (!redisAggService.enabled()) {
+      return;
+    }
+    try {
+      redisAggService.publishAwardedMask(userId, scene, bizDate, stages.encode(), stages.cardinality());
+    } catch (Exception ex) {
+      // best-effort：Redis 里缺的位下次从 MySQL 补
+      log.warn("awarded mask redis publish failed: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+    }
+  }
+}
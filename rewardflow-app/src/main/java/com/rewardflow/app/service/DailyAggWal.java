@@ -0,0 +1,238 @@
+package com.rewardflow.app.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分片日聚合的预写日志：定长段文件整段 mmap，每次记账追加一条记录，崩溃后按段号顺序重放
+ *
+ * <p>段文件 {@code <seq>.wal}：8 字节头（magic + version），之后是记录
+ * {@code [int len][int crc32(payload)][payload]}，payload =
+ * {@code [int epochDay][long recordAt][short keyLen][key][int n][n x (int duration, long syncTime)]}。
+ * 重放读到 len = 0（段尾未写部分）或 CRC 不符（写了一半）就结束该段。
+ *
+ * <p>追加只写进页缓存，进程崩溃不丢；{@link #force()} 刷盘（含刚切走的段），调用方定时执行。
+ * checkpoint 时 {@link #roll()} 切到新段，checkpoint 成功后删掉之前的段
+ */
+final class DailyAggWal {
+
+  private static final Logger log = LoggerFactory.getLogger(DailyAggWal.class);
+
+  private static final int MAGIC = 0x52465741;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  private static final String SUFFIX = ".wal";
+
+  private final Path dir;
+  private final int segmentBytes;
+  private final CRC32 crc = new CRC32();
+
+  private long seq = -1L;
+  private MappedByteBuffer segment;
+  private int position;
+  // 切走但还没刷盘的段
+  private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+  DailyAggWal(Path dir, int segmentBytes) {
+    this.dir = dir;
+    this.segmentBytes = segmentBytes;
+    try {
+      Files.createDirectories(dir);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /** 按段号顺序重放已有的所有段；要在 {@link #open()} 之前调用 */
+  int replay(Consumer<Entry> apply) {
+    int count = 0;
+    for (Path p : segments().values()) {
+      try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+        ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        if (b.remaining() < HEADER_BYTES || b.getInt(0) != MAGIC) {
+          log.warn("sharded agg wal skip segment with bad header: file={}", p);
+          continue;
+        }
+        int pos = HEADER_BYTES;
+        while (pos + 8 <= b.limit()) {
+          int len = b.getInt(pos);
+          if (len <= 0) {
+            break;
+          }
+          if (pos + 8 + len > b.limit()) {
+            log.warn("sharded agg wal truncated record: file={}, pos={}", p, pos);
+            break;
+          }
+          byte[] payload = new byte[len];
+          b.get(pos + 8, payload);
+          CRC32 c = new CRC32();
+          c.update(payload);
+          if ((int) c.getValue() != b.getInt(pos + 4)) {
+            log.warn("sharded agg wal crc mismatch, stop segment: file={}, pos={}", p, pos);
+            break;
+          }
+          apply.accept(Entry.decode(ByteBuffer.wrap(payload)));
+          count++;
+          pos += 8 + len;
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+    return count;
+  }
+
+  /** 在已有段之后开一个新段用于追加 */
+  synchronized void open() {
+    TreeMap<Long, Path> existing = segments();
+    openSegment(existing.isEmpty() ? 0L : existing.lastKey() + 1);
+  }
+
+  synchronized void append(LocalDate bizDate, byte[] key, int[] durations, long[] syncTimes, long recordAt) {
+    int len = 4 + 8 + 2 + key.length + 4 + durations.length * 12;
+    ByteBuffer payload = ByteBuffer.allocate(len);
+    payload.putInt((int) bizDate.toEpochDay());
+    payload.putLong(recordAt);
+    payload.putShort((short) key.length);
+    payload.put(key);
+    payload.putInt(durations.length);
+    for (int i = 0; i < durations.length; i++) {
+      payload.putInt(durations[i]);
+      payload.putLong(syncTimes[i]);
+    }
+    byte[] bytes = payload.array();
+    if (HEADER_BYTES + 8 + len > segmentBytes) {
+      throw new IllegalArgumentException("sharded agg wal record too large: " + len);
+    }
+    if (position + 8 + len > segmentBytes) {
+      openSegment(seq + 1);
+    }
+    crc.reset();
+    crc.update(bytes);
+    segment.putInt(position + 4, (int) crc.getValue());
+    segment.put(position + 8, bytes);
+    // len 最后写：重放时 len = 0 即视为段尾
+    segment.putInt(position, len);
+    position += 8 + len;
+  }
+
+  /**
+   * 当前段有记录时切到新段
+   *
+   * @return 切换后的当前段号：小于它的段里的记录都是切换前追加的
+   */
+  synchronized long roll() {
+    if (position > HEADER_BYTES) {
+      openSegment(seq + 1);
+    }
+    return seq;
+  }
+
+  /** 删除段号小于 seq 的段 */
+  void deleteBefore(long seq) {
+    for (Map.Entry<Long, Path> e : segments().headMap(seq).entrySet()) {
+      try {
+        Files.deleteIfExists(e.getValue());
+      } catch (IOException ex) {
+        log.warn("sharded agg wal delete failed: file={}, err={}", e.getValue(), ex.toString());
+      }
+    }
+  }
+
+  synchronized void force() {
+    for (MappedByteBuffer m : retired) {
+      m.force();
+    }
+    retired.clear();
+    if (segment != null) {
+      segment.force();
+    }
+  }
+
+  /** 磁盘上所有段的总字节数（段是稀疏文件，按映射长度计） */
+  long bytes() {
+    return (long) segments().size() * segmentBytes;
+  }
+
+  private void openSegment(long next) {
+    if (segment != null) {
+      retired.add(segment);
+    }
+    Path p = dir.resolve(String.format("%016d%s", next, SUFFIX));
+    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+      m.putInt(0, MAGIC);
+      m.putInt(4, VERSION);
+      segment = m;
+      position = HEADER_BYTES;
+      seq = next;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private TreeMap<Long, Path> segments() {
+    TreeMap<Long, Path> out = new TreeMap<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      for (Path p : ds) {
+        String name = p.getFileName().toString();
+        try {
+          out.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), p);
+        } catch (NumberFormatException ignore) {
+          // 不是段文件
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return out;
+  }
+
+  static final class Entry {
+    final LocalDate bizDate;
+    final long recordAt;
+    final byte[] key;
+    final int[] durations;
+    final long[] syncTimes;
+
+    private Entry(LocalDate bizDate, long recordAt, byte[] key, int[] durations, long[] syncTimes) {
+      this.bizDate = bizDate;
+      this.recordAt = recordAt;
+      this.key = key;
+      this.durations = durations;
+      this.syncTimes = syncTimes;
+    }
+
+    static Entry decode(ByteBuffer b) {
+      LocalDate bizDate = LocalDate.ofEpochDay(b.getInt());
+      long recordAt = b.getLong();
+      byte[] key = new byte[b.getShort()];
+      b.get(key);
+      int n = b.getInt();
+      int[] durations = new int[n];
+      long[] syncTimes = new long[n];
+      for (int i = 0; i < n; i++) {
+        durations[i] = b.getInt();
+        syncTimes[i] = b.getLong();
+      }
+      return new Entry(bizDate, recordAt, key, durations, syncTimes);
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.api.dto.PlayReportResponse;
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * 异步发奖队列（场景开启 deferredAwardEnabled 时使用），配置见 {@link RewardFlowProperties.DeferredAward}
+ *
+ * <ul>
+ *   <li>按 (scene, userId, bizDate) 合并：还没处理的 key 再次入队只把 totalDuration 取大，不新增一项</li>
+ *   <li>入队前给该 key 打上发奖闸门的补发标记，实例宕机丢了队列时，用户下一次上报按 RETRY_PENDING 重新评估；
+ *       处理完成且没有 FAILED 档位时清掉标记</li>
+ *   <li>{@link #drain()} 每轮按入队顺序取出 batchSize x workers 个 key，分成 workers 批并行预览/发奖；
+ *       发奖本身按 outBizNo 幂等，重复评估不会多发</li>
+ *   <li>失败的项按指数退避放进 {@link #retries}，到期后才回到入队顺序；某一轮有失败时本次 drain 不再继续下一轮</li>
+ *   <li>队列满时 {@link #offer} 返回 false，调用方退回同步发奖</li>
+ * </ul>
+ * 队列只在本实例内存里，不跨实例；停机时最多同步排空 shutdownDrainMs
+ */
+@Service
+public class DeferredAwardQueue {
+
+  private static final Logger log = LoggerFactory.getLogger(DeferredAwardQueue.class);
+
+  private final AwardEvaluationService awardEvaluationService;
+  private final AwardGateService awardGateService;
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+
+  private final ConcurrentHashMap<String, Task> pending = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+  // 等退避到期的重试项（key 仍在 pending 里，期间再入队照常合并）
+  private final DelayQueue<Retry> retries = new DelayQueue<>();
+
+  private volatile ExecutorService executor;
+
+  public DeferredAwardQueue(AwardEvaluationService awardEvaluationService,
+                            AwardGateService awardGateService,
+                            RewardFlowProperties props,
+                            RewardFlowMetrics metrics) {
+    this.awardEvaluationService = awardEvaluationService;
+    this.awardGateService = awardGateService;
+    this.props = props;
+    this.metrics = metrics;
+    metrics.bindDeferredAwardQueue(pending::size);
+  }
+
+  /**
+   * 入队（或合并进已有项）
+   *
+   * @return false 表示队列已满，调用方需要同步发奖
+   */
+  public boolean offer(String userId, String scene, LocalDate bizDate, int totalDuration, String traceId) {
+    String key = key(userId, scene, bizDate);
+    int capacity = props.getDeferredAward().getQueueCapacity();
+    boolean[] fresh = {false};
+    Task t = pending.compute(key, (k, cur) -> {
+      if (cur == null) {
+        if (pending.size() >= capacity) {
+          return null;
+        }
+        fresh[0] = true;
+        return new Task(userId, scene, bizDate, totalDuration, traceId, System.currentTimeMillis());
+      }
+      cur.totalDuration = Math.max(cur.totalDuration, totalDuration);
+      cur.traceId = traceId;
+      return cur;
+    });
+    if (t == null) {
+      metrics.incDeferredAward("rejected");
+      return false;
+    }
+    if (fresh[0]) {
+      awardGateService.markPending(userId, scene, bizDate);
+      order.add(key);
+      metrics.incDeferredAward("enqueued");
+    } else {
+      metrics.incDeferredAward("coalesced");
+    }
+    return true;
+  }
+
+  public int size() {
+    return pending.size();
+  }
+
+  /** 处理到队列为空（或某一轮没有取满、某一轮有失败）为止 */
+  public void drain() {
+    RewardFlowProperties.DeferredAward cfg = props.getDeferredAward();
+    int limit = Math.max(1, cfg.getBatchSize()) * Math.max(1, cfg.getWorkers());
+    AtomicInteger failures = new AtomicInteger();
+    while (drainOnce(cfg, failures, false) >= limit && failures.get() == 0) {
+      // 还有积压，继续下一轮
+    }
+  }
+
+  private int drainOnce(RewardFlowProperties.DeferredAward cfg, AtomicInteger failures, boolean ignoreBackoff) {
+    promoteRetries(ignoreBackoff);
+    int batchSize = Math.max(1, cfg.getBatchSize());
+    int limit = batchSize * Math.max(1, cfg.getWorkers());
+    List<Task> tasks = new ArrayList<>();
+    while (tasks.size() < limit) {
+      String key = order.poll();
+      if (key == null) {
+        break;
+      }
+      Task t = pending.remove(key);
+      if (t != null) {
+        tasks.add(t);
+      }
+    }
+    if (tasks.isEmpty()) {
+      return 0;
+    }
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int from = 0; from < tasks.size(); from += batchSize) {
+      List<Task> batch = tasks.subList(from, Math.min(tasks.size(), from + batchSize));
+      futures.add(CompletableFuture.runAsync(() -> {
+        for (Task t : batch) {
+          if (!evaluate(t)) {
+            failures.incrementAndGet();
+          }
+        }
+      }, executor()));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    return tasks.size();
+  }
+
+  // 退避到期的重试项回到入队顺序；停机排空时不等退避
+  private void promoteRetries(boolean ignoreBackoff) {
+    if (ignoreBackoff) {
+      for (Retry r : retries) {
+        if (retries.remove(r)) {
+          order.add(r.key);
+        }
+      }
+      return;
+    }
+    Retry r;
+    while ((r = retries.poll()) != null) {
+      order.add(r.key);
+    }
+  }
+
+  /** @return false 表示预览/发奖抛错（已按退避重新入队或丢弃） */
+  private boolean evaluate(Task t) {
+    PlayReportResponse resp = new PlayReportResponse();
+    resp.setTraceId(t.traceId);
+    boolean failed = true;
+    try {
+      awardEvaluationService.previewAndIssue(resp, t.userId, t.scene, t.bizDate, t.totalDuration);
+      failed = AwardEvaluationService.calcAwardPlanStats(resp.getAwardPlans()).failedCount > 0;
+      metrics.incDeferredAward(failed ? "failed" : "done");
+      metrics.recordDeferredAwardLag(System.currentTimeMillis() - t.enqueuedAt);
+    } catch (Exception ex) {
+      retryOrDrop(t, ex);
+      return false;
+    } finally {
+      // 处理期间同一个 key 又入队了：标记留给新的一项
+      if (failed || !pending.containsKey(key(t.userId, t.scene, t.bizDate))) {
+        awardGateService.afterIssue(t.userId, t.scene, t.bizDate, AwardGateService.Decision.RETRY_PENDING, failed);
+      }
+    }
+    return true;
+  }
+
+  private void retryOrDrop(Task t, Exception ex) {
+    t.attempts++;
+    if (t.attempts >= props.getDeferredAward().getMaxAttempts()) {
+      // 补发标记还在，用户下一次上报会重新评估
+      metrics.incDeferredAward("dropped");
+      log.warn("deferred award dropped: traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, attempts={}, err={}",
+          t.traceId, t.userId, t.scene, t.bizDate, t.totalDuration, t.attempts, ex.toString());
+      return;
+    }
+    String key = key(t.userId, t.scene, t.bizDate);
+    boolean[] fresh = {false};
+    pending.compute(key, (k, cur) -> {
+      if (cur == null) {
+        fresh[0] = true;
+        return t;
+      }
+      cur.totalDuration = Math.max(cur.totalDuration, t.totalDuration);
+      cur.attempts = Math.max(cur.attempts, t.attempts);
+      cur.enqueuedAt = Math.min(cur.enqueuedAt, t.enqueuedAt);
+      return cur;
+    });
+    long backoffMs = backoffMs(t.attempts);
+    if (fresh[0]) {
+      retries.add(new Retry(key, System.currentTimeMillis() + backoffMs));
+    }
+    metrics.incDeferredAward("retried");
+    log.warn("deferred award failed, will retry: traceId={}, userId={}, scene={}, bizDate={}, attempts={}, backoffMs={}, err={}",
+        t.traceId, t.userId, t.scene, t.bizDate, t.attempts, backoffMs, ex.toString());
+  }
+
+  private long backoffMs(int attempts) {
+    RewardFlowProperties.DeferredAward cfg = props.getDeferredAward();
+    long base = Math.max(0L, cfg.getRetryBackoffMs());
+    long max = Math.max(base, cfg.getRetryBackoffMaxMs());
+    int shift = Math.min(Math.max(0, attempts - 1), 30);
+    return Math.min(max, base << shift);
+  }
+
+  private ExecutorService executor() {
+    ExecutorService ex = executor;
+    if (ex == null) {
+      synchronized (this) {
+        ex = executor;
+        if (ex == null) {
+          AtomicInteger seq = new AtomicInteger();
+          ex = Executors.newFixedThreadPool(Math.max(1, props.getDeferredAward().getWorkers()), r -> {
+            Thread t = new Thread(r, "rf-deferred-award-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          });
+          executor = ex;
+        }
+      }
+    }
+    return ex;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    long deadline = System.currentTimeMillis() + props.getDeferredAward().getShutdownDrainMs();
+    try {
+      while (!pending.isEmpty() && System.currentTimeMillis() < deadline) {
+        drainOnce(props.getDeferredAward(), new AtomicInteger(), true);
+      }
+    } catch (Exception ex) {
+      log.warn("deferred award shutdown drain failed: err={}", ex.toString());
+    }
+    if (!pending.isEmpty()) {
+      log.warn("deferred award left in queue on shutdown: size={}", pending.size());
+    }
+    ExecutorService ex = executor;
+    if (ex != null) {
+      ex.shutdown();
+    }
+  }
+
+  private static String key(String userId, String scene, LocalDate bizDate) {
+    return scene + "|" + userId + "|" + bizDate;
+  }
+
+  private static final class Retry implements Delayed {
+    final String key;
+    final long notBefore;
+
+    Retry(String key, long notBefore) {
+      this.key = key;
+      this.notBefore = notBefore;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(notBefore - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(notBefore, ((Retry) o).notBefore);
+    }
+  }
+
+  private static final class Task {
+    final String userId;
+    final String scene;
+    final LocalDate bizDate;
+    volatile int totalDuration;
+    volatile String traceId;
+    volatile long enqueuedAt;
+    volatile int attempts;
+
+    Task(String userId, String scene, LocalDate bizDate, int totalDuration, String traceId, long enqueuedAt) {
+      this.userId = userId;
+      this.scene = scene;
+      this.bizDate = bizDate;
+      this.totalDuration = totalDuration;
+      this.traceId = traceId;
+      this.enqueuedAt = enqueuedAt;
+    }
+  }
+}
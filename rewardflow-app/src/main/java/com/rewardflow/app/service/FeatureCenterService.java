@@ -5,6 +5,7 @@ import com.alibaba.nacos.api.config.ConfigService;
 import com.alibaba.nacos.api.config.listener.AbstractListener;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rewardflow.app.config.FeatureCenterProperties;
+import com.rewardflow.domain.feature.model.EffectiveFeatures;
 import com.rewardflow.domain.feature.model.FeatureCenterConfig;
 import jakarta.annotation.PostConstruct;
 import java.io.InputStream;
@@ -33,8 +34,8 @@ public class FeatureCenterService {
   private final ObjectMapper objectMapper;
   private final ResourceLoader resourceLoader;
 
-  // 线程安全
-  private final AtomicReference<FeatureCenterConfig> cache = new AtomicReference<>();
+  // 线程安全：配置与按 scene 合并好的开关一起整体替换
+  private final AtomicReference<EffectiveFeatures.Snapshot> cache = new AtomicReference<>();
   private volatile ConfigService configService;
 
   public FeatureCenterService(FeatureCenterProperties props, ObjectMapper objectMapper, ResourceLoader resourceLoader) {
@@ -50,12 +51,17 @@ public class FeatureCenterService {
 
   // 对外提供的能力
   public FeatureCenterConfig currentConfig() {
-    FeatureCenterConfig cfg = cache.get();
-    if (cfg == null) {
-      cfg = loadFallback();
-      cache.set(cfg);
+    return snapshot().getConfig();
+  }
+
+  /** 当前配置的全部 scene 开关快照 */
+  public EffectiveFeatures.Snapshot snapshot() {
+    EffectiveFeatures.Snapshot snap = cache.get();
+    if (snap == null) {
+      snap = EffectiveFeatures.Snapshot.of(loadFallback(), null, System.currentTimeMillis());
+      cache.set(snap);
     }
-    return cfg;
+    return snap;
   }
 
   /**
@@ -63,31 +69,20 @@ public class FeatureCenterService {
    * 先拿全局 config，再覆盖 scene 级别的配置
    * 最后对每个开关，采用优先级 scene 配置 > 全局配置 > 默认 true 的策略
    * 这样即使配置缺失，也能保证大部分功能是开启的，避免影响线上业务
+   *
+   * <p>合并结果在配置安装时就已算好（见 {@link #install}），这里只是一次 map 查找，不分配对象
    */
-  public FeatureCenterConfig.SceneFeature effectiveForScene(String scene) {
-    FeatureCenterConfig cfg = currentConfig();
-    FeatureCenterConfig.SceneFeature eff = new FeatureCenterConfig.SceneFeature();
-    FeatureCenterConfig.SceneFeature per = (cfg.getScenes() == null) ? null : cfg.getScenes().get(scene);
-
-    eff.setAwardIssueEnabled(firstNonNull(per == null ? null : per.getAwardIssueEnabled(), cfg.getAwardIssueEnabled(), Boolean.TRUE));
-    eff.setOutboxPublishEnabled(firstNonNull(per == null ? null : per.getOutboxPublishEnabled(), cfg.getOutboxPublishEnabled(), Boolean.TRUE));
-    eff.setReconcileEnabled(firstNonNull(per == null ? null : per.getReconcileEnabled(), cfg.getReconcileEnabled(), Boolean.TRUE));
-    eff.setRuleSnapshotEnabled(firstNonNull(per == null ? null : per.getRuleSnapshotEnabled(), cfg.getRuleSnapshotEnabled(), Boolean.TRUE));
-    eff.setRuleSimulationEnabled(firstNonNull(per == null ? null : per.getRuleSimulationEnabled(), cfg.getRuleSimulationEnabled(), Boolean.TRUE));
-    return eff;
+  public EffectiveFeatures effectiveForScene(String scene) {
+    return snapshot().forScene(scene);
   }
 
-  private static Boolean firstNonNull(Boolean... vals) {
-    if (vals == null) return null;
-    for (Boolean v : vals) {
-      if (v != null) return v;
-    }
-    return null;
+  private void install(FeatureCenterConfig cfg) {
+    cache.set(EffectiveFeatures.Snapshot.of(cfg, cache.get(), System.currentTimeMillis()));
   }
 
   private void initInternal() {
     // 先加载 fallback
-    cache.set(loadFallback());
+    install(loadFallback());
 
     // enabled=false 不会拉 Nacos
     if (!props.isEnabled()) {
@@ -142,7 +137,7 @@ public class FeatureCenterService {
         log.warn("parsed feature config is null, ignoring");
         return;
       }
-      cache.set(cfg);
+      install(cfg);
     } catch (Exception e) {
       log.warn("failed to parse feature config json, ignoring update", e);
     }
@@ -187,7 +182,9 @@ public class FeatureCenterService {
             && cfg.getOutboxPublishEnabled() == null
             && cfg.getReconcileEnabled() == null
             && cfg.getRuleSnapshotEnabled() == null
-            && cfg.getRuleSimulationEnabled() == null;
+            && cfg.getRuleSimulationEnabled() == null
+            && cfg.getAggStrategy() == null
+            && cfg.getDeferredAwardEnabled() == null;
 
     Map<String, FeatureCenterConfig.SceneFeature> scenes = cfg.getScenes();
     boolean scenesEmpty = (scenes == null || scenes.isEmpty());
@@ -197,6 +194,12 @@ public class FeatureCenterService {
       return null;
     }
 
+    // 聚合策略：不认识的值按未配置处理（回落到上一级 / auto）
+    if (cfg.getAggStrategy() != null && AggStrategy.parse(cfg.getAggStrategy()) == null) {
+      log.warn("feature-center config contains invalid aggStrategy='{}', ignore it.", cfg.getAggStrategy());
+      cfg.setAggStrategy(null);
+    }
+
     // scenes 上限保护（按业务规模调整）
     if (scenes != null && scenes.size() > 2000) {
       log.warn("feature-center config invalid: too many scenes={}, ignore update.", scenes.size());
@@ -218,6 +221,11 @@ public class FeatureCenterService {
           log.warn("feature-center config scene='{}' value is null, skip it.", scene);
           continue;
         }
+        if (sf.getAggStrategy() != null && AggStrategy.parse(sf.getAggStrategy()) == null) {
+          log.warn("feature-center config scene='{}' contains invalid aggStrategy='{}', ignore it.",
+              scene, sf.getAggStrategy());
+          sf.setAggStrategy(null);
+        }
         if (isEmptySceneFeature(sf)) {
           // 空对象没意义：等同于不配置该 scene
           log.warn("feature-center config scene='{}' is empty (all fields null), skip it.", scene);
@@ -237,7 +245,9 @@ public class FeatureCenterService {
         && sf.getOutboxPublishEnabled() == null
         && sf.getReconcileEnabled() == null
         && sf.getRuleSnapshotEnabled() == null
-        && sf.getRuleSimulationEnabled() == null;
+        && sf.getRuleSimulationEnabled() == null
+        && sf.getAggStrategy() == null
+        && sf.getDeferredAwardEnabled() == null;
   }
 
 }
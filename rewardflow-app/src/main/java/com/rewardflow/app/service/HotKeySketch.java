@@ -0,0 +1,187 @@
+package com.rewardflow.app.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 本机的 (scene, userId) 上报频率估计，给热点路由做预筛
+ *
+ * <ul>
+ *   <li>Count-Min sketch（4 行 x width 列）按自然分钟滚动，估计值 = 本分钟计数 + 上一分钟计数 x 本分钟剩余比例
+ *       （滑动一分钟）。Count-Min 只会高估，估计值低于预阈值的 key 本机确实低于预阈值</li>
+ *   <li>估计值达到预阈值的 key 进入一张小的 top 表（容量 topCapacity，满了淘汰估计值最小的，Space-Saving 式），
+ *       表项上挂着本机的热点标记缓存和本分钟是否已同步过 Redis 计数</li>
+ * </ul>
+ * sketch 固定占用 2 x 4 x width 个 int；两分钟没有上报的 top 表项在滚动时清掉
+ */
+final class HotKeySketch {
+
+  private static final int DEPTH = 4;
+  private static final long WINDOW_MS = 60_000L;
+  private static final long STALE_MS = 2 * WINDOW_MS;
+
+  private final int width;
+  private final int mask;
+  private final int topCapacity;
+  private final ConcurrentHashMap<String, Entry> top = new ConcurrentHashMap<>();
+
+  private volatile Window window;
+
+  /**
+   * @param width 每行列数，向上取整到 2 的幂
+   */
+  HotKeySketch(int width, int topCapacity) {
+    this.width = Integer.highestOneBit(Math.max(16, width - 1)) << 1;
+    this.mask = this.width - 1;
+    this.topCapacity = Math.max(1, topCapacity);
+    this.window = new Window(Long.MIN_VALUE, new AtomicIntegerArray(DEPTH * this.width),
+        new AtomicIntegerArray(DEPTH * this.width));
+  }
+
+  /**
+   * 计入 n 次上报
+   *
+   * @param admitAt 估计值达到该值时进入 top 表
+   * @return key 在 top 表里时返回表项（已更新估计值），否则返回 null
+   */
+  Entry add(String key, String userId, String scene, int n, long nowMs, int admitAt) {
+    Window w = windowAt(nowMs);
+    int h = key.hashCode();
+    int cur = Integer.MAX_VALUE;
+    int prev = Integer.MAX_VALUE;
+    for (int i = 0; i < DEPTH; i++) {
+      int idx = i * width + index(h, i);
+      cur = Math.min(cur, w.cur.addAndGet(idx, n));
+      prev = Math.min(prev, w.prev.get(idx));
+    }
+    int estimate = estimate(w, cur, prev, nowMs);
+
+    Entry e = top.get(key);
+    if (e == null) {
+      if (estimate < admitAt) {
+        return null;
+      }
+      e = top.computeIfAbsent(key, k -> new Entry(userId, scene));
+      if (top.size() > topCapacity) {
+        evictMin(key);
+      }
+    }
+    e.estimate = estimate;
+    e.windowCount = cur;
+    e.lastSeenMs = nowMs;
+    return e;
+  }
+
+  /** 只读：key 在 top 表里时返回表项 */
+  Entry peek(String key) {
+    return top.get(key);
+  }
+
+  /** 强制放进 top 表（例如融合脚本判定为热点，但本机估计值还没达到预阈值） */
+  Entry track(String key, String userId, String scene, long nowMs) {
+    Entry e = top.computeIfAbsent(key, k -> new Entry(userId, scene));
+    e.lastSeenMs = nowMs;
+    if (top.size() > topCapacity) {
+      evictMin(key);
+    }
+    return e;
+  }
+
+  /** 按估计值从高到低的前 n 个表项 */
+  List<Entry> top(int n) {
+    List<Entry> all = new ArrayList<>(top.values());
+    all.sort(Comparator.comparingInt((Entry e) -> e.estimate).reversed());
+    return all.size() > n ? new ArrayList<>(all.subList(0, n)) : all;
+  }
+
+  int trackedKeys() {
+    return top.size();
+  }
+
+  private Window windowAt(long nowMs) {
+    long minute = nowMs / WINDOW_MS;
+    Window w = window;
+    // 不同线程的 nowMs 在分钟边界附近可能略有先后，落后的直接计入当前窗口
+    if (minute <= w.minute) {
+      return w;
+    }
+    synchronized (this) {
+      w = window;
+      if (minute > w.minute) {
+        AtomicIntegerArray prev = minute == w.minute + 1 ? w.cur : new AtomicIntegerArray(DEPTH * width);
+        w = new Window(minute, new AtomicIntegerArray(DEPTH * width), prev);
+        window = w;
+        top.values().removeIf(e -> nowMs - e.lastSeenMs > STALE_MS && e.hotUntilMs <= nowMs);
+      }
+      return w;
+    }
+  }
+
+  private static int estimate(Window w, int cur, int prev, long nowMs) {
+    long elapsed = nowMs - w.minute * WINDOW_MS;
+    double remain = 1.0 - Math.min(1.0, Math.max(0.0, elapsed / (double) WINDOW_MS));
+    return cur + (int) (prev * remain);
+  }
+
+  private int index(int h, int row) {
+    int x = h * 0x9E3779B9 + row * 0x7F4A7C15;
+    x ^= x >>> 16;
+    x *= 0x85EBCA6B;
+    x ^= x >>> 13;
+    return x & mask;
+  }
+
+  // 只在 top 表满了、又有新 key 达到预阈值时扫一遍（容量小，频率低）
+  private void evictMin(String keep) {
+    String victim = null;
+    int min = Integer.MAX_VALUE;
+    for (Map.Entry<String, Entry> it : top.entrySet()) {
+      if (it.getKey().equals(keep)) {
+        continue;
+      }
+      int est = it.getValue().estimate;
+      if (est < min) {
+        min = est;
+        victim = it.getKey();
+      }
+    }
+    if (victim != null) {
+      top.remove(victim);
+    }
+  }
+
+  private static final class Window {
+    final long minute;
+    final AtomicIntegerArray cur;
+    final AtomicIntegerArray prev;
+
+    Window(long minute, AtomicIntegerArray cur, AtomicIntegerArray prev) {
+      this.minute = minute;
+      this.cur = cur;
+      this.prev = prev;
+    }
+  }
+
+  static final class Entry {
+    final String userId;
+    final String scene;
+    /** 最近一次计入时的滑动一分钟估计值 */
+    volatile int estimate;
+    /** 最近一次计入时本分钟的计数 */
+    volatile int windowCount;
+    volatile long lastSeenMs;
+    /** 最近一次把本机计数同步到 Redis 的分钟，-1 表示没有 */
+    volatile long syncedMinute = -1L;
+    /** 本机热点缓存的过期时间 */
+    volatile long hotUntilMs;
+
+    Entry(String userId, String scene) {
+      this.userId = userId;
+      this.scene = scene;
+    }
+  }
+}
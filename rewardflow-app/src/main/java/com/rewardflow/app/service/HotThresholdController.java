@@ -0,0 +1,138 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按场景自适应的高频阈值（AIMD），配置见 {@link RewardFlowProperties.HotThreshold}
+ *
+ * <p>MySQL 聚合每次把拿行锁语句的耗时计入本场景当前周期的分桶直方图；{@link #tick()} 每个周期取 p99：
+ * 行锁等待变长说明非高频用户在 MySQL 上挤得厉害，乘性调低阈值让更多用户走 Redis；MySQL 空闲时逐步调高。
+ * 阈值是本实例的，各实例看到的锁等待相近，调整方向一致；Redis 上的热点标记由哪个实例写入都一样
+ */
+@Component
+public class HotThresholdController {
+
+  private static final Logger log = LoggerFactory.getLogger(HotThresholdController.class);
+
+  // 分桶上界（ms），最后一个桶收所有更大的值
+  private static final long[] BUCKET_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, Long.MAX_VALUE};
+
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final ConcurrentHashMap<String, SceneState> scenes = new ConcurrentHashMap<>();
+
+  public HotThresholdController(RewardFlowProperties props, RewardFlowMetrics metrics) {
+    this.props = props;
+    this.metrics = metrics;
+  }
+
+  /** 场景当前生效的阈值；关闭时就是 high-freq-threshold-per-minute */
+  public int thresholdFor(String scene) {
+    if (!props.getHotThreshold().isEnabled()) {
+      return props.getPlayDailyAgg().getHighFreqThresholdPerMinute();
+    }
+    SceneState st = scene == null ? null : scenes.get(scene);
+    return st == null ? baseThreshold() : st.threshold;
+  }
+
+  /** 记录一次拿行锁语句的耗时（含等锁） */
+  public void recordLockWait(String scene, long costNs) {
+    if (!props.getHotThreshold().isEnabled() || scene == null) {
+      return;
+    }
+    long ms = TimeUnit.NANOSECONDS.toMillis(costNs);
+    int i = 0;
+    while (ms > BUCKET_MS[i]) {
+      i++;
+    }
+    scenes.computeIfAbsent(scene, k -> new SceneState(baseThreshold())).buckets[i].increment();
+  }
+
+  /** 各场景当前阈值（按场景名排序） */
+  public Map<String, Integer> snapshot() {
+    Map<String, Integer> out = new TreeMap<>();
+    scenes.forEach((scene, st) -> out.put(scene, st.threshold));
+    return out;
+  }
+
+  /** 一个调整周期：取出并清空各场景的直方图，按 p99 调整阈值 */
+  public void tick() {
+    RewardFlowProperties.HotThreshold cfg = props.getHotThreshold();
+    if (!cfg.isEnabled()) {
+      return;
+    }
+    for (Map.Entry<String, SceneState> it : scenes.entrySet()) {
+      String scene = it.getKey();
+      SceneState st = it.getValue();
+      long[] counts = new long[BUCKET_MS.length];
+      long n = 0;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = st.buckets[i].sumThenReset();
+        n += counts[i];
+      }
+      long p99 = percentileMs(counts, n, 0.99);
+
+      int prev = st.threshold;
+      int next = prev;
+      if (n >= cfg.getMinSamples() && p99 > cfg.getLockWaitHighMs()) {
+        next = Math.min(prev - 1, prev * cfg.getDecreasePercent() / 100);
+      } else if (n < cfg.getMinSamples() || p99 < cfg.getLockWaitLowMs()) {
+        next = prev + cfg.getIncreaseStep();
+      }
+      next = clamp(next, cfg);
+      st.threshold = next;
+      metrics.setHotThreshold(scene, next);
+      if (next != prev) {
+        log.info("hot threshold adjusted: scene={}, from={}, to={}, samples={}, lockWaitP99Ms={}",
+            scene, prev, next, n, p99);
+      }
+    }
+  }
+
+  private int baseThreshold() {
+    return clamp(props.getPlayDailyAgg().getHighFreqThresholdPerMinute(), props.getHotThreshold());
+  }
+
+  private static int clamp(int v, RewardFlowProperties.HotThreshold cfg) {
+    int lo = Math.max(1, cfg.getMinThreshold());
+    int hi = Math.max(lo, cfg.getMaxThreshold());
+    return Math.max(lo, Math.min(hi, v));
+  }
+
+  // 落在哪个桶就取该桶上界（最后一个桶取前一个上界），偏保守
+  private static long percentileMs(long[] counts, long n, double q) {
+    if (n == 0) {
+      return 0L;
+    }
+    long rank = (long) Math.ceil(n * q);
+    long acc = 0;
+    for (int i = 0; i < counts.length; i++) {
+      acc += counts[i];
+      if (acc >= rank) {
+        return i == counts.length - 1 ? BUCKET_MS[i - 1] : BUCKET_MS[i];
+      }
+    }
+    return BUCKET_MS[BUCKET_MS.length - 2];
+  }
+
+  private static final class SceneState {
+    final LongAdder[] buckets = new LongAdder[BUCKET_MS.length];
+    volatile int threshold;
+
+    SceneState(int threshold) {
+      this.threshold = threshold;
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+  }
+}
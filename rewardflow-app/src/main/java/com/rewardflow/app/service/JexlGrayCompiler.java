@@ -0,0 +1,136 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.domain.rule.GrayMatcher;
+import com.rewardflow.domain.rule.model.RuleCenterConfig;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.jexl3.JexlBuilder;
+import org.apache.commons.jexl3.JexlEngine;
+import org.apache.commons.jexl3.JexlScript;
+import org.apache.commons.jexl3.MapContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 灰度表达式（JEXL）的预编译：规则配置加载时调用，每个 scene 只解析一次
+ *
+ * <ul>
+ *   <li>表达式只引用 uid（或不引用变量）：结果只取决于 100 个分桶，直接算好一张 boolean 表，请求期是一次数组下标</li>
+ *   <li>表达式引用了 userId：保留编译好的脚本，请求期做完整求值</li>
+ *   <li>表达式解析失败：永远不命中，与原来求值异常返回 false 的口径一致</li>
+ * </ul>
+ */
+@Component
+public class JexlGrayCompiler implements GrayMatcher.Compiler {
+
+  private static final Logger log = LoggerFactory.getLogger(JexlGrayCompiler.class);
+
+  static final int BUCKETS = 100;
+
+  private final JexlEngine jexl = new JexlBuilder()
+      .strict(true)
+      .silent(true)
+      .cache(256)
+      .create();
+
+  @Override
+  public GrayMatcher compile(String scene, RuleCenterConfig.GrayRule gray) {
+    String expr = gray.getExpr();
+    JexlScript script;
+    try {
+      script = jexl.createScript(expr);
+    } catch (Exception ex) {
+      log.warn("gray expr compile failed, scene={} expr={}", scene, expr, ex);
+      return GrayMatcher.NEVER;
+    }
+    if (script == null) {
+      log.warn("gray expr compile failed, scene={} expr={}", scene, expr);
+      return GrayMatcher.NEVER;
+    }
+
+    if (!referencesOnlyUid(script.getVariables())) {
+      log.info("gray expr compiled for full evaluation, scene={} expr={}", scene, expr);
+      return new ScriptMatcher(script);
+    }
+
+    boolean[] table = new boolean[BUCKETS];
+    int hits = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      Map<String, Object> vars = new HashMap<>();
+      vars.put("uid", b);
+      table[b] = evalBool(script, vars);
+      if (table[b]) {
+        hits++;
+      }
+    }
+    log.info("gray expr compiled to bucket table, scene={} expr={} hitBuckets={}/{}", scene, expr, hits, BUCKETS);
+    return new BucketTableMatcher(table, script);
+  }
+
+  private static boolean referencesOnlyUid(Set<List<String>> variables) {
+    if (variables == null) {
+      return true;
+    }
+    for (List<String> v : variables) {
+      if (v == null || v.isEmpty() || !"uid".equals(v.get(0))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean evalBool(JexlScript script, Map<String, Object> vars) {
+    try {
+      Object v = script.execute(new MapContext(vars));
+      if (v instanceof Boolean b) return b;
+      if (v == null) return false;
+      if (v instanceof Number n) return n.intValue() != 0;
+      return Boolean.parseBoolean(v.toString());
+    } catch (Exception ex) {
+      log.warn("gray expr evaluate failed, expr={} vars={}", script.getSourceText(), vars, ex);
+      return false;
+    }
+  }
+
+  /** 只依赖 uid 分桶：查表 */
+  static final class BucketTableMatcher implements GrayMatcher {
+    private final boolean[] table;
+    private final JexlScript script;
+
+    BucketTableMatcher(boolean[] table, JexlScript script) {
+      this.table = table;
+      this.script = script;
+    }
+
+    @Override
+    public boolean matches(int uidBucket, String userId) {
+      if (uidBucket >= 0 && uidBucket < table.length) {
+        return table[uidBucket];
+      }
+      // 分桶超出 0~99（hashCode 为 Integer.MIN_VALUE 时 abs 仍为负）：退回求值，保持原语义
+      Map<String, Object> vars = new HashMap<>();
+      vars.put("uid", uidBucket);
+      return evalBool(script, vars);
+    }
+  }
+
+  /** 引用了 userId：每次完整求值，但不再重复解析表达式 */
+  static final class ScriptMatcher implements GrayMatcher {
+    private final JexlScript script;
+
+    ScriptMatcher(JexlScript script) {
+      this.script = script;
+    }
+
+    @Override
+    public boolean matches(int uidBucket, String userId) {
+      Map<String, Object> vars = new HashMap<>();
+      vars.put("uid", uidBucket);
+      vars.put("userId", userId);
+      return evalBool(script, vars);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
+import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.stereotype.Component;
+
+/**
+ * 单机内存日聚合，只用于测试 / 压测（把聚合存储的开销从链路里拿掉，对照 MySQL / Redis 的差值）
+ *
+ * <p>第一次碰到某个 key 时从 user_play_daily 读一次 base，之后与 Redis 聚合同口径：syncTime 大于 base 水位的分段计入。
+ * 不落库、不跨实例、重启即丢；只保留当天和前一天的数据。需要 rewardflow.play-daily-agg.memory-store-enabled=true
+ */
+@Component
+public class MemoryAggregationStore implements AggregationStore {
+
+  static final String NAME = "memory";
+
+  private final UserPlayDailyMapper dailyMapper;
+  private final RewardFlowProperties props;
+  private final ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, State>> days = new ConcurrentHashMap<>();
+
+  public MemoryAggregationStore(UserPlayDailyMapper dailyMapper, RewardFlowProperties props) {
+    this.dailyMapper = dailyMapper;
+    this.props = props;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean available() {
+    return props.getPlayDailyAgg().isMemoryStoreEnabled();
+  }
+
+  @Override
+  public boolean transactional() {
+    return false;
+  }
+
+  @Override
+  public Result record(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    if (durations == null || syncTimes == null || durations.length != syncTimes.length) {
+      throw new IllegalArgumentException("durations/syncTimes length mismatch");
+    }
+    State st = stateOf(userId, scene, bizDate);
+    long nowMs = System.currentTimeMillis();
+    Result res = new Result();
+    synchronized (st) {
+      int added = 0;
+      for (int i = 0; i < durations.length; i++) {
+        if (syncTimes[i] > st.baseLastSync) {
+          added += durations[i];
+        }
+      }
+      st.pending += added;
+      res.totalDuration = st.baseTotal + st.pending;
+      res.deltaDuration = added;
+      res.prevSeenAt = st.lastRecordAt;
+      st.lastRecordAt = nowMs;
+    }
+    res.clientClock = false;
+    return res;
+  }
+
+  @Override
+  public Result readTotal(String userId, String scene, LocalDate bizDate) {
+    State st = stateOf(userId, scene, bizDate);
+    Result res = new Result();
+    synchronized (st) {
+      res.totalDuration = st.baseTotal + st.pending;
+    }
+    return res;
+  }
+
+  private State stateOf(String userId, String scene, LocalDate bizDate) {
+    ConcurrentHashMap<String, State> day = days.get(bizDate);
+    if (day == null) {
+      day = days.computeIfAbsent(bizDate, d -> new ConcurrentHashMap<>());
+      // 跨天时顺手清掉更早的数据
+      LocalDate keepFrom = bizDate.minusDays(1);
+      days.keySet().removeIf(d -> d.isBefore(keepFrom));
+    }
+    // base 加载在 computeIfAbsent 里做，同一个 key 只读一次库
+    return day.computeIfAbsent(scene + ":" + userId, k -> {
+      UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+      State st = new State();
+      if (daily != null) {
+        st.baseTotal = daily.getTotalDuration() == null ? 0 : daily.getTotalDuration();
+        st.baseLastSync = daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime();
+      }
+      return st;
+    });
+  }
+
+  private static final class State {
+    int baseTotal;
+    long baseLastSync;
+    int pending;
+    long lastRecordAt;
+  }
+}
@@ -0,0 +1,71 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
+import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
+import java.time.LocalDate;
+import org.springframework.stereotype.Component;
+
+/**
+ * MySQL 日聚合：按 mysql-agg-mode 走 range_sum 或 upsert（见 {@link PlayDailyAggService}）
+ */
+@Component
+public class MysqlAggregationStore implements AggregationStore {
+
+  static final String NAME = "mysql";
+
+  private final PlayDailyAggService aggService;
+  private final UserPlayDailyMapper dailyMapper;
+
+  public MysqlAggregationStore(PlayDailyAggService aggService, UserPlayDailyMapper dailyMapper) {
+    this.aggService = aggService;
+    this.dailyMapper = dailyMapper;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean available() {
+    return true;
+  }
+
+  @Override
+  public boolean transactional() {
+    return true;
+  }
+
+  @Override
+  public Result record(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    return toResult(aggService.aggregateReports(userId, scene, bizDate, durations, syncTimes));
+  }
+
+  @Override
+  public Result readTotal(String userId, String scene, LocalDate bizDate) {
+    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+    if (daily == null) {
+      return null;
+    }
+    Result res = new Result();
+    res.totalDuration = daily.getTotalDuration();
+    res.clientClock = true;
+    return res;
+  }
+
+  /**
+   * 其他存储失败时的回退：固定 range_sum，明细 SUM 会把 Redis 里没刷下去的增量一起补进来
+   */
+  Result catchUp(String userId, String scene, LocalDate bizDate, long maxSyncTime) {
+    return toResult(aggService.aggregate(userId, scene, bizDate, maxSyncTime));
+  }
+
+  private static Result toResult(PlayDailyAggService.AggOutcome out) {
+    Result res = new Result();
+    res.totalDuration = out.totalDuration;
+    res.deltaDuration = out.deltaDuration;
+    res.prevSeenAt = out.prevLastSyncTime;
+    res.clientClock = true;
+    return res;
+  }
+}
@@ -0,0 +1,406 @@
+package com.rewardflow.app.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 一个 bizDate 的日聚合状态，放在堆外（direct ByteBuffer）的开放寻址表里，按 64 位 key 哈希线性探测
+ *
+ * <p>槽位固定 128 字节：
+ * <pre>
+ *   0  long  hash（0 = 空槽）       8  int  total        12 int  pending（还没 checkpoint 的增量）
+ *   16 long  lastSync（水位）        24 long lastRecordAt（服务端时间）
+ *   32 short keyLen                  34 key = [sceneLen:1][scene][userId]
+ * </pre>
+ * key 不超过 94 字节时直接放在槽位里；更长的 key（userId / scene 按库表上限可到 385 字节）放在堆上，
+ * 槽位的 key 区只存它的编号
+ * 并发：同一个 key 的读写在按哈希分的条带锁里做；新增 key 另有一把插入锁，字段写完后 release 写 hash 发布，
+ * 探测时 acquire 读 hash；扩容（装载率超过 0.7 时翻倍）拿写锁，其他操作拿读锁。表只增不删，整张表随 bizDate 一起丢弃
+ */
+final class OffHeapDailyTable {
+
+  static final int SLOT_BYTES = 128;
+  static final int INLINE_KEY_BYTES = SLOT_BYTES - 34;
+
+  private static final int OFF_HASH = 0;
+  private static final int OFF_TOTAL = 8;
+  private static final int OFF_PENDING = 12;
+  private static final int OFF_LAST_SYNC = 16;
+  private static final int OFF_LAST_RECORD_AT = 24;
+  private static final int OFF_KEY_LEN = 32;
+  private static final int OFF_KEY = 34;
+
+  private static final int STRIPES = 64;
+  private static final int MAX_SLOTS = 1 << 23;
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+  private final Object insertLock = new Object();
+  private final Object[] stripes = new Object[STRIPES];
+  // 放不进槽位的长 key，编号在插入锁里分配，写完后才发布槽位
+  private final ConcurrentHashMap<Integer, byte[]> longKeys = new ConcurrentHashMap<>();
+  private int longKeyCount;
+
+  private volatile ByteBuffer buf;
+  private volatile int mask;
+  private int size;
+
+  OffHeapDailyTable(int initialSlots) {
+    int slots = Integer.highestOneBit(Math.max(1024, Math.min(MAX_SLOTS, initialSlots)) - 1) << 1;
+    this.buf = ByteBuffer.allocateDirect(slots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+    this.mask = slots - 1;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Object();
+    }
+  }
+
+  /** 把 (scene, userId) 编成表里的 key（biz_scene VARCHAR(32) / user_id VARCHAR(64) 编码后都在长度上限之内） */
+  static byte[] key(String scene, String userId) {
+    byte[] s = scene.getBytes(StandardCharsets.UTF_8);
+    byte[] u = userId.getBytes(StandardCharsets.UTF_8);
+    if (s.length > 255 || 1 + s.length + u.length > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("scene/userId too long for sharded agg table");
+    }
+    byte[] k = new byte[1 + s.length + u.length];
+    k[0] = (byte) s.length;
+    System.arraycopy(s, 0, k, 1, s.length);
+    System.arraycopy(u, 0, k, 1 + s.length, u.length);
+    return k;
+  }
+
+  static String sceneOf(byte[] key) {
+    return new String(key, 1, key[0] & 0xff, StandardCharsets.UTF_8);
+  }
+
+  static String userIdOf(byte[] key) {
+    int sl = key[0] & 0xff;
+    return new String(key, 1 + sl, key.length - 1 - sl, StandardCharsets.UTF_8);
+  }
+
+  static long hashOf(byte[] key) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h == 0L ? 1L : h;
+  }
+
+  boolean contains(byte[] key) {
+    long h = hashOf(key);
+    resizeLock.readLock().lock();
+    try {
+      return find(buf, mask, key, h) >= 0;
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+  }
+
+  /** key 不存在时以 (baseTotal, baseLastSync) 建槽；已存在时什么都不做 */
+  void insertIfAbsent(byte[] key, int baseTotal, long baseLastSync) {
+    long h = hashOf(key);
+    while (true) {
+      resizeLock.readLock().lock();
+      try {
+        synchronized (insertLock) {
+          ByteBuffer b = buf;
+          int m = mask;
+          if (find(b, m, key, h) >= 0) {
+            return;
+          }
+          if ((size + 1) * 10L <= (m + 1) * 7L) {
+            int slot = (int) h & m;
+            while ((long) LONGS.getAcquire(b, slot * SLOT_BYTES + OFF_HASH) != 0L) {
+              slot = (slot + 1) & m;
+            }
+            synchronized (stripe(h)) {
+              int base = slot * SLOT_BYTES;
+              b.putInt(base + OFF_TOTAL, baseTotal);
+              b.putInt(base + OFF_PENDING, 0);
+              b.putLong(base + OFF_LAST_SYNC, baseLastSync);
+              b.putLong(base + OFF_LAST_RECORD_AT, 0L);
+              b.putShort(base + OFF_KEY_LEN, (short) key.length);
+              if (key.length <= INLINE_KEY_BYTES) {
+                b.put(base + OFF_KEY, key);
+              } else {
+                int id = longKeyCount++;
+                longKeys.put(id, key);
+                b.putInt(base + OFF_KEY, id);
+              }
+              LONGS.setRelease(b, base + OFF_HASH, h);
+            }
+            size++;
+            return;
+          }
+        }
+      } finally {
+        resizeLock.readLock().unlock();
+      }
+      grow();
+    }
+  }
+
+  /** 在条带锁里、改表之前拿到本次实际计入的分段（按套用顺序），用来写 WAL；抛异常时表不变 */
+  @FunctionalInterface
+  interface AppliedSink {
+    void accept(int[] durations, long[] syncTimes);
+  }
+
+  /**
+   * 按 syncTime 升序逐段套用水位：syncTime 大于 lastSync 的分段计入并推进水位（与 MySQL upsert 聚合同口径）
+   *
+   * @param sink 非 null 时在同一把条带锁里先交给它计入的分段（没有计入的分段时不调用），WAL 顺序因此与套用顺序一致
+   * @return false 表示 key 不在表里（调用方先 insertIfAbsent）
+   */
+  boolean record(byte[] key, int[] durations, long[] syncTimes, long nowMs, AggregationStore.Result out,
+                 AppliedSink sink) {
+    long h = hashOf(key);
+    Integer[] order = new Integer[durations.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    if (order.length > 1) {
+      Arrays.sort(order, (x, y) -> Long.compare(syncTimes[x], syncTimes[y]));
+    }
+    resizeLock.readLock().lock();
+    try {
+      ByteBuffer b = buf;
+      int slot = find(b, mask, key, h);
+      if (slot < 0) {
+        return false;
+      }
+      int base = slot * SLOT_BYTES;
+      synchronized (stripe(h)) {
+        int total = b.getInt(base + OFF_TOTAL);
+        int pending = b.getInt(base + OFF_PENDING);
+        long lastSync = b.getLong(base + OFF_LAST_SYNC);
+        int added = 0;
+        int n = 0;
+        int[] appliedDurations = new int[order.length];
+        long[] appliedSyncTimes = new long[order.length];
+        for (int i : order) {
+          if (syncTimes[i] > lastSync) {
+            added += durations[i];
+            lastSync = syncTimes[i];
+            appliedDurations[n] = durations[i];
+            appliedSyncTimes[n++] = syncTimes[i];
+          }
+        }
+        if (sink != null && n > 0) {
+          sink.accept(Arrays.copyOf(appliedDurations, n), Arrays.copyOf(appliedSyncTimes, n));
+        }
+        out.prevSeenAt = b.getLong(base + OFF_LAST_RECORD_AT);
+        b.putInt(base + OFF_TOTAL, total + added);
+        b.putInt(base + OFF_PENDING, pending + added);
+        b.putLong(base + OFF_LAST_SYNC, lastSync);
+        b.putLong(base + OFF_LAST_RECORD_AT, nowMs);
+        out.totalDuration = total + added;
+        out.deltaDuration = added;
+        out.clientClock = false;
+      }
+      return true;
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+  }
+
+  /** 当前水位；key 不在表里时返回 -1 */
+  long lastSync(byte[] key) {
+    long h = hashOf(key);
+    resizeLock.readLock().lock();
+    try {
+      ByteBuffer b = buf;
+      int slot = find(b, mask, key, h);
+      if (slot < 0) {
+        return -1L;
+      }
+      synchronized (stripe(h)) {
+        return b.getLong(slot * SLOT_BYTES + OFF_LAST_SYNC);
+      }
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+  }
+
+  /** 当天累计；key 不在表里时返回 -1 */
+  int total(byte[] key) {
+    long h = hashOf(key);
+    resizeLock.readLock().lock();
+    try {
+      ByteBuffer b = buf;
+      int slot = find(b, mask, key, h);
+      if (slot < 0) {
+        return -1;
+      }
+      synchronized (stripe(h)) {
+        return b.getInt(slot * SLOT_BYTES + OFF_TOTAL);
+      }
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+  }
+
+  /** 有未 checkpoint 增量的槽位快照 */
+  List<Pending> pending() {
+    List<Pending> out = new ArrayList<>();
+    resizeLock.readLock().lock();
+    try {
+      ByteBuffer b = buf;
+      int slots = mask + 1;
+      for (int slot = 0; slot < slots; slot++) {
+        int base = slot * SLOT_BYTES;
+        long h = (long) LONGS.getAcquire(b, base + OFF_HASH);
+        if (h == 0L) {
+          continue;
+        }
+        synchronized (stripe(h)) {
+          int pending = b.getInt(base + OFF_PENDING);
+          if (pending <= 0) {
+            continue;
+          }
+          out.add(new Pending(keyAt(b, base), pending, b.getLong(base + OFF_LAST_SYNC)));
+        }
+      }
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+    return out;
+  }
+
+  /** checkpoint 成功后扣掉已经写进 MySQL 的增量 */
+  void ack(byte[] key, int delta) {
+    long h = hashOf(key);
+    resizeLock.readLock().lock();
+    try {
+      ByteBuffer b = buf;
+      int slot = find(b, mask, key, h);
+      if (slot < 0) {
+        return;
+      }
+      int base = slot * SLOT_BYTES;
+      synchronized (stripe(h)) {
+        b.putInt(base + OFF_PENDING, Math.max(0, b.getInt(base + OFF_PENDING) - delta));
+      }
+    } finally {
+      resizeLock.readLock().unlock();
+    }
+  }
+
+  int size() {
+    synchronized (insertLock) {
+      return size;
+    }
+  }
+
+  long offHeapBytes() {
+    return (long) (mask + 1) * SLOT_BYTES;
+  }
+
+  private Object stripe(long h) {
+    return stripes[(int) (h >>> 58)];
+  }
+
+  private byte[] keyAt(ByteBuffer b, int base) {
+    int len = b.getShort(base + OFF_KEY_LEN);
+    if (len > INLINE_KEY_BYTES) {
+      return longKeys.get(b.getInt(base + OFF_KEY));
+    }
+    byte[] key = new byte[len];
+    b.get(base + OFF_KEY, key);
+    return key;
+  }
+
+  private int find(ByteBuffer b, int m, byte[] key, long h) {
+    int slot = (int) h & m;
+    while (true) {
+      int base = slot * SLOT_BYTES;
+      long cur = (long) LONGS.getAcquire(b, base + OFF_HASH);
+      if (cur == 0L) {
+        return -1;
+      }
+      if (cur == h && keyEquals(b, base, key)) {
+        return slot;
+      }
+      slot = (slot + 1) & m;
+    }
+  }
+
+  private boolean keyEquals(ByteBuffer b, int base, byte[] key) {
+    if (b.getShort(base + OFF_KEY_LEN) != key.length) {
+      return false;
+    }
+    if (key.length > INLINE_KEY_BYTES) {
+      return Arrays.equals(longKeys.get(b.getInt(base + OFF_KEY)), key);
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (b.get(base + OFF_KEY + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void grow() {
+    resizeLock.writeLock().lock();
+    try {
+      int oldSlots = mask + 1;
+      if ((size + 1) * 10L <= oldSlots * 7L) {
+        return;
+      }
+      if (oldSlots >= MAX_SLOTS) {
+        throw new IllegalStateException("sharded agg table full: slots=" + oldSlots);
+      }
+      int slots = oldSlots << 1;
+      int m = slots - 1;
+      ByteBuffer old = buf;
+      ByteBuffer next = ByteBuffer.allocateDirect(slots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+      for (int slot = 0; slot < oldSlots; slot++) {
+        int from = slot * SLOT_BYTES;
+        long h = old.getLong(from + OFF_HASH);
+        if (h == 0L) {
+          continue;
+        }
+        int to = (int) h & m;
+        while (next.getLong(to * SLOT_BYTES + OFF_HASH) != 0L) {
+          to = (to + 1) & m;
+        }
+        next.put(to * SLOT_BYTES, old, from, SLOT_BYTES);
+      }
+      buf = next;
+      mask = m;
+    } finally {
+      resizeLock.writeLock().unlock();
+    }
+  }
+
+  static final class Pending {
+    final byte[] key;
+    final int delta;
+    final long maxSyncTime;
+
+    Pending(byte[] key, int delta, long maxSyncTime) {
+      this.key = key;
+      this.delta = delta;
+      this.maxSyncTime = maxSyncTime;
+    }
+
+    String scene() {
+      return sceneOf(key);
+    }
+
+    String userId() {
+      return userIdOf(key);
+    }
+  }
+}
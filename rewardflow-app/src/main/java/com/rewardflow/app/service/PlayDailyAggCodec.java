@@ -0,0 +1,201 @@
+package com.rewardflow.app.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+
+/**
+ * (userId, scene, bizDate) 日聚合状态在 Redis 里的两种存储格式
+ *
+ * <ul>
+ *   <li>hash：{@code rf:play:daily:{rf:t}:b64(scene):2024-01-01:b64(userId)}，每个状态一个字段</li>
+ *   <li>packed：{@code rf:pd:{rf:t}<len(scene)>:<scene><epochDay base36 4 位><userId>}，
+ *       一个 STRING，63 字节定长头（struct 打包）+ awarded_mask 原文。scene 带长度前缀，userId 放最后，
+ *       不需要转义</li>
+ * </ul>
+ * 脚本都通过 {@link #LUA} 里的 rf_load / rf_save 读写状态表，按 key 前缀识别格式，
+ * 所以同一个脏集合分片里两种格式的 key 可以混在一起 flush
+ */
+final class PlayDailyAggCodec {
+
+  static final String HASH_PREFIX = "rf:play:daily:";
+  static final String PACKED_PREFIX = "rf:pd:";
+
+  private static final int DAY_WIDTH = 4;
+
+  private PlayDailyAggCodec() {
+  }
+
+  /**
+   * @param tag RedisKeyLayout 的 hash tag；null 表示不带 tag 的旧布局
+   */
+  static String hashKey(String tag, String userId, String scene, LocalDate bizDate) {
+    String body = encodePart(scene) + ":" + bizDate + ":" + encodePart(userId);
+    return tag == null ? HASH_PREFIX + body : HASH_PREFIX + tag + ":" + body;
+  }
+
+  static String packedKey(String tag, String userId, String scene, LocalDate bizDate) {
+    String day = Long.toString(bizDate.toEpochDay(), 36);
+    StringBuilder sb = new StringBuilder(PACKED_PREFIX.length() + tag.length() + scene.length() + userId.length() + 8);
+    sb.append(PACKED_PREFIX).append(tag).append(scene.length()).append(':').append(scene);
+    for (int i = day.length(); i < DAY_WIDTH; i++) {
+      sb.append('0');
+    }
+    return sb.append(day).append(userId).toString();
+  }
+
+  /** 两种格式（以及不带 tag 的旧 hash key）都能解析，不认识时返回 null */
+  static Parsed parse(String key) {
+    if (key.startsWith(PACKED_PREFIX)) {
+      return parsePacked(key.substring(PACKED_PREFIX.length()));
+    }
+    if (!key.startsWith(HASH_PREFIX)) {
+      return null;
+    }
+    String rest = key.substring(HASH_PREFIX.length());
+    if (rest.startsWith("{")) {
+      int end = rest.indexOf("}:");
+      if (end < 0) {
+        return null;
+      }
+      rest = rest.substring(end + 2);
+    }
+    String[] parts = rest.split(":", 3);
+    if (parts.length != 3) {
+      return null;
+    }
+    String scene = decodePart(parts[0]);
+    String userId = decodePart(parts[2]);
+    if (scene == null || userId == null) {
+      return null;
+    }
+    try {
+      return new Parsed(userId, scene, LocalDate.parse(parts[1]));
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  private static Parsed parsePacked(String rest) {
+    int tagEnd = rest.indexOf('}');
+    int colon = tagEnd < 0 ? -1 : rest.indexOf(':', tagEnd);
+    if (colon < 0) {
+      return null;
+    }
+    try {
+      int sceneLen = Integer.parseInt(rest.substring(tagEnd + 1, colon));
+      int sceneEnd = colon + 1 + sceneLen;
+      if (sceneLen < 0 || sceneEnd + DAY_WIDTH > rest.length()) {
+        return null;
+      }
+      String scene = rest.substring(colon + 1, sceneEnd);
+      LocalDate bizDate = LocalDate.ofEpochDay(Long.parseLong(rest.substring(sceneEnd, sceneEnd + DAY_WIDTH), 36));
+      return new Parsed(rest.substring(sceneEnd + DAY_WIDTH), scene, bizDate);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  private static String encodePart(String raw) {
+    if (raw == null || raw.isEmpty()) {
+      return "";
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String decodePart(String encoded) {
+    if (encoded == null || encoded.isEmpty()) {
+      return "";
+    }
+    try {
+      return new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  static final class Parsed {
+    final String userId;
+    final String scene;
+    final LocalDate bizDate;
+
+    Parsed(String userId, String scene, LocalDate bizDate) {
+      this.userId = userId;
+      this.scene = scene;
+      this.bizDate = bizDate;
+    }
+  }
+
+  /**
+   * 脚本公共前缀：rf_load(key) 返回状态表（key 不存在返回 nil；没有 base 时 base_total 为 nil），
+   * rf_save(key, st, ttlMs) 写回（ttlMs <= 0 时不改过期时间）。
+   *
+   * <p>packed 头：flags(bit0 = 有 base), base_total, base_last_sync, pending_delta, pending_max_sync,
+   * inflight_delta, inflight_max_sync, inflight_at, updated_at, last_record_at, awarded_n(-1 = 未知)，
+   * 大端，时长 4 字节、毫秒时间 8 字节；awarded_n >= 0 时后面跟 awarded_mask
+   */
+  static final String LUA = """
+    local RF_PACKED_PREFIX = "rf:pd:"
+    local RF_HEADER = ">Bi4i8i4i8i4i8i8i8i8i2"
+    local RF_HEADER_LEN = 63
+    local RF_FIELDS = {"base_total", "base_last_sync", "pending_delta", "pending_max_sync", "inflight_delta",
+      "inflight_max_sync", "inflight_at", "updated_at", "last_record_at", "awarded_n"}
+
+    local function rf_packed(key)
+      return string.sub(key, 1, #RF_PACKED_PREFIX) == RF_PACKED_PREFIX
+    end
+
+    local function rf_load(key)
+      if rf_packed(key) then
+        local raw = redis.call("GET", key)
+        if not raw then return nil end
+        local flags, bt, bl, pd, pm, fd, fm, fa, ua, lr, an = struct.unpack(RF_HEADER, raw)
+        local st = {base_last_sync = bl, pending_delta = pd, pending_max_sync = pm, inflight_delta = fd,
+          inflight_max_sync = fm, inflight_at = fa, updated_at = ua, last_record_at = lr}
+        if flags % 2 == 1 then st.base_total = bt end
+        if an >= 0 then
+          st.awarded_n = an
+          st.awarded_mask = string.sub(raw, RF_HEADER_LEN + 1)
+        end
+        return st
+      end
+      local raw = redis.call("HGETALL", key)
+      if #raw == 0 then return nil end
+      local st = {}
+      for i = 1, #raw, 2 do
+        if raw[i] == "awarded_mask" then st.awarded_mask = raw[i + 1] else st[raw[i]] = tonumber(raw[i + 1]) end
+      end
+      return st
+    end
+
+    local function rf_save(key, st, ttlMs)
+      if rf_packed(key) then
+        local an = st.awarded_n or -1
+        local raw = struct.pack(RF_HEADER, st.base_total and 1 or 0, st.base_total or 0, st.base_last_sync or 0,
+          st.pending_delta or 0, st.pending_max_sync or 0, st.inflight_delta or 0, st.inflight_max_sync or 0,
+          st.inflight_at or 0, st.updated_at or 0, st.last_record_at or 0, an)
+        if an >= 0 then raw = raw .. (st.awarded_mask or "") end
+        if ttlMs > 0 then
+          redis.call("SET", key, raw, "PX", ttlMs)
+        else
+          redis.call("SET", key, raw, "KEEPTTL")
+        end
+        return
+      end
+      local args = {}
+      for _, f in ipairs(RF_FIELDS) do
+        if st[f] ~= nil then
+          args[#args + 1] = f
+          args[#args + 1] = st[f]
+        end
+      end
+      if st.awarded_mask ~= nil then
+        args[#args + 1] = "awarded_mask"
+        args[#args + 1] = st.awarded_mask
+      end
+      if #args > 0 then redis.call("HSET", key, unpack(args)) end
+      if ttlMs > 0 then redis.call("PEXPIRE", key, ttlMs) end
+    end
+
+    """;
+}
@@ -1,9 +1,12 @@
 package com.rewardflow.app.service;
 
 import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -11,7 +14,9 @@ import org.springframework.stereotype.Service;
 
 /**
  * 路由判定服务，根据usreid和scene的访问频率决定是否吧“play daily agg” 走Redis方案
- * 
+ *
+ * <p>先用本机的频率估计（{@link HotKeySketch}）预筛：本机估计低于预阈值的 (userId, scene) 直接判定为非热点，
+ * 不访问 Redis；达到预阈值后才查 / 更新共享的热点计数与标记，查到的热点标记在本机缓存一小段时间
  */
 @Service
 public class PlayDailyAggRoutingService {
@@ -23,49 +28,212 @@ public class PlayDailyAggRoutingService {
 
   private final StringRedisTemplate redis;
   private final RewardFlowProperties props;
+  private final RedisKeyLayout keyLayout;
+  private final RewardFlowMetrics metrics;
+  private final HotThresholdController thresholdController;
+  private final HotKeySketch sketch;
 
-  public PlayDailyAggRoutingService(StringRedisTemplate redis, RewardFlowProperties props) {
+  public PlayDailyAggRoutingService(StringRedisTemplate redis, RewardFlowProperties props, RedisKeyLayout keyLayout,
+                                    RewardFlowMetrics metrics, HotThresholdController thresholdController) {
     this.redis = redis;
     this.props = props;
+    this.keyLayout = keyLayout;
+    this.metrics = metrics;
+    this.thresholdController = thresholdController;
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    this.sketch = new HotKeySketch(cfg.getLocalSketchWidth(), cfg.getLocalTopCapacity());
   }
 
   public boolean shouldUseRedis(String userId, String scene, long nowMs) {
+    return shouldUseRedis(userId, scene, nowMs, 1);
+  }
+
+  /**
+   * 批量上报时同一个 (userId, scene) 的 reports 个分段只做一次判定，但按分段数计入访问量
+   */
+  public boolean shouldUseRedis(String userId, String scene, long nowMs, int reports) {
     RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
     if (!cfg.isRedisEnabled()) {
       return false;
     }
+    int step = Math.max(1, reports);
+    if (!cfg.isLocalSketchEnabled()) {
+      return remoteShouldUseRedis(userId, scene, nowMs, step);
+    }
+
+    int pre = preThreshold(scene);
+    HotKeySketch.Entry e = sketch.add(sketchKey(userId, scene), userId, scene, step, nowMs, pre);
+    if (e != null && e.hotUntilMs > nowMs) {
+      metrics.incHotRouting("local_hot");
+      return true;
+    }
+    if (e == null || e.estimate < pre) {
+      metrics.incHotRouting("local_cold");
+      return false;
+    }
+
+    // 本分钟第一次同步时把预筛期间没上报的本机计数一起补进 Redis 计数
+    long minute = nowMs / 60_000L;
+    int incr = e.syncedMinute == minute ? step : Math.max(step, e.windowCount);
+    e.syncedMinute = minute;
+    boolean hot = remoteShouldUseRedis(userId, scene, nowMs, incr);
+    if (hot) {
+      e.hotUntilMs = nowMs + hotCacheTtlMs(cfg);
+    }
+    metrics.incHotRouting(hot ? "remote_hot" : "remote_cold");
+    return hot;
+  }
+
+  private boolean remoteShouldUseRedis(String userId, String scene, long nowMs, int step) {
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
     // 如果当前userID 和 scene 已经是hot，直接返回true
-    if (isHot(userId, scene)) {
+    if (isHotRemote(userId, scene)) {
       return true;
     }
 
     long minute = nowMs / 60_000L;
-    String cntKey = CNT_PREFIX + encodePart(scene) + ":" + encodePart(userId) + ":" + minute;
-    Long cnt = redis.opsForValue().increment(cntKey);
-    if (cnt != null && cnt == 1L) {
+    String cntKey = cntKey(userId, scene, minute);
+    Long cnt = redis.opsForValue().increment(cntKey, step);
+    if (cnt != null && cnt == step) {
       redis.expire(cntKey, Duration.ofSeconds(120));
     }
 
-    // 如果本分钟访问量超过阈值，设置hot标记
-    if (cnt != null && cnt >= cfg.getHighFreqThresholdPerMinute()) {
+    // 如果本分钟访问量超过阈值（按 MySQL 锁等待自适应，见 HotThresholdController），设置hot标记
+    int threshold = thresholdController.thresholdFor(scene);
+    if (cnt != null && cnt >= threshold) {
       String flagKey = flagKey(userId, scene);
       redis.opsForValue().set(flagKey, "1", Duration.ofSeconds(cfg.getHotWindowSeconds()));
       log.info("play daily agg hot flag set: userId={}, scene={}, minute={}, cnt={}, threshold={}, windowSeconds={}",
-          userId, scene, minute, cnt, cfg.getHighFreqThresholdPerMinute(), cfg.getHotWindowSeconds());
+          userId, scene, minute, cnt, threshold, cfg.getHotWindowSeconds());
       return true;
     }
 
     return false;
   }
 
+  /**
+   * 只读判定（幂等命中的回填路径用）：本机热点缓存命中直接返回；本机估计低于预阈值时返回 false，不访问 Redis
+   */
   public boolean isHot(String userId, String scene) {
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    if (!cfg.isLocalSketchEnabled()) {
+      return isHotRemote(userId, scene);
+    }
+    long nowMs = System.currentTimeMillis();
+    HotKeySketch.Entry e = sketch.peek(sketchKey(userId, scene));
+    if (e != null && e.hotUntilMs > nowMs) {
+      metrics.incHotRouting("local_hot");
+      return true;
+    }
+    if (e == null || e.estimate < preThreshold(scene)) {
+      metrics.incHotRouting("local_cold");
+      return false;
+    }
+    boolean hot = isHotRemote(userId, scene);
+    if (hot) {
+      e.hotUntilMs = nowMs + hotCacheTtlMs(cfg);
+    }
+    metrics.incHotRouting(hot ? "remote_hot" : "remote_cold");
+    return hot;
+  }
+
+  /**
+   * 融合脚本已经在 Redis 里完成了热点判定：只把这次上报计入本机估计（top-N 端点），
+   * 判为热点时顺带刷新本机热点缓存，供幂等命中的回填路径使用
+   */
+  public void observe(String userId, String scene, long nowMs, boolean hot) {
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    if (!cfg.isLocalSketchEnabled()) {
+      return;
+    }
+    String key = sketchKey(userId, scene);
+    HotKeySketch.Entry e = sketch.add(key, userId, scene, 1, nowMs, preThreshold(scene));
+    if (hot) {
+      if (e == null) {
+        e = sketch.track(key, userId, scene, nowMs);
+      }
+      e.hotUntilMs = nowMs + hotCacheTtlMs(cfg);
+    }
+  }
+
+  /** 本机估计值最高的 n 个 (scene, userId)，按估计值降序 */
+  public List<HotKey> topHot(int n) {
+    long nowMs = System.currentTimeMillis();
+    List<HotKeySketch.Entry> entries = sketch.top(Math.max(0, n));
+    List<HotKey> out = new ArrayList<>(entries.size());
+    for (HotKeySketch.Entry e : entries) {
+      HotKey k = new HotKey();
+      k.userId = e.userId;
+      k.scene = e.scene;
+      k.estimatePerMinute = e.estimate;
+      k.localHot = e.hotUntilMs > nowMs;
+      k.lastSeenMs = e.lastSeenMs;
+      out.add(k);
+    }
+    return out;
+  }
+
+  /** 本机跟踪表里的 key 数（达到过预阈值或被判为热点的） */
+  public int trackedKeys() {
+    return sketch.trackedKeys();
+  }
+
+  private boolean isHotRemote(String userId, String scene) {
     String flagKey = flagKey(userId, scene);
     Boolean exists = redis.hasKey(flagKey);
     return exists != null && exists;
   }
 
-  private String flagKey(String userId, String scene) {
-    return FLAG_PREFIX + encodePart(scene) + ":" + encodePart(userId);
+  /** 本机预阈值：不超过当前生效的高频阈值，否则阈值调低后介于两者之间的用户永远不会去查 Redis */
+  private int preThreshold(String scene) {
+    return Math.min(props.getPlayDailyAgg().getLocalPreThresholdPerMinute(), thresholdController.thresholdFor(scene));
+  }
+
+  private static long hotCacheTtlMs(RewardFlowProperties.PlayDailyAgg cfg) {
+    return Math.min(cfg.getLocalHotCacheTtlMs(), cfg.getHotWindowSeconds() * 1000L);
+  }
+
+  private static String sketchKey(String userId, String scene) {
+    return scene + ":" + userId;
+  }
+
+  String cntKey(String userId, String scene, long minute) {
+    return CNT_PREFIX + keyLayout.tag(userId, scene) + ":" + encodePart(scene) + ":" + encodePart(userId) + ":" + minute;
+  }
+
+  String flagKey(String userId, String scene) {
+    return FLAG_PREFIX + keyLayout.tag(userId, scene) + ":" + encodePart(scene) + ":" + encodePart(userId);
+  }
+
+  /** top-N 端点的一行 */
+  public static class HotKey {
+    private String userId;
+    private String scene;
+    private int estimatePerMinute;
+    private boolean localHot;
+    private long lastSeenMs;
+
+    public String getUserId() {
+      return userId;
+    }
+
+    public String getScene() {
+      return scene;
+    }
+
+    /** 本机滑动一分钟的估计上报次数（Count-Min，只会高估） */
+    public int getEstimatePerMinute() {
+      return estimatePerMinute;
+    }
+
+    /** 本机热点缓存是否有效 */
+    public boolean isLocalHot() {
+      return localHot;
+    }
+
+    public long getLastSeenMs() {
+      return lastSeenMs;
+    }
   }
 
   private String encodePart(String raw) {
@@ -1,10 +1,17 @@
 package com.rewardflow.app.service;
 
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import com.rewardflow.infra.mysql.entity.PlayDailyDelta;
 import com.rewardflow.infra.mysql.entity.PlayReportAggResult;
 import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
 import com.rewardflow.infra.mysql.mapper.PlayDurationReportMapper;
 import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DuplicateKeyException;
@@ -15,13 +22,47 @@ public class PlayDailyAggService {
 
   private static final Logger log = LoggerFactory.getLogger(PlayDailyAggService.class);
 
+  static final String MODE_RANGE_SUM = "range_sum";
+  static final String MODE_UPSERT = "upsert";
+
   private final UserPlayDailyMapper dailyMapper;
   private final PlayDurationReportMapper reportMapper;
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final HotThresholdController thresholdController;
 
   public PlayDailyAggService(UserPlayDailyMapper dailyMapper,
-                             PlayDurationReportMapper reportMapper) {
+                             PlayDurationReportMapper reportMapper,
+                             RewardFlowProperties props,
+                             RewardFlowMetrics metrics,
+                             HotThresholdController thresholdController) {
     this.dailyMapper = dailyMapper;
     this.reportMapper = reportMapper;
+    this.props = props;
+    this.metrics = metrics;
+    this.thresholdController = thresholdController;
+  }
+
+  /** 非高频上报是否走单语句 upsert 聚合（rewardflow.play-daily-agg.mysql-agg-mode） */
+  public boolean upsertMode() {
+    return MODE_UPSERT.equalsIgnoreCase(props.getPlayDailyAgg().getMysqlAggMode());
+  }
+
+  /**
+   * 非高频上报的聚合入口：按配置选择 range_sum / upsert，要在明细插入的同一个事务里调用
+   *
+   * @param durations 本次新插入（非幂等命中）的分段时长
+   * @param syncTimes 与 durations 一一对应
+   */
+  public AggOutcome aggregateReports(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    if (upsertMode()) {
+      return aggregateUpsert(userId, scene, bizDate, durations, syncTimes);
+    }
+    long maxSync = 0L;
+    for (long t : syncTimes) {
+      maxSync = Math.max(maxSync, t);
+    }
+    return aggregate(userId, scene, bizDate, maxSync);
   }
 
   /**
@@ -32,6 +73,7 @@ public class PlayDailyAggService {
    * 要在外层事务中调用该方法，“加锁+查+写”需要跟“插入明细表”放在同一个事物里面保证一致性
    */
   public AggOutcome aggregate(String userId, String scene, LocalDate bizDate, long currentSyncTime) {
+    long startNs = System.nanoTime();
     // 锁住当天汇总行：让同一个（userId，scene，bizDate）的聚合过程串行化避免并发把总数算乱
     UserPlayDailyDO daily = dailyMapper.selectOneForUpdate(userId, scene, bizDate);
     if (daily == null) {
@@ -50,6 +92,7 @@ public class PlayDailyAggService {
       }
       daily = dailyMapper.selectOneForUpdate(userId, scene, bizDate);
     }
+    lockWait(scene, "select_for_update", System.nanoTime() - startNs);
 
  
     long lastSync = daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime();
@@ -70,22 +113,90 @@ public class PlayDailyAggService {
 
     // 只有当 sync_time 边界推进或总时长变化时才更新（避免无意义更新）
     // 注意：如果上报乱序（sync_time <= lastSync），那么 delta 会是 0
+    long updateStartNs = System.nanoTime();
     dailyMapper.updateTotals(daily.getId(), newTotal, maxSync, daily.getVersion() == null ? 0 : daily.getVersion());
+    lockWait(scene, "update_totals", System.nanoTime() - updateStartNs);
 
     AggOutcome out = new AggOutcome();
     out.dailyId = daily.getId();
     out.deltaDuration = delta;
     out.totalDuration = newTotal;
     out.lastSyncTime = maxSync;
+    out.prevLastSyncTime = lastSync;
     log.debug("play daily agg mysql: userId={}, scene={}, bizDate={}, dailyId={}, delta={}, total={}, lastSync={}",
         userId, scene, bizDate, daily.getId(), delta, newTotal, maxSync);
+    metrics.recordMysqlAgg(MODE_RANGE_SUM, System.nanoTime() - startNs);
     return out;
   }
 
+  /**
+   * 单语句聚合：不锁行读一次旧值，一条 INSERT ... ON DUPLICATE KEY UPDATE 把本次分段加到总数上，再回读
+   *
+   * <ul>
+   *   <li>每个分段一行 VALUES，按 syncTime 升序（相同 syncTime 先合并），MySQL 按顺序逐行套用
+   *       {@code last_sync_time < VALUES(last_sync_time)} 水位：乱序 / 重放的分段不计入，与 range_sum 口径一致</li>
+   *   <li>行锁只在 upsert 时拿，持有到事务提交；没有 FOR UPDATE 和明细范围 SUM</li>
+   *   <li>delta / prevLastSyncTime 由预读算出：预读和 upsert 之间有别的事务提交时 delta 偏大、
+   *       prevLastSyncTime 偏旧，只会让发奖闸门多预览一次，总数以回读为准</li>
+   *   <li>只加本次分段：水位之上但没有被计入的明细（Redis pending 等）不会被补进来，
+   *       所以调用方要保证该用户当天在 Redis 里没有未刷写的增量（见 PlayDailyRedisAggService#hasUnflushed）</li>
+   * </ul>
+   */
+  public AggOutcome aggregateUpsert(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    long startNs = System.nanoTime();
+    UserPlayDailyDO before = dailyMapper.selectOne(userId, scene, bizDate);
+    int prevTotal = before == null || before.getTotalDuration() == null ? 0 : before.getTotalDuration();
+    long prevLast = before == null || before.getLastSyncTime() == null ? 0L : before.getLastSyncTime();
+
+    long upsertStartNs = System.nanoTime();
+    dailyMapper.batchUpsertAddDelta(toRows(userId, scene, bizDate, durations, syncTimes));
+    lockWait(scene, "upsert", System.nanoTime() - upsertStartNs);
+    // 本事务刚写过这一行，回读看到的是自己的版本（已包含之前提交的所有更新）
+    UserPlayDailyDO after = dailyMapper.selectOne(userId, scene, bizDate);
+
+    AggOutcome out = new AggOutcome();
+    out.dailyId = after.getId();
+    out.totalDuration = after.getTotalDuration() == null ? 0 : after.getTotalDuration();
+    out.deltaDuration = Math.max(0, out.totalDuration - prevTotal);
+    out.lastSyncTime = after.getLastSyncTime() == null ? 0L : after.getLastSyncTime();
+    out.prevLastSyncTime = prevLast;
+    log.debug("play daily agg mysql upsert: userId={}, scene={}, bizDate={}, dailyId={}, delta={}, total={}, lastSync={}",
+        userId, scene, bizDate, out.dailyId, out.deltaDuration, out.totalDuration, out.lastSyncTime);
+    metrics.recordMysqlAgg(MODE_UPSERT, System.nanoTime() - startNs);
+    return out;
+  }
+
+  // 拿行锁的语句耗时：导出直方图，并喂给高频阈值控制器
+  private void lockWait(String scene, String stage, long costNs) {
+    metrics.recordMysqlAggLockWait(scene, stage, costNs);
+    thresholdController.recordLockWait(scene, costNs);
+  }
+
+  private static List<PlayDailyDelta> toRows(String userId, String scene, LocalDate bizDate,
+                                             int[] durations, long[] syncTimes) {
+    TreeMap<Long, Integer> bySync = new TreeMap<>();
+    for (int i = 0; i < durations.length; i++) {
+      bySync.merge(syncTimes[i], durations[i], Integer::sum);
+    }
+    List<PlayDailyDelta> rows = new ArrayList<>(bySync.size());
+    for (Map.Entry<Long, Integer> e : bySync.entrySet()) {
+      PlayDailyDelta row = new PlayDailyDelta();
+      row.setUserId(userId);
+      row.setBizScene(scene);
+      row.setBizDate(bizDate);
+      row.setDeltaDuration(e.getValue());
+      row.setMaxSyncTime(e.getKey());
+      rows.add(row);
+    }
+    return rows;
+  }
+
   public static class AggOutcome {
     public Long dailyId;
     public Integer deltaDuration;
     public Integer totalDuration;
     public Long lastSyncTime;
+    /** 本次聚合之前的 last_sync_time（上一次被计入的上报的 syncTime） */
+    public long prevLastSyncTime;
   }
 }
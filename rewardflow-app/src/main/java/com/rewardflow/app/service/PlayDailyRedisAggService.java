@@ -1,20 +1,41 @@
 package com.rewardflow.app.service;
 
 import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import com.rewardflow.domain.rule.AwardedStages;
+import com.rewardflow.infra.mysql.entity.PlayDailyDelta;
 import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
 import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
-import java.time.Duration;
+import jakarta.annotation.PreDestroy;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 /**
@@ -26,33 +47,67 @@ public class PlayDailyRedisAggService {
 
   private static final Logger log = LoggerFactory.getLogger(PlayDailyRedisAggService.class);
 
-  private static final String KEY_PREFIX = "rf:play:daily:";
-  private static final String DIRTY_ZSET = "rf:play:daily:dirty";
+  // 旧的单 key 脏集合 / 不带 tag 的分片（rf:play:daily:dirty:i），只用于在线迁移
+  private static final String LEGACY_DIRTY_ZSET = "rf:play:daily:dirty";
+  // 脏集合：每个 tag 一个 rf:play:daily:dirty:{rf:t}（旧布局 rf:play:daily:dirty:{rf-i}）
+  private static final String DIRTY_SHARD_PREFIX = "rf:play:daily:dirty:";
+  // 脏 tag 索引：rf:play:daily:dirty-tags:j，成员是 tag 编号，score 是登记版本（单调递增，移除后重新登记也不会回到旧值）
+  private static final String DIRTY_TAG_INDEX_PREFIX = "rf:play:daily:dirty-tags:";
+  // 每轮巡检 TAGS / SWEEP_ROUNDS 个 tag，把漏登记（记账后、登记前进程退出）的 tag 补回索引
+  private static final int SWEEP_ROUNDS = 64;
 
-  private static final String FIELD_BASE_TOTAL = "base_total";
-  private static final String FIELD_BASE_LAST_SYNC = "base_last_sync";
-  private static final String FIELD_PENDING_DELTA = "pending_delta";
-  private static final String FIELD_PENDING_MAX_SYNC = "pending_max_sync";
-  private static final String FIELD_INFLIGHT_DELTA = "inflight_delta";
-  private static final String FIELD_INFLIGHT_MAX_SYNC = "inflight_max_sync";
-  private static final String FIELD_INFLIGHT_AT = "inflight_at";
-  private static final String FIELD_UPDATED_AT = "updated_at";
+  // 记账脚本在 key 没有 base 时返回 {NEEDS_BASE}
+  private static final long NEEDS_BASE = -1L;
+  // 提交脚本：pending 已清空、TTL 缩短到空闲窗口时返回
+  private static final long COMMITTED_IDLE = 2L;
 
   private final StringRedisTemplate redis;
   private final UserPlayDailyMapper dailyMapper;
   private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final RedisKeyLayout keyLayout;
+  private final TxStageRunner txStageRunner;
+
+  // 同 JVM 内同一个 key 的冷加载只做一次，其余请求等它完成
+  private final ConcurrentHashMap<String, CompletableFuture<Void>> coldLoads = new ConcurrentHashMap<>();
+
+  // 上一次常驻 key 抽样的时间
+  private volatile long lastResidentSampleAt;
+
+  // 巡检游标
+  private volatile int sweepCursor;
+
+  // 并行 flush 的 worker，第一次需要并行时创建（线程数取当时的 flushWorkers）
+  private volatile ExecutorService flushExecutor;
 
   private final DefaultRedisScript<List> recordScript = new DefaultRedisScript<>(RECORD_SCRIPT, List.class);
-  private final DefaultRedisScript<List> reserveScript = new DefaultRedisScript<>(RESERVE_SCRIPT, List.class);
+  private final DefaultRedisScript<List> recordBatchScript = new DefaultRedisScript<>(RECORD_BATCH_SCRIPT, List.class);
+  private final DefaultRedisScript<Long> unrecordScript = new DefaultRedisScript<>(UNRECORD_SCRIPT, Long.class);
+  private final DefaultRedisScript<List> reserveBatchScript = new DefaultRedisScript<>(RESERVE_BATCH_SCRIPT, List.class);
   private final DefaultRedisScript<Long> commitScript = new DefaultRedisScript<>(COMMIT_SCRIPT, Long.class);
   private final DefaultRedisScript<Long> rollbackScript = new DefaultRedisScript<>(ROLLBACK_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> awardedMaskScript = new DefaultRedisScript<>(AWARDED_MASK_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> initScript = new DefaultRedisScript<>(INIT_IF_ABSENT_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> migrateDirtyScript = new DefaultRedisScript<>(MIGRATE_DIRTY_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> adoptScript = new DefaultRedisScript<>(ADOPT_SCRIPT, Long.class);
+  private final DefaultRedisScript<List> readTotalScript = new DefaultRedisScript<>(READ_TOTAL_SCRIPT, List.class);
+  private final DefaultRedisScript<String> readMaskScript = new DefaultRedisScript<>(READ_MASK_SCRIPT, String.class);
+  private final DefaultRedisScript<Long> markTagScript = new DefaultRedisScript<>(MARK_TAG_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> retireTagScript = new DefaultRedisScript<>(RETIRE_TAG_SCRIPT, Long.class);
+  private final DefaultRedisScript<Long> dropIdleScript = new DefaultRedisScript<>(DROP_IDLE_SCRIPT, Long.class);
 
   public PlayDailyRedisAggService(StringRedisTemplate redis,
                                   UserPlayDailyMapper dailyMapper,
-                                  RewardFlowProperties props) {
+                                  RewardFlowProperties props,
+                                  RewardFlowMetrics metrics,
+                                  RedisKeyLayout keyLayout,
+                                  TxStageRunner txStageRunner) {
     this.redis = redis;
     this.dailyMapper = dailyMapper;
     this.props = props;
+    this.metrics = metrics;
+    this.keyLayout = keyLayout;
+    this.txStageRunner = txStageRunner;
   }
 
   public boolean enabled() {
@@ -64,49 +119,187 @@ public class PlayDailyRedisAggService {
     Objects.requireNonNull(userId, "userId");
     Objects.requireNonNull(scene, "scene");
     Objects.requireNonNull(bizDate, "bizDate");
-    ensureBase(userId, scene, bizDate);
 
     String key = keyFor(userId, scene, bizDate);
-    long nowMs = System.currentTimeMillis();
     long ttlMs = props.getPlayDailyAgg().getRedisTtlSeconds() * 1000L;
 
-    List<Long> out = toLongList(redis.execute(
+    // 热 key 一次往返；key 没有 base 时脚本不记账，冷加载后再执行一次
+    String dirtyKey = dirtyKeyFor(key);
+    List<Long> out = withBase(userId, scene, bizDate, key, () -> toLongList(redis.execute(
         recordScript,
-        List.of(key, DIRTY_ZSET),
+        List.of(key, dirtyKey),
         String.valueOf(duration),
         String.valueOf(syncTime),
-        String.valueOf(nowMs),
+        String.valueOf(System.currentTimeMillis()),
         String.valueOf(ttlMs)
-    ));
+    )));
     if (out.isEmpty()) {
       log.warn("redis agg record returned empty: userId={}, scene={}, bizDate={}, duration={}, syncTime={}",
           userId, scene, bizDate, duration, syncTime);
     }
+    if (out.size() > 6 && out.get(6) == 1L) {
+      markDirty(dirtyKey);
+    }
 
     int total = out.size() > 0 ? out.get(0).intValue() : 0;
     int delta = out.size() > 1 ? out.get(1).intValue() : 0;
     AggOutcome res = new AggOutcome();
     res.totalDuration = total;
     res.deltaDuration = delta;
+    res.prevRecordAt = out.size() > 5 ? out.get(5) : 0L;
+    return res;
+  }
+
+  /**
+   * 批量写入同一个 (userId, scene, bizDate) 的多个分段：热 key 一次脚本调用
+   *
+   * <p>逐段判定口径与 {@link #recordAndGetTotal} 相同，返回的 deltaDuration 是本批实际计入的增量之和
+   */
+  public AggOutcome recordBatchAndGetTotal(String userId, String scene, LocalDate bizDate,
+                                           int[] durations, long[] syncTimes) {
+    Objects.requireNonNull(userId, "userId");
+    Objects.requireNonNull(scene, "scene");
+    Objects.requireNonNull(bizDate, "bizDate");
+    if (durations == null || syncTimes == null || durations.length != syncTimes.length) {
+      throw new IllegalArgumentException("durations/syncTimes length mismatch");
+    }
+
+    String key = keyFor(userId, scene, bizDate);
+    long ttlMs = props.getPlayDailyAgg().getRedisTtlSeconds() * 1000L;
+
+    Object[] args = new Object[2 + durations.length * 2];
+    args[1] = String.valueOf(ttlMs);
+    for (int i = 0; i < durations.length; i++) {
+      args[2 + i * 2] = String.valueOf(durations[i]);
+      args[3 + i * 2] = String.valueOf(syncTimes[i]);
+    }
+
+    String dirtyKey = dirtyKeyFor(key);
+    List<Long> out = withBase(userId, scene, bizDate, key, () -> {
+      args[0] = String.valueOf(System.currentTimeMillis());
+      return toLongList(redis.execute(recordBatchScript, List.of(key, dirtyKey), args));
+    });
+    if (out.isEmpty()) {
+      log.warn("redis agg record batch returned empty: userId={}, scene={}, bizDate={}, size={}",
+          userId, scene, bizDate, durations.length);
+    }
+    if (out.size() > 6 && out.get(6) == 1L) {
+      markDirty(dirtyKey);
+    }
+
+    AggOutcome res = new AggOutcome();
+    res.totalDuration = out.size() > 0 ? out.get(0).intValue() : 0;
+    res.deltaDuration = out.size() > 1 ? out.get(1).intValue() : 0;
+    res.prevRecordAt = out.size() > 5 ? out.get(5) : 0L;
     return res;
   }
 
+  /**
+   * 撤销一次已写入 pending 的增量（融合脚本先于明细插入记账，明细唯一索引冲突时补偿）
+   *
+   * <p>pending_max_sync 不回退：该 syncTime 对应的明细已经在库里（唯一索引冲突），推进边界不会漏算。
+   * 这段增量已经被 flush 刷回 MySQL 时 pending 变为负数，作为修正量留在脏集合里，下一次 flush 扣回
+   */
+  public void unrecord(String userId, String scene, LocalDate bizDate, int added) {
+    if (added <= 0) {
+      return;
+    }
+    String key = keyFor(userId, scene, bizDate);
+    String dirtyKey = dirtyKeyFor(key);
+    Long fresh = redis.execute(unrecordScript, List.of(key, dirtyKey),
+        String.valueOf(added), String.valueOf(System.currentTimeMillis()));
+    if (fresh != null && fresh == 1L) {
+      markDirty(dirtyKey);
+    }
+    log.debug("redis agg unrecord: userId={}, scene={}, bizDate={}, added={}", userId, scene, bizDate, added);
+  }
+
   public AggOutcome getTotalBestEffort(String userId, String scene, LocalDate bizDate) {
     Objects.requireNonNull(userId, "userId");
     Objects.requireNonNull(scene, "scene");
     Objects.requireNonNull(bizDate, "bizDate");
-    ensureBase(userId, scene, bizDate);
 
     String key = keyFor(userId, scene, bizDate);
-    Integer baseTotal = toInt(redis.opsForHash().get(key, FIELD_BASE_TOTAL), 0);
-    Integer pendingDelta = toInt(redis.opsForHash().get(key, FIELD_PENDING_DELTA), 0);
+    // {baseTotal, pendingDelta}，没有 base 时为 {-1}
+    List<Long> vals = toLongList(redis.execute(readTotalScript, List.of(key)));
+    if (needsBase(vals)) {
+      coldLoad(userId, scene, bizDate, key);
+      vals = toLongList(redis.execute(readTotalScript, List.of(key)));
+    }
+    long baseTotal = needsBase(vals) || vals.isEmpty() ? 0L : vals.get(0);
+    long pendingDelta = vals.size() < 2 ? 0L : vals.get(1);
 
     AggOutcome res = new AggOutcome();
-    res.totalDuration = baseTotal + pendingDelta;
+    res.totalDuration = (int) (baseTotal + pendingDelta);
     res.deltaDuration = 0;
     return res;
   }
 
+  /**
+   * 聚合 key 是否还在脏集合里（有 pending 或正在 flush 的增量）
+   *
+   * <p>MySQL upsert 聚合只加本次分段，不能在 Redis 还有未刷写增量时推进水位（flush 的增量会被水位挡掉），
+   * 这种 key 继续走 Redis（包括旧布局里还没排空的 key）。读失败时返回 true：调用方走 Redis，Redis 再失败会回退到 range_sum
+   */
+  public boolean hasUnflushed(String userId, String scene, LocalDate bizDate) {
+    try {
+      String key = keyFor(userId, scene, bizDate);
+      return redis.opsForZSet().score(dirtyKeyFor(key), key) != null || legacyDirty(userId, scene, bizDate);
+    } catch (Exception ex) {
+      log.warn("redis agg dirty check failed: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+      return true;
+    }
+  }
+
+  /**
+   * 旧布局里该用户当天是否还有没排空的聚合 key（融合脚本只能看到新布局的脏集合，由调用方补查）
+   *
+   * <p>没有旧布局时不访问 Redis；读失败时返回 true
+   */
+  public boolean hasLegacyUnflushed(String userId, String scene, LocalDate bizDate) {
+    if (keyLayout.legacyShards() == 0) {
+      return false;
+    }
+    try {
+      return legacyDirty(userId, scene, bizDate);
+    } catch (Exception ex) {
+      log.warn("redis agg legacy dirty check failed: userId={}, scene={}, bizDate={}, err={}",
+          userId, scene, bizDate, ex.toString());
+      return true;
+    }
+  }
+
+  private boolean legacyDirty(String userId, String scene, LocalDate bizDate) {
+    for (String legacyKey : legacyKeys(userId, scene, bizDate)) {
+      if (redis.opsForZSet().score(dirtyKeyFor(legacyKey), legacyKey) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** 读取聚合状态里的已发奖档位位图，未缓存时返回 null */
+  public String readAwardedMask(String userId, String scene, LocalDate bizDate) {
+    return redis.execute(readMaskScript, List.of(keyFor(userId, scene, bizDate)));
+  }
+
+  /**
+   * 写入已发奖档位位图：只在聚合 key 存在、且新位图的档位个数更多时覆盖
+   *
+   * <p>位图只增不减，个数更多即更新；乱序到达的旧值不会覆盖新值。key 不存在时不创建（MySQL 聚合模式 / 已过期）
+   */
+  public void publishAwardedMask(String userId, String scene, LocalDate bizDate, String encoded, int count) {
+    redis.execute(awardedMaskScript, List.of(keyFor(userId, scene, bizDate)), encoded, String.valueOf(count));
+  }
+
+  /**
+   * 刷写一轮：从脏 tag 索引（加上旧布局的分片）列出有脏 key 的脏集合，worker w 负责第 i % workers == w 个，
+   * 每个脏集合（同一个 slot）每轮取一批到期 key
+   *
+   * <p>每批：一次预留脚本 -> 一条多行 upsert + 一次批量回读 -> 一次 pipeline 提交，
+   * 与 key 数量无关地固定 4 次往返（原来每个 key 4 次）
+   */
   public int flushOnce() {
     long nowMs = System.currentTimeMillis();
     RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
@@ -114,148 +307,646 @@ public class PlayDailyRedisAggService {
     long maxScore = nowMs - flushDelayMs;
     int batchSize = Math.max(1, cfg.getFlushBatchSize());
 
-    ZSetOperations<String, String> zset = redis.opsForZSet();
-    Set<String> keys = zset.rangeByScore(DIRTY_ZSET, 0, maxScore, 0, batchSize);
-    if (keys == null || keys.isEmpty()) {
-      return 0;
+    migrateDirty(cfg, batchSize * Math.max(1, cfg.getFlushWorkers()));
+    sweepDirtyTags();
+    sampleResident(nowMs, cfg);
+
+    List<DirtySet> sets = dirtySets(cfg);
+    int workers = Math.min(Math.max(1, cfg.getFlushWorkers()), Math.max(1, sets.size()));
+    AtomicLong backlog = new AtomicLong();
+    AtomicLong oldest = new AtomicLong(nowMs);
+    int processed = 0;
+    if (workers == 1) {
+      processed = flushShards(0, 1, sets, maxScore, batchSize, nowMs, backlog, oldest);
+    } else {
+      List<Future<Integer>> futures = new ArrayList<>(workers);
+      for (int w = 0; w < workers; w++) {
+        int owner = w;
+        futures.add(flushExecutor().submit(
+            () -> flushShards(owner, workers, sets, maxScore, batchSize, nowMs, backlog, oldest)));
+      }
+      for (Future<Integer> f : futures) {
+        try {
+          processed += f.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        } catch (ExecutionException ex) {
+          log.warn("play daily agg flush worker crashed: err={}", String.valueOf(ex.getCause()));
+        }
+      }
+    }
+    metrics.setRedisAggFlushBacklog(backlog.get(), nowMs - oldest.get());
+    if (processed > 0) {
+      log.info("play daily agg flush done: processed={}, dirtySets={}, workers={}, batchSize={}, maxScore={}, delayMs={}",
+          processed, sets.size(), workers, batchSize, maxScore, flushDelayMs);
     }
+    return processed;
+  }
 
+  private int flushShards(int owner, int workers, List<DirtySet> sets, long maxScore, int batchSize, long nowMs,
+                          AtomicLong backlog, AtomicLong oldest) {
+    ZSetOperations<String, String> zset = redis.opsForZSet();
     int processed = 0;
-    for (String key : keys) {
-      if (key == null || key.isBlank()) {
-        continue;
+    for (int i = owner; i < sets.size(); i += workers) {
+      DirtySet set = sets.get(i);
+      try {
+        Long size = zset.zCard(set.dirtyKey);
+        if (size == null || size == 0L) {
+          retire(set);
+          continue;
+        }
+        backlog.addAndGet(size);
+        Set<ZSetOperations.TypedTuple<String>> due = zset.rangeByScoreWithScores(set.dirtyKey, 0, maxScore, 0, batchSize);
+        if (due == null || due.isEmpty()) {
+          continue;
+        }
+        List<String> batch = new ArrayList<>(due.size());
+        for (ZSetOperations.TypedTuple<String> t : due) {
+          if (t.getScore() != null) {
+            oldest.accumulateAndGet(t.getScore().longValue(), Math::min);
+          }
+          if (t.getValue() != null && !t.getValue().isBlank()) {
+            batch.add(t.getValue());
+          }
+        }
+        processed += flushBatch(set.dirtyKey, batch, nowMs);
+      } catch (Exception ex) {
+        log.warn("play daily agg flush shard failed: shard={}, err={}", set.dirtyKey, ex.toString());
+      }
+    }
+    return processed;
+  }
+
+  /** 索引里登记的脏集合，加上旧布局的分片 */
+  private List<DirtySet> dirtySets(RewardFlowProperties.PlayDailyAgg cfg) {
+    List<DirtySet> out = new ArrayList<>();
+    // 调小索引分片数后，多出来的分片继续读到排空
+    int indexShards = Math.max(keyLayout.dirtyShards(), cfg.getDirtyShardsDrainUpTo());
+    for (int j = 0; j < indexShards; j++) {
+      String indexKey = DIRTY_TAG_INDEX_PREFIX + j;
+      try {
+        Set<ZSetOperations.TypedTuple<String>> tags = redis.opsForZSet().rangeWithScores(indexKey, 0, -1);
+        if (tags == null) {
+          continue;
+        }
+        for (ZSetOperations.TypedTuple<String> t : tags) {
+          try {
+            int tagNo = Integer.parseInt(t.getValue());
+            out.add(new DirtySet(dirtyTagKey(tagNo), indexKey, t.getValue(), t.getScore() == null ? 0L : t.getScore().longValue()));
+          } catch (NumberFormatException ignore) {
+            // 不是 tag 编号
+          }
+        }
+      } catch (Exception ex) {
+        log.warn("play daily agg dirty tag index read failed: index={}, err={}", indexKey, ex.toString());
       }
-      long ttlMs = cfg.getRedisTtlSeconds() * 1000L;
+    }
+    for (int i = 0; i < keyLayout.legacyShards(); i++) {
+      out.add(new DirtySet(legacyDirtyKey(i), null, null, 0L));
+    }
+    return out;
+  }
+
+  // 脏集合已空：索引里的登记版本没变（期间没有新的脏 key 登记）才移除
+  private void retire(DirtySet set) {
+    if (set.indexKey == null) {
+      return;
+    }
+    redis.execute(retireTagScript, List.of(set.indexKey), set.member, String.valueOf(set.version));
+  }
+
+  /**
+   * 把脏集合所在的 tag 登记到索引（刷新版本）。只在 key 新进入脏集合时调用：脏集合非空时 tag 一定还在索引里。
+   * 失败或记账后进程退出时由 {@link #sweepDirtyTags()} 补登记
+   */
+  void markDirty(String dirtyKey) {
+    int tagNo = RedisKeyLayout.tagNoOfKey(dirtyKey);
+    if (tagNo < 0) {
+      return;
+    }
+    try {
+      redis.execute(markTagScript, List.of(DIRTY_TAG_INDEX_PREFIX + keyLayout.dirtyShardOf(tagNo)),
+          String.valueOf(tagNo), String.valueOf(System.currentTimeMillis()));
+    } catch (Exception ex) {
+      log.debug("play daily agg dirty tag mark failed, left to sweep: dirtyKey={}, err={}", dirtyKey, ex.toString());
+    }
+  }
+
+  // 巡检一段 tag：脏集合非空但索引里没有登记的补登记
+  private void sweepDirtyTags() {
+    int per = (RedisKeyLayout.TAGS + SWEEP_ROUNDS - 1) / SWEEP_ROUNDS;
+    int from = sweepCursor;
+    sweepCursor = (from + per) % RedisKeyLayout.TAGS;
+    int to = Math.min(from + per, RedisKeyLayout.TAGS);
+    RedisSerializer<String> ser = redis.getStringSerializer();
+    try {
+      List<Object> sizes = redis.executePipelined((RedisCallback<Object>) conn -> {
+        for (int t = from; t < to; t++) {
+          conn.zSetCommands().zCard(ser.serialize(dirtyTagKey(t)));
+        }
+        return null;
+      });
+      for (int t = from; t < to; t++) {
+        Object size = sizes.get(t - from);
+        if (size instanceof Long && (Long) size > 0L
+            && redis.opsForZSet().score(DIRTY_TAG_INDEX_PREFIX + keyLayout.dirtyShardOf(t), String.valueOf(t)) == null) {
+          markDirty(dirtyTagKey(t));
+          metrics.incRedisAggDirtyTagRepaired();
+        }
+      }
+    } catch (Exception ex) {
+      log.warn("play daily agg dirty tag sweep failed: from={}, err={}", from, ex.toString());
+    }
+  }
+
+  /**
+   * 在线迁移：把旧的脏集合（单 key 的，以及不带 hash tag 的分片）里的成员挪到当前分片
+   *
+   * <p>逐个成员原子地 ZSCORE -> 目标分片取较小的 score -> ZREM，和并发的记账 / flush 不冲突；
+   * 每轮最多迁 limit 个，旧实例仍在写旧 key 时会一直跟着迁。源和目标不在同一个 slot，只能在单节点 Redis 上开
+   */
+  private void migrateDirty(RewardFlowProperties.PlayDailyAgg cfg, int limit) {
+    if (!cfg.isLegacyDirtyMigrationEnabled()) {
+      return;
+    }
+    int shards = keyLayout.legacyShards();
+    List<String> sources = new ArrayList<>(shards + 1);
+    sources.add(LEGACY_DIRTY_ZSET);
+    for (int i = 0; i < shards; i++) {
+      sources.add(DIRTY_SHARD_PREFIX + i);
+    }
+    for (String source : sources) {
+      try {
+        Set<String> members = redis.opsForZSet().range(source, 0, limit - 1);
+        if (members == null || members.isEmpty()) {
+          continue;
+        }
+        // 旧分片里是不带 tag 的旧聚合 key，按解析出的 (userId, scene) 落到新 tag 的脏集合；冷加载时再被改名接管
+        Map<String, List<String>> byTarget = new HashMap<>();
+        for (String m : members) {
+          byTarget.computeIfAbsent(dirtyKeyFor(m), k -> new ArrayList<>()).add(m);
+        }
+        long moved = 0;
+        for (Map.Entry<String, List<String>> e : byTarget.entrySet()) {
+          Long n = redis.execute(migrateDirtyScript, List.of(source, e.getKey()), e.getValue().toArray());
+          if (n != null && n > 0L) {
+            moved += n;
+            markDirty(e.getKey());
+          }
+        }
+        log.info("play daily agg dirty set migrated: source={}, moved={}", source, moved);
+      } catch (Exception ex) {
+        log.warn("play daily agg dirty set migration failed: source={}, err={}", source, ex.toString());
+      }
+    }
+  }
+
+  private int flushBatch(String dirtyKey, List<String> keys, long nowMs) {
+    long start = System.nanoTime();
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    long ttlMs = cfg.getRedisTtlSeconds() * 1000L;
+    String idleTtlMs = String.valueOf(idleTtlMs(cfg));
+    try {
+      // 1) 一次脚本把整批 pending 挪到 inflight，返回 (delta, maxSync, baseTotal) 三元组
+      List<String> scriptKeys = new ArrayList<>(keys.size() + 1);
+      scriptKeys.addAll(keys);
+      scriptKeys.add(dirtyKey);
       List<Long> reserved = toLongList(redis.execute(
-          reserveScript,
-          List.of(key, DIRTY_ZSET),
+          reserveBatchScript,
+          scriptKeys,
           String.valueOf(nowMs),
           String.valueOf(cfg.getInflightTimeoutMs()),
           String.valueOf(ttlMs)
       ));
-      if (reserved == null || reserved.size() < 2) {
-        continue;
-      }
 
-      long delta = reserved.get(0);
-      long maxSync = reserved.get(1);
-      if (delta <= 0) {
-        continue;
+      List<Reserved> rows = new ArrayList<>(keys.size());
+      int skipped = 0;
+      for (int i = 0; i < keys.size(); i++) {
+        long delta = reserved.size() > i * 3 ? reserved.get(i * 3) : 0L;
+        long maxSync = reserved.size() > i * 3 + 1 ? reserved.get(i * 3 + 1) : 0L;
+        long baseTotal = reserved.size() > i * 3 + 2 ? reserved.get(i * 3 + 2) : 0L;
+        if (delta == 0) {
+          skipped++;
+          continue;
+        }
+        PlayDailyAggCodec.Parsed parsed = PlayDailyAggCodec.parse(keys.get(i));
+        if (parsed == null) {
+          log.warn("play daily agg key parse failed: key={}", keys.get(i));
+          continue;
+        }
+        rows.add(new Reserved(keys.get(i), dirtyKey, parsed, (int) delta, maxSync, (int) baseTotal));
       }
-
-      ParsedKey parsed = parseKey(key);
-      if (parsed == null) {
-        log.warn("play daily agg key parse failed: key={}", key);
-        continue;
+      metrics.incRedisAggFlushKeys("skipped", skipped);
+      if (rows.isEmpty()) {
+        return 0;
       }
+      // 固定加锁顺序，降低并行 worker / 多实例之间的死锁概率
+      rows.sort(Comparator.comparing((Reserved r) -> r.parsed.userId)
+          .thenComparing(r -> r.parsed.scene)
+          .thenComparing(r -> r.parsed.bizDate));
 
+      // 2) 一个事务里：负数修正量逐行扣回 + 一条多行 upsert + 一次批量回读，任何一步失败整体回滚
+      Map<String, UserPlayDailyDO> back;
+      Set<Reserved> unapplied = new HashSet<>();
       try {
-        dailyMapper.upsertAddDelta(parsed.userId, parsed.scene, parsed.bizDate, (int) delta, maxSync);
-        UserPlayDailyDO daily = dailyMapper.selectOne(parsed.userId, parsed.scene, parsed.bizDate);
-        int baseTotal = daily == null || daily.getTotalDuration() == null ? 0 : daily.getTotalDuration();
-        long baseLastSync = daily == null || daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime();
-
-        redis.execute(
-            commitScript,
-            List.of(key, DIRTY_ZSET),
-            String.valueOf(baseTotal),
-            String.valueOf(baseLastSync),
-            String.valueOf(System.currentTimeMillis()),
-            String.valueOf(ttlMs)
-        );
-        processed++;
+        back = txStageRunner.inTx("redis_agg_flush", () -> writeBatch(rows, unapplied));
       } catch (Exception ex) {
-        log.warn("play daily agg flush failed: key={}, userId={}, scene={}, bizDate={}, delta={}, maxSync={}, err={}",
-            key, parsed.userId, parsed.scene, parsed.bizDate, delta, maxSync, ex.toString());
-        redis.execute(
-            rollbackScript,
-            List.of(key, DIRTY_ZSET),
-            String.valueOf(System.currentTimeMillis()),
-            String.valueOf(ttlMs)
-        );
+        log.warn("play daily agg flush batch failed, rolling back: keys={}, err={}", rows.size(), ex.toString());
+        rollbackAll(rows, ttlMs);
+        metrics.incRedisAggFlushKeys("failed", rows.size());
+        return 0;
+      }
+
+      // 3) 一次 pipeline 提交；回读不到的行（理论上不会出现）回滚，下一轮重试
+      List<Reserved> commit = new ArrayList<>(rows.size());
+      List<String[]> commitArgs = new ArrayList<>(rows.size());
+      List<Reserved> missing = new ArrayList<>();
+      String commitAt = String.valueOf(System.currentTimeMillis());
+      int carried = 0;
+      for (Reserved r : rows) {
+        UserPlayDailyDO daily = back.get(identity(r.parsed.userId, r.parsed.scene, r.parsed.bizDate));
+        if (daily == null) {
+          missing.add(r);
+          continue;
+        }
+        int total = daily.getTotalDuration() == null ? 0 : daily.getTotalDuration();
+        // 条件更新没命中的修正量：回读的 total 正好是扣过之后的值，说明上一次已经扣过；否则是 base 过期，带着新 base 放回 pending
+        int carry = unapplied.contains(r) && total != Math.max(r.baseTotal + r.delta, 0) ? r.delta : 0;
+        if (carry != 0) {
+          carried++;
+        }
+        commit.add(r);
+        commitArgs.add(new String[] {
+            String.valueOf(total),
+            String.valueOf(daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime()),
+            commitAt,
+            String.valueOf(ttlMs),
+            idleTtlMs,
+            String.valueOf(carry)
+        });
+      }
+      if (!missing.isEmpty()) {
+        log.warn("play daily agg flush read-back missing rows, rolling back: missing={}", missing.size());
+        rollbackAll(missing, ttlMs);
+        metrics.incRedisAggFlushKeys("failed", missing.size());
       }
+      List<Object> committed = pipelineScript(commitScript, commit, commitArgs);
+      metrics.incRedisAggFlushKeys("correction_carried", carried);
+      metrics.incRedisAggFlushKeys("flushed", commit.size());
+      int evicted = 0;
+      for (Object r : committed) {
+        if (r instanceof Number n && n.longValue() == COMMITTED_IDLE) {
+          evicted++;
+        }
+      }
+      metrics.incRedisAggEvictions(evicted);
+      return commit.size();
+    } finally {
+      metrics.recordRedisAggFlushBatch(System.nanoTime() - start);
     }
-    if (processed > 0) {
-      log.info("play daily agg flush done: processed={}, batchSize={}, maxScore={}, delayMs={}",
-          processed, batchSize, maxScore, flushDelayMs);
+  }
+
+  /**
+   * 正增量走 upsert，由 last_sync_time 水位挡掉重放；负数修正量没有水位可用，按预留时 Redis 里的 base_total 做条件更新，
+   * MySQL 的 total 不等于 base（上一次刷写已经提交、Redis 提交丢了，或 base 过期）时不扣，记进 unapplied 交给提交阶段判断
+   */
+  private Map<String, UserPlayDailyDO> writeBatch(List<Reserved> rows, Set<Reserved> unapplied) {
+    unapplied.clear();
+    List<PlayDailyDelta> deltas = new ArrayList<>(rows.size());
+    List<PlayDailyDelta> adds = new ArrayList<>(rows.size());
+    for (Reserved r : rows) {
+      PlayDailyDelta d = r.toDelta();
+      deltas.add(d);
+      if (r.delta > 0) {
+        adds.add(d);
+      } else if (dailyMapper.applyCorrection(d) == 0) {
+        unapplied.add(r);
+        log.warn("play daily agg correction not applied, base mismatch: key={}, delta={}, expectedTotal={}",
+            r.key, r.delta, r.baseTotal);
+      }
     }
-    return processed;
+    if (!adds.isEmpty()) {
+      dailyMapper.batchUpsertAddDelta(adds);
+    }
+    Map<String, UserPlayDailyDO> back = new HashMap<>(rows.size() * 2);
+    for (UserPlayDailyDO d : dailyMapper.selectBatch(deltas)) {
+      back.put(identity(d.getUserId(), d.getBizScene(), d.getBizDate()), d);
+    }
+    return back;
   }
 
-  private void ensureBase(String userId, String scene, LocalDate bizDate) {
-    String key = keyFor(userId, scene, bizDate);
-    Boolean hasBase = redis.opsForHash().hasKey(key, FIELD_BASE_TOTAL);
-    if (hasBase != null && hasBase) {
+  private void rollbackAll(List<Reserved> rows, long ttlMs) {
+    String at = String.valueOf(System.currentTimeMillis());
+    String[] args = {at, String.valueOf(ttlMs)};
+    List<String[]> argList = new ArrayList<>(rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      argList.add(args);
+    }
+    try {
+      pipelineScript(rollbackScript, rows, argList);
+    } catch (Exception ex) {
+      // 回滚失败的 key 由 inflight 超时在下一次预留时并回 pending
+      log.warn("play daily agg flush rollback failed: keys={}, err={}", rows.size(), ex.toString());
+    }
+  }
+
+  /**
+   * 把同一个脚本对多个 key（KEYS = [key, 所在脏集合分片]）的调用放进一次 pipeline
+   *
+   * <p>EVALSHA 报错（脚本缓存被清空等）的那几条在 pipeline 里没有执行，逐条走 execute（会退回 EVAL）补一次
+   *
+   * @return 与 rows 一一对应的脚本返回值
+   */
+  private List<Object> pipelineScript(DefaultRedisScript<Long> script, List<Reserved> rows, List<String[]> args) {
+    if (rows.isEmpty()) {
+      return List.of();
+    }
+    RedisSerializer<String> ser = redis.getStringSerializer();
+    String sha = script.getSha1();
+    List<Object> results;
+    try {
+      results = redis.executePipelined((RedisCallback<Object>) conn -> {
+        for (int i = 0; i < rows.size(); i++) {
+          String[] a = args.get(i);
+          byte[][] keysAndArgs = new byte[2 + a.length][];
+          keysAndArgs[0] = ser.serialize(rows.get(i).key);
+          keysAndArgs[1] = ser.serialize(rows.get(i).dirtyKey);
+          for (int j = 0; j < a.length; j++) {
+            keysAndArgs[2 + j] = ser.serialize(a[j]);
+          }
+          conn.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2, keysAndArgs);
+        }
+        return null;
+      });
+    } catch (RedisPipelineException ex) {
+      results = ex.getPipelineResult();
+    }
+    List<Object> out = new ArrayList<>(rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      Object r = results != null && i < results.size() ? results.get(i) : null;
+      if (r instanceof Throwable) {
+        r = redis.execute(script, List.of(rows.get(i).key, rows.get(i).dirtyKey), (Object[]) args.get(i));
+      }
+      out.add(r);
+    }
+    return out;
+  }
+
+  /**
+   * 常驻 key 数抽样：DBSIZE x RANDOMKEY 命中日聚合 key 的比例，每 residentSampleIntervalMs 一次
+   *
+   * <p>各实例各自抽样，看板取 max；集群下 DBSIZE 是所有主节点之和，RANDOMKEY 随机落到某个节点
+   */
+  private void sampleResident(long nowMs, RewardFlowProperties.PlayDailyAgg cfg) {
+    int samples = cfg.getResidentSampleSize();
+    if (samples <= 0 || nowMs - lastResidentSampleAt < cfg.getResidentSampleIntervalMs()) {
       return;
     }
+    lastResidentSampleAt = nowMs;
+    try {
+      Long dbSize = redis.execute((RedisCallback<Long>) conn -> conn.serverCommands().dbSize());
+      int seen = 0;
+      int hits = 0;
+      for (int i = 0; i < samples && dbSize != null && dbSize > 0; i++) {
+        String key = redis.randomKey();
+        if (key == null) {
+          break;
+        }
+        seen++;
+        if (PlayDailyAggCodec.parse(key) != null) {
+          hits++;
+        }
+      }
+      metrics.setRedisAggResidentKeys(seen == 0 ? 0L : dbSize * hits / seen);
+    } catch (Exception ex) {
+      log.debug("redis agg resident sample failed: err={}", ex.toString());
+    }
+  }
 
-    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
-    int baseTotal = daily == null || daily.getTotalDuration() == null ? 0 : daily.getTotalDuration();
-    long baseLastSync = daily == null || daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime();
+  /** 空闲驱逐后的 TTL（ms），关闭时为 0 */
+  private static long idleTtlMs(RewardFlowProperties.PlayDailyAgg cfg) {
+    return cfg.getEvictIdleSeconds() <= 0 ? 0L : Math.min(cfg.getEvictIdleSeconds(), cfg.getRedisTtlSeconds()) * 1000L;
+  }
 
-    redis.opsForHash().put(key, FIELD_BASE_TOTAL, String.valueOf(baseTotal));
-    redis.opsForHash().put(key, FIELD_BASE_LAST_SYNC, String.valueOf(baseLastSync));
-    redis.opsForHash().put(key, FIELD_PENDING_DELTA, "0");
-    redis.opsForHash().put(key, FIELD_PENDING_MAX_SYNC, "0");
-    redis.opsForHash().put(key, FIELD_INFLIGHT_DELTA, "0");
-    redis.opsForHash().put(key, FIELD_INFLIGHT_MAX_SYNC, "0");
-    redis.opsForHash().put(key, FIELD_INFLIGHT_AT, "0");
-    redis.opsForHash().put(key, FIELD_UPDATED_AT, String.valueOf(System.currentTimeMillis()));
+  private ExecutorService flushExecutor() {
+    ExecutorService ex = flushExecutor;
+    if (ex == null) {
+      synchronized (this) {
+        ex = flushExecutor;
+        if (ex == null) {
+          AtomicInteger seq = new AtomicInteger();
+          ex = Executors.newFixedThreadPool(Math.max(1, props.getPlayDailyAgg().getFlushWorkers()), r -> {
+            Thread t = new Thread(r, "rf-agg-flush-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          });
+          flushExecutor = ex;
+        }
+      }
+    }
+    return ex;
+  }
 
-    long ttlSeconds = props.getPlayDailyAgg().getRedisTtlSeconds();
-    redis.expire(key, Duration.ofSeconds(ttlSeconds));
-    log.debug("redis agg base initialized: userId={}, scene={}, bizDate={}, baseTotal={}, baseLastSync={}",
-        userId, scene, bizDate, baseTotal, baseLastSync);
+  @PreDestroy
+  public void shutdown() {
+    ExecutorService ex = flushExecutor;
+    if (ex != null) {
+      ex.shutdown();
+    }
   }
 
-  private String keyFor(String userId, String scene, LocalDate bizDate) {
-    return KEY_PREFIX + encodePart(scene) + ":" + bizDate + ":" + encodePart(userId);
+  private static String identity(String userId, String scene, LocalDate bizDate) {
+    return userId + "|" + scene + "|" + bizDate;
   }
 
-  private ParsedKey parseKey(String key) {
-    if (!key.startsWith(KEY_PREFIX)) {
-      return null;
+  /**
+   * 执行一个会在 key 没有 base 时返回 needs-base 的脚本：命中 needs-base 才读库初始化，然后重试一次
+   */
+  private List<Long> withBase(String userId, String scene, LocalDate bizDate, String key,
+                              Supplier<List<Long>> script) {
+    List<Long> out = script.get();
+    if (!needsBase(out)) {
+      return out;
     }
-    String rest = key.substring(KEY_PREFIX.length());
-    String[] parts = rest.split(":", 3);
-    if (parts.length != 3) {
-      return null;
+    coldLoad(userId, scene, bizDate, key);
+    out = script.get();
+    if (needsBase(out)) {
+      // 初始化后马上又没了（TTL / 人工删除），不记账，交给调用方按空结果处理
+      log.warn("redis agg base missing right after cold load: userId={}, scene={}, bizDate={}", userId, scene, bizDate);
+      return List.of();
     }
-    ParsedKey p = new ParsedKey();
-    p.scene = decodePart(parts[0]);
-    if (p.scene == null) {
-      return null;
+    return out;
+  }
+
+  private static boolean needsBase(List<Long> out) {
+    return out.size() == 1 && out.get(0) == NEEDS_BASE;
+  }
+
+  /**
+   * 冷加载：读 MySQL 日汇总，用 init-if-absent 脚本一次写入 base
+   *
+   * <p>同 JVM 内同一个 key 只有一个请求读库，其余请求等待它完成（超时或失败时自己再加载一次）；
+   * 跨实例的并发由脚本保证：key 已经有 base 时不覆盖，期间别人记入的 pending 不会丢
+   */
+  private void coldLoad(String userId, String scene, LocalDate bizDate, String key) {
+    CompletableFuture<Void> mine = new CompletableFuture<>();
+    CompletableFuture<Void> running = coldLoads.putIfAbsent(key, mine);
+    if (running != null) {
+      try {
+        running.get(props.getPlayDailyAgg().getColdLoadWaitMs(), TimeUnit.MILLISECONDS);
+        metrics.incRedisAggColdLoad("joined");
+        return;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while waiting for redis agg cold load", ex);
+      } catch (ExecutionException | TimeoutException ex) {
+        log.warn("redis agg cold load by another request did not finish, loading again: key={}, err={}",
+            key, ex.toString());
+        loadAndInit(userId, scene, bizDate, key);
+        return;
+      }
     }
     try {
-      p.bizDate = LocalDate.parse(parts[1]);
-    } catch (Exception ex) {
-      return null;
+      loadAndInit(userId, scene, bizDate, key);
+      mine.complete(null);
+    } catch (RuntimeException ex) {
+      mine.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      coldLoads.remove(key, mine);
+    }
+  }
+
+  private void loadAndInit(String userId, String scene, LocalDate bizDate, String key) {
+    RewardFlowProperties.PlayDailyAgg cfg = props.getPlayDailyAgg();
+    String tag = keyLayout.tag(userId, scene);
+    drainLegacy(userId, scene, bizDate);
+    if (cfg.isLegacyKeyAdoptionEnabled()) {
+      adopt(PlayDailyAggCodec.hashKey(null, userId, scene, bizDate), key, "adopted");
     }
-    p.userId = decodePart(parts[2]);
-    if (p.userId == null) {
-      return null;
+    if (cfg.isFormatMigrationEnabled()) {
+      // 双读：当前格式的 key 不存在时，把另一种格式（同一个 tag，同一个 slot）的 key 转过来
+      adopt(packed() ? PlayDailyAggCodec.hashKey(tag, userId, scene, bizDate)
+          : PlayDailyAggCodec.packedKey(tag, userId, scene, bizDate), key, "converted");
     }
-    return p;
+    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+    int baseTotal = daily == null || daily.getTotalDuration() == null ? 0 : daily.getTotalDuration();
+    long baseLastSync = daily == null || daily.getLastSyncTime() == null ? 0L : daily.getLastSyncTime();
+    AwardedStages awarded = daily == null ? null : AwardedStages.decode(daily.getAwardedStageMask());
+
+    Long inited = redis.execute(
+        initScript,
+        List.of(key),
+        String.valueOf(baseTotal),
+        String.valueOf(baseLastSync),
+        String.valueOf(System.currentTimeMillis()),
+        // 还没记账的 key 先按空闲窗口保留，记账时续到完整 TTL
+        String.valueOf(idleTtlMs(cfg) > 0 ? idleTtlMs(cfg) : cfg.getRedisTtlSeconds() * 1000L),
+        awarded == null ? "" : daily.getAwardedStageMask(),
+        String.valueOf(awarded == null ? -1 : awarded.cardinality())
+    );
+    boolean won = inited != null && inited == 1L;
+    metrics.incRedisAggColdLoad(!won ? "lost" : daily != null ? "reloaded" : "loaded");
+    log.debug("redis agg base cold load: userId={}, scene={}, bizDate={}, baseTotal={}, baseLastSync={}, initialized={}",
+        userId, scene, bizDate, baseTotal, baseLastSync, won);
   }
 
-  private String encodePart(String raw) {
-    if (raw == null || raw.isEmpty()) {
-      return "";
+  /**
+   * 旧布局（{rf-i}）下同一用户当天的聚合 key：先在它自己的 slot 里刷回 MySQL，再在没有新增量时删掉，
+   * 之后读 MySQL 得到的 base 已经包含它（不跨 slot，集群下也可以用）
+   *
+   * <p>删不掉（旧实例还在写 / 另一个 flush 正在刷它）时抛异常，本次记账按存储失败处理（回退 range_sum），
+   * 不能让新旧两个 key 在同一个水位下各自 flush
+   */
+  private void drainLegacy(String userId, String scene, LocalDate bizDate) {
+    for (String legacyKey : legacyKeys(userId, scene, bizDate)) {
+      if (!Boolean.TRUE.equals(redis.hasKey(legacyKey))) {
+        continue;
+      }
+      String dirtyKey = dirtyKeyFor(legacyKey);
+      flushBatch(dirtyKey, List.of(legacyKey), System.currentTimeMillis());
+      Long dropped = redis.execute(dropIdleScript, List.of(legacyKey, dirtyKey));
+      if (dropped == null || dropped != 1L) {
+        throw new IllegalStateException("legacy redis agg key still has unflushed delta: " + legacyKey);
+      }
+      metrics.incRedisAggColdLoad("drained");
     }
-    return Base64.getUrlEncoder().withoutPadding()
-        .encodeToString(raw.getBytes(java.nio.charset.StandardCharsets.UTF_8));
   }
 
-  private String decodePart(String encoded) {
-    if (encoded == null || encoded.isEmpty()) {
-      return "";
+  // 旧布局下该用户当天可能存在的聚合 key（当前格式；开了格式迁移时加上另一种格式）
+  private List<String> legacyKeys(String userId, String scene, LocalDate bizDate) {
+    String legacyTag = keyLayout.legacyTag(userId, scene);
+    if (legacyTag == null) {
+      return List.of();
+    }
+    String hashKey = PlayDailyAggCodec.hashKey(legacyTag, userId, scene, bizDate);
+    String packedKey = PlayDailyAggCodec.packedKey(legacyTag, userId, scene, bizDate);
+    if (!props.getPlayDailyAgg().isFormatMigrationEnabled()) {
+      return List.of(packed() ? packedKey : hashKey);
     }
+    return packed() ? List.of(packedKey, hashKey) : List.of(hashKey, packedKey);
+  }
+
+  /**
+   * 把旧 key（不带 hash tag 的旧布局 / 另一种存储格式）的状态搬到当前 key 并删掉旧 key，pending 跟着过来，
+   * 避免同一天同时存在两个 key 各自 flush
+   *
+   * <p>当前 key 已存在、旧 key 不存在时不动；旧 key 正在 flush（inflight_delta > 0）时也不动，
+   * 否则 flush 提交的是旧 key 名，搬过来的 inflight 超时后会被再记一次。搬完后本次仍走下面的 init-if-absent
+   */
+  private void adopt(String sourceKey, String key, String result) {
     try {
-      byte[] data = Base64.getUrlDecoder().decode(encoded);
-      return new String(data, java.nio.charset.StandardCharsets.UTF_8);
+      Long r = redis.execute(adoptScript, List.of(sourceKey, key, dirtyKeyFor(key)),
+          String.valueOf(System.currentTimeMillis()));
+      if (r != null && r == 1L) {
+        markDirty(dirtyKeyFor(key));
+        metrics.incRedisAggColdLoad(result);
+      } else if (r != null && r < 0L) {
+        log.warn("redis agg source key is being flushed, not {}: sourceKey={}", result, sourceKey);
+      }
     } catch (Exception ex) {
-      return null;
+      log.warn("redis agg key {} failed: sourceKey={}, err={}", result, sourceKey, ex.toString());
+    }
+  }
+
+  /**
+   * 聚合 key 所在的脏集合：取 key 里的 hash tag；{rf-i} 旧布局的 key 落回旧分片，
+   * 不带 tag 的旧 key 按 (userId, scene) 落到新 tag 的脏集合
+   */
+  String dirtyKeyFor(String aggKey) {
+    int tagNo = RedisKeyLayout.tagNoOfKey(aggKey);
+    if (tagNo >= 0) {
+      return dirtyTagKey(tagNo);
     }
+    int legacy = RedisKeyLayout.legacyShardOfKey(aggKey);
+    if (legacy >= 0) {
+      return legacyDirtyKey(legacy);
+    }
+    PlayDailyAggCodec.Parsed p = PlayDailyAggCodec.parse(aggKey);
+    tagNo = p == null ? Math.floorMod(aggKey.hashCode(), RedisKeyLayout.TAGS) : keyLayout.tagNo(p.userId, p.scene);
+    return dirtyTagKey(tagNo);
+  }
+
+  // rf:play:daily:dirty:{rf:1207}
+  private static String dirtyTagKey(int tagNo) {
+    return DIRTY_SHARD_PREFIX + RedisKeyLayout.tagOf(tagNo);
+  }
+
+  // rf:play:daily:dirty:{rf-3}
+  private static String legacyDirtyKey(int shard) {
+    return DIRTY_SHARD_PREFIX + RedisKeyLayout.legacyTagOf(shard);
+  }
+
+  /** 当前存储格式下的聚合 key，见 {@link PlayDailyAggCodec} */
+  String keyFor(String userId, String scene, LocalDate bizDate) {
+    String tag = keyLayout.tag(userId, scene);
+    return packed() ? PlayDailyAggCodec.packedKey(tag, userId, scene, bizDate)
+        : PlayDailyAggCodec.hashKey(tag, userId, scene, bizDate);
+  }
+
+  private boolean packed() {
+    return "packed".equalsIgnoreCase(props.getPlayDailyAgg().getStorageFormat());
   }
 
   @SuppressWarnings("unchecked")
@@ -281,147 +972,354 @@ public class PlayDailyRedisAggService {
     return out;
   }
 
-  private Integer toInt(Object v, int def) {
-    if (v == null) {
-      return def;
-    }
-    if (v instanceof Number n) {
-      return n.intValue();
-    }
-    try {
-      return Integer.parseInt(v.toString());
-    } catch (Exception ignore) {
-      return def;
+  private static final class DirtySet {
+    private final String dirtyKey;
+    // 登记它的索引分片、成员与版本；旧布局的分片为 null
+    private final String indexKey;
+    private final String member;
+    private final long version;
+
+    private DirtySet(String dirtyKey, String indexKey, String member, long version) {
+      this.dirtyKey = dirtyKey;
+      this.indexKey = indexKey;
+      this.member = member;
+      this.version = version;
     }
   }
 
-  private static class ParsedKey {
-    private String userId;
-    private String scene;
-    private LocalDate bizDate;
+  private static class Reserved {
+    private final String key;
+    // 该 key 是从哪个脏集合取出来的，提交 / 回滚都落回这个脏集合
+    private final String dirtyKey;
+    private final PlayDailyAggCodec.Parsed parsed;
+    private final int delta;
+    private final long maxSync;
+    // 预留时的 base_total（= 上一次提交回读的 MySQL total），负数修正量按它做条件更新
+    private final int baseTotal;
+
+    private Reserved(String key, String dirtyKey, PlayDailyAggCodec.Parsed parsed, int delta, long maxSync,
+                     int baseTotal) {
+      this.key = key;
+      this.dirtyKey = dirtyKey;
+      this.parsed = parsed;
+      this.delta = delta;
+      this.maxSync = maxSync;
+      this.baseTotal = baseTotal;
+    }
+
+    private PlayDailyDelta toDelta() {
+      PlayDailyDelta d = new PlayDailyDelta();
+      d.setUserId(parsed.userId);
+      d.setBizScene(parsed.scene);
+      d.setBizDate(parsed.bizDate);
+      d.setDeltaDuration(delta);
+      d.setMaxSyncTime(maxSync);
+      d.setExpectedTotal(baseTotal);
+      return d;
+    }
   }
 
   public static class AggOutcome {
     public int totalDuration;
     public int deltaDuration;
+    /** 本次之前最近一次记账的服务端时间（ms），没有记录时为 0 */
+    public long prevRecordAt;
   }
 
-  private static final String RECORD_SCRIPT = """
-    local baseTotal = tonumber(redis.call("HGET", KEYS[1], "base_total") or "0")
-    local baseLast = tonumber(redis.call("HGET", KEYS[1], "base_last_sync") or "0")
-    local pendingDelta = tonumber(redis.call("HGET", KEYS[1], "pending_delta") or "0")
-    local pendingMax = tonumber(redis.call("HGET", KEYS[1], "pending_max_sync") or "0")
+  // 以下脚本都以 PlayDailyAggCodec.LUA 开头，通过 rf_load / rf_save 读写状态，hash / packed 两种格式通用
+  //
+  // last_record_at：最近一次上报记账的服务端时间（flush 不改它，updated_at 会改），返回旧值给发奖闸门用
+  // 没有 base 时什么都不写，返回 {-1}（needs-base），调用方冷加载后重试
+  // 最后一个返回值 = 1 表示 key 新进入脏集合，调用方登记脏 tag 索引
+  static final String RECORD_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st or st.base_total == nil then return {-1} end
+    local baseLast = st.base_last_sync or 0
+    local pendingDelta = st.pending_delta or 0
+    local pendingMax = st.pending_max_sync or 0
     local duration = tonumber(ARGV[1]) or 0
     local syncTime = tonumber(ARGV[2]) or 0
     local nowMs = tonumber(ARGV[3]) or 0
     local ttlMs = tonumber(ARGV[4]) or 0
+    local prevRecordAt = st.last_record_at or 0
 
     local added = 0
     if syncTime > baseLast then
       pendingDelta = pendingDelta + duration
       if syncTime > pendingMax then pendingMax = syncTime end
-      redis.call("HSET", KEYS[1],
-        "pending_delta", pendingDelta,
-        "pending_max_sync", pendingMax,
-        "updated_at", nowMs)
+      st.pending_delta = pendingDelta
+      st.pending_max_sync = pendingMax
       added = duration
-    else
-      redis.call("HSET", KEYS[1], "updated_at", nowMs)
     end
-    redis.call("ZADD", KEYS[2], nowMs, KEYS[1])
-    if ttlMs > 0 then redis.call("PEXPIRE", KEYS[1], ttlMs) end
-    return {baseTotal + pendingDelta, added, pendingDelta, pendingMax, baseLast}
+    st.updated_at = nowMs
+    st.last_record_at = nowMs
+    rf_save(KEYS[1], st, ttlMs)
+    local fresh = redis.call("ZADD", KEYS[2], nowMs, KEYS[1])
+    return {st.base_total + pendingDelta, added, pendingDelta, pendingMax, baseLast, prevRecordAt, fresh}
+    """;
+
+  // ARGV: nowMs, ttlMs, 之后依次是 (duration, syncTime) 对；没有 base 时同样返回 {-1}
+  private static final String RECORD_BATCH_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st or st.base_total == nil then return {-1} end
+    local baseLast = st.base_last_sync or 0
+    local pendingDelta = st.pending_delta or 0
+    local pendingMax = st.pending_max_sync or 0
+    local nowMs = tonumber(ARGV[1]) or 0
+    local ttlMs = tonumber(ARGV[2]) or 0
+    local prevRecordAt = st.last_record_at or 0
+
+    local added = 0
+    local i = 3
+    while i < #ARGV do
+      local duration = tonumber(ARGV[i]) or 0
+      local syncTime = tonumber(ARGV[i + 1]) or 0
+      if syncTime > baseLast then
+        pendingDelta = pendingDelta + duration
+        if syncTime > pendingMax then pendingMax = syncTime end
+        added = added + duration
+      end
+      i = i + 2
+    end
+
+    st.pending_delta = pendingDelta
+    st.pending_max_sync = pendingMax
+    st.updated_at = nowMs
+    st.last_record_at = nowMs
+    rf_save(KEYS[1], st, ttlMs)
+    local fresh = redis.call("ZADD", KEYS[2], nowMs, KEYS[1])
+    return {st.base_total + pendingDelta, added, pendingDelta, pendingMax, baseLast, prevRecordAt, fresh}
+    """;
+
+  // KEYS: 聚合 key, 所在脏集合；ARGV: added, nowMs
+  // 这段增量已被 flush 挪走时 pending 变为负数（修正量），不设下限：key 留在脏集合里，下一次 flush 扣回 MySQL。
+  // 返回 1 表示 key 新进入脏集合，调用方登记脏 tag 索引
+  private static final String UNRECORD_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st then return 0 end
+    st.pending_delta = (st.pending_delta or 0) - tonumber(ARGV[1])
+    st.updated_at = tonumber(ARGV[2])
+    rf_save(KEYS[1], st, 0)
+    if st.pending_delta == 0 then return 0 end
+    return redis.call("ZADD", KEYS[2], "NX", ARGV[2], KEYS[1])
     """;
 
-  private static final String RESERVE_SCRIPT = """
+  // KEYS: 本批的聚合 key..., 它们所在的脏集合；对每个 key 做原来单 key 预留的逻辑，返回扁平的 (delta, maxSync, baseTotal) 三元组
+  private static final String RESERVE_BATCH_SCRIPT = PlayDailyAggCodec.LUA + """
     local nowMs = tonumber(ARGV[1]) or 0
     local timeout = tonumber(ARGV[2]) or 0
     local ttlMs = tonumber(ARGV[3]) or 0
+    local dirty = KEYS[#KEYS]
 
-    local pendingDelta = tonumber(redis.call("HGET", KEYS[1], "pending_delta") or "0")
-    local pendingMax = tonumber(redis.call("HGET", KEYS[1], "pending_max_sync") or "0")
-    local inflightDelta = tonumber(redis.call("HGET", KEYS[1], "inflight_delta") or "0")
-    local inflightMax = tonumber(redis.call("HGET", KEYS[1], "inflight_max_sync") or "0")
-    local inflightAt = tonumber(redis.call("HGET", KEYS[1], "inflight_at") or "0")
-
-    if inflightDelta > 0 and timeout > 0 and (nowMs - inflightAt) >= timeout then
-      pendingDelta = pendingDelta + inflightDelta
-      if inflightMax > pendingMax then pendingMax = inflightMax end
-      inflightDelta = 0
-      inflightMax = 0
-      inflightAt = 0
+    local function reserve(key)
+      local st = rf_load(key)
+      -- key 已过期或已被搬走：只清掉脏集合里的成员，不要写出一个没有 base、没有 TTL 的残缺状态
+      if not st then
+        redis.call("ZREM", dirty, key)
+        return 0, 0, 0
+      end
+      local pendingDelta = st.pending_delta or 0
+      local pendingMax = st.pending_max_sync or 0
+      local inflightDelta = st.inflight_delta or 0
+      local inflightMax = st.inflight_max_sync or 0
+      local inflightAt = st.inflight_at or 0
+
+      local expired = inflightDelta ~= 0 and timeout > 0 and (nowMs - inflightAt) >= timeout
+      -- 超时的负数修正量不并回 pending，单独重新预留：flush 按 base_total 条件更新，上一次其实已经提交时不会再扣
+      if expired and inflightDelta < 0 then
+        st.inflight_at = nowMs
+        st.updated_at = nowMs
+        rf_save(key, st, ttlMs)
+        redis.call("ZADD", dirty, nowMs, key)
+        return inflightDelta, inflightMax, st.base_total or 0
+      end
+      if expired then
+        pendingDelta = pendingDelta + inflightDelta
+        if inflightMax > pendingMax then pendingMax = inflightMax end
+        inflightDelta = 0
+        inflightMax = 0
+        inflightAt = 0
+      end
+
+      st.updated_at = nowMs
+      -- pending 为负（补偿撤销了已刷回的增量）时同样预留，flush 按修正量扣回
+      if inflightDelta ~= 0 or pendingDelta == 0 then
+        st.pending_delta = pendingDelta
+        st.pending_max_sync = pendingMax
+        st.inflight_delta = inflightDelta
+        st.inflight_max_sync = inflightMax
+        st.inflight_at = inflightAt
+        rf_save(key, st, 0)
+        if inflightDelta == 0 then redis.call("ZREM", dirty, key) end
+        return 0, 0, 0
+      end
+
+      st.pending_delta = 0
+      st.pending_max_sync = 0
+      st.inflight_delta = pendingDelta
+      st.inflight_max_sync = pendingMax
+      st.inflight_at = nowMs
+      rf_save(key, st, ttlMs)
+      redis.call("ZADD", dirty, nowMs, key)
+      return pendingDelta, pendingMax, st.base_total or 0
     end
 
-    if inflightDelta > 0 then
-      redis.call("HSET", KEYS[1],
-        "pending_delta", pendingDelta,
-        "pending_max_sync", pendingMax,
-        "inflight_delta", inflightDelta,
-        "inflight_max_sync", inflightMax,
-        "inflight_at", inflightAt,
-        "updated_at", nowMs)
-      return {0, 0}
+    local out = {}
+    for i = 1, #KEYS - 1 do
+      local d, m, b = reserve(KEYS[i])
+      out[#out + 1] = d
+      out[#out + 1] = m
+      out[#out + 1] = b
     end
+    return out
+    """;
 
-    if pendingDelta <= 0 then
-      redis.call("HSET", KEYS[1],
-        "pending_delta", pendingDelta,
-        "pending_max_sync", pendingMax,
-        "updated_at", nowMs)
-      redis.call("ZREM", KEYS[2], KEYS[1])
-      return {0, 0}
+  // ARGV: baseTotal, baseLastSync, nowMs, ttlMs, idleTtlMs
+  // 提交后 pending 为 0 时移出脏集合；idleTtlMs > 0 时 TTL 缩短到空闲窗口并返回 2（期间再记账会续回 ttlMs）
+  // pending 为负（flush 期间的补偿修正量）不算空闲，留在脏集合里由下一次 flush 扣回
+  private static final String COMMIT_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1]) or {}
+    st.base_total = tonumber(ARGV[1])
+    st.base_last_sync = tonumber(ARGV[2])
+    st.inflight_delta = 0
+    st.inflight_max_sync = 0
+    st.inflight_at = 0
+    st.updated_at = tonumber(ARGV[3])
+    local ttlMs = tonumber(ARGV[4])
+    local idleTtlMs = tonumber(ARGV[5]) or 0
+    -- ARGV[6]：没扣上的修正量，带着刚回读的 base 放回 pending，下一轮按新 base 再扣
+    local carry = tonumber(ARGV[6]) or 0
+    if carry ~= 0 then st.pending_delta = (st.pending_delta or 0) + carry end
+    local idle = (st.pending_delta or 0) == 0
+    if idle and idleTtlMs > 0 then ttlMs = idleTtlMs end
+    rf_save(KEYS[1], st, ttlMs)
+    if not idle then return 1 end
+    redis.call("ZREM", KEYS[2], KEYS[1])
+    if idleTtlMs > 0 then return 2 end
+    return 1
+    """;
+
+  private static final String ROLLBACK_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1]) or {}
+    local pendingDelta = (st.pending_delta or 0) + (st.inflight_delta or 0)
+    local pendingMax = st.pending_max_sync or 0
+    if (st.inflight_max_sync or 0) > pendingMax then pendingMax = st.inflight_max_sync end
+    st.pending_delta = pendingDelta
+    st.pending_max_sync = pendingMax
+    st.inflight_delta = 0
+    st.inflight_max_sync = 0
+    st.inflight_at = 0
+    st.updated_at = tonumber(ARGV[1])
+    rf_save(KEYS[1], st, tonumber(ARGV[2]))
+    redis.call("ZADD", KEYS[2], ARGV[1], KEYS[1])
+    return pendingDelta
+    """;
+
+  private static final String AWARDED_MASK_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st then return 0 end
+    if tonumber(ARGV[2]) <= (st.awarded_n or -1) then return 0 end
+    st.awarded_mask = ARGV[1]
+    st.awarded_n = tonumber(ARGV[2])
+    rf_save(KEYS[1], st, 0)
+    return 1
+    """;
+
+  // 冷加载：key 已有 base 时不动（返回 0），否则一次写入全部字段 + 过期时间（返回 1）
+  // ARGV: baseTotal, baseLastSync, nowMs, ttlMs, awardedMask, awardedN（-1 表示日汇总行上还没有位图）
+  static final String INIT_IF_ABSENT_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if st and st.base_total ~= nil then return 0 end
+    st = st or {}
+    st.base_total = tonumber(ARGV[1])
+    st.base_last_sync = tonumber(ARGV[2])
+    st.pending_delta = 0
+    st.pending_max_sync = 0
+    st.inflight_delta = 0
+    st.inflight_max_sync = 0
+    st.inflight_at = 0
+    st.updated_at = tonumber(ARGV[3])
+    if tonumber(ARGV[6]) >= 0 then
+      st.awarded_mask = ARGV[5]
+      st.awarded_n = tonumber(ARGV[6])
     end
+    rf_save(KEYS[1], st, tonumber(ARGV[4]))
+    return 1
+    """;
+
+  // 返回 {baseTotal, pendingDelta}，没有 base 时 {-1}
+  private static final String READ_TOTAL_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st or st.base_total == nil then return {-1} end
+    return {st.base_total, st.pending_delta or 0}
+    """;
+
+  private static final String READ_MASK_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st or st.awarded_mask == nil then return false end
+    return st.awarded_mask
+    """;
 
-    inflightDelta = pendingDelta
-    inflightMax = pendingMax
-    pendingDelta = 0
-    pendingMax = 0
-    inflightAt = nowMs
-
-    redis.call("HSET", KEYS[1],
-      "pending_delta", pendingDelta,
-      "pending_max_sync", pendingMax,
-      "inflight_delta", inflightDelta,
-      "inflight_max_sync", inflightMax,
-      "inflight_at", inflightAt,
-      "updated_at", nowMs)
-    redis.call("ZADD", KEYS[2], nowMs, KEYS[1])
-    if ttlMs > 0 then redis.call("PEXPIRE", KEYS[1], ttlMs) end
-    return {inflightDelta, inflightMax}
+  // 搬迁旧 key（旧布局 / 另一种格式）。KEYS: 旧 key, 当前 key, 当前 key 所在分片；ARGV: nowMs
+  // 返回 1 搬迁，0 不需要（旧 key 不存在 / 当前 key 已存在），-1 旧 key 正在 flush
+  private static final String ADOPT_SCRIPT = PlayDailyAggCodec.LUA + """
+    if redis.call("EXISTS", KEYS[1]) == 0 or redis.call("EXISTS", KEYS[2]) == 1 then return 0 end
+    local st = rf_load(KEYS[1])
+    if (st.inflight_delta or 0) ~= 0 then return -1 end
+    rf_save(KEYS[2], st, redis.call("PTTL", KEYS[1]))
+    redis.call("DEL", KEYS[1])
+    if (st.pending_delta or 0) > 0 then
+      redis.call("ZADD", KEYS[3], ARGV[1], KEYS[2])
+    end
+    return 1
     """;
 
-  private static final String COMMIT_SCRIPT = """
-    redis.call("HSET", KEYS[1],
-      "base_total", ARGV[1],
-      "base_last_sync", ARGV[2],
-      "inflight_delta", 0,
-      "inflight_max_sync", 0,
-      "inflight_at", 0,
-      "updated_at", ARGV[3])
-    if tonumber(ARGV[4]) > 0 then redis.call("PEXPIRE", KEYS[1], ARGV[4]) end
-    local pendingDelta = tonumber(redis.call("HGET", KEYS[1], "pending_delta") or "0")
-    if pendingDelta <= 0 then
+  // KEYS: 脏 tag 索引分片；ARGV: tag 编号, nowMs。版本取 max(原版本 + 1, nowMs)
+  private static final String MARK_TAG_SCRIPT = """
+    local v = tonumber(ARGV[2]) or 0
+    local cur = redis.call("ZSCORE", KEYS[1], ARGV[1])
+    if cur and tonumber(cur) >= v then v = tonumber(cur) + 1 end
+    redis.call("ZADD", KEYS[1], v, ARGV[1])
+    return v
+    """;
+
+  // KEYS: 脏 tag 索引分片；ARGV: tag 编号, 读到的版本。版本没变才移除
+  private static final String RETIRE_TAG_SCRIPT = """
+    local v = redis.call("ZSCORE", KEYS[1], ARGV[1])
+    if v and tonumber(v) == tonumber(ARGV[2]) then
+      redis.call("ZREM", KEYS[1], ARGV[1])
+      return 1
+    end
+    return 0
+    """;
+
+  // KEYS: 旧布局的聚合 key, 它的脏集合。没有 pending / inflight 时删除并移出脏集合（返回 1），否则返回 0
+  private static final String DROP_IDLE_SCRIPT = PlayDailyAggCodec.LUA + """
+    local st = rf_load(KEYS[1])
+    if not st then
       redis.call("ZREM", KEYS[2], KEYS[1])
+      return 1
     end
+    if (st.pending_delta or 0) ~= 0 or (st.inflight_delta or 0) ~= 0 then return 0 end
+    redis.call("DEL", KEYS[1])
+    redis.call("ZREM", KEYS[2], KEYS[1])
     return 1
     """;
 
-  private static final String ROLLBACK_SCRIPT = """
-    local pendingDelta = tonumber(redis.call("HGET", KEYS[1], "pending_delta") or "0")
-    local pendingMax = tonumber(redis.call("HGET", KEYS[1], "pending_max_sync") or "0")
-    local inflightDelta = tonumber(redis.call("HGET", KEYS[1], "inflight_delta") or "0")
-    local inflightMax = tonumber(redis.call("HGET", KEYS[1], "inflight_max_sync") or "0")
-    pendingDelta = pendingDelta + inflightDelta
-    if inflightMax > pendingMax then pendingMax = inflightMax end
-    redis.call("HSET", KEYS[1],
-      "pending_delta", pendingDelta,
-      "pending_max_sync", pendingMax,
-      "inflight_delta", 0,
-      "inflight_max_sync", 0,
-      "inflight_at", 0,
-      "updated_at", ARGV[1])
-    redis.call("ZADD", KEYS[2], ARGV[1], KEYS[1])
-    if tonumber(ARGV[2]) > 0 then redis.call("PEXPIRE", KEYS[1], ARGV[2]) end
-    return pendingDelta
+  // KEYS: 源脏集合, 目标脏集合；ARGV: 成员。目标分片已有该成员时保留较小（更早到期）的 score
+  private static final String MIGRATE_DIRTY_SCRIPT = """
+    local moved = 0
+    for i = 1, #ARGV do
+      local score = redis.call("ZSCORE", KEYS[1], ARGV[i])
+      if score then
+        local cur = redis.call("ZSCORE", KEYS[2], ARGV[i])
+        if (not cur) or tonumber(cur) > tonumber(score) then
+          redis.call("ZADD", KEYS[2], score, ARGV[i])
+        end
+        redis.call("ZREM", KEYS[1], ARGV[i])
+        moved = moved + 1
+      end
+    end
+    return moved
     """;
 }
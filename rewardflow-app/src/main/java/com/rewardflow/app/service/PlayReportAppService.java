@@ -1,18 +1,21 @@
 package com.rewardflow.app.service;
 
+import com.rewardflow.api.dto.PlayReportBatchRequest;
+import com.rewardflow.api.dto.PlayReportBatchResponse;
 import com.rewardflow.api.dto.PlayReportRequest;
 import com.rewardflow.api.dto.PlayReportResponse;
-import com.rewardflow.app.award.model.IssueResult;
 import com.rewardflow.app.config.RewardFlowProperties;
 import com.rewardflow.app.exception.BizException;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
 import com.rewardflow.infra.mysql.entity.PlayDurationReportDO;
-import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
 import com.rewardflow.infra.mysql.mapper.PlayDurationReportMapper;
-import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
 import io.micrometer.tracing.Tracer;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -20,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class PlayReportAppService {
@@ -28,46 +30,64 @@ public class PlayReportAppService {
   private static final Logger log = LoggerFactory.getLogger(PlayReportAppService.class);
 
   private final PlayDurationReportMapper reportMapper;
-  private final UserPlayDailyMapper dailyMapper;
-  private final PlayDailyAggService aggService;
-  private final PlayDailyRedisAggService redisAggService;
-  private final PlayDailyAggRoutingService aggRoutingService;
+  private final AggregationRouter aggRouter;
   private final RewardFlowProperties props;
-  private final AwardPreviewService awardPreviewService;
-  private final AwardIssueService awardIssueService;
+  private final AwardEvaluationService awardEvaluationService;
+  private final DeferredAwardQueue deferredAwardQueue;
+  private final ReportCoalescer coalescer;
   private final FeatureCenterService featureCenterService;
   private final RedisDedupService redisDedupService;
   private final RiskControlService riskControlService;
+  private final RedisIngestGateService ingestGateService;
+  private final AwardGateService awardGateService;
+  private final TxStageRunner txStageRunner;
+  private final RewardFlowMetrics metrics;
   private final Tracer tracer;
 
   public PlayReportAppService(PlayDurationReportMapper reportMapper,
-      UserPlayDailyMapper dailyMapper,
-      PlayDailyAggService aggService,
-      PlayDailyRedisAggService redisAggService,
-      PlayDailyAggRoutingService aggRoutingService,
+      AggregationRouter aggRouter,
       RewardFlowProperties props,
-      AwardPreviewService awardPreviewService,
-      AwardIssueService awardIssueService,
+      AwardEvaluationService awardEvaluationService,
+      DeferredAwardQueue deferredAwardQueue,
+      ReportCoalescer coalescer,
       FeatureCenterService featureCenterService,
       RedisDedupService redisDedupService,
       RiskControlService riskControlService,
+      RedisIngestGateService ingestGateService,
+      AwardGateService awardGateService,
+      TxStageRunner txStageRunner,
+      RewardFlowMetrics metrics,
       Tracer tracer) {
     this.reportMapper = reportMapper;
-    this.dailyMapper = dailyMapper;
-    this.aggService = aggService;
-    this.redisAggService = redisAggService;
-    this.aggRoutingService = aggRoutingService;
+    this.aggRouter = aggRouter;
     this.props = props;
-    this.awardPreviewService = awardPreviewService;
-    this.awardIssueService = awardIssueService;
+    this.awardEvaluationService = awardEvaluationService;
+    this.deferredAwardQueue = deferredAwardQueue;
+    this.coalescer = coalescer;
     this.featureCenterService = featureCenterService;
     this.redisDedupService = redisDedupService;
     this.riskControlService = riskControlService;
+    this.ingestGateService = ingestGateService;
+    this.awardGateService = awardGateService;
+    this.txStageRunner = txStageRunner;
+    this.metrics = metrics;
     this.tracer = tracer;
   }
 
-  @Transactional
+  /**
+   * 单条上报，不在方法级开事务：校验、Redis 阶段、预览、审计都在事务外，
+   * 只有明细插入 / MySQL 聚合 / flow+outbox 各自走短事务（见 {@link TxStageRunner}）
+   */
   public PlayReportResponse report(PlayReportRequest req) {
+    txStageRunner.openHoldWindow();
+    try {
+      return doReport(req);
+    } finally {
+      metrics.recordReportDbHold("single", txStageRunner.closeHoldWindow());
+    }
+  }
+
+  private PlayReportResponse doReport(PlayReportRequest req) {
     long startMs = System.currentTimeMillis();
     Objects.requireNonNull(req, "req");
     String scene = SceneNormalizer.normalize(req.getScene());
@@ -75,22 +95,10 @@ public class PlayReportAppService {
     String soundId = req.getSoundId();
     String traceId = currentTraceId();
 
-    // 风控校验：处理用户手动改设备时间 + 异常时间上报
-    int maxDur = props.getRisk().getMaxDurationPerReport();
-    if (req.getDuration() == null || req.getDuration() <= 0 || req.getDuration() > maxDur) {
-      log.warn("play report rejected: traceId={}, userId={}, scene={}, duration={}, reason=invalid_duration",
-          traceId, userId, scene, req.getDuration());
-      throw new BizException(4001, "invalid duration: must be 1.." + maxDur);
-    }
-
-    // 风控校验：客户端 syncTime 与服务器时间差值不能过大
     long nowMs = Instant.now().toEpochMilli();
-    long maxSkew = props.getRisk().getMaxClockSkewMs();
-    if (req.getSyncTime() == null || Math.abs(nowMs - req.getSyncTime()) > maxSkew) {
-      log.warn("play report rejected: traceId={}, userId={}, scene={}, syncTime={}, reason=invalid_sync_time",
-          traceId, userId, scene, req.getSyncTime());
-      throw new BizException(4002, "invalid syncTime: clock skew too large");
-    }
+    validateReport(req, scene, traceId, nowMs);
+    // sharded 场景：不归本实例的用户在落明细之前拒绝（421 + owner）
+    aggRouter.ensureOwned(userId, scene);
 
     // 计算业务日期
     ZoneId zoneId = ZoneId.of(props.getTimezone());
@@ -104,26 +112,31 @@ public class PlayReportAppService {
     log.info("play report received: traceId={}, userId={}, scene={}, soundId={}, duration={}, syncTime={}, bizDate={}",
         traceId, userId, scene, soundId, req.getDuration(), req.getSyncTime(), bizDate);
 
+    // 融合脚本：去重 + 分钟级风控 + 热点路由 + pending 记账一次往返
+    RedisIngestGateService.GateResult gate = null;
+    boolean inserted = false;
     try {
-      // Redis 去重短路
-      if (props.getRisk().isRedisDedupEnabled()) {
-        boolean first = redisDedupService.tryAcquire(
-            scene, userId, soundId, req.getSyncTime(),
-            props.getRisk().getRedisDedupTtlSeconds());
-        if (!first) {
-          resp.setDuplicate(true);
-          fillFromDailyBestEffort(resp, userId, scene, bizDate);
-          AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
-          log.info("play report duplicate(redis): traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, awardPlans={}, issued={}, failed={}, disabled={}, costMs={}",
-              traceId, userId, scene, bizDate, resp.getTotalDuration(),
-              stats.planCount, stats.issuedCount, stats.failedCount, stats.disabledCount,
-              System.currentTimeMillis() - startMs);
-          return resp;
+      if (ingestGateService.enabled()) {
+        // 融合脚本熔断时返回 null：走下面的非融合路径（各自有熔断），聚合按非融合路径路由
+        gate = ingestGateService.enter(userId, scene, soundId, req.getDuration(), req.getSyncTime(), bizDate, nowMs);
+        if (gate != null && gate.isDuplicate()) {
+          return duplicateResponse(resp, userId, scene, bizDate, "redis", startMs);
         }
       }
+      if (gate == null) {
+        // Redis 去重短路
+        if (props.getRisk().isRedisDedupEnabled()) {
+          boolean first = redisDedupService.tryAcquire(
+              scene, userId, soundId, req.getSyncTime(),
+              props.getRisk().getRedisDedupTtlSeconds());
+          if (!first) {
+            return duplicateResponse(resp, userId, scene, bizDate, "redis", startMs);
+          }
+        }
 
-      // 分钟级风控
-      riskControlService.checkMinuteLimits(userId, scene, req.getDuration(), nowMs);
+        // 分钟级风控
+        riskControlService.checkMinuteLimits(userId, scene, req.getDuration(), nowMs);
+      }
 
       // 落库 + 聚合 + 预览/发奖 （主流程）
       PlayDurationReportDO record = new PlayDurationReportDO();
@@ -134,46 +147,62 @@ public class PlayReportAppService {
       record.setSyncTime(req.getSyncTime());
       record.setBizDate(bizDate);
 
-      reportMapper.insert(record);  // 明细表插入
-      resp.setDuplicate(false);
-      resp.setReportId(record.getId());
-
-      // 更新 user_play_daily（总时长）
-      int totalDuration;
-      int deltaDuration;
-      
-      /*路由判定：是否使用 Redis 聚合
-      */
-      boolean useRedisAgg = redisAggService.enabled()
-          && aggRoutingService.shouldUseRedis(userId, scene, nowMs);
-      if (useRedisAgg) {
+      // 按场景的聚合策略选存储（融合脚本已经做过热点判定时直接用它的结果）
+      AggregationStore store = gate != null
+          ? aggRouter.selectFused(userId, scene, bizDate, gate.isHot())
+          : aggRouter.select(userId, scene, bizDate, nowMs, 1);
+      int[] durations = {req.getDuration()};
+      long[] syncTimes = {req.getSyncTime()};
+
+      // 同一个 key 已经有上报在聚合 / 预览：先提交自己的明细，再并入下一趟（见 ReportCoalescer）
+      boolean coalesce = coalescer.enabled() && aggRouter.coalescible(store);
+      ReportCoalescer.Lease lease = coalesce ? coalescer.tryLead(coalesceKey(userId, scene, bizDate)) : null;
+      if (coalesce && lease == null) {
+        txStageRunner.inTx("report", () -> reportMapper.insert(record));
+        inserted = true;
+        resp.setDuplicate(false);
+        resp.setReportId(record.getId());
+        coalescedAggregateAndPreview(resp, store, userId, scene, bizDate, req.getDuration(), req.getSyncTime());
+      } else {
         try {
-          // 增量写入 Redis，返回总时长与本次增量
-          PlayDailyRedisAggService.AggOutcome out =
-              redisAggService.recordAndGetTotal(userId, scene, bizDate, req.getDuration(), req.getSyncTime());
-          totalDuration = out.totalDuration;
-          deltaDuration = out.deltaDuration;
-        } catch (Exception ex) {
-          // fallback 到 Mysql 聚合
-          log.warn("redis agg failed, fallback to mysql agg: traceId={}, userId={}, scene={}, bizDate={}, err={}",
-              traceId, userId, scene, bizDate, ex.toString());
-          PlayDailyAggService.AggOutcome out =
-              aggService.aggregate(userId, scene, bizDate, req.getSyncTime());
-          totalDuration = out.totalDuration;
-          deltaDuration = out.deltaDuration;
+          // 短事务：明细表插入 + （事务型存储时）MySQL 聚合，Redis / 预览 / 审计都不占连接
+          AggregationStore.Result txOut = txStageRunner.inTx("report", () -> {
+            reportMapper.insert(record);  // 明细表插入
+            return store.transactional()
+                ? aggRouter.recordInTx(store, userId, scene, bizDate, durations, syncTimes) : null;
+          });
+          inserted = true;
+          resp.setDuplicate(false);
+          resp.setReportId(record.getId());
+
+          // 当天累计；prevSeenAt（发奖闸门用）：Redis / 内存为服务端时钟，MySQL 为客户端 syncTime
+          AggregationStore.Result agg;
+          if (txOut != null) {
+            agg = txOut;
+          } else if (gate != null && gate.isRecorded()) {
+            // 融合脚本已记账
+            agg = new AggregationStore.Result();
+            agg.totalDuration = gate.getTotalDuration();
+            agg.deltaDuration = gate.getDeltaDuration();
+            agg.prevSeenAt = gate.getPrevRecordAt();
+            agg.clientClock = false;
+          } else {
+            agg = aggRouter.record(store, userId, scene, bizDate, durations, syncTimes);
+          }
+          int totalDuration = agg.totalDuration;
+          int deltaDuration = agg.deltaDuration;
+          resp.setTotalDuration(totalDuration);
+          resp.setDeltaDuration(deltaDuration);
+
+          // 发奖预览 + 发奖（没有跨档时由闸门跳过）
+          gatedPreviewAndIssue(resp, userId, scene, bizDate, totalDuration, deltaDuration, agg.prevSeenAt, agg.clientClock);
+        } finally {
+          if (lease != null) {
+            lease.release();
+          }
         }
-      } else {
-        PlayDailyAggService.AggOutcome out =
-            aggService.aggregate(userId, scene, bizDate, req.getSyncTime());
-        totalDuration = out.totalDuration;
-        deltaDuration = out.deltaDuration;
       }
-      resp.setTotalDuration(totalDuration);
-      resp.setDeltaDuration(deltaDuration);
-
-      // 发奖预览 + 发奖
-      previewAndIssue(resp, userId, scene, bizDate, totalDuration);
-      AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
+      AwardEvaluationService.AwardPlanStats stats = AwardEvaluationService.calcAwardPlanStats(resp.getAwardPlans());
       log.info("play report success: traceId={}, userId={}, scene={}, bizDate={}, reportId={}, totalDuration={}, deltaDuration={}, awardPlans={}, issued={}, failed={}, disabled={}, costMs={}",
           traceId, userId, scene, bizDate, resp.getReportId(), resp.getTotalDuration(), resp.getDeltaDuration(),
           stats.planCount, stats.issuedCount, stats.failedCount, stats.disabledCount,
@@ -182,118 +211,435 @@ public class PlayReportAppService {
 
     } catch (DuplicateKeyException dup) {
       // weak-network retry -> duplicate ok
-      resp.setDuplicate(true);
+      if (!inserted) {
+        ingestGateService.compensate(gate, userId, scene, bizDate);
+      }
       resp.setReportId(null);
-      fillFromDailyBestEffort(resp, userId, scene, bizDate);
-      AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
-      log.info("play report duplicate(db): traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, awardPlans={}, issued={}, failed={}, disabled={}, costMs={}",
-          traceId, userId, scene, bizDate, resp.getTotalDuration(),
-          stats.planCount, stats.issuedCount, stats.failedCount, stats.disabledCount,
-          System.currentTimeMillis() - startMs);
-      return resp;
+      return duplicateResponse(resp, userId, scene, bizDate, "db", startMs);
     } catch (BizException be) {
       log.warn("play report rejected: traceId={}, userId={}, scene={}, code={}, msg={}, costMs={}",
           traceId, userId, scene, be.getCode(), be.getMessage(), System.currentTimeMillis() - startMs);
       throw be;
     } catch (Exception ex) {
+      // 不撤销融合脚本的增量：超时等异常下明细可能已经提交，只有唯一索引冲突能确定这次没有计入
       log.error("play report failed: traceId={}, userId={}, scene={}, costMs={}",
           traceId, userId, scene, System.currentTimeMillis() - startMs, ex);
       throw ex;
     }
   }
 
-  // best effort 填充当天累计播放时长 + 发奖预览/发奖结果
-  private void fillFromDailyBestEffort(PlayReportResponse resp, String userId, String scene, LocalDate bizDate) {
-    if (redisAggService.enabled() && aggRoutingService.isHot(userId, scene)) {
+  // 幂等命中：best effort 回填当天累计 + 发奖结果
+  private PlayReportResponse duplicateResponse(PlayReportResponse resp, String userId, String scene,
+                                               LocalDate bizDate, String source, long startMs) {
+    resp.setDuplicate(true);
+    fillFromDailyBestEffort(resp, userId, scene, bizDate);
+    AwardEvaluationService.AwardPlanStats stats = AwardEvaluationService.calcAwardPlanStats(resp.getAwardPlans());
+    log.info("play report duplicate({}): traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, awardPlans={}, issued={}, failed={}, disabled={}, costMs={}",
+        source, resp.getTraceId(), userId, scene, bizDate, resp.getTotalDuration(),
+        stats.planCount, stats.issuedCount, stats.failedCount, stats.disabledCount,
+        System.currentTimeMillis() - startMs);
+    return resp;
+  }
+
+  /**
+   * 批量上报：客户端离线缓存的多个分段一次性补报
+   *
+   * <ul>
+   *   <li>每个分段的校验、去重、分钟级风控口径与单条上报一致，结果按 index 逐个返回</li>
+   *   <li>Redis 去重 / 风控各一次 pipeline，明细表一次多行插入（唯一索引冲突时退化为逐行插入）</li>
+   *   <li>聚合与发奖预览/发奖按 (userId, scene, bizDate) 各做一次</li>
+   * </ul>
+   */
+  public PlayReportBatchResponse reportBatch(PlayReportBatchRequest req) {
+    txStageRunner.openHoldWindow();
+    try {
+      return doReportBatch(req);
+    } finally {
+      metrics.recordReportDbHold("batch", txStageRunner.closeHoldWindow());
+    }
+  }
+
+  private PlayReportBatchResponse doReportBatch(PlayReportBatchRequest req) {
+    long startMs = System.currentTimeMillis();
+    Objects.requireNonNull(req, "req");
+    List<PlayReportRequest> reqItems = req.getItems();
+    int maxBatch = props.getRisk().getMaxReportsPerBatch();
+    if (reqItems == null || reqItems.isEmpty() || reqItems.size() > maxBatch) {
+      throw new BizException(4003, "invalid batch size: must be 1.." + maxBatch);
+    }
+    String traceId = currentTraceId();
+    long nowMs = Instant.now().toEpochMilli();
+    LocalDate bizDate = LocalDate.now(ZoneId.of(props.getTimezone()));
+
+    int n = reqItems.size();
+    String[] scenes = new String[n];
+    List<PlayReportBatchResponse.Item> results = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      PlayReportBatchResponse.Item item = new PlayReportBatchResponse.Item();
+      item.setIndex(i);
+      item.setAccepted(true);
+      results.add(item);
+
+      PlayReportRequest r = reqItems.get(i);
+      scenes[i] = SceneNormalizer.normalize(r.getScene());
       try {
-        PlayDailyRedisAggService.AggOutcome out = redisAggService.getTotalBestEffort(userId, scene, bizDate);
-        resp.setTotalDuration(out.totalDuration);
-        resp.setDeltaDuration(0);
-        previewAndIssue(resp, userId, scene, bizDate, out.totalDuration);
-        return;
+        validateReport(r, scenes[i], traceId, nowMs);
+        aggRouter.ensureOwned(r.getUserId(), scenes[i]);
+      } catch (BizException be) {
+        reject(item, be);
+      }
+    }
+
+    // Redis 去重短路：一次 pipeline
+    if (props.getRisk().isRedisDedupEnabled()) {
+      List<Integer> idx = new ArrayList<>(n);
+      List<String> keys = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        if (results.get(i).isAccepted()) {
+          PlayReportRequest r = reqItems.get(i);
+          idx.add(i);
+          keys.add(redisDedupService.keyOf(scenes[i], r.getUserId(), r.getSoundId(), r.getSyncTime()));
+        }
+      }
+      List<Boolean> firsts = redisDedupService.tryAcquireBatch(keys, props.getRisk().getRedisDedupTtlSeconds());
+      for (int k = 0; k < idx.size(); k++) {
+        if (!firsts.get(k)) {
+          results.get(idx.get(k)).setDuplicate(true);
+        }
+      }
+    }
+
+    // 分钟级风控：一次 pipeline
+    List<Integer> riskIdx = new ArrayList<>(n);
+    List<RiskControlService.MinuteUsage> usages = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      PlayReportBatchResponse.Item item = results.get(i);
+      if (item.isAccepted() && !item.isDuplicate()) {
+        PlayReportRequest r = reqItems.get(i);
+        riskIdx.add(i);
+        usages.add(new RiskControlService.MinuteUsage(r.getUserId(), scenes[i], r.getDuration()));
+      }
+    }
+    int[] riskCodes = riskControlService.checkMinuteLimitsBatch(usages, nowMs);
+    for (int k = 0; k < riskIdx.size(); k++) {
+      if (riskCodes[k] == 4291) {
+        reject(results.get(riskIdx.get(k)), new BizException(4291, "too many reports per minute"));
+      } else if (riskCodes[k] == 4292) {
+        reject(results.get(riskIdx.get(k)), new BizException(4292, "too much duration per minute"));
+      }
+    }
+
+    // 明细表多行插入
+    List<Integer> insertIdx = new ArrayList<>(n);
+    List<PlayDurationReportDO> records = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      PlayReportBatchResponse.Item item = results.get(i);
+      if (item.isAccepted() && !item.isDuplicate()) {
+        PlayReportRequest r = reqItems.get(i);
+        PlayDurationReportDO record = new PlayDurationReportDO();
+        record.setUserId(r.getUserId());
+        record.setSoundId(r.getSoundId());
+        record.setBizScene(scenes[i]);
+        record.setDuration(r.getDuration());
+        record.setSyncTime(r.getSyncTime());
+        record.setBizDate(bizDate);
+        insertIdx.add(i);
+        records.add(record);
+      }
+    }
+    txStageRunner.inTx("report", () -> insertReportsBatch(records, insertIdx, results));
+
+    // 按 (userId, scene) 分组做聚合 + 预览/发奖，保持请求顺序；明细已经提交，单个分组失败只记在该分组和它的分段上
+    Map<String, List<Integer>> byUser = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++) {
+      if (results.get(i).isAccepted()) {
+        byUser.computeIfAbsent(scenes[i] + ":" + reqItems.get(i).getUserId(), k -> new ArrayList<>()).add(i);
+      }
+    }
+    List<PlayReportBatchResponse.Group> groups = new ArrayList<>(byUser.size());
+    for (List<Integer> idx : byUser.values()) {
+      String userId = reqItems.get(idx.get(0)).getUserId();
+      String scene = scenes[idx.get(0)];
+      PlayReportBatchResponse.Group g;
+      try {
+        g = aggregateAndIssueGroup(userId, scene, bizDate, nowMs, traceId, idx, reqItems, results);
       } catch (Exception ex) {
-        log.warn("redis agg best-effort failed, fallback to mysql: traceId={}, userId={}, scene={}, bizDate={}, err={}",
-            resp.getTraceId(), userId, scene, bizDate, ex.toString());
+        g = failedGroup(userId, scene, bizDate, traceId, idx, results, ex);
+      }
+      groups.add(g);
+    }
+
+    PlayReportBatchResponse resp = new PlayReportBatchResponse();
+    resp.setBizDate(bizDate.toString());
+    resp.setTraceId(traceId);
+    resp.setItems(results);
+    resp.setGroups(groups);
+    for (int i = 0; i < n; i++) {
+      PlayReportBatchResponse.Item item = results.get(i);
+      String result;
+      if (!item.isAccepted()) {
+        resp.setRejectedCount(resp.getRejectedCount() + 1);
+        result = "biz_error";
+      } else if (item.isDuplicate()) {
+        resp.setDuplicateCount(resp.getDuplicateCount() + 1);
+        result = "duplicate";
+      } else if (item.getCode() != 0) {
+        resp.setAcceptedCount(resp.getAcceptedCount() + 1);
+        result = "group_failed";
+      } else {
+        resp.setAcceptedCount(resp.getAcceptedCount() + 1);
+        result = "ok";
+      }
+      metrics.recordReport(scenes[i], result, null);
+    }
+    log.info("play report batch done: traceId={}, size={}, accepted={}, duplicate={}, rejected={}, groups={}, bizDate={}, costMs={}",
+        traceId, n, resp.getAcceptedCount(), resp.getDuplicateCount(), resp.getRejectedCount(), groups.size(),
+        bizDate, System.currentTimeMillis() - startMs);
+    return resp;
+  }
+
+  // 先尝试一次多行插入；唯一索引冲突（弱网重试/批内重复）时整条语句回滚，退化为逐行插入以标出具体重复的分段
+  private void insertReportsBatch(List<PlayDurationReportDO> records, List<Integer> idx,
+                                  List<PlayReportBatchResponse.Item> results) {
+    if (records.isEmpty()) {
+      return;
+    }
+    try {
+      reportMapper.insertBatch(records);
+      for (int k = 0; k < records.size(); k++) {
+        results.get(idx.get(k)).setReportId(records.get(k).getId());
+      }
+      return;
+    } catch (DuplicateKeyException dup) {
+      log.info("play report batch insert hit duplicate, fallback to row-by-row: size={}", records.size());
+    }
+    for (int k = 0; k < records.size(); k++) {
+      PlayReportBatchResponse.Item item = results.get(idx.get(k));
+      PlayDurationReportDO record = records.get(k);
+      record.setId(null);
+      try {
+        reportMapper.insert(record);
+        item.setReportId(record.getId());
+      } catch (DuplicateKeyException dup) {
+        item.setDuplicate(true);
+        item.setReportId(null);
+      }
+    }
+  }
+
+  // 单个 (userId, scene, bizDate) 分组：一次聚合 + 一次预览/发奖
+  private PlayReportBatchResponse.Group aggregateAndIssueGroup(String userId, String scene, LocalDate bizDate,
+                                                               long nowMs, String traceId, List<Integer> idx,
+                                                               List<PlayReportRequest> reqItems,
+                                                               List<PlayReportBatchResponse.Item> results) {
+    List<Integer> fresh = new ArrayList<>(idx.size());
+    for (int i : idx) {
+      if (!results.get(i).isDuplicate()) {
+        fresh.add(i);
+      }
+    }
+
+    // 复用单条上报的预览/发奖逻辑
+    PlayReportResponse tmp = new PlayReportResponse();
+    tmp.setTraceId(traceId);
+    if (fresh.isEmpty()) {
+      fillFromDailyBestEffort(tmp, userId, scene, bizDate);
+    } else {
+      int[] durations = new int[fresh.size()];
+      long[] syncTimes = new long[fresh.size()];
+      for (int k = 0; k < fresh.size(); k++) {
+        PlayReportRequest r = reqItems.get(fresh.get(k));
+        durations[k] = r.getDuration();
+        syncTimes[k] = r.getSyncTime();
+      }
+
+      AggregationStore store = aggRouter.select(userId, scene, bizDate, nowMs, fresh.size());
+      AggregationStore.Result agg;
+      try {
+        agg = aggRouter.record(store, userId, scene, bizDate, durations, syncTimes);
+      } catch (RuntimeException ex) {
+        agg = aggRouter.catchUpAfterFailure(store, userId, scene, bizDate, syncTimes, ex);
       }
+      tmp.setTotalDuration(agg.totalDuration);
+      tmp.setDeltaDuration(agg.deltaDuration);
+      gatedPreviewAndIssue(tmp, userId, scene, bizDate, agg.totalDuration, agg.deltaDuration,
+          agg.prevSeenAt, agg.clientClock);
     }
 
-    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
-    if (daily == null) {
+    PlayReportBatchResponse.Group g = new PlayReportBatchResponse.Group();
+    g.setUserId(userId);
+    g.setScene(scene);
+    g.setBizDate(bizDate.toString());
+    g.setTotalDuration(tmp.getTotalDuration());
+    g.setDeltaDuration(tmp.getDeltaDuration());
+    g.setHitRuleVersion(tmp.getHitRuleVersion());
+    g.setGrayHit(tmp.getGrayHit());
+    g.setAwardPlans(tmp.getAwardPlans());
+    g.setAwardPending(tmp.getAwardPending());
+    return g;
+  }
+
+  // 分组聚合/发奖失败：错误码放在分组和它的分段上（明细已落库，分段仍算 accepted），其它分组照常返回
+  private PlayReportBatchResponse.Group failedGroup(String userId, String scene, LocalDate bizDate, String traceId,
+                                                    List<Integer> idx, List<PlayReportBatchResponse.Item> results,
+                                                    Exception ex) {
+    int code;
+    String msg;
+    if (ex instanceof BizException be) {
+      code = be.getCode();
+      msg = be.getMessage();
+    } else {
+      code = 5000;
+      msg = "internal error: " + ex.getClass().getSimpleName();
+    }
+    log.error("play report batch group failed: traceId={}, userId={}, scene={}, bizDate={}, size={}",
+        traceId, userId, scene, bizDate, idx.size(), ex);
+    PlayReportBatchResponse.Group g = new PlayReportBatchResponse.Group();
+    g.setUserId(userId);
+    g.setScene(scene);
+    g.setBizDate(bizDate.toString());
+    g.setCode(code);
+    g.setMsg(msg);
+    for (int i : idx) {
+      results.get(i).setCode(code);
+      results.get(i).setMsg(msg);
+    }
+    return g;
+  }
+
+  private void reject(PlayReportBatchResponse.Item item, BizException be) {
+    item.setAccepted(false);
+    item.setDuplicate(false);
+    item.setCode(be.getCode());
+    item.setMsg(be.getMessage());
+  }
+
+  // 单个分段的基础风控校验，单条/批量上报共用
+  private void validateReport(PlayReportRequest req, String scene, String traceId, long nowMs) {
+    String userId = req.getUserId();
+
+    // 风控校验：处理用户手动改设备时间 + 异常时间上报
+    int maxDur = props.getRisk().getMaxDurationPerReport();
+    if (req.getDuration() == null || req.getDuration() <= 0 || req.getDuration() > maxDur) {
+      log.warn("play report rejected: traceId={}, userId={}, scene={}, duration={}, reason=invalid_duration",
+          traceId, userId, scene, req.getDuration());
+      throw new BizException(4001, "invalid duration: must be 1.." + maxDur);
+    }
+
+    // 风控校验：客户端 syncTime 与服务器时间差值不能过大
+    long maxSkew = props.getRisk().getMaxClockSkewMs();
+    if (req.getSyncTime() == null || Math.abs(nowMs - req.getSyncTime()) > maxSkew) {
+      log.warn("play report rejected: traceId={}, userId={}, scene={}, syncTime={}, reason=invalid_sync_time",
+          traceId, userId, scene, req.getSyncTime());
+      throw new BizException(4002, "invalid syncTime: clock skew too large");
+    }
+  }
+
+  // best effort 填充当天累计播放时长 + 发奖预览/发奖结果
+  private void fillFromDailyBestEffort(PlayReportResponse resp, String userId, String scene, LocalDate bizDate) {
+    AggregationStore.Result out = aggRouter.readTotalBestEffort(userId, scene, bizDate, resp.getTraceId());
+    if (out == null) {
       resp.setTotalDuration(0);
       resp.setDeltaDuration(0);
       resp.setAwardPlans(List.of());
       return;
     }
-    resp.setTotalDuration(daily.getTotalDuration());
+    resp.setTotalDuration(out.totalDuration);
     resp.setDeltaDuration(0);
-    previewAndIssue(resp, userId, scene, bizDate, daily.getTotalDuration());
+    if (deferred(resp, userId, scene, bizDate, out.totalDuration)) {
+      return;
+    }
+    awardEvaluationService.previewAndIssue(resp, userId, scene, bizDate, out.totalDuration);
   }
 
-  // 预览并发奖
-  private void previewAndIssue(PlayReportResponse resp, String userId, String scene, LocalDate bizDate, int totalDuration) {
-    // 有哪些奖励命中
-    AwardPreviewService.PreviewResult preview =
-        awardPreviewService.preview(userId, scene, bizDate, totalDuration, resp.getTraceId());
-
-    resp.setHitRuleVersion(preview.getHitRuleVersion());
-    resp.setGrayHit(preview.isGrayHit());
-    int planCount = preview.getItems() == null ? 0 : preview.getItems().size();
-    log.debug("award preview: traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, ruleVersion={}, grayHit={}, planCount={}",
-        resp.getTraceId(), userId, scene, bizDate, totalDuration, preview.getHitRuleVersion(), preview.isGrayHit(), planCount);
-
-    // 验证feature开关
-    boolean issueEnabled = featureCenterService.effectiveForScene(scene).getAwardIssueEnabled();
-    if (!issueEnabled) {
-      applyDisabled(preview.getItems());
-      resp.setAwardPlans(preview.getItems());
-      AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
-      log.info("award issue disabled: traceId={}, userId={}, scene={}, bizDate={}, planCount={}, ruleVersion={}, grayHit={}",
-          resp.getTraceId(), userId, scene, bizDate, stats.planCount, preview.getHitRuleVersion(), preview.isGrayHit());
+  // 经过发奖闸门的预览/发奖：没有跨过新档位时不查 reward_flow，也不进 issue 事务
+  private void gatedPreviewAndIssue(PlayReportResponse resp, String userId, String scene, LocalDate bizDate,
+                                    int totalDuration, int deltaDuration, long prevSeenAt, boolean clientClock) {
+    AwardGateService.Verdict verdict = awardGateService.decide(
+        userId, scene, bizDate, totalDuration, deltaDuration, prevSeenAt, clientClock);
+    if (!verdict.preview()) {
+      resp.setHitRuleVersion(verdict.getHitRuleVersion());
+      resp.setGrayHit(verdict.isGrayHit());
+      resp.setAwardPlans(List.of());
+      log.debug("award preview skipped by gate: traceId={}, userId={}, scene={}, bizDate={}, totalDuration={}, deltaDuration={}",
+          resp.getTraceId(), userId, scene, bizDate, totalDuration, deltaDuration);
       return;
     }
+    if (deferred(resp, userId, scene, bizDate, totalDuration)) {
+      resp.setHitRuleVersion(verdict.getHitRuleVersion());
+      resp.setGrayHit(verdict.isGrayHit());
+      return;
+    }
+    boolean failed = true;
+    try {
+      awardEvaluationService.previewAndIssue(resp, userId, scene, bizDate, totalDuration);
+      failed = AwardEvaluationService.calcAwardPlanStats(resp.getAwardPlans()).failedCount > 0;
+    } finally {
+      awardGateService.afterIssue(userId, scene, bizDate, verdict.getDecision(), failed);
+    }
+  }
 
-    // 真正发奖 结果回填
-    Map<String, IssueResult> issued = awardIssueService.issue(
-        userId, scene, bizDate, totalDuration,
-        preview.getHitRuleVersion(), preview.isGrayHit(), preview.getItems(), resp.getTraceId());
-
-    applyIssueResult(preview.getItems(), issued);
-    resp.setAwardPlans(preview.getItems());
-    AwardPlanStats stats = calcAwardPlanStats(resp.getAwardPlans());
-    log.info("award issue completed: traceId={}, userId={}, scene={}, bizDate={}, planCount={}, issued={}, failed={}, ruleVersion={}, grayHit={}",
-        resp.getTraceId(), userId, scene, bizDate, stats.planCount, stats.issuedCount, stats.failedCount,
-        preview.getHitRuleVersion(), preview.isGrayHit());
+  /**
+   * 合并路径：本次明细已提交，加入该 key 的下一趟，由其中一个上报代表所有成员聚合一次 + 预览/发奖一次。
+   * 当天累计与发奖结果所有成员相同；deltaDuration 按 syncTime 顺序把这一趟实际计入的增量分给各成员
+   */
+  private void coalescedAggregateAndPreview(PlayReportResponse resp, AggregationStore store, String userId,
+                                            String scene, LocalDate bizDate, int duration, long syncTime) {
+    CoalescedReport self = new CoalescedReport(duration, syncTime);
+    PlayReportResponse shared = coalescer.join(coalesceKey(userId, scene, bizDate), self,
+        members -> aggregateCoalesced(store, userId, scene, bizDate, resp.getTraceId(), members));
+    resp.setTotalDuration(shared.getTotalDuration());
+    resp.setDeltaDuration(self.deltaDuration);
+    resp.setHitRuleVersion(shared.getHitRuleVersion());
+    resp.setGrayHit(shared.getGrayHit());
+    resp.setAwardPlans(shared.getAwardPlans());
+    resp.setAwardPending(shared.getAwardPending());
   }
 
-  private void applyDisabled(List<PlayReportResponse.RewardPlanItem> items) {
-    if (items == null) {
-      return;
+  private PlayReportResponse aggregateCoalesced(AggregationStore store, String userId, String scene, LocalDate bizDate,
+                                                String traceId, List<CoalescedReport> members) {
+    int[] durations = new int[members.size()];
+    long[] syncTimes = new long[members.size()];
+    for (int i = 0; i < members.size(); i++) {
+      durations[i] = members.get(i).duration;
+      syncTimes[i] = members.get(i).syncTime;
     }
-    for (PlayReportResponse.RewardPlanItem it : items) {
-      if (it == null) {
-        continue;
-      }
-      it.setIssued(false);
-      it.setFlowId(null);
-      it.setEventId(null);
-      it.setIssueStatus("DISABLED");
+    AggregationStore.Result agg = aggRouter.record(store, userId, scene, bizDate, durations, syncTimes);
+
+    List<CoalescedReport> bySync = new ArrayList<>(members);
+    bySync.sort(Comparator.comparingLong(m -> m.syncTime));
+    int remain = agg.deltaDuration;
+    for (CoalescedReport m : bySync) {
+      m.deltaDuration = Math.min(m.duration, remain);
+      remain -= m.deltaDuration;
     }
-  }
 
-  private void applyIssueResult(List<PlayReportResponse.RewardPlanItem> items, Map<String, IssueResult> issued) {
-    if (items == null || items.isEmpty() || issued == null || issued.isEmpty()) {
-      return;
+    PlayReportResponse shared = new PlayReportResponse();
+    shared.setTraceId(traceId);
+    shared.setTotalDuration(agg.totalDuration);
+    shared.setDeltaDuration(agg.deltaDuration);
+    gatedPreviewAndIssue(shared, userId, scene, bizDate, agg.totalDuration, agg.deltaDuration,
+        agg.prevSeenAt, agg.clientClock);
+    if (members.size() > 1) {
+      log.debug("play report coalesced: traceId={}, userId={}, scene={}, bizDate={}, members={}, totalDuration={}, deltaDuration={}",
+          traceId, userId, scene, bizDate, members.size(), agg.totalDuration, agg.deltaDuration);
     }
-    for (PlayReportResponse.RewardPlanItem it : items) {
-      IssueResult r = issued.get(it.getOutBizNo());
-      if (r == null) {
-        continue;
-      }
-      it.setIssued(r.getIssued());
-      it.setFlowId(r.getFlowId());
-      it.setEventId(r.getEventId());
-      it.setIssueStatus(r.getIssueStatus());
+    return shared;
+  }
+
+  private static String coalesceKey(String userId, String scene, LocalDate bizDate) {
+    return scene + "|" + userId + "|" + bizDate;
+  }
+
+  // 场景开启异步发奖时交给 DeferredAwardQueue，响应只带 awardPending=true；队列满时返回 false 走同步
+  private boolean deferred(PlayReportResponse resp, String userId, String scene, LocalDate bizDate, int totalDuration) {
+    if (!featureCenterService.effectiveForScene(scene).isDeferredAwardEnabled()
+        || !deferredAwardQueue.offer(userId, scene, bizDate, totalDuration, resp.getTraceId())) {
+      return false;
     }
+    resp.setAwardPlans(List.of());
+    resp.setAwardPending(true);
+    return true;
   }
 
   private String currentTraceId() {
@@ -307,35 +653,15 @@ public class PlayReportAppService {
     return null;
   }
 
-  private AwardPlanStats calcAwardPlanStats(List<PlayReportResponse.RewardPlanItem> items) {
-    AwardPlanStats stats = new AwardPlanStats();
-    if (items == null || items.isEmpty()) {
-      return stats;
-    }
-    for (PlayReportResponse.RewardPlanItem it : items) {
-      if (it == null) {
-        continue;
-      }
-      stats.planCount++;
-      if (Boolean.TRUE.equals(it.getIssued())) {
-        stats.issuedCount++;
-      }
-      String status = it.getIssueStatus();
-      if (status != null) {
-        if ("FAILED".equalsIgnoreCase(status)) {
-          stats.failedCount++;
-        } else if ("DISABLED".equalsIgnoreCase(status)) {
-          stats.disabledCount++;
-        }
-      }
-    }
-    return stats;
-  }
+  // 合并路径上的一个成员；deltaDuration 由代表执行的那一趟回填
+  private static final class CoalescedReport {
+    final int duration;
+    final long syncTime;
+    int deltaDuration;
 
-  private static class AwardPlanStats {
-    private int planCount;
-    private int issuedCount;
-    private int failedCount;
-    private int disabledCount;
+    CoalescedReport(int duration, long syncTime) {
+      this.duration = duration;
+      this.syncTime = syncTime;
+    }
   }
 }
@@ -0,0 +1,77 @@
+package com.rewardflow.app.service;
+
+import java.time.LocalDate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis 缓冲日聚合：增量记入 Redis，由 {@link PlayDailyRedisAggService#flushOnce()} 刷回 MySQL
+ */
+@Component
+public class RedisAggregationStore implements AggregationStore {
+
+  static final String NAME = "redis";
+
+  private final PlayDailyRedisAggService redisAggService;
+  private final RedisStageBreaker breaker;
+
+  public RedisAggregationStore(PlayDailyRedisAggService redisAggService, RedisStageBreaker breaker) {
+    this.redisAggService = redisAggService;
+    this.breaker = breaker;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean available() {
+    return redisAggService.enabled();
+  }
+
+  @Override
+  public boolean transactional() {
+    return false;
+  }
+
+  /** Redis 熔断打开时抛 {@link RedisStageBreaker.OpenException}，由路由回退到 MySQL */
+  @Override
+  public Result record(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    return breaker.call(RedisStageBreaker.AGG, () -> toResult(durations.length == 1
+        ? redisAggService.recordAndGetTotal(userId, scene, bizDate, durations[0], syncTimes[0])
+        : redisAggService.recordBatchAndGetTotal(userId, scene, bizDate, durations, syncTimes)), () -> {
+          throw new RedisStageBreaker.OpenException(RedisStageBreaker.AGG);
+        });
+  }
+
+  @Override
+  public Result readTotal(String userId, String scene, LocalDate bizDate) {
+    return breaker.call(RedisStageBreaker.AGG, () -> toResult(redisAggService.getTotalBestEffort(userId, scene, bizDate)),
+        () -> {
+          throw new RedisStageBreaker.OpenException(RedisStageBreaker.AGG);
+        });
+  }
+
+  /**
+   * Redis 里是否还有没刷回 MySQL 的增量（upsert 模式的粘滞路由用）；
+   * 熔断打开时与读失败一样返回 true，记账随后回退到 range_sum
+   */
+  boolean hasUnflushed(String userId, String scene, LocalDate bizDate) {
+    return breaker.call(RedisStageBreaker.AGG, () -> redisAggService.hasUnflushed(userId, scene, bizDate), () -> true);
+  }
+
+  /** 旧布局里是否还有没排空的 key，熔断打开时返回 true */
+  boolean hasLegacyUnflushed(String userId, String scene, LocalDate bizDate) {
+    return breaker.call(RedisStageBreaker.AGG,
+        () -> redisAggService.hasLegacyUnflushed(userId, scene, bizDate), () -> true);
+  }
+
+  private static Result toResult(PlayDailyRedisAggService.AggOutcome out) {
+    Result res = new Result();
+    res.totalDuration = out.totalDuration;
+    res.deltaDuration = out.deltaDuration;
+    res.prevSeenAt = out.prevRecordAt;
+    res.clientClock = false;
+    return res;
+  }
+}
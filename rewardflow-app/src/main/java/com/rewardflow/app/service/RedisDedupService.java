@@ -1,7 +1,14 @@
 package com.rewardflow.app.service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Service;
 
 /**
@@ -16,18 +23,61 @@ public class RedisDedupService {
   private static final String KEY_PREFIX = "rf:play:dedup:";
 
   private final StringRedisTemplate redis;
+  private final RedisKeyLayout keyLayout;
+  private final RedisStageBreaker breaker;
 
-  public RedisDedupService(StringRedisTemplate redis) {
+  public RedisDedupService(StringRedisTemplate redis, RedisKeyLayout keyLayout, RedisStageBreaker breaker) {
     this.redis = redis;
+    this.keyLayout = keyLayout;
+    this.breaker = breaker;
   }
 
   /**
-   * @return 第一次写入返回 true，重复写入返回 false
+   * @return 第一次写入返回 true，重复写入返回 false；Redis 熔断打开时返回 true（交给唯一索引）
    */
   public boolean tryAcquire(String scene, String userId, String soundId, long syncTime, long ttlSeconds) {
-    // rf:play:dedup:audio_play:u1:s1:1697059200
-    String key = KEY_PREFIX + scene + ":" + userId + ":" + soundId + ":" + syncTime;
-    Boolean ok = redis.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(ttlSeconds));
-    return ok != null && ok;
+    String key = keyOf(scene, userId, soundId, syncTime);
+    return breaker.call(RedisStageBreaker.DEDUP, () -> {
+      Boolean ok = redis.opsForValue().setIfAbsent(key, "1", Duration.ofSeconds(ttlSeconds));
+      return ok != null && ok;
+    }, () -> true);
+  }
+
+  /**
+   * 批量版本：一次 pipeline 发送所有 SET NX EX
+   *
+   * <p>同一批次里重复的 key 只有第一个返回 true
+   *
+   * @param keys 由 {@link #keyOf} 生成的去重 key
+   * @return 与 keys 一一对应，第一次写入为 true；Redis 熔断打开时全部为 true
+   */
+  public List<Boolean> tryAcquireBatch(List<String> keys, long ttlSeconds) {
+    if (keys == null || keys.isEmpty()) {
+      return List.of();
+    }
+    return breaker.call(RedisStageBreaker.DEDUP, () -> acquireBatch(keys, ttlSeconds),
+        () -> new ArrayList<>(Collections.nCopies(keys.size(), Boolean.TRUE)));
+  }
+
+  private List<Boolean> acquireBatch(List<String> keys, long ttlSeconds) {
+    byte[] value = "1".getBytes(StandardCharsets.UTF_8);
+    Expiration ttl = Expiration.seconds(ttlSeconds);
+    List<Object> raw = redis.executePipelined((RedisCallback<Object>) connection -> {
+      for (String key : keys) {
+        connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value, ttl, RedisStringCommands.SetOption.ifAbsent());
+      }
+      return null;
+    });
+    List<Boolean> out = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      Object v = raw != null && i < raw.size() ? raw.get(i) : null;
+      out.add(Boolean.TRUE.equals(v));
+    }
+    return out;
+  }
+
+  // rf:play:dedup:{rf:1207}:audio_play:u1:s1:1697059200，与该用户的风控 / 聚合 key 同一个 slot
+  public String keyOf(String scene, String userId, String soundId, long syncTime) {
+    return KEY_PREFIX + keyLayout.tag(userId, scene) + ":" + scene + ":" + userId + ":" + soundId + ":" + syncTime;
   }
 }
@@ -0,0 +1,316 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.exception.BizException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+/**
+ * 上报入口的 Redis 融合脚本：去重 + 分钟级风控 + 热点路由 + pending 记账，一次 EVALSHA 完成
+ *
+ * <p>原来一次非重复上报在碰 MySQL 之前要走 8~12 次 Redis 往返（SETNX、INCR/EXPIRE x2、hot cnt、hasKey、record），
+ * 这里把它们合进一个原子脚本，返回一个紧凑的状态元组，由 Java 侧解码成与原流程相同的结果与 BizException code
+ *
+ * <ul>
+ *   <li>key 仍然沿用各服务原有的 key（去重 / 风控 / 路由 / 聚合），开关切换时数据互通</li>
+ *   <li>聚合 hash 还没有 base（冷 key）时脚本不记账，返回 needs-base，由调用方走 record（record 脚本按需冷加载 base）</li>
+ *   <li>脚本先于明细插入记账，明细唯一索引冲突时调用方需要 {@link #compensate} 撤销增量（增量已刷回 MySQL 时留下负数修正量，
+ *       下一次 flush 扣回）；其它异常不撤销，明细可能已经提交</li>
+ * </ul>
+ */
+@Service
+public class RedisIngestGateService {
+
+  private static final Logger log = LoggerFactory.getLogger(RedisIngestGateService.class);
+
+  static final int STATUS_OK = 0;
+  static final int STATUS_DUPLICATE = 1;
+  static final int STATUS_COUNT_LIMIT = 2;
+  static final int STATUS_DURATION_LIMIT = 3;
+
+  private final StringRedisTemplate redis;
+  private final RedisDedupService dedupService;
+  private final RiskControlService riskControlService;
+  private final RiskEventService riskEventService;
+  private final PlayDailyAggRoutingService routingService;
+  private final PlayDailyRedisAggService redisAggService;
+  private final HotThresholdController thresholdController;
+  private final AggregationRouter aggRouter;
+  private final RedisStageBreaker breaker;
+  private final RewardFlowProperties props;
+
+  private final DefaultRedisScript<List> ingestScript = new DefaultRedisScript<>(INGEST_SCRIPT, List.class);
+
+  public RedisIngestGateService(StringRedisTemplate redis,
+                                RedisDedupService dedupService,
+                                RiskControlService riskControlService,
+                                RiskEventService riskEventService,
+                                PlayDailyAggRoutingService routingService,
+                                PlayDailyRedisAggService redisAggService,
+                                HotThresholdController thresholdController,
+                                AggregationRouter aggRouter,
+                                RedisStageBreaker breaker,
+                                RewardFlowProperties props) {
+    this.redis = redis;
+    this.dedupService = dedupService;
+    this.riskControlService = riskControlService;
+    this.riskEventService = riskEventService;
+    this.routingService = routingService;
+    this.redisAggService = redisAggService;
+    this.thresholdController = thresholdController;
+    this.aggRouter = aggRouter;
+    this.breaker = breaker;
+    this.props = props;
+  }
+
+  public boolean enabled() {
+    return props.getIngest().isFusedScriptEnabled();
+  }
+
+  /**
+   * 执行融合脚本
+   *
+   * @return 去重命中时 duplicate=true；通过时带上路由与记账结果；Redis 熔断打开时返回 null（没有访问 Redis）
+   * @throws BizException 分钟级风控拒绝（4291/4292），与 {@link RiskControlService#checkMinuteLimits} 一致
+   */
+  public GateResult enter(String userId, String scene, String soundId, int duration, long syncTime,
+                          LocalDate bizDate, long nowMs) {
+    RewardFlowProperties.Risk risk = props.getRisk();
+    RewardFlowProperties.PlayDailyAgg agg = props.getPlayDailyAgg();
+    long minute = nowMs / 60_000L;
+
+    String aggKey = redisAggService.keyFor(userId, scene, bizDate);
+    String dirtyKey = redisAggService.dirtyKeyFor(aggKey);
+    List<String> keys = List.of(
+        dedupService.keyOf(scene, userId, soundId, syncTime),
+        riskControlService.cntKey(userId, scene, minute),
+        riskControlService.durKey(userId, scene, minute),
+        routingService.cntKey(userId, scene, minute),
+        routingService.flagKey(userId, scene),
+        aggKey,
+        dirtyKey);
+
+    List<Long> out = breaker.call(RedisStageBreaker.INGEST, () -> toLongList(redis.execute(
+        ingestScript,
+        keys,
+        risk.isRedisDedupEnabled() ? "1" : "0",
+        String.valueOf(risk.getRedisDedupTtlSeconds()),
+        String.valueOf(risk.getMaxReportsPerMinute()),
+        String.valueOf(risk.getMaxDurationPerMinute()),
+        String.valueOf(duration),
+        aggRouter.fusedAggMode(scene),
+        String.valueOf(thresholdController.thresholdFor(scene)),
+        String.valueOf(agg.getHotWindowSeconds()),
+        String.valueOf(syncTime),
+        String.valueOf(nowMs),
+        String.valueOf(agg.getRedisTtlSeconds() * 1000L),
+        PlayDailyAggService.MODE_UPSERT.equalsIgnoreCase(agg.getMysqlAggMode()) ? "1" : "0"
+    )), () -> null);
+    if (out == null) {
+      return null;
+    }
+    if (out.isEmpty()) {
+      throw new IllegalStateException("redis ingest script returned empty");
+    }
+
+    // {status, hot, recorded, total, added, counter, hotFlagSet, prevRecordAt, freshDirty}
+    int status = out.get(0).intValue();
+    long counter = at(out, 5);
+    switch (status) {
+      case STATUS_DUPLICATE:
+        return GateResult.duplicate();
+      case STATUS_COUNT_LIMIT:
+        riskEventService.log(userId, scene, null, "RATE_LIMIT",
+            Map.of("kind", "count", "count", counter, "limit", risk.getMaxReportsPerMinute()));
+        log.warn("risk limit exceeded: userId={}, scene={}, kind=count, minute={}, count={}, limit={}",
+            userId, scene, minute, counter, risk.getMaxReportsPerMinute());
+        throw new BizException(4291, "too many reports per minute");
+      case STATUS_DURATION_LIMIT:
+        riskEventService.log(userId, scene, null, "RATE_LIMIT",
+            Map.of("kind", "duration", "sum", counter, "limit", risk.getMaxDurationPerMinute()));
+        log.warn("risk limit exceeded: userId={}, scene={}, kind=duration, minute={}, sum={}, limit={}",
+            userId, scene, minute, counter, risk.getMaxDurationPerMinute());
+        throw new BizException(4292, "too much duration per minute");
+      case STATUS_OK:
+        break;
+      default:
+        throw new IllegalStateException("unknown redis ingest status: " + status);
+    }
+
+    GateResult res = new GateResult();
+    res.hot = at(out, 1) == 1L;
+    res.recorded = at(out, 2) == 1L;
+    res.totalDuration = (int) at(out, 3);
+    res.deltaDuration = (int) at(out, 4);
+    res.prevRecordAt = at(out, 7);
+    if (at(out, 8) == 1L) {
+      redisAggService.markDirty(dirtyKey);
+    }
+    if (at(out, 6) == 1L) {
+      log.info("play daily agg hot flag set: userId={}, scene={}, minute={}, threshold={}, windowSeconds={}",
+          userId, scene, minute, thresholdController.thresholdFor(scene), agg.getHotWindowSeconds());
+    }
+    if (redisAggService.enabled()) {
+      // 热点判定已在脚本里完成，这里只喂本机估计（top-N 端点 / 幂等回填路径的热点缓存）
+      routingService.observe(userId, scene, nowMs, res.hot);
+    }
+    return res;
+  }
+
+  /**
+   * 明细唯一索引冲突（这次上报确定没有计入）时撤销脚本里已经记入 pending 的增量
+   */
+  public void compensate(GateResult gate, String userId, String scene, LocalDate bizDate) {
+    if (gate == null || !gate.recorded || gate.deltaDuration <= 0) {
+      return;
+    }
+    try {
+      redisAggService.unrecord(userId, scene, bizDate, gate.deltaDuration);
+    } catch (Exception ex) {
+      log.warn("redis ingest compensate failed: userId={}, scene={}, bizDate={}, added={}, err={}",
+          userId, scene, bizDate, gate.deltaDuration, ex.toString());
+    }
+  }
+
+  private static long at(List<Long> out, int i) {
+    return i < out.size() ? out.get(i) : 0L;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Long> toLongList(Object obj) {
+    if (obj == null) {
+      return List.of();
+    }
+    List<Object> raw = (List<Object>) obj;
+    Long[] out = new Long[raw.size()];
+    for (int i = 0; i < out.length; i++) {
+      Object v = raw.get(i);
+      out[i] = v instanceof Number n ? n.longValue() : 0L;
+    }
+    return List.of(out);
+  }
+
+  /** 融合脚本的解码结果 */
+  public static class GateResult {
+    private boolean duplicate;
+    private boolean hot;
+    private boolean recorded;
+    private int totalDuration;
+    private int deltaDuration;
+    private long prevRecordAt;
+
+    static GateResult duplicate() {
+      GateResult r = new GateResult();
+      r.duplicate = true;
+      return r;
+    }
+
+    public boolean isDuplicate() {
+      return duplicate;
+    }
+
+    /** 本次上报应走 Redis 聚合 */
+    public boolean isHot() {
+      return hot;
+    }
+
+    /** 脚本已把本次增量记入 pending；hot 但未记账表示聚合 key 还没有 base */
+    public boolean isRecorded() {
+      return recorded;
+    }
+
+    public int getTotalDuration() {
+      return totalDuration;
+    }
+
+    public int getDeltaDuration() {
+      return deltaDuration;
+    }
+
+    /** 已记账时：本次之前最近一次记账的服务端时间（ms），没有记录时为 0 */
+    public long getPrevRecordAt() {
+      return prevRecordAt;
+    }
+  }
+
+  /*
+   * KEYS: dedup, riskCnt, riskDur, hotCnt, hotFlag, aggHash, dirtyZset（aggHash 所在 tag 的脏集合）；
+   *       7 个 key 带同一个 hash tag（RedisKeyLayout），Redis Cluster 下也在同一个 slot；
+   *       aggHash 按 PlayDailyAggCodec 读写（hash / packed 都可以）
+   * ARGV: dedupEnabled, dedupTtlSec, maxCnt, maxDur, duration, aggMode, hotThreshold, hotWindowSec,
+   *       syncTime, nowMs, aggTtlMs, stickyDirty
+   *       aggMode：0 不走 Redis 聚合 / 1 按热点判定 / 2 强制走 Redis / 3 只看 stickyDirty（见 AggregationRouter#fusedAggMode）
+   *（MySQL upsert 聚合模式：不热但聚合 key 还在脏集合里时继续走 Redis）
+   * 返回: {status, hot, recorded, total, added, counter, hotFlagSet, prevRecordAt, freshDirty}
+   *       freshDirty = 1：aggHash 新进入脏集合，调用方登记脏 tag 索引
+   */
+  private static final String INGEST_SCRIPT = PlayDailyAggCodec.LUA + """
+    local duration = tonumber(ARGV[5]) or 0
+
+    if ARGV[1] == "1" then
+      local ok = redis.call("SET", KEYS[1], "1", "NX", "EX", ARGV[2])
+      if not ok then return {1, 0, 0, 0, 0, 0, 0} end
+    end
+
+    local cnt = redis.call("INCR", KEYS[2])
+    if cnt == 1 then redis.call("EXPIRE", KEYS[2], 120) end
+    if cnt > tonumber(ARGV[3]) then return {2, 0, 0, 0, 0, cnt, 0} end
+
+    local sum = redis.call("INCRBY", KEYS[3], duration)
+    if sum == duration then redis.call("EXPIRE", KEYS[3], 120) end
+    if sum > tonumber(ARGV[4]) then return {3, 0, 0, 0, 0, sum, 0} end
+
+    if ARGV[6] == "0" then return {0, 0, 0, 0, 0, 0, 0} end
+
+    local hot = 0
+    local flagSet = 0
+    if ARGV[6] == "2" then
+      hot = 1
+    elseif ARGV[6] == "1" then
+      if redis.call("EXISTS", KEYS[5]) == 1 then
+        hot = 1
+      else
+        local hc = redis.call("INCR", KEYS[4])
+        if hc == 1 then redis.call("EXPIRE", KEYS[4], 120) end
+        if hc >= tonumber(ARGV[7]) then
+          redis.call("SET", KEYS[5], "1", "EX", ARGV[8])
+          hot = 1
+          flagSet = 1
+        end
+      end
+    end
+    if hot == 0 and ARGV[12] == "1" and redis.call("ZSCORE", KEYS[7], KEYS[6]) then hot = 1 end
+    if hot == 0 then return {0, 0, 0, 0, 0, 0, 0} end
+
+    local st = rf_load(KEYS[6])
+    if not st or st.base_total == nil then return {0, 1, 0, 0, 0, 0, flagSet} end
+    local baseTotal = st.base_total
+    local baseLast = st.base_last_sync or 0
+    local pendingDelta = st.pending_delta or 0
+    local pendingMax = st.pending_max_sync or 0
+    local syncTime = tonumber(ARGV[9]) or 0
+    local nowMs = tonumber(ARGV[10]) or 0
+    local ttlMs = tonumber(ARGV[11]) or 0
+    local prevRecordAt = st.last_record_at or 0
+
+    local added = 0
+    if syncTime > baseLast then
+      pendingDelta = pendingDelta + duration
+      if syncTime > pendingMax then pendingMax = syncTime end
+      st.pending_delta = pendingDelta
+      st.pending_max_sync = pendingMax
+      added = duration
+    end
+    st.updated_at = nowMs
+    st.last_record_at = nowMs
+    rf_save(KEYS[6], st, ttlMs)
+    local fresh = redis.call("ZADD", KEYS[7], nowMs, KEYS[6])
+    return {0, 1, 1, baseTotal + pendingDelta, added, 0, flagSet, prevRecordAt, fresh}
+    """;
+}
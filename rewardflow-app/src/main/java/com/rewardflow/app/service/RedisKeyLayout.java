@@ -0,0 +1,107 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Redis key 的 hash tag 布局，保证每个多 key 脚本只落在一个 slot（兼容 Redis Cluster）
+ *
+ * <p>同一个 (userId, scene) 的所有 key（去重、分钟级风控、热点计数/标记、日聚合、所在 tag 的脏集合）都带同一个 tag
+ * {@code {rf:t}}，t = hash(scene:userId) % {@link #TAGS}。tag 空间固定，不随任何配置变化，
+ * 于是上报融合脚本（7 个 key）、记账脚本（聚合 key + 脏集合）、flush 的批量预留（同一 tag 的整批 key）都在同一个 slot，
+ * 集群扩到多少个主节点都能分散开
+ *
+ * <p>flush 怎么找到有脏 key 的 tag 由脏 tag 索引决定：tag t 登记在索引分片 t % dirtyShards，
+ * 分片数不进任何数据 key 名，可以在线调整
+ *
+ * <p>旧布局的 tag 是 {@code {rf-i}}，i = hash % legacyTagShards，只用于排空旧 key
+ */
+@Component
+public class RedisKeyLayout {
+
+  /** 固定的 tag 数：比集群 slot 数小、比任何实际的主节点数大得多 */
+  public static final int TAGS = 4096;
+
+  private static final String TAG_PREFIX = "{rf:";
+  private static final String LEGACY_TAG_PREFIX = "{rf-";
+
+  private final RewardFlowProperties props;
+
+  public RedisKeyLayout(RewardFlowProperties props) {
+    this.props = props;
+  }
+
+  /** (userId, scene) 的 tag 编号（String.hashCode 是规范定义的，各实例一致） */
+  public int tagNo(String userId, String scene) {
+    return Math.floorMod(hash(userId, scene), TAGS);
+  }
+
+  /** (userId, scene) 的 hash tag，例如 {rf:1207} */
+  public String tag(String userId, String scene) {
+    return tagOf(tagNo(userId, scene));
+  }
+
+  public static String tagOf(int tagNo) {
+    return TAG_PREFIX + tagNo + "}";
+  }
+
+  /**
+   * 从 key 里解析 tag 编号
+   *
+   * @return key 不带本布局的 tag（旧布局的 key）时返回 -1
+   */
+  public static int tagNoOfKey(String key) {
+    return parse(key, TAG_PREFIX);
+  }
+
+  /** 脏 tag 索引的分片数 */
+  public int dirtyShards() {
+    return Math.max(1, props.getPlayDailyAgg().getDirtyShards());
+  }
+
+  /** tag 登记在哪个索引分片 */
+  public int dirtyShardOf(int tagNo) {
+    return tagNo % dirtyShards();
+  }
+
+  /** 旧布局的分片数，0 表示没有旧 key 要排空 */
+  public int legacyShards() {
+    return Math.max(0, props.getPlayDailyAgg().getLegacyTagShards());
+  }
+
+  /** 旧布局下 (userId, scene) 的 tag，例如 {rf-7}；没有旧布局时返回 null */
+  public String legacyTag(String userId, String scene) {
+    int shards = legacyShards();
+    return shards == 0 ? null : legacyTagOf(Math.floorMod(hash(userId, scene), shards));
+  }
+
+  public static String legacyTagOf(int shard) {
+    return LEGACY_TAG_PREFIX + shard + "}";
+  }
+
+  /** 从 key 里解析旧布局的分片号，不是旧布局时返回 -1 */
+  public static int legacyShardOfKey(String key) {
+    return parse(key, LEGACY_TAG_PREFIX);
+  }
+
+  private static int hash(String userId, String scene) {
+    return (scene + ":" + userId).hashCode();
+  }
+
+  // 只看第一个 '{'：tag 在 userId / scene 之前，后面的部分可以是任意字符
+  private static int parse(String key, String prefix) {
+    int start = key == null ? -1 : key.indexOf('{');
+    if (start < 0 || !key.startsWith(prefix, start)) {
+      return -1;
+    }
+    int end = key.indexOf('}', start);
+    if (end < 0) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(key.substring(start + prefix.length(), end));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+}
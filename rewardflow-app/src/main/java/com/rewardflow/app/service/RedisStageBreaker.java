@@ -0,0 +1,169 @@
+package com.rewardflow.app.service;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.Tracer;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRule;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRuleManager;
+import com.alibaba.csp.sentinel.slots.block.degrade.circuitbreaker.CircuitBreaker;
+import com.alibaba.csp.sentinel.slots.block.degrade.circuitbreaker.EventObserverRegistry;
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.exception.BizException;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 上报链路上各个 Redis 阶段的熔断（Sentinel 降级规则），配置见 {@link RewardFlowProperties.RedisBreaker}
+ *
+ * <p>Redis 变慢（而不是挂掉）时每个请求都要等满 Lettuce 命令超时才走回退，延迟被成倍放大。
+ * 每个阶段一个资源（rf:redis:&lt;stage&gt;），慢调用比例或异常比例超限后打开：打开期间不访问 Redis，直接走调用方给的降级逻辑
+ * （聚合走 MySQL、去重 / 分钟级风控跳过）；recoverySeconds 后放一个探测请求，成功则关闭。
+ * 业务拒绝（BizException）不计入异常比例
+ */
+@Component
+public class RedisStageBreaker {
+
+  private static final Logger log = LoggerFactory.getLogger(RedisStageBreaker.class);
+
+  /** 融合脚本（去重 + 风控 + 路由 + 记账） */
+  public static final String INGEST = "ingest";
+  /** 日聚合：记账 / 读总量 / 热点路由 */
+  public static final String AGG = "agg";
+  public static final String DEDUP = "dedup";
+  public static final String RISK = "risk";
+
+  private static final List<String> STAGES = List.of(INGEST, AGG, DEDUP, RISK);
+  private static final String RESOURCE_PREFIX = "rf:redis:";
+
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final Map<String, CircuitBreaker.State> states = new ConcurrentHashMap<>();
+
+  public RedisStageBreaker(RewardFlowProperties props, RewardFlowMetrics metrics) {
+    this.props = props;
+    this.metrics = metrics;
+  }
+
+  @PostConstruct
+  public void init() {
+    RewardFlowProperties.RedisBreaker cfg = props.getRedisBreaker();
+    if (!cfg.isEnabled()) {
+      log.info("redis stage breaker disabled");
+      return;
+    }
+    List<DegradeRule> rules = new ArrayList<>(STAGES.size() * 2);
+    for (String stage : STAGES) {
+      rules.add(new DegradeRule(RESOURCE_PREFIX + stage)
+          .setGrade(RuleConstant.DEGRADE_GRADE_RT)
+          .setCount(cfg.getSlowCallMs())
+          .setSlowRatioThreshold(cfg.getSlowRatioPercent() / 100.0)
+          .setMinRequestAmount(cfg.getMinRequests())
+          .setStatIntervalMs(cfg.getStatIntervalMs())
+          .setTimeWindow(cfg.getRecoverySeconds()));
+      rules.add(new DegradeRule(RESOURCE_PREFIX + stage)
+          .setGrade(RuleConstant.DEGRADE_GRADE_EXCEPTION_RATIO)
+          .setCount(cfg.getErrorRatioPercent() / 100.0)
+          .setMinRequestAmount(cfg.getMinRequests())
+          .setStatIntervalMs(cfg.getStatIntervalMs())
+          .setTimeWindow(cfg.getRecoverySeconds()));
+      states.put(stage, CircuitBreaker.State.CLOSED);
+      metrics.setRedisBreakerState(stage, 0);
+    }
+    DegradeRuleManager.loadRules(rules);
+
+    EventObserverRegistry.getInstance().addStateChangeObserver("rewardflow-redis-stage", (prev, next, rule, value) -> {
+      String resource = rule.getResource();
+      if (resource == null || !resource.startsWith(RESOURCE_PREFIX)) {
+        return;
+      }
+      String stage = resource.substring(RESOURCE_PREFIX.length());
+      states.put(stage, next);
+      metrics.setRedisBreakerState(stage, stateCode(next));
+      metrics.incRedisBreakerTransition(stage, next.name().toLowerCase());
+      if (next == CircuitBreaker.State.OPEN) {
+        log.warn("redis stage breaker open: stage={}, from={}, grade={}, value={}, recoverySeconds={}",
+            stage, prev, rule.getGrade() == RuleConstant.DEGRADE_GRADE_RT ? "slow_ratio" : "error_ratio",
+            value, rule.getTimeWindow());
+      } else {
+        log.info("redis stage breaker {}: stage={}, from={}", next.name().toLowerCase(), stage, prev);
+      }
+    });
+    log.info("redis stage breaker rules loaded: stages={}, slowCallMs={}, slowRatioPercent={}, errorRatioPercent={}, minRequests={}, statIntervalMs={}, recoverySeconds={}",
+        STAGES, cfg.getSlowCallMs(), cfg.getSlowRatioPercent(), cfg.getErrorRatioPercent(), cfg.getMinRequests(),
+        cfg.getStatIntervalMs(), cfg.getRecoverySeconds());
+  }
+
+  /**
+   * 在熔断器保护下执行一个 Redis 阶段
+   *
+   * @param whenOpen 熔断打开时的降级逻辑（不访问 Redis）
+   */
+  public <T> T call(String stage, Supplier<T> body, Supplier<T> whenOpen) {
+    if (!props.getRedisBreaker().isEnabled()) {
+      return body.get();
+    }
+    Entry entry;
+    try {
+      entry = SphU.entry(RESOURCE_PREFIX + stage);
+    } catch (BlockException be) {
+      metrics.incRedisBreakerRejected(stage);
+      return whenOpen.get();
+    }
+    try {
+      return body.get();
+    } catch (RuntimeException ex) {
+      if (!(ex instanceof BizException)) {
+        Tracer.traceEntry(ex, entry);
+      }
+      throw ex;
+    } finally {
+      entry.exit();
+    }
+  }
+
+  public void run(String stage, Runnable body, Runnable whenOpen) {
+    call(stage, () -> {
+      body.run();
+      return null;
+    }, () -> {
+      whenOpen.run();
+      return null;
+    });
+  }
+
+  /**
+   * 熔断器是否处于打开状态（half-open 时返回 false，让探测请求过去）；
+   * 给不方便包一层的只读判断用，例如打开期间跳过热点计数
+   */
+  public boolean isOpen(String stage) {
+    return props.getRedisBreaker().isEnabled() && states.get(stage) == CircuitBreaker.State.OPEN;
+  }
+
+  /** 熔断打开时抛出，调用方按 Redis 失败处理（不带堆栈） */
+  public static class OpenException extends RuntimeException {
+    public OpenException(String stage) {
+      super("redis breaker open: " + stage, null, false, false);
+    }
+  }
+
+  private static int stateCode(CircuitBreaker.State s) {
+    switch (s) {
+      case OPEN:
+        return 1;
+      case HALF_OPEN:
+        return 2;
+      default:
+        return 0;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.springframework.stereotype.Component;
+
+/**
+ * 同一个 key（userId + scene + bizDate）在本实例上的并发上报合并，配置见 {@link RewardFlowProperties.ReportCoalesce}
+ *
+ * <p>每个 key 同一时刻最多一个“在跑”的聚合 + 预览，外加一个“下一趟”：
+ * <ul>
+ *   <li>{@link #tryLead}：key 空闲时直接占住，调用方照常走单条路径（明细插入与聚合同一个事务），完成后 {@link Lease#release()}</li>
+ *   <li>key 忙时调用方先把自己的明细提交，再 {@link #join} 进下一趟；下一趟的第一个成员等当前这一趟结束后
+ *       代表所有成员执行一次聚合 + 预览，其余成员直接拿结果。成员必须在明细提交之后加入，
+ *       才能保证这一趟的 range_sum 一定能看到它的明细</li>
+ *   <li>下一趟成员数达到 maxMembers 时，后来者不再合并，自己聚合</li>
+ * </ul>
+ * 一个 key 的 N 个并发上报最多排成两趟，行锁只拿两次
+ */
+@Component
+public class ReportCoalescer {
+
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+
+  public ReportCoalescer(RewardFlowProperties props, RewardFlowMetrics metrics) {
+    this.props = props;
+    this.metrics = metrics;
+  }
+
+  public boolean enabled() {
+    return props.getReportCoalesce().isEnabled();
+  }
+
+  /** key 空闲时占住并返回 Lease，忙时返回 null（调用方改走 {@link #join}） */
+  public Lease tryLead(String key) {
+    while (true) {
+      Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+      synchronized (slot) {
+        if (slot.dead) {
+          continue;
+        }
+        if (slot.running != null || slot.next != null) {
+          return null;
+        }
+        slot.running = new CompletableFuture<>();
+      }
+      metrics.incReportCoalesce("lead");
+      return new Lease(key, slot);
+    }
+  }
+
+  /**
+   * 加入 key 的下一趟，返回这一趟的结果（所有成员共享）
+   *
+   * @param member 本次上报（明细已提交）
+   * @param body   代表这一趟的全部成员执行聚合 + 预览；抛出的异常会传给这一趟的每个成员
+   */
+  public <E, R> R join(String key, E member, Function<List<E>, R> body) {
+    while (true) {
+      Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+      CompletableFuture<Void> ahead = null;
+      Flight flight = null;
+      Flight joined = null;
+      boolean bypass = false;
+      synchronized (slot) {
+        if (slot.dead) {
+          continue;
+        }
+        if (slot.running == null && slot.next == null) {
+          // 前一趟刚好结束：自己一个人跑
+          slot.running = new CompletableFuture<>();
+        } else if (slot.next == null) {
+          slot.next = new Flight();
+          slot.next.members.add(member);
+          ahead = slot.running;
+          flight = slot.next;
+        } else if (slot.next.members.size() < Math.max(2, props.getReportCoalesce().getMaxMembers())) {
+          slot.next.members.add(member);
+          joined = slot.next;
+        } else {
+          bypass = true;
+        }
+      }
+      // 等结果 / 自己聚合都在锁外：release() 要拿同一把锁
+      if (joined != null) {
+        metrics.incReportCoalesce("joined");
+        return awaitResult(joined);
+      }
+      if (bypass) {
+        metrics.incReportCoalesce("bypass");
+        return body.apply(List.of(member));
+      }
+      if (flight == null) {
+        metrics.incReportCoalesce("solo");
+        return runAndRelease(key, slot, List.of(member), body, null);
+      }
+      metrics.incReportCoalesce("leader");
+      // 当前这一趟结束（release 一定会完成它）后接手
+      ahead.join();
+      List<E> members;
+      synchronized (slot) {
+        slot.running = new CompletableFuture<>();
+        members = new ArrayList<>(castMembers(flight.members));
+        slot.next = null;
+      }
+      metrics.recordReportCoalesceSize(members.size());
+      return runAndRelease(key, slot, members, body, flight);
+    }
+  }
+
+  private <E, R> R runAndRelease(String key, Slot slot, List<E> members, Function<List<E>, R> body, Flight flight) {
+    try {
+      R r = body.apply(members);
+      if (flight != null) {
+        flight.result.complete(r);
+      }
+      return r;
+    } catch (RuntimeException | Error ex) {
+      if (flight != null) {
+        flight.result.completeExceptionally(ex);
+      }
+      throw ex;
+    } finally {
+      release(key, slot);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <R> R awaitResult(Flight flight) {
+    try {
+      return (R) flight.result.join();
+    } catch (CompletionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      if (cause instanceof Error err) {
+        throw err;
+      }
+      throw ex;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> List<E> castMembers(List<Object> members) {
+    return (List<E>) (List<?>) members;
+  }
+
+  private void release(String key, Slot slot) {
+    CompletableFuture<Void> done;
+    synchronized (slot) {
+      done = slot.running;
+      slot.running = null;
+      if (slot.next == null) {
+        slot.dead = true;
+        slots.remove(key, slot);
+      }
+    }
+    if (done != null) {
+      done.complete(null);
+    }
+  }
+
+  public final class Lease {
+    private final String key;
+    private final Slot slot;
+
+    private Lease(String key, Slot slot) {
+      this.key = key;
+      this.slot = slot;
+    }
+
+    public void release() {
+      ReportCoalescer.this.release(key, slot);
+    }
+  }
+
+  private static final class Slot {
+    /** 在跑的这一趟，结束时完成；null 表示没有 */
+    CompletableFuture<Void> running;
+    /** 等待中的下一趟 */
+    Flight next;
+    /** 已从 slots 移除，拿到它的线程要重新 computeIfAbsent */
+    boolean dead;
+  }
+
+  private static final class Flight {
+    final List<Object> members = new ArrayList<>();
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+  }
+}
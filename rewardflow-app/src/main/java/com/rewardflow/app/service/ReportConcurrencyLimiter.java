@@ -0,0 +1,155 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.exception.OverloadException;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 单条上报入口的自适应并发限制（gradient 算法，配置见 {@link RewardFlowProperties.ReportLimiter}）
+ *
+ * <p>MySQL / Redis 变慢时请求越堆越多，直到线程和连接池耗尽、所有调用方一起超时。这里按上报链路的实测耗时调整并发上限：
+ * <ul>
+ *   <li>每个窗口算一次平均耗时 shortRtt，longRtt 是它的指数平均（基线）</li>
+ *   <li>gradient = clamp(tolerance x longRtt / shortRtt, 0.5, 1)；newLimit = limit x gradient + sqrt(limit)，
+ *       按 smoothing 靠拢，限制在 [minLimit, maxLimit]。耗时上涨时乘性收缩，平稳时每个窗口加 sqrt(limit) 试探</li>
+ *   <li>窗口内最大并发不到 limit 的一半时不涨（流量本身不大，耗时说明不了容量）；负载退去后 longRtt 远大于 shortRtt 时让基线回落</li>
+ * </ul>
+ * 超过上限的请求不进入业务逻辑，直接抛 {@link OverloadException}（5031，带 Retry-After）
+ */
+@Component
+public class ReportConcurrencyLimiter {
+
+  private static final Logger log = LoggerFactory.getLogger(ReportConcurrencyLimiter.class);
+
+  public static final int CODE_OVERLOADED = 5031;
+
+  private static final Permit NOOP = new Permit(null, 0L);
+
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+
+  private final AtomicInteger inflight = new AtomicInteger();
+  private final AtomicInteger windowMaxInflight = new AtomicInteger();
+  private final LongAdder windowRttNs = new LongAdder();
+  private final LongAdder windowSamples = new LongAdder();
+
+  private volatile double limit;
+  private volatile long windowStartNs = System.nanoTime();
+  private double longRttNs;
+
+  public ReportConcurrencyLimiter(RewardFlowProperties props, RewardFlowMetrics metrics) {
+    this.props = props;
+    this.metrics = metrics;
+    RewardFlowProperties.ReportLimiter cfg = props.getReportLimiter();
+    this.limit = clamp(cfg.getInitialLimit(), cfg);
+    metrics.bindReportLimiter(this::currentLimit, inflight::get);
+  }
+
+  /**
+   * 占一个并发名额，请求结束后必须 {@link Permit#release()}
+   *
+   * @throws OverloadException 并发已达上限
+   */
+  public Permit acquire() {
+    RewardFlowProperties.ReportLimiter cfg = props.getReportLimiter();
+    if (!cfg.isEnabled()) {
+      return NOOP;
+    }
+    int max = currentLimit();
+    int cur;
+    do {
+      cur = inflight.get();
+      if (cur >= max) {
+        metrics.incReportShed();
+        throw new OverloadException(CODE_OVERLOADED,
+            "server busy, retry after " + cfg.getRetryAfterMs() + "ms", cfg.getRetryAfterMs());
+      }
+    } while (!inflight.compareAndSet(cur, cur + 1));
+    windowMaxInflight.accumulateAndGet(cur + 1, Math::max);
+    return new Permit(this, System.nanoTime());
+  }
+
+  public int currentLimit() {
+    return (int) limit;
+  }
+
+  private void release(long startNs) {
+    inflight.decrementAndGet();
+    long now = System.nanoTime();
+    windowRttNs.add(now - startNs);
+    windowSamples.increment();
+    RewardFlowProperties.ReportLimiter cfg = props.getReportLimiter();
+    if (now - windowStartNs >= TimeUnit.MILLISECONDS.toNanos(cfg.getWindowMs())) {
+      update(now, cfg);
+    }
+  }
+
+  private synchronized void update(long now, RewardFlowProperties.ReportLimiter cfg) {
+    if (now - windowStartNs < TimeUnit.MILLISECONDS.toNanos(cfg.getWindowMs())) {
+      return;
+    }
+    long n = windowSamples.sum();
+    if (n < cfg.getMinWindowSamples()) {
+      // 样本不够就把窗口延长，不调整
+      return;
+    }
+    windowStartNs = now;
+    n = windowSamples.sumThenReset();
+    long sumNs = windowRttNs.sumThenReset();
+    int maxInflight = windowMaxInflight.getAndSet(inflight.get());
+
+    double shortRtt = Math.max(1.0, sumNs / (double) n);
+    if (longRttNs <= 0) {
+      longRttNs = shortRtt;
+    } else {
+      longRttNs += (shortRtt - longRttNs) / cfg.getLongWindows();
+    }
+    if (longRttNs > shortRtt * 2) {
+      longRttNs *= 0.95;
+    }
+
+    double prev = limit;
+    double gradient = Math.max(0.5, Math.min(1.0, cfg.getRttTolerancePercent() / 100.0 * longRttNs / shortRtt));
+    double next = prev * gradient + Math.sqrt(prev);
+    next = prev + (next - prev) * cfg.getSmoothingPercent() / 100.0;
+    if (next > prev && maxInflight < prev / 2) {
+      next = prev;
+    }
+    next = clamp(next, cfg);
+    limit = next;
+    if ((int) next != (int) prev) {
+      log.debug("report concurrency limit adjusted: from={}, to={}, shortRttMs={}, longRttMs={}, samples={}, maxInflight={}",
+          (int) prev, (int) next, String.format("%.1f", shortRtt / 1e6), String.format("%.1f", longRttNs / 1e6),
+          n, maxInflight);
+    }
+  }
+
+  private static double clamp(double v, RewardFlowProperties.ReportLimiter cfg) {
+    int lo = Math.max(1, cfg.getMinLimit());
+    int hi = Math.max(lo, cfg.getMaxLimit());
+    return Math.max(lo, Math.min(hi, v));
+  }
+
+  /** 一个并发名额 */
+  public static final class Permit {
+    private final ReportConcurrencyLimiter owner;
+    private final long startNs;
+
+    private Permit(ReportConcurrencyLimiter owner, long startNs) {
+      this.owner = owner;
+      this.startNs = startNs;
+    }
+
+    public void release() {
+      if (owner != null) {
+        owner.release(startNs);
+      }
+    }
+  }
+}
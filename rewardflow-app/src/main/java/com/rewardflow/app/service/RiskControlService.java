@@ -2,10 +2,15 @@ package com.rewardflow.app.service;
 
 import com.rewardflow.app.config.RewardFlowProperties;
 import com.rewardflow.app.exception.BizException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
@@ -28,23 +33,33 @@ public class RiskControlService {
   private final StringRedisTemplate redis;
   private final RiskEventService riskEventService;
   private final RewardFlowProperties props;
+  private final RedisKeyLayout keyLayout;
+  private final RedisStageBreaker breaker;
 
   public RiskControlService(StringRedisTemplate redis,
                             RiskEventService riskEventService,
-                            RewardFlowProperties props) {
+                            RewardFlowProperties props,
+                            RedisKeyLayout keyLayout,
+                            RedisStageBreaker breaker) {
     this.redis = redis;
     this.riskEventService = riskEventService;
     this.props = props;
+    this.keyLayout = keyLayout;
+    this.breaker = breaker;
   }
 
   /**
-   * 使用 Redis INCR/INCRBY 做“按分钟分桶”的限制,key过期很快
+   * 使用 Redis INCR/INCRBY 做“按分钟分桶”的限制,key过期很快；Redis 熔断打开时跳过（不限流）
    */
   public void checkMinuteLimits(String userId, String scene, int duration, long nowMs) {
+    breaker.run(RedisStageBreaker.RISK, () -> doCheckMinuteLimits(userId, scene, duration, nowMs), () -> { });
+  }
+
+  private void doCheckMinuteLimits(String userId, String scene, int duration, long nowMs) {
     RewardFlowProperties.Risk risk = props.getRisk();
     long minute = nowMs / 60_000L;
-    String cntKey = CNT_PREFIX + scene + ":" + userId + ":" + minute;
-    String durKey = DUR_PREFIX + scene + ":" + userId + ":" + minute;
+    String cntKey = cntKey(userId, scene, minute);
+    String durKey = durKey(userId, scene, minute);
 
     // 记数限制
     Long cnt = redis.opsForValue().increment(cntKey);
@@ -79,4 +94,123 @@ public class RiskControlService {
       throw new BizException(4292, "too much duration per minute");
     }
   }
+
+  /**
+   * 批量版本的分钟级限制：同一个 (scene, userId) 的多个分段合并成一次 INCRBY，所有用户在一个 pipeline 里发出
+   *
+   * <p>按请求顺序逐个判定，判定口径与 {@link #checkMinuteLimits} 相同；
+   * 区别是被计数限制拒绝的分段时长也已计入 Redis 计数（只会让限制更严格，不会放过刷量）
+   *
+   * @return 与 items 一一对应的结果码，0 表示通过，否则为单条上报同样的 BizException code（4291/4292）；
+   *     Redis 熔断打开时全部为 0
+   */
+  public int[] checkMinuteLimitsBatch(List<MinuteUsage> items, long nowMs) {
+    int[] codes = new int[items == null ? 0 : items.size()];
+    if (codes.length == 0) {
+      return codes;
+    }
+    return breaker.call(RedisStageBreaker.RISK, () -> doCheckMinuteLimitsBatch(items, nowMs, codes), () -> codes);
+  }
+
+  private int[] doCheckMinuteLimitsBatch(List<MinuteUsage> items, long nowMs, int[] codes) {
+    RewardFlowProperties.Risk risk = props.getRisk();
+    long minute = nowMs / 60_000L;
+
+    // scene:userId -> 分段下标（保持请求顺序）
+    Map<String, List<Integer>> byUser = new LinkedHashMap<>();
+    for (int i = 0; i < items.size(); i++) {
+      MinuteUsage it = items.get(i);
+      byUser.computeIfAbsent(it.scene + ":" + it.userId, k -> new ArrayList<>()).add(i);
+    }
+    List<String> groupKeys = new ArrayList<>(byUser.keySet());
+
+    List<Object> raw = redis.executePipelined((RedisCallback<Object>) connection -> {
+      for (String gk : groupKeys) {
+        List<Integer> idx = byUser.get(gk);
+        long sum = 0;
+        for (int i : idx) {
+          sum += items.get(i).duration;
+        }
+        MinuteUsage first = items.get(idx.get(0));
+        byte[] cntKey = cntKey(first.userId, first.scene, minute).getBytes(StandardCharsets.UTF_8);
+        byte[] durKey = durKey(first.userId, first.scene, minute).getBytes(StandardCharsets.UTF_8);
+        connection.stringCommands().incrBy(cntKey, idx.size());
+        connection.keyCommands().expire(cntKey, 120);
+        connection.stringCommands().incrBy(durKey, sum);
+        connection.keyCommands().expire(durKey, 120);
+      }
+      return null;
+    });
+
+    for (int g = 0; g < groupKeys.size(); g++) {
+      List<Integer> idx = byUser.get(groupKeys.get(g));
+      long groupSum = 0;
+      for (int i : idx) {
+        groupSum += items.get(i).duration;
+      }
+      long cntAfter = toLong(raw, g * 4);
+      long sumAfter = toLong(raw, g * 4 + 2);
+      long cnt = cntAfter - idx.size();
+      long running = sumAfter - groupSum;
+      int countRejected = 0;
+      int durationRejected = 0;
+      for (int i : idx) {
+        cnt++;
+        if (cnt > risk.getMaxReportsPerMinute()) {
+          codes[i] = 4291;
+          countRejected++;
+          continue;
+        }
+        running += items.get(i).duration;
+        if (running > risk.getMaxDurationPerMinute()) {
+          codes[i] = 4292;
+          durationRejected++;
+        }
+      }
+
+      if (countRejected > 0 || durationRejected > 0) {
+        MinuteUsage first = items.get(idx.get(0));
+        riskEventService.log(
+            first.userId,
+            first.scene,
+            null,
+            "RATE_LIMIT",
+            Map.of("kind", "batch", "count", cntAfter, "sum", sumAfter,
+                "countRejected", countRejected, "durationRejected", durationRejected));
+        log.warn("risk limit exceeded: userId={}, scene={}, kind=batch, minute={}, count={}, sum={}, countRejected={}, durationRejected={}",
+            first.userId, first.scene, minute, cntAfter, sumAfter, countRejected, durationRejected);
+      }
+    }
+    return codes;
+  }
+
+  // rf:risk:cnt:{rf:1207}:audio_play:u1:28284320
+  String cntKey(String userId, String scene, long minute) {
+    return CNT_PREFIX + keyLayout.tag(userId, scene) + ":" + scene + ":" + userId + ":" + minute;
+  }
+
+  String durKey(String userId, String scene, long minute) {
+    return DUR_PREFIX + keyLayout.tag(userId, scene) + ":" + scene + ":" + userId + ":" + minute;
+  }
+
+  private static long toLong(List<Object> raw, int i) {
+    Object v = raw != null && i < raw.size() ? raw.get(i) : null;
+    if (v instanceof Number n) {
+      return n.longValue();
+    }
+    return 0L;
+  }
+
+  /** 批量限流的输入：一个分段的 (userId, scene, duration) */
+  public static class MinuteUsage {
+    private final String userId;
+    private final String scene;
+    private final int duration;
+
+    public MinuteUsage(String userId, String scene, int duration) {
+      this.userId = userId;
+      this.scene = scene;
+      this.duration = duration;
+    }
+  }
 }
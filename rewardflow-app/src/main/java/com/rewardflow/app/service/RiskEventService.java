@@ -1,22 +1,22 @@
 package com.rewardflow.app.service;
 
 import com.rewardflow.infra.mongo.entity.RiskEvent;
-import com.rewardflow.infra.mongo.repo.RiskEventRepository;
+import com.rewardflow.infra.mongo.writer.AsyncMongoBulkWriter;
 import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-/** Best-effort 风控相关日志写入 mongodb */
+/** Best-effort 风控相关日志写入 mongodb（异步批量，见 AsyncMongoBulkWriter） */
 @Service
 public class RiskEventService {
 
   private static final Logger log = LoggerFactory.getLogger(RiskEventService.class);
 
-  private final RiskEventRepository repo;
+  private final AsyncMongoBulkWriter mongoWriter;
 
-  public RiskEventService(RiskEventRepository repo) {
-    this.repo = repo;
+  public RiskEventService(AsyncMongoBulkWriter mongoWriter) {
+    this.mongoWriter = mongoWriter;
   }
 
   public void log(String userId, String scene, String traceId, String type, Map<String, Object> detail) {
@@ -27,7 +27,7 @@ public class RiskEventService {
       e.setTraceId(traceId);
       e.setType(type);
       e.setDetail(detail);
-      repo.save(e);
+      mongoWriter.submit(e);
     } catch (Exception ex) {
       // Never fail business by audit
       log.debug("risk event save failed", ex);
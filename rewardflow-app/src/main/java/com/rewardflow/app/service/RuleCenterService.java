@@ -5,6 +5,7 @@ import com.alibaba.nacos.api.config.ConfigService;
 import com.alibaba.nacos.api.config.listener.AbstractListener;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rewardflow.app.config.RuleCenterProperties;
+import com.rewardflow.domain.rule.CompiledRuleSet;
 import com.rewardflow.domain.rule.model.RuleCenterConfig;
 import jakarta.annotation.PostConstruct;
 import java.io.InputStream;
@@ -35,20 +36,23 @@ public class RuleCenterService {
   private final RuleSnapshotService ruleSnapshotService;
   private final ObjectMapper objectMapper;
   private final ResourceLoader resourceLoader;
-  // 并发安全的替换配置缓存
-  private final AtomicReference<RuleCenterConfig> cache = new AtomicReference<>();
+  private final JexlGrayCompiler grayCompiler;
+  // 并发安全的替换配置缓存：保存编译后的规则，原始配置挂在 CompiledRuleSet 上
+  private final AtomicReference<CompiledRuleSet> cache = new AtomicReference<>();
 
   // nacos 配置服务客户端
   private volatile ConfigService configService;
 
   public RuleCenterService(RuleCenterProperties props, ObjectMapper objectMapper, ResourceLoader resourceLoader,
       FeatureCenterService featureCenterService,
-      RuleSnapshotService ruleSnapshotService) {
+      RuleSnapshotService ruleSnapshotService,
+      JexlGrayCompiler grayCompiler) {
     this.props = props;
     this.objectMapper = objectMapper;
     this.resourceLoader = resourceLoader;
     this.featureCenterService = featureCenterService;
     this.ruleSnapshotService = ruleSnapshotService;
+    this.grayCompiler = grayCompiler;
   }
 
   @PostConstruct
@@ -57,11 +61,17 @@ public class RuleCenterService {
   }
 
   public RuleCenterConfig currentConfig() {
-    RuleCenterConfig cfg = cache.get();
-    if (cfg == null) {
+    return currentRules().getSource();
+  }
+
+  /** 当前生效的编译后规则（上报热路径使用） */
+  public CompiledRuleSet currentRules() {
+    CompiledRuleSet rules = cache.get();
+    if (rules == null) {
       // 不会发生
-      cfg = loadFallback();
-      cache.set(cfg);
+      RuleCenterConfig cfg = loadFallback();
+      rules = CompiledRuleSet.compile(cfg, grayCompiler, null, System.currentTimeMillis());
+      cache.set(rules);
       // 规则快照 (best-effort)
       Boolean enabled = featureCenterService.currentConfig().getRuleSnapshotEnabled();
       if (enabled != null && enabled) {
@@ -73,13 +83,13 @@ public class RuleCenterService {
         }
       }
     }
-    return cfg;
+    return rules;
   }
 
   private void initInternal() {
     // Always load fallback first so the service is usable even when Nacos is down
     RuleCenterConfig fallback = loadFallback();
-    cache.set(fallback);
+    cache.set(CompiledRuleSet.compile(fallback, grayCompiler, cache.get(), System.currentTimeMillis()));
 
     // 如果没启用 Nacos 直接用 fullback
     if (!props.isEnabled()) {
@@ -131,8 +141,9 @@ public class RuleCenterService {
         log.warn("rule-center config invalid,ignoring update,reason={}", err);
         return;
       }
-      
-      cache.set(cfg);
+
+      // 在监听线程里编译好再整体替换，读者要么看到旧规则要么看到新规则
+      cache.set(CompiledRuleSet.compile(cfg, grayCompiler, cache.get(), System.currentTimeMillis()));
       // 规则快照 (best-effort)
       Boolean enabled = featureCenterService.currentConfig().getRuleSnapshotEnabled();
       if (enabled != null && enabled) {
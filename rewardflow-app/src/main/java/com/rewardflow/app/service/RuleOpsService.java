@@ -7,10 +7,12 @@ import com.rewardflow.app.config.AwardProperties;
 import com.rewardflow.app.config.RewardFlowProperties;
 import com.rewardflow.app.exception.BizException;
 import com.rewardflow.domain.rule.AwardCalculator;
+import com.rewardflow.domain.rule.AwardedStages;
+import com.rewardflow.domain.rule.CompiledRuleSet;
 import com.rewardflow.domain.rule.model.AwardPlan;
-import com.rewardflow.domain.rule.model.RuleCenterConfig;
 import com.rewardflow.infra.mongo.entity.RuleSimulationLog;
 import com.rewardflow.infra.mongo.repo.RuleSimulationLogRepository;
+import com.rewardflow.infra.mongo.writer.AsyncMongoBulkWriter;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -31,6 +33,7 @@ public class RuleOpsService {
   private final RewardFlowProperties rewardFlowProperties;
   private final FeatureCenterService featureCenterService;
   private final RuleSimulationLogRepository simulationRepo;
+  private final AsyncMongoBulkWriter mongoWriter;
 
   private final AwardCalculator awardCalculator = new AwardCalculator();
 
@@ -38,12 +41,14 @@ public class RuleOpsService {
                         AwardProperties awardProperties,
                         RewardFlowProperties rewardFlowProperties,
                         FeatureCenterService featureCenterService,
-                        RuleSimulationLogRepository simulationRepo) {
+                        RuleSimulationLogRepository simulationRepo,
+                        AsyncMongoBulkWriter mongoWriter) {
     this.ruleSelectionService = ruleSelectionService;
     this.awardProperties = awardProperties;
     this.rewardFlowProperties = rewardFlowProperties;
     this.featureCenterService = featureCenterService;
     this.simulationRepo = simulationRepo;
+    this.mongoWriter = mongoWriter;
   }
 
   public RuleSimulateResponse simulate(RuleSimulateRequest req) {
@@ -58,7 +63,7 @@ public class RuleOpsService {
         : req.getBizDate();
 
     RuleSelectionService.RuleSelectResult sel = ruleSelectionService.select(req.getScene(), req.getUserId());
-    RuleCenterConfig.RuleVersion rv = sel.getRuleVersion();
+    CompiledRuleSet.CompiledRuleVersion rv = sel.getCompiledRuleVersion();
     if (rv == null) {
       throw new BizException(4041, "rule version not found: " + sel.getHitRuleVersion());
     }
@@ -66,7 +71,7 @@ public class RuleOpsService {
     List<AwardPlan> plans = awardCalculator.calculate(
         req.getTotalDuration(),
         rv,
-        Map.of(),
+        AwardedStages.none(),
         awardProperties.getPrizeCode()
     );
 
@@ -109,7 +114,7 @@ public class RuleOpsService {
       summary.put("stages", items.stream().map(PlayReportResponse.RewardPlanItem::getStage).toList());
       summary.put("prizeCodes", items.stream().map(PlayReportResponse.RewardPlanItem::getPrizeCode).distinct().toList());
       log.setResult(summary);
-      simulationRepo.save(log);
+      mongoWriter.submit(log);
     } catch (Exception ignore) {
     }
 
@@ -0,0 +1,359 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.config.RewardFlowProperties;
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import com.rewardflow.infra.mysql.entity.PlayDailyDelta;
+import com.rewardflow.infra.mysql.entity.PlayReportAggResult;
+import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
+import com.rewardflow.infra.mysql.mapper.PlayDurationReportMapper;
+import com.rewardflow.infra.mysql.mapper.UserPlayDailyMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 按用户分片的单机日聚合（aggStrategy=sharded），配置见 {@link RewardFlowProperties.ShardedAgg}
+ *
+ * <ul>
+ *   <li>每个实例按一致性哈希环（{@link UserShardRing}）负责一段用户，网关按同一个环粘滞路由；
+ *       打错实例的请求在入口被拒绝（421 + owner），不会落明细</li>
+ *   <li>状态在堆外表里（{@link OffHeapDailyTable}，每个 bizDate 一张），第一次碰到某个 key 时从 user_play_daily 读 base</li>
+ *   <li>每次记账在该 key 的条带锁里先把实际计入的分段追加到 mmap WAL（{@link DailyAggWal}），再改表；
+ *       水位口径与 MySQL upsert 聚合相同：syncTime 大于当前水位的分段计入并推进水位</li>
+ *   <li>{@link #checkpoint()} 定时把各 key 未落库的增量按批 upsert 回 user_play_daily（batchUpsertAddDelta，
+ *       与 upsertAddDelta 同口径），成功后删除 checkpoint 之前的 WAL 段</li>
+ *   <li>启动时重放 WAL：base 已经包含 checkpoint 过的增量和水位，同一个 key 的 WAL 记录按套用顺序、水位严格递增，
+ *       重放时水位挡掉已落库的记录，其余按原顺序逐条计入，所以重放是幂等的</li>
+ *   <li>记账在明细提交之后执行，没有回退；失败时把 key 记为待追平，下一次记账或 checkpoint 时
+ *       按水位从 play_duration_report 补齐（selectAggSince，与 MySQL range_sum 同口径），客户端重试命中幂等也不会丢增量</li>
+ * </ul>
+ * 只保留当天和前一天的表；更早的表在增量全部落库后丢弃
+ */
+@Component
+public class ShardedAggregationStore implements AggregationStore {
+
+  private static final Logger log = LoggerFactory.getLogger(ShardedAggregationStore.class);
+
+  static final String NAME = "sharded";
+
+  private final UserPlayDailyMapper dailyMapper;
+  private final PlayDurationReportMapper reportMapper;
+  private final RewardFlowProperties props;
+  private final RewardFlowMetrics metrics;
+  private final ConcurrentHashMap<LocalDate, OffHeapDailyTable> days = new ConcurrentHashMap<>();
+  // 记账（追加 WAL + 改表）拿读锁，checkpoint 切 WAL 段时拿写锁：切段之前追加的记录一定已经改进表里
+  private final ReentrantReadWriteLock rollLock = new ReentrantReadWriteLock();
+  // 记账失败、明细已提交但增量没进表的 key
+  private final Set<StaleKey> stale = ConcurrentHashMap.newKeySet();
+
+  private volatile UserShardRing ring;
+  private volatile DailyAggWal wal;
+
+  public ShardedAggregationStore(UserPlayDailyMapper dailyMapper, PlayDurationReportMapper reportMapper,
+                                 RewardFlowProperties props, RewardFlowMetrics metrics) {
+    this.dailyMapper = dailyMapper;
+    this.reportMapper = reportMapper;
+    this.props = props;
+    this.metrics = metrics;
+  }
+
+  @PostConstruct
+  public void init() {
+    RewardFlowProperties.ShardedAgg cfg = props.getShardedAgg();
+    if (!cfg.isEnabled()) {
+      return;
+    }
+    ring = new UserShardRing(cfg.getNodes(), cfg.getVirtualNodes());
+    if (!ring.isEmpty() && !cfg.getNodes().contains(cfg.getNodeId())) {
+      throw new IllegalStateException("rewardflow.sharded-agg.node-id must be one of nodes: " + cfg.getNodeId());
+    }
+    long startMs = System.currentTimeMillis();
+    DailyAggWal w = new DailyAggWal(Paths.get(cfg.getWalDir()), cfg.getWalSegmentBytes());
+    int replayed = w.replay(e -> {
+      OffHeapDailyTable table = tableFor(e.bizDate);
+      ensureLoaded(table, e.key, OffHeapDailyTable.userIdOf(e.key), OffHeapDailyTable.sceneOf(e.key), e.bizDate);
+      table.record(e.key, e.durations, e.syncTimes, e.recordAt, new Result(), null);
+    });
+    w.open();
+    wal = w;
+    metrics.bindShardedAgg(this::keys, this::offHeapBytes);
+    log.info("sharded agg ready: nodeId={}, nodes={}, walDir={}, replayed={}, keys={}, costMs={}",
+        cfg.getNodeId(), cfg.getNodes(), cfg.getWalDir(), replayed, keys(), System.currentTimeMillis() - startMs);
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public boolean available() {
+    return props.getShardedAgg().isEnabled() && wal != null;
+  }
+
+  @Override
+  public boolean transactional() {
+    return false;
+  }
+
+  /** 本实例是否负责该用户（没有配置 nodes 时负责所有用户） */
+  public boolean owns(String userId) {
+    UserShardRing r = ring;
+    return r == null || r.isEmpty() || props.getShardedAgg().getNodeId().equals(r.owner(userId));
+  }
+
+  /** 该用户的 owner；没有配置 nodes 时是本实例 */
+  public String ownerOf(String userId) {
+    UserShardRing r = ring;
+    String owner = r == null ? null : r.owner(userId);
+    return owner == null ? props.getShardedAgg().getNodeId() : owner;
+  }
+
+  @Override
+  public Result record(String userId, String scene, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    if (durations == null || syncTimes == null || durations.length != syncTimes.length) {
+      throw new IllegalArgumentException("durations/syncTimes length mismatch");
+    }
+    StaleKey sk = new StaleKey(userId, scene, bizDate);
+    if (stale.remove(sk)) {
+      // 本次明细已经提交，追平会把它一起补进来
+      return catchUp(sk);
+    }
+    try {
+      byte[] key = OffHeapDailyTable.key(scene, userId);
+      OffHeapDailyTable table = tableFor(bizDate);
+      ensureLoaded(table, key, userId, scene, bizDate);
+      return apply(table, key, bizDate, durations, syncTimes);
+    } catch (RuntimeException ex) {
+      stale.add(sk);
+      throw ex;
+    }
+  }
+
+  // 按水位从明细表补齐：SUM(duration) 作为一个分段、MAX(sync_time) 作为它的 syncTime 记入，之后水位挡掉重复
+  private Result catchUp(StaleKey sk) {
+    try {
+      byte[] key = OffHeapDailyTable.key(sk.scene, sk.userId);
+      OffHeapDailyTable table = tableFor(sk.bizDate);
+      ensureLoaded(table, key, sk.userId, sk.scene, sk.bizDate);
+      PlayReportAggResult agg = reportMapper.selectAggSince(sk.userId, sk.scene, sk.bizDate, table.lastSync(key));
+      Result res;
+      if (agg == null || agg.getMaxSyncTime() == null) {
+        res = apply(table, key, sk.bizDate, new int[0], new long[0]);
+      } else {
+        res = apply(table, key, sk.bizDate, new int[] {nz(agg.getDeltaDuration())}, new long[] {agg.getMaxSyncTime()});
+      }
+      metrics.incAggStore(NAME, "catch_up");
+      return res;
+    } catch (RuntimeException ex) {
+      stale.add(sk);
+      throw ex;
+    }
+  }
+
+  private Result apply(OffHeapDailyTable table, byte[] key, LocalDate bizDate, int[] durations, long[] syncTimes) {
+    DailyAggWal w = wal;
+    if (w == null) {
+      throw new IllegalStateException("sharded agg not enabled");
+    }
+    long nowMs = System.currentTimeMillis();
+    Result res = new Result();
+    rollLock.readLock().lock();
+    try {
+      // 只记实际计入的分段，并且在该 key 的条带锁里写 WAL：同一个 key 的 WAL 顺序就是套用顺序，
+      // 重放时每一段都高于前一段的水位，结果与在线一致
+      table.record(key, durations, syncTimes, nowMs, res,
+          (applied, appliedSyncTimes) -> w.append(bizDate, key, applied, appliedSyncTimes, nowMs));
+    } finally {
+      rollLock.readLock().unlock();
+    }
+    return res;
+  }
+
+  @Override
+  public Result readTotal(String userId, String scene, LocalDate bizDate) {
+    byte[] key = OffHeapDailyTable.key(scene, userId);
+    OffHeapDailyTable table = tableFor(bizDate);
+    if (!table.contains(key)) {
+      UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+      if (daily == null) {
+        return null;
+      }
+      table.insertIfAbsent(key, nz(daily.getTotalDuration()), nzl(daily.getLastSyncTime()));
+    }
+    Result res = new Result();
+    res.totalDuration = Math.max(0, table.total(key));
+    return res;
+  }
+
+  /**
+   * 先追平待追平的 key，再把各 key 未落库的增量按批 upsert 回 user_play_daily；全部成功后删除切段之前的 WAL
+   */
+  public void checkpoint() {
+    DailyAggWal w = wal;
+    if (w == null) {
+      return;
+    }
+    for (StaleKey sk : stale) {
+      if (!stale.remove(sk)) {
+        continue;
+      }
+      try {
+        catchUp(sk);
+      } catch (Exception ex) {
+        log.warn("sharded agg catch-up failed: userId={}, scene={}, bizDate={}, err={}",
+            sk.userId, sk.scene, sk.bizDate, ex.toString());
+      }
+    }
+    long startNs = System.nanoTime();
+    long mark;
+    rollLock.writeLock().lock();
+    try {
+      mark = w.roll();
+    } finally {
+      rollLock.writeLock().unlock();
+    }
+
+    int batchSize = props.getShardedAgg().getCheckpointBatchSize();
+    int rows = 0;
+    boolean allOk = true;
+    for (Map.Entry<LocalDate, OffHeapDailyTable> day : days.entrySet()) {
+      List<OffHeapDailyTable.Pending> pending = day.getValue().pending();
+      for (int from = 0; from < pending.size(); from += batchSize) {
+        List<OffHeapDailyTable.Pending> batch = pending.subList(from, Math.min(pending.size(), from + batchSize));
+        List<PlayDailyDelta> deltas = new ArrayList<>(batch.size());
+        for (OffHeapDailyTable.Pending p : batch) {
+          PlayDailyDelta d = new PlayDailyDelta();
+          d.setUserId(p.userId());
+          d.setBizScene(p.scene());
+          d.setBizDate(day.getKey());
+          d.setDeltaDuration(p.delta);
+          d.setMaxSyncTime(p.maxSyncTime);
+          deltas.add(d);
+        }
+        try {
+          dailyMapper.batchUpsertAddDelta(deltas);
+          for (OffHeapDailyTable.Pending p : batch) {
+            day.getValue().ack(p.key, p.delta);
+          }
+          rows += batch.size();
+        } catch (Exception ex) {
+          allOk = false;
+          log.warn("sharded agg checkpoint batch failed: bizDate={}, size={}, err={}",
+              day.getKey(), batch.size(), ex.toString());
+        }
+      }
+    }
+    if (allOk) {
+      w.deleteBefore(mark);
+      dropOldDays();
+    }
+    metrics.recordShardedAggCheckpoint(allOk ? "ok" : "partial", rows, System.nanoTime() - startNs);
+  }
+
+  public void force() {
+    DailyAggWal w = wal;
+    if (w != null) {
+      w.force();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (wal == null) {
+      return;
+    }
+    try {
+      checkpoint();
+    } catch (Exception ex) {
+      log.warn("sharded agg final checkpoint failed, wal kept for replay: err={}", ex.toString());
+    }
+    force();
+  }
+
+  private OffHeapDailyTable tableFor(LocalDate bizDate) {
+    OffHeapDailyTable t = days.get(bizDate);
+    if (t == null) {
+      t = days.computeIfAbsent(bizDate, d -> new OffHeapDailyTable(props.getShardedAgg().getTableInitialSlots()));
+    }
+    return t;
+  }
+
+  // base 在锁外读库，并发的第一次访问可能各读一次，只有先插入的生效
+  private void ensureLoaded(OffHeapDailyTable table, byte[] key, String userId, String scene, LocalDate bizDate) {
+    if (table.contains(key)) {
+      return;
+    }
+    UserPlayDailyDO daily = dailyMapper.selectOne(userId, scene, bizDate);
+    table.insertIfAbsent(key, daily == null ? 0 : nz(daily.getTotalDuration()),
+        daily == null ? 0L : nzl(daily.getLastSyncTime()));
+  }
+
+  // 只保留当天和前一天；更早的表在增量都落库后丢弃（堆外内存随 ByteBuffer 回收）
+  private void dropOldDays() {
+    LocalDate keepFrom = LocalDate.now(ZoneId.of(props.getTimezone())).minusDays(1);
+    days.entrySet().removeIf(e -> e.getKey().isBefore(keepFrom) && e.getValue().pending().isEmpty());
+  }
+
+  private int keys() {
+    int n = 0;
+    for (OffHeapDailyTable t : days.values()) {
+      n += t.size();
+    }
+    return n;
+  }
+
+  private long offHeapBytes() {
+    long n = 0L;
+    for (OffHeapDailyTable t : days.values()) {
+      n += t.offHeapBytes();
+    }
+    return n;
+  }
+
+  private static final class StaleKey {
+    final String userId;
+    final String scene;
+    final LocalDate bizDate;
+
+    StaleKey(String userId, String scene, LocalDate bizDate) {
+      this.userId = userId;
+      this.scene = scene;
+      this.bizDate = bizDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof StaleKey)) {
+        return false;
+      }
+      StaleKey k = (StaleKey) o;
+      return userId.equals(k.userId) && scene.equals(k.scene) && bizDate.equals(k.bizDate);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(userId, scene, bizDate);
+    }
+  }
+
+  private static int nz(Integer v) {
+    return v == null ? 0 : v;
+  }
+
+  private static long nzl(Long v) {
+    return v == null ? 0L : v;
+  }
+}
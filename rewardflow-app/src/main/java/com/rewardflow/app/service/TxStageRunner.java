@@ -0,0 +1,74 @@
+package com.rewardflow.app.service;
+
+import com.rewardflow.app.metrics.RewardFlowMetrics;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 显式的短事务阶段：只把真正需要 MySQL 一致性的步骤（明细插入、MySQL 聚合、flow/outbox）包进事务
+ *
+ * <p>DataSourceTransactionManager 在事务开始时借出连接、提交/回滚后归还，
+ * 所以事务耗时基本就是连接占用时长：按 stage 记录 Timer，并按请求累计（见 {@link #openHoldWindow()}）
+ */
+@Component
+public class TxStageRunner {
+
+  // 当前请求累计的事务耗时（ns），未开启窗口时为 null
+  private static final ThreadLocal<long[]> HOLD = new ThreadLocal<>();
+
+  private final TransactionTemplate txTemplate;
+  // 总是新开事务：提交回调（afterCommit）里的写入不能加入已经提交的外层事务
+  private final TransactionTemplate newTxTemplate;
+  private final RewardFlowMetrics metrics;
+
+  public TxStageRunner(TransactionTemplate txTemplate, RewardFlowMetrics metrics) {
+    this.txTemplate = txTemplate;
+    this.newTxTemplate = new TransactionTemplate(txTemplate.getTransactionManager(), txTemplate);
+    this.newTxTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.metrics = metrics;
+  }
+
+  public <T> T inTx(String stage, Supplier<T> body) {
+    return execute(txTemplate, stage, body);
+  }
+
+  public void inTx(String stage, Runnable body) {
+    inTx(stage, () -> {
+      body.run();
+      return null;
+    });
+  }
+
+  /** 独立事务（REQUIRES_NEW），外层有事务时挂起它 */
+  public <T> T inNewTx(String stage, Supplier<T> body) {
+    return execute(newTxTemplate, stage, body);
+  }
+
+  private <T> T execute(TransactionTemplate template, String stage, Supplier<T> body) {
+    long start = System.nanoTime();
+    try {
+      return template.execute(status -> body.get());
+    } finally {
+      long cost = System.nanoTime() - start;
+      metrics.recordTxHold(stage, cost);
+      long[] acc = HOLD.get();
+      if (acc != null) {
+        acc[0] += cost;
+      }
+    }
+  }
+
+  /** 开始按请求累计连接占用时长 */
+  public void openHoldWindow() {
+    HOLD.set(new long[1]);
+  }
+
+  /** 结束累计并返回本请求在事务内的总耗时（ns） */
+  public long closeHoldWindow() {
+    long[] acc = HOLD.get();
+    HOLD.remove();
+    return acc == null ? 0L : acc[0];
+  }
+}
@@ -0,0 +1,55 @@
+package com.rewardflow.app.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 用户分片的一致性哈希环：每个节点放 virtualNodes 个虚拟点，userId 落在顺时针第一个点所属的节点
+ *
+ * <p>网关按同一个环（同样的节点名、虚拟点数与哈希）做粘滞路由；节点增减时只有相邻区间的用户换 owner
+ */
+final class UserShardRing {
+
+  private final TreeMap<Long, String> ring = new TreeMap<>();
+
+  UserShardRing(List<String> nodes, int virtualNodes) {
+    for (String node : nodes) {
+      if (node == null || node.isBlank()) {
+        continue;
+      }
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.put(hash(node.trim() + "#" + i), node.trim());
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    return ring.isEmpty();
+  }
+
+  /** userId 的 owner；环为空时返回 null */
+  String owner(String userId) {
+    if (ring.isEmpty()) {
+      return null;
+    }
+    Map.Entry<Long, String> e = ring.ceilingEntry(hash(userId));
+    return e != null ? e.getValue() : ring.firstEntry().getValue();
+  }
+
+  // FNV-1a 64 + murmur3 fmix64：分布均匀，网关侧容易复现
+  static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,6 @@
+-- 已发奖档位位图：prizeCode -> stage bitmask 的紧凑编码（见 AwardedStages#encode）
+-- NULL 表示未知（存量数据 / 只写过时长的行），需要从 reward_flow 重建；空串表示当天还没有发过奖
+-- reward_flow 仍然是事实来源，这一列只是预览用的派生数据
+
+ALTER TABLE user_play_daily
+  ADD COLUMN awarded_stage_mask VARCHAR(1024) NULL DEFAULT NULL AFTER version;
@@ -0,0 +1,152 @@
+package com.rewardflow.domain.feature.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 某个 scene 合并后的最终开关（不可变）
+ *
+ * <p>优先级：scene 配置 > 全局配置 > 默认 true。配置安装时按 scene 预先算好，
+ * 未配置的 scene 共用同一个只由全局开关得出的默认实例
+ */
+public final class EffectiveFeatures {
+
+  public static final String DEFAULT_AGG_STRATEGY = "auto";
+
+  private final boolean awardIssueEnabled;
+  private final boolean outboxPublishEnabled;
+  private final boolean reconcileEnabled;
+  private final boolean ruleSnapshotEnabled;
+  private final boolean ruleSimulationEnabled;
+  private final String aggStrategy;
+  private final boolean deferredAwardEnabled;
+
+  private EffectiveFeatures(FeatureCenterConfig cfg, FeatureCenterConfig.SceneFeature per) {
+    this.awardIssueEnabled = resolve(per == null ? null : per.getAwardIssueEnabled(), cfg.getAwardIssueEnabled());
+    this.outboxPublishEnabled = resolve(per == null ? null : per.getOutboxPublishEnabled(), cfg.getOutboxPublishEnabled());
+    this.reconcileEnabled = resolve(per == null ? null : per.getReconcileEnabled(), cfg.getReconcileEnabled());
+    this.ruleSnapshotEnabled = resolve(per == null ? null : per.getRuleSnapshotEnabled(), cfg.getRuleSnapshotEnabled());
+    this.ruleSimulationEnabled = resolve(per == null ? null : per.getRuleSimulationEnabled(), cfg.getRuleSimulationEnabled());
+    String strategy = per == null || per.getAggStrategy() == null ? cfg.getAggStrategy() : per.getAggStrategy();
+    this.aggStrategy = strategy == null ? DEFAULT_AGG_STRATEGY : strategy;
+    // 与其他开关不同，缺省关闭
+    Boolean deferred = per == null || per.getDeferredAwardEnabled() == null
+        ? cfg.getDeferredAwardEnabled() : per.getDeferredAwardEnabled();
+    this.deferredAwardEnabled = Boolean.TRUE.equals(deferred);
+  }
+
+  private static boolean resolve(Boolean scene, Boolean global) {
+    if (scene != null) return scene;
+    if (global != null) return global;
+    return true;
+  }
+
+  public boolean isAwardIssueEnabled() {
+    return awardIssueEnabled;
+  }
+
+  public boolean isOutboxPublishEnabled() {
+    return outboxPublishEnabled;
+  }
+
+  public boolean isReconcileEnabled() {
+    return reconcileEnabled;
+  }
+
+  public boolean isRuleSnapshotEnabled() {
+    return ruleSnapshotEnabled;
+  }
+
+  public boolean isRuleSimulationEnabled() {
+    return ruleSimulationEnabled;
+  }
+
+  /** 日聚合存储策略：scene 配置 > 全局配置 > auto */
+  public String getAggStrategy() {
+    return aggStrategy;
+  }
+
+  public boolean isDeferredAwardEnabled() {
+    return deferredAwardEnabled;
+  }
+
+  /** 一份配置对应的全部 scene 开关快照 */
+  public static final class Snapshot {
+    private final FeatureCenterConfig config;
+    private final EffectiveFeatures defaults;
+    private final Map<String, EffectiveFeatures> scenes;
+    private final long awardIssueChangedAtMs;
+
+    private Snapshot(FeatureCenterConfig config, EffectiveFeatures defaults, Map<String, EffectiveFeatures> scenes,
+                     long awardIssueChangedAtMs) {
+      this.config = config;
+      this.defaults = defaults;
+      this.scenes = scenes;
+      this.awardIssueChangedAtMs = awardIssueChangedAtMs;
+    }
+
+    /**
+     * @param previous 当前生效的快照（首次加载为 null），发奖开关没有变化时沿用它的 awardIssueChangedAt
+     * @param nowMs    本次安装时间
+     */
+    public static Snapshot of(FeatureCenterConfig cfg, Snapshot previous, long nowMs) {
+      EffectiveFeatures defaults = new EffectiveFeatures(cfg, null);
+      Map<String, EffectiveFeatures> scenes = new HashMap<>();
+      if (cfg.getScenes() != null) {
+        for (Map.Entry<String, FeatureCenterConfig.SceneFeature> e : cfg.getScenes().entrySet()) {
+          if (e.getKey() != null && e.getValue() != null) {
+            scenes.put(e.getKey(), new EffectiveFeatures(cfg, e.getValue()));
+          }
+        }
+      }
+      Snapshot snap = new Snapshot(cfg, defaults, Collections.unmodifiableMap(scenes), nowMs);
+      if (previous != null && snap.sameAwardIssue(previous)) {
+        return new Snapshot(cfg, defaults, snap.scenes, previous.awardIssueChangedAtMs);
+      }
+      return snap;
+    }
+
+    private boolean sameAwardIssue(Snapshot o) {
+      if (defaults.awardIssueEnabled != o.defaults.awardIssueEnabled) {
+        return false;
+      }
+      for (Map.Entry<String, EffectiveFeatures> e : scenes.entrySet()) {
+        if (e.getValue().awardIssueEnabled != o.forScene(e.getKey()).awardIssueEnabled) {
+          return false;
+        }
+      }
+      for (Map.Entry<String, EffectiveFeatures> e : o.scenes.entrySet()) {
+        if (e.getValue().awardIssueEnabled != forScene(e.getKey()).awardIssueEnabled) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** 任一 scene 的发奖开关最近一次变化（或本进程首次加载）的时间 */
+    public long getAwardIssueChangedAtMs() {
+      return awardIssueChangedAtMs;
+    }
+
+    /** 生成快照的原始配置，调用方不要修改 */
+    public FeatureCenterConfig getConfig() {
+      return config;
+    }
+
+    /** 未单独配置的 scene 使用的开关 */
+    public EffectiveFeatures getDefaults() {
+      return defaults;
+    }
+
+    /** 单独配置过的 scene */
+    public Map<String, EffectiveFeatures> getScenes() {
+      return scenes;
+    }
+
+    public EffectiveFeatures forScene(String scene) {
+      EffectiveFeatures eff = scene == null ? null : scenes.get(scene);
+      return eff == null ? defaults : eff;
+    }
+  }
+}
@@ -16,6 +16,8 @@ public class FeatureCenterConfig {
   private Boolean reconcileEnabled = true;    // 是否开启对账/补偿任务
   private Boolean ruleSnapshotEnabled = true; // 是否把规则快照落 mongo
   private Boolean ruleSimulationEnabled = true; // 是否允许规则模拟（运营）
+  private String aggStrategy;                   // 日聚合存储策略：auto | mysql | redis | memory，缺省 auto
+  private Boolean deferredAwardEnabled;         // 是否异步发奖（上报只落库 + 聚合，发奖预览/发奖由后台批量处理），缺省 false
 
   /** 按场景覆盖 (optional) 
    * e.g. {"audio_play": { "awardIssueEnabled": false }, "SCENE_B": { "outboxPublishEnabled": false } }
@@ -62,6 +64,22 @@ public class FeatureCenterConfig {
     this.ruleSimulationEnabled = ruleSimulationEnabled;
   }
 
+  public String getAggStrategy() {
+    return aggStrategy;
+  }
+
+  public void setAggStrategy(String aggStrategy) {
+    this.aggStrategy = aggStrategy;
+  }
+
+  public Boolean getDeferredAwardEnabled() {
+    return deferredAwardEnabled;
+  }
+
+  public void setDeferredAwardEnabled(Boolean deferredAwardEnabled) {
+    this.deferredAwardEnabled = deferredAwardEnabled;
+  }
+
   public Map<String, SceneFeature> getScenes() {
     return scenes;
   }
@@ -76,6 +94,8 @@ public class FeatureCenterConfig {
     private Boolean reconcileEnabled;
     private Boolean ruleSnapshotEnabled;
     private Boolean ruleSimulationEnabled;
+    private String aggStrategy;
+    private Boolean deferredAwardEnabled;
 
     public Boolean getAwardIssueEnabled() {
       return awardIssueEnabled;
@@ -116,5 +136,21 @@ public class FeatureCenterConfig {
     public void setRuleSimulationEnabled(Boolean ruleSimulationEnabled) {
       this.ruleSimulationEnabled = ruleSimulationEnabled;
     }
+
+    public String getAggStrategy() {
+      return aggStrategy;
+    }
+
+    public void setAggStrategy(String aggStrategy) {
+      this.aggStrategy = aggStrategy;
+    }
+
+    public Boolean getDeferredAwardEnabled() {
+      return deferredAwardEnabled;
+    }
+
+    public void setDeferredAwardEnabled(Boolean deferredAwardEnabled) {
+      this.deferredAwardEnabled = deferredAwardEnabled;
+    }
   }
 }
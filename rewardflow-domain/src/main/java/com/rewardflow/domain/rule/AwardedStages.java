@@ -0,0 +1,122 @@
+package com.rewardflow.domain.rule;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 已发奖档位集合：prizeCode -> stage 位图，判重时不需要把 stage 装箱
+ *
+ * <p>可以编码成紧凑文本（{@link #encode()}），存在 user_play_daily.awarded_stage_mask 和 Redis 聚合 hash 里，
+ * 格式为 {@code prizeCode:hex[.hex...];...}，hex 是 BitSet 的 long 字（低位在前），空串表示当天还没有发过奖；
+ * 同一个 prizeCode 可以出现多段（库里按档位追加），解码时按位或合并
+ */
+public final class AwardedStages {
+
+  private static final AwardedStages NONE = new AwardedStages(Map.of());
+
+  private final Map<String, BitSet> byPrizeCode;
+
+  public AwardedStages() {
+    this(new HashMap<>());
+  }
+
+  private AwardedStages(Map<String, BitSet> byPrizeCode) {
+    this.byPrizeCode = byPrizeCode;
+  }
+
+  /** 空集合（只读） */
+  public static AwardedStages none() {
+    return NONE;
+  }
+
+  public AwardedStages add(String prizeCode, int stage) {
+    if (prizeCode == null || stage < 0) {
+      return this;
+    }
+    byPrizeCode.computeIfAbsent(prizeCode, k -> new BitSet()).set(stage);
+    return this;
+  }
+
+  /** 把 other 的档位并进来 */
+  public AwardedStages addAll(AwardedStages other) {
+    if (other == null) {
+      return this;
+    }
+    for (Map.Entry<String, BitSet> e : other.byPrizeCode.entrySet()) {
+      byPrizeCode.computeIfAbsent(e.getKey(), k -> new BitSet()).or(e.getValue());
+    }
+    return this;
+  }
+
+  /** 已发档位总数；位图只增不减，个数越多的编码越新 */
+  public int cardinality() {
+    int n = 0;
+    for (BitSet bits : byPrizeCode.values()) {
+      n += bits.cardinality();
+    }
+    return n;
+  }
+
+  public String encode() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, BitSet> e : new TreeMap<>(byPrizeCode).entrySet()) {
+      long[] words = e.getValue().toLongArray();
+      if (words.length == 0) {
+        continue;
+      }
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append(e.getKey()).append(':');
+      for (int i = 0; i < words.length; i++) {
+        if (i > 0) {
+          sb.append('.');
+        }
+        sb.append(Long.toHexString(words[i]));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * 解析 {@link #encode()} 的结果
+   *
+   * @return null 表示入参为 null 或格式不对，调用方需要从 reward_flow 重建
+   */
+  public static AwardedStages decode(String encoded) {
+    if (encoded == null) {
+      return null;
+    }
+    AwardedStages out = new AwardedStages();
+    if (encoded.isEmpty()) {
+      return out;
+    }
+    try {
+      for (String entry : encoded.split(";")) {
+        int idx = entry.lastIndexOf(':');
+        if (idx <= 0) {
+          return null;
+        }
+        String[] hex = entry.substring(idx + 1).split("\\.");
+        long[] words = new long[hex.length];
+        for (int i = 0; i < hex.length; i++) {
+          words[i] = Long.parseUnsignedLong(hex[i], 16);
+        }
+        out.byPrizeCode.computeIfAbsent(entry.substring(0, idx), k -> new BitSet()).or(BitSet.valueOf(words));
+      }
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+    return out;
+  }
+
+  public boolean contains(String prizeCode, int stage) {
+    if (stage < 0) {
+      return false;
+    }
+    BitSet bits = byPrizeCode.get(prizeCode);
+    return bits != null && bits.get(stage);
+  }
+}
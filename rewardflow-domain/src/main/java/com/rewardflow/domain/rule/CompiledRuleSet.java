@@ -0,0 +1,298 @@
+package com.rewardflow.domain.rule;
+
+import com.rewardflow.domain.rule.model.RuleCenterConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 规则中心配置的编译形态：配置被接受（Nacos 更新 / 本地兜底）时编译一次，之后只读
+ *
+ * <ul>
+ *   <li>scene -> {@link CompiledScene}，scene 内 ruleVersion -> {@link CompiledRuleVersion}，都是 O(1) 查找</li>
+ *   <li>灰度表达式在这里通过 {@link GrayMatcher.Compiler} 预编译，请求期不再解析表达式</li>
+ *   <li>每个版本的档位预先排好序（threshold 升序，相同 threshold 按 stage 升序），非法档位在编译期剔除，
+ *       用原始 int 数组保存，计算时二分找到最高已达档位，不再拷贝 / 排序 / 装箱</li>
+ * </ul>
+ *
+ * <p>实例不可变，调用方通过 AtomicReference 整体替换。每个 scene 记录规则内容最近一次变化的时间
+ * （{@link CompiledScene#getChangedAtMs()}），内容没变的 scene 沿用上一份的时间
+ */
+public final class CompiledRuleSet {
+
+  private static final Logger log = LoggerFactory.getLogger(CompiledRuleSet.class);
+
+  private static final CompiledRuleSet EMPTY = new CompiledRuleSet(new RuleCenterConfig(), Map.of());
+
+  private final RuleCenterConfig source;
+  private final Map<String, CompiledScene> scenes;
+
+  private CompiledRuleSet(RuleCenterConfig source, Map<String, CompiledScene> scenes) {
+    this.source = source;
+    this.scenes = scenes;
+  }
+
+  public static CompiledRuleSet empty() {
+    return EMPTY;
+  }
+
+  /**
+   * 编译配置；null 的 scene / 版本 / 档位会被跳过（兜底配置不走校验，这里需要容错）
+   *
+   * @param grayCompiler 灰度表达式编译器，为 null 时所有 scene 都不走灰度
+   * @param previous     当前生效的编译结果（首次加载为 null），用来判断 scene 规则是否变化
+   * @param nowMs        本次安装时间，作为变化了的 scene 的 changedAt
+   */
+  public static CompiledRuleSet compile(RuleCenterConfig cfg, GrayMatcher.Compiler grayCompiler,
+                                        CompiledRuleSet previous, long nowMs) {
+    if (cfg == null) {
+      return EMPTY;
+    }
+    Map<String, CompiledScene> scenes = new HashMap<>();
+    if (cfg.getScenes() != null) {
+      for (Map.Entry<String, RuleCenterConfig.SceneRuleSet> e : cfg.getScenes().entrySet()) {
+        if (e.getKey() == null || e.getValue() == null) {
+          continue;
+        }
+        CompiledScene cs = compileScene(e.getKey(), e.getValue(), grayCompiler, nowMs);
+        CompiledScene old = previous == null ? null : previous.scene(e.getKey());
+        if (old != null && old.sameRules(cs)) {
+          cs = cs.withChangedAt(old.changedAtMs);
+        }
+        scenes.put(e.getKey(), cs);
+      }
+    }
+    return new CompiledRuleSet(cfg, Collections.unmodifiableMap(scenes));
+  }
+
+  /** 编译前的原始配置（规则查询接口 / 快照用），调用方不要修改 */
+  public RuleCenterConfig getSource() {
+    return source;
+  }
+
+  public CompiledScene scene(String scene) {
+    return scene == null ? null : scenes.get(scene);
+  }
+
+  private static CompiledScene compileScene(String scene, RuleCenterConfig.SceneRuleSet set,
+                                            GrayMatcher.Compiler grayCompiler, long nowMs) {
+    Map<String, CompiledRuleVersion> versions = new HashMap<>();
+    if (set.getRules() != null) {
+      for (RuleCenterConfig.RuleVersion rv : set.getRules()) {
+        if (rv == null || rv.getRuleVersion() == null) {
+          continue;
+        }
+        // 与原来线性查找的语义一致：重复版本取第一个
+        versions.putIfAbsent(rv.getRuleVersion(), compileVersion(rv));
+      }
+    }
+    GrayMatcher grayMatcher = GrayMatcher.NEVER;
+    RuleCenterConfig.GrayRule gray = set.getGray();
+    if (grayCompiler != null && gray != null && gray.isEnabled()
+        && gray.getExpr() != null && !gray.getExpr().isBlank()
+        && gray.getTargetRuleVersion() != null && !gray.getTargetRuleVersion().isBlank()) {
+      GrayMatcher compiled = grayCompiler.compile(scene, gray);
+      grayMatcher = compiled == null ? GrayMatcher.NEVER : compiled;
+    }
+    return new CompiledScene(scene, set.getActiveRuleVersion(), gray, grayMatcher,
+        Collections.unmodifiableMap(versions), nowMs);
+  }
+
+  private static CompiledRuleVersion compileVersion(RuleCenterConfig.RuleVersion rv) {
+    List<RuleCenterConfig.StageRule> valid = new ArrayList<>();
+    if (rv.getStages() != null) {
+      for (RuleCenterConfig.StageRule sr : rv.getStages()) {
+        if (sr == null) {
+          log.warn("skip null stageRule in ruleVersion={}", rv.getRuleVersion());
+          continue;
+        }
+        // 非法值校验：stage/threshold 必须 > 0
+        if (sr.getStage() <= 0 || sr.getThreshold() <= 0) {
+          log.warn("skip invalid stageRule: ruleVersion={}, stage={}, threshold={}, amount={}, prizeCode={}",
+              rv.getRuleVersion(), sr.getStage(), sr.getThreshold(), sr.getAmount(), sr.getPrizeCode());
+          continue;
+        }
+        // 避免发 0 或负数
+        if (sr.getAmount() <= 0) {
+          log.warn("skip invalid stageRule amount<=0: ruleVersion={}, stage={}, threshold={}, amount={}, prizeCode={}",
+              rv.getRuleVersion(), sr.getStage(), sr.getThreshold(), sr.getAmount(), sr.getPrizeCode());
+          continue;
+        }
+        valid.add(sr);
+      }
+    }
+    valid.sort(Comparator
+        .comparingInt(RuleCenterConfig.StageRule::getThreshold)
+        .thenComparingInt(RuleCenterConfig.StageRule::getStage));
+
+    int n = valid.size();
+    int[] thresholds = new int[n];
+    int[] stages = new int[n];
+    int[] amounts = new int[n];
+    String[] prizeCodes = new String[n];
+    for (int i = 0; i < n; i++) {
+      RuleCenterConfig.StageRule sr = valid.get(i);
+      thresholds[i] = sr.getThreshold();
+      stages[i] = sr.getStage();
+      amounts[i] = sr.getAmount();
+      String pc = sr.getPrizeCode();
+      // 为空时计算期用调用方给的默认 prizeCode
+      prizeCodes[i] = pc == null || pc.isBlank() ? null : pc.trim();
+    }
+    return new CompiledRuleVersion(rv, thresholds, stages, amounts, prizeCodes);
+  }
+
+  /** 单个 scene 的编译结果 */
+  public static final class CompiledScene {
+    private final String scene;
+    private final String activeRuleVersion;
+    private final RuleCenterConfig.GrayRule gray;
+    private final GrayMatcher grayMatcher;
+    private final Map<String, CompiledRuleVersion> versions;
+    private final long changedAtMs;
+
+    private CompiledScene(String scene, String activeRuleVersion, RuleCenterConfig.GrayRule gray,
+                          GrayMatcher grayMatcher, Map<String, CompiledRuleVersion> versions, long changedAtMs) {
+      this.scene = scene;
+      this.activeRuleVersion = activeRuleVersion;
+      this.gray = gray;
+      this.grayMatcher = grayMatcher;
+      this.versions = versions;
+      this.changedAtMs = changedAtMs;
+    }
+
+    private CompiledScene withChangedAt(long changedAtMs) {
+      return new CompiledScene(scene, activeRuleVersion, gray, grayMatcher, versions, changedAtMs);
+    }
+
+    /** active 版本、灰度配置、各版本的有效档位都相同 */
+    private boolean sameRules(CompiledScene o) {
+      if (!Objects.equals(activeRuleVersion, o.activeRuleVersion)
+          || hasGray() != o.hasGray()
+          || !versions.keySet().equals(o.versions.keySet())) {
+        return false;
+      }
+      if (hasGray() && (!Objects.equals(gray.getExpr(), o.gray.getExpr())
+          || !Objects.equals(gray.getTargetRuleVersion(), o.gray.getTargetRuleVersion()))) {
+        return false;
+      }
+      for (Map.Entry<String, CompiledRuleVersion> e : versions.entrySet()) {
+        if (!e.getValue().sameStages(o.versions.get(e.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** 本 scene 规则内容最近一次变化（或本进程首次加载）的时间 */
+    public long getChangedAtMs() {
+      return changedAtMs;
+    }
+
+    public String getScene() {
+      return scene;
+    }
+
+    public String getActiveRuleVersion() {
+      return activeRuleVersion;
+    }
+
+    public RuleCenterConfig.GrayRule getGray() {
+      return gray;
+    }
+
+    /** 灰度开启且表达式、目标版本都已配置 */
+    public boolean hasGray() {
+      return grayMatcher != GrayMatcher.NEVER;
+    }
+
+    public GrayMatcher getGrayMatcher() {
+      return grayMatcher;
+    }
+
+    public CompiledRuleVersion version(String ruleVersion) {
+      return ruleVersion == null ? null : versions.get(ruleVersion);
+    }
+  }
+
+  /** 单个规则版本的编译结果：按 threshold 升序排列的并行数组 */
+  public static final class CompiledRuleVersion {
+    private final RuleCenterConfig.RuleVersion source;
+    private final int[] thresholds;
+    private final int[] stages;
+    private final int[] amounts;
+    private final String[] prizeCodes;
+
+    private CompiledRuleVersion(RuleCenterConfig.RuleVersion source, int[] thresholds, int[] stages,
+                                int[] amounts, String[] prizeCodes) {
+      this.source = source;
+      this.thresholds = thresholds;
+      this.stages = stages;
+      this.amounts = amounts;
+      this.prizeCodes = prizeCodes;
+    }
+
+    public RuleCenterConfig.RuleVersion getSource() {
+      return source;
+    }
+
+    private boolean sameStages(CompiledRuleVersion o) {
+      return o != null
+          && Arrays.equals(thresholds, o.thresholds)
+          && Arrays.equals(stages, o.stages)
+          && Arrays.equals(amounts, o.amounts)
+          && Arrays.equals(prizeCodes, o.prizeCodes);
+    }
+
+    public String getRuleVersion() {
+      return source.getRuleVersion();
+    }
+
+    /** 有效档位数 */
+    public int size() {
+      return thresholds.length;
+    }
+
+    /**
+     * totalDuration 已达到的档位数：下标 [0, n) 的档位都满足 threshold <= totalDuration
+     */
+    public int reachedCount(int totalDuration) {
+      int lo = 0;
+      int hi = thresholds.length;
+      // 第一个 threshold > totalDuration 的位置
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (thresholds[mid] <= totalDuration) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    public int thresholdAt(int i) {
+      return thresholds[i];
+    }
+
+    public int stageAt(int i) {
+      return stages[i];
+    }
+
+    public int amountAt(int i) {
+      return amounts[i];
+    }
+
+    /** 档位上配置的 prizeCode，未配置时为 null */
+    public String prizeCodeAt(int i) {
+      return prizeCodes[i];
+    }
+  }
+}
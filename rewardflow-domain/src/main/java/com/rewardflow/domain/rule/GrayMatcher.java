@@ -0,0 +1,23 @@
+package com.rewardflow.domain.rule;
+
+import com.rewardflow.domain.rule.model.RuleCenterConfig;
+
+/**
+ * 预编译的灰度判断：配置加载时由 {@link Compiler} 生成，挂在 {@link CompiledRuleSet.CompiledScene} 上
+ */
+public interface GrayMatcher {
+
+  /** 灰度关闭 / 表达式不可用时使用：永远不命中 */
+  GrayMatcher NEVER = (uidBucket, userId) -> false;
+
+  /**
+   * @param uidBucket 业务灰度分桶（0~99）
+   * @param userId    原始 userId
+   */
+  boolean matches(int uidBucket, String userId);
+
+  /** 把 scene 的灰度配置编译成 matcher；表达式引擎在应用层，domain 只依赖这个接口 */
+  interface Compiler {
+    GrayMatcher compile(String scene, RuleCenterConfig.GrayRule gray);
+  }
+}
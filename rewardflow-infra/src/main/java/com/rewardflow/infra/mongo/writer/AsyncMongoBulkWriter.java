@@ -0,0 +1,201 @@
+package com.rewardflow.infra.mongo.writer;
+
+import com.mongodb.MongoBulkWriteException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 有界、攒批的异步 Mongo 写入器，用于 best-effort 的日志类文档（AwardAuditLog / RuleSimulationLog / RiskEvent）
+ *
+ * <ul>
+ *   <li>业务线程只做一次 offer，不等 Mongo；队列满直接丢弃并计数，绝不阻塞上报链路</li>
+ *   <li>单个后台线程按 batchSize 或 flushIntervalMs 攒批，按实体类型分组 insertMany(ordered=false)</li>
+ *   <li>停机时停止接收新文档并在 shutdownTimeoutMs 内把队列刷完</li>
+ * </ul>
+ */
+@Component
+public class AsyncMongoBulkWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncMongoBulkWriter.class);
+
+  private final MongoTemplate mongoTemplate;
+  private final MongoBulkWriterProperties props;
+  private final ObjectProvider<MongoBulkWriterListener> listenerProvider;
+  private final BlockingQueue<Object> queue;
+
+  private volatile boolean running;
+  private volatile List<MongoBulkWriterListener> listeners = List.of();
+  private Thread worker;
+
+  public AsyncMongoBulkWriter(MongoTemplate mongoTemplate,
+                              MongoBulkWriterProperties props,
+                              ObjectProvider<MongoBulkWriterListener> listenerProvider) {
+    this.mongoTemplate = mongoTemplate;
+    this.props = props;
+    this.listenerProvider = listenerProvider;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, props.getQueueCapacity()));
+  }
+
+  @PostConstruct
+  public void start() {
+    listeners = listenerProvider.orderedStream().toList();
+    for (MongoBulkWriterListener l : listeners) {
+      l.bindQueue(queue::size, Math.max(1, props.getQueueCapacity()));
+    }
+    if (!props.isEnabled()) {
+      log.info("async mongo writer disabled, documents are inserted synchronously");
+      return;
+    }
+    running = true;
+    worker = new Thread(this::runLoop, "rf-mongo-writer");
+    worker.setDaemon(true);
+    worker.start();
+    log.info("async mongo writer started: queueCapacity={}, batchSize={}, flushIntervalMs={}",
+        props.getQueueCapacity(), props.getBatchSize(), props.getFlushIntervalMs());
+  }
+
+  /**
+   * 提交一条文档（best-effort）
+   *
+   * @return 是否入队；false 表示被丢弃
+   */
+  public boolean submit(Object doc) {
+    if (doc == null) {
+      return false;
+    }
+    if (!props.isEnabled()) {
+      try {
+        mongoTemplate.insert(doc);
+        return true;
+      } catch (Exception ex) {
+        log.debug("mongo insert failed: type={}", doc.getClass().getSimpleName(), ex);
+        return false;
+      }
+    }
+    if (running && queue.offer(doc)) {
+      return true;
+    }
+    String collection = collectionOf(doc.getClass());
+    for (MongoBulkWriterListener l : listeners) {
+      safe(() -> l.onDrop(collection));
+    }
+    return false;
+  }
+
+  public int queueDepth() {
+    return queue.size();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (worker == null) {
+      return;
+    }
+    running = false;
+    try {
+      worker.join(Math.max(0L, props.getShutdownTimeoutMs()));
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    }
+    if (worker.isAlive()) {
+      worker.interrupt();
+      log.warn("async mongo writer drain timed out: remaining={}", queue.size());
+    } else {
+      log.info("async mongo writer drained");
+    }
+  }
+
+  private void runLoop() {
+    int batchSize = Math.max(1, props.getBatchSize());
+    long intervalNs = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, props.getFlushIntervalMs()));
+    List<Object> buf = new ArrayList<>(batchSize);
+    long deadline = 0L;
+
+    while (running || !queue.isEmpty()) {
+      try {
+        long waitNs = buf.isEmpty() ? intervalNs : Math.max(0L, deadline - System.nanoTime());
+        Object first = queue.poll(waitNs, TimeUnit.NANOSECONDS);
+        if (first != null) {
+          if (buf.isEmpty()) {
+            deadline = System.nanoTime() + intervalNs;
+          }
+          buf.add(first);
+          queue.drainTo(buf, batchSize - buf.size());
+        }
+      } catch (InterruptedException ie) {
+        // 停机超时被打断：把手上的批次刷掉后退出
+        break;
+      }
+      if (!buf.isEmpty() && (buf.size() >= batchSize || System.nanoTime() >= deadline || !running)) {
+        flush(buf);
+        buf.clear();
+      }
+    }
+    if (!buf.isEmpty()) {
+      flush(buf);
+    }
+  }
+
+  private void flush(List<Object> batch) {
+    // 按实体类型分组，一个集合一次 insertMany
+    Map<Class<?>, List<Object>> byType = new LinkedHashMap<>();
+    for (Object doc : batch) {
+      byType.computeIfAbsent(doc.getClass(), k -> new ArrayList<>()).add(doc);
+    }
+    for (Map.Entry<Class<?>, List<Object>> e : byType.entrySet()) {
+      String collection = collectionOf(e.getKey());
+      List<Object> docs = e.getValue();
+      long start = System.nanoTime();
+      int failed = 0;
+      try {
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, e.getKey())
+            .insert(docs)
+            .execute();
+      } catch (BulkOperationException bex) {
+        failed = bex.getErrors() == null ? docs.size() : bex.getErrors().size();
+        log.warn("mongo bulk insert partially failed: collection={}, size={}, failed={}", collection, docs.size(), failed);
+      } catch (MongoBulkWriteException bex) {
+        failed = bex.getWriteErrors() == null ? docs.size() : bex.getWriteErrors().size();
+        log.warn("mongo bulk insert partially failed: collection={}, size={}, failed={}", collection, docs.size(), failed);
+      } catch (Exception ex) {
+        failed = docs.size();
+        log.warn("mongo bulk insert failed: collection={}, size={}, err={}", collection, docs.size(), ex.toString());
+      }
+      long cost = System.nanoTime() - start;
+      int failedCount = failed;
+      for (MongoBulkWriterListener l : listeners) {
+        safe(() -> l.onFlush(collection, docs.size(), failedCount, cost));
+      }
+    }
+  }
+
+  private String collectionOf(Class<?> type) {
+    try {
+      return mongoTemplate.getCollectionName(type);
+    } catch (Exception ex) {
+      return type.getSimpleName();
+    }
+  }
+
+  private static void safe(Runnable r) {
+    try {
+      r.run();
+    } catch (Exception ignore) {
+      // best-effort
+    }
+  }
+}
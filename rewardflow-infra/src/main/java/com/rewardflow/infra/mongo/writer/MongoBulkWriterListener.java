@@ -0,0 +1,20 @@
+package com.rewardflow.infra.mongo.writer;
+
+import java.util.function.IntSupplier;
+
+/**
+ * {@link AsyncMongoBulkWriter} 的观测回调，由 app 层实现并接到 metrics（infra 不依赖 metrics）
+ *
+ * <p>collection 取值为 Mongo 集合名，低基数，可以直接当 tag
+ */
+public interface MongoBulkWriterListener {
+
+  /** writer 启动时注册队列深度的读取方式 */
+  default void bindQueue(IntSupplier depth, int capacity) {}
+
+  /** 队列满被丢弃的一条文档 */
+  default void onDrop(String collection) {}
+
+  /** 一次 insertMany 完成（failed 为写入失败的文档数） */
+  default void onFlush(String collection, int size, int failed, long costNanos) {}
+}
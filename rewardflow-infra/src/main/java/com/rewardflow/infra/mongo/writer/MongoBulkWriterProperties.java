@@ -0,0 +1,65 @@
+package com.rewardflow.infra.mongo.writer;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 异步批量 Mongo 写入（审计 / 模拟日志 / 风控事件）
+ */
+@ConfigurationProperties(prefix = "rewardflow.mongo-writer")
+public class MongoBulkWriterProperties {
+
+  /** 关闭后退化为调用线程同步 insert（仍然 best-effort） */
+  private boolean enabled = true;
+
+  /** 队列容量，满了直接丢弃并计数 */
+  private int queueCapacity = 10_000;
+
+  /** 单次 insertMany 的最大文档数 */
+  private int batchSize = 500;
+
+  /** 攒批最长等待时间：第一条进入批次后最多等这么久就刷 */
+  private long flushIntervalMs = 200L;
+
+  /** 优雅停机时等待队列排空的最长时间 */
+  private long shutdownTimeoutMs = 5_000L;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public long getFlushIntervalMs() {
+    return flushIntervalMs;
+  }
+
+  public void setFlushIntervalMs(long flushIntervalMs) {
+    this.flushIntervalMs = flushIntervalMs;
+  }
+
+  public long getShutdownTimeoutMs() {
+    return shutdownTimeoutMs;
+  }
+
+  public void setShutdownTimeoutMs(long shutdownTimeoutMs) {
+    this.shutdownTimeoutMs = shutdownTimeoutMs;
+  }
+}
@@ -0,0 +1,64 @@
+package com.rewardflow.infra.mysql.entity;
+
+import java.time.LocalDate;
+
+/**
+ * One row of a batched incremental write to user_play_daily.
+ */
+public class PlayDailyDelta {
+  private String userId;
+  private String bizScene;
+  private LocalDate bizDate;
+  private Integer deltaDuration;
+  private Long maxSyncTime;
+  // 负数修正量的条件更新用：预留时 Redis 里的 base_total
+  private Integer expectedTotal;
+
+  public String getUserId() {
+    return userId;
+  }
+
+  public void setUserId(String userId) {
+    this.userId = userId;
+  }
+
+  public String getBizScene() {
+    return bizScene;
+  }
+
+  public void setBizScene(String bizScene) {
+    this.bizScene = bizScene;
+  }
+
+  public LocalDate getBizDate() {
+    return bizDate;
+  }
+
+  public void setBizDate(LocalDate bizDate) {
+    this.bizDate = bizDate;
+  }
+
+  public Integer getDeltaDuration() {
+    return deltaDuration;
+  }
+
+  public void setDeltaDuration(Integer deltaDuration) {
+    this.deltaDuration = deltaDuration;
+  }
+
+  public Long getMaxSyncTime() {
+    return maxSyncTime;
+  }
+
+  public void setMaxSyncTime(Long maxSyncTime) {
+    this.maxSyncTime = maxSyncTime;
+  }
+
+  public Integer getExpectedTotal() {
+    return expectedTotal;
+  }
+
+  public void setExpectedTotal(Integer expectedTotal) {
+    this.expectedTotal = expectedTotal;
+  }
+}
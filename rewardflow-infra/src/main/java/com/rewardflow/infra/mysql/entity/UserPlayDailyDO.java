@@ -14,6 +14,8 @@ public class UserPlayDailyDO {
   private Integer totalDuration;
   private Long lastSyncTime;
   private Integer version;
+  /** 已发奖档位位图编码，null 表示未知 */
+  private String awardedStageMask;
   private LocalDateTime createTime;
   private LocalDateTime updateTime;
 
@@ -88,4 +90,12 @@ public class UserPlayDailyDO {
   public void setUpdateTime(LocalDateTime updateTime) {
     this.updateTime = updateTime;
   }
+
+  public String getAwardedStageMask() {
+    return awardedStageMask;
+  }
+
+  public void setAwardedStageMask(String awardedStageMask) {
+    this.awardedStageMask = awardedStageMask;
+  }
 }
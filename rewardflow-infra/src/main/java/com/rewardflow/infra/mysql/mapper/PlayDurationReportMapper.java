@@ -3,6 +3,7 @@ package com.rewardflow.infra.mysql.mapper;
 import com.rewardflow.infra.mysql.entity.PlayDurationReportDO;
 import com.rewardflow.infra.mysql.entity.PlayReportAggResult;
 import java.time.LocalDate;
+import java.util.List;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -11,6 +12,12 @@ public interface PlayDurationReportMapper {
 
   int insert(PlayDurationReportDO record);
 
+  /**
+   * 多行插入明细（批量上报），回填自增 id
+   * 任意一行触发 uk_user_sound_synctime 冲突时整条语句失败（InnoDB 语句级回滚），由调用方降级为逐条插入
+   */
+  int insertBatch(@Param("records") List<PlayDurationReportDO> records);
+
   /**
    * 增量聚合：对 lastSyncTime 之后的记录做聚合
    * 计算 duration 的总和（sum（duration））以及最新的 sync_time（max(sync_time)）
@@ -1,7 +1,9 @@
 package com.rewardflow.infra.mysql.mapper;
 
+import com.rewardflow.infra.mysql.entity.PlayDailyDelta;
 import com.rewardflow.infra.mysql.entity.UserPlayDailyDO;
 import java.time.LocalDate;
+import java.util.List;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -33,4 +35,32 @@ public interface UserPlayDailyMapper {
                      @Param("bizDate") LocalDate bizDate,
                      @Param("deltaDuration") int deltaDuration,
                      @Param("maxSyncTime") long maxSyncTime);
+
+  // 多行增量写入（flush 批量刷写用，口径同 upsertAddDelta）
+  int batchUpsertAddDelta(@Param("rows") List<PlayDailyDelta> rows);
+
+  // 负数修正（Redis 聚合撤销已刷回的增量），不受 last_sync_time 水位限制，按 expectedTotal 条件更新，返回 0 表示没扣
+  int applyCorrection(PlayDailyDelta row);
+
+  // 按 (userId, bizScene, bizDate) 批量查询汇总记录
+  List<UserPlayDailyDO> selectBatch(@Param("rows") List<PlayDailyDelta> rows);
+
+  // 把一个档位并进已发奖档位位图（单条 upsert，位图为 NULL 时写 initMask，否则追加 stageMask）
+  int mergeAwardedStageMask(@Param("userId") String userId,
+                            @Param("bizScene") String bizScene,
+                            @Param("bizDate") LocalDate bizDate,
+                            @Param("initMask") String initMask,
+                            @Param("stageMask") String stageMask);
+
+  // 覆盖写入已发奖档位位图
+  int upsertAwardedStageMask(@Param("userId") String userId,
+                             @Param("bizScene") String bizScene,
+                             @Param("bizDate") LocalDate bizDate,
+                             @Param("mask") String mask);
+
+  // 位图为 NULL 时回填（从 reward_flow 重建的结果）
+  int fillAwardedStageMaskIfAbsent(@Param("userId") String userId,
+                                   @Param("bizScene") String bizScene,
+                                   @Param("bizDate") LocalDate bizDate,
+                                   @Param("mask") String mask);
 }